@@ -0,0 +1,90 @@
+package com.winlator.xserver
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.random.Random
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+
+/**
+ * Runs on a device because Drawable needs the native library. Compares a 200-rectangle
+ * PolyFillRectangle drawn rectangle by rectangle (the previous request handler) with the batched
+ * request path, which notifies once per request.
+ */
+@RunWith(AndroidJUnit4::class)
+class PolyFillRectangleBenchmark {
+
+    private fun createRequest(count: Int, order: ByteOrder): ByteBuffer {
+        val random = Random(5)
+        val rects = ByteBuffer.allocateDirect(count * 8).order(order)
+        repeat(count) {
+            rects.putShort(random.nextInt(-20, 1000).toShort())
+            rects.putShort(random.nextInt(-20, 740).toShort())
+            rects.putShort(random.nextInt(1, 120).toShort())
+            rects.putShort(random.nextInt(1, 40).toShort())
+        }
+        rects.flip()
+        return rects
+    }
+
+    @Test
+    fun batchedFill_respectsFunctionAndNotifiesOnce() {
+        val drawable = Drawable(0, 64, 64, null)
+        var updates = 0
+        drawable.setOnDrawListener { updates++ }
+        drawable.fillColor(0x00ff00)
+        updates = 0
+
+        val rects = ByteBuffer.allocateDirect(16).order(ByteOrder.BIG_ENDIAN)
+        shortArrayOf(-4, -4, 8, 8, 60, 60, 10, 10).forEach { rects.putShort(it) }
+        rects.flip()
+        drawable.fillRects(rects, 2, 0xff00ff, GraphicsContext.Function.XOR)
+
+        assertEquals(1, updates)
+        val data = drawable.data.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+        assertEquals(0xffffffff.toInt(), data.getInt((3 * 64 + 3) * 4))
+        assertEquals(0xff00ff00.toInt(), data.getInt((4 * 64 + 4) * 4))
+        assertEquals(0xffffffff.toInt(), data.getInt((63 * 64 + 63) * 4))
+    }
+
+    @Test
+    fun benchmark_polyFillRectangle200() {
+        val drawable = Drawable(0, 1024, 768, null)
+        var updates = 0
+        drawable.setOnDrawListener { updates++ }
+        val rects = createRequest(200, ByteOrder.LITTLE_ENDIAN)
+        val requests = 2_000
+
+        val perRect = Runnable {
+            for (i in 0 until 200) {
+                val offset = i * 8
+                drawable.fillRect(rects.getShort(offset).toInt(), rects.getShort(offset + 2).toInt(), rects.getShort(offset + 4).toInt(), rects.getShort(offset + 6).toInt(), 0x336699)
+            }
+        }
+        val batched = Runnable { drawable.fillRects(rects, 200, 0x336699, GraphicsContext.Function.COPY) }
+
+        repeat(200) {
+            perRect.run()
+            batched.run()
+        }
+
+        updates = 0
+        var start = System.nanoTime()
+        repeat(requests) { perRect.run() }
+        val perRectSeconds = (System.nanoTime() - start) / 1e9
+        val perRectUpdates = updates
+
+        updates = 0
+        start = System.nanoTime()
+        repeat(requests) { batched.run() }
+        val batchedSeconds = (System.nanoTime() - start) / 1e9
+
+        assertEquals(requests, updates)
+        println(
+            "PolyFillRectangle(200): per-rect ${(requests / perRectSeconds).toInt()} req/s ($perRectUpdates updates), " +
+                "batched ${(requests / batchedSeconds).toInt()} req/s ($updates updates)",
+        )
+    }
+}
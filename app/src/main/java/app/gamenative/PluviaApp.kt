@@ -109,6 +109,8 @@ class PluviaApp : SplitCompatApplication() {
 
         // TODO: find a way to make this saveable, this is terrible (leak that memory baby)
         internal var xEnvironment: XEnvironment? = null
+        // The environment of the last game, still running for a quick relaunch
+        internal var standbyEnvironment: XEnvironment? = null
         internal var xServerView: XServerView? = null
         var inputControlsView: InputControlsView? = null
         var inputControlsManager: InputControlsManager? = null
@@ -766,6 +766,35 @@ object PrefManager {
         get() = getPref(WINE_DEBUG_CHANNELS, Constants.XServer.DEFAULT_WINE_DEBUG_CHANNELS)
         set(value) = setPref(WINE_DEBUG_CHANNELS, value)
 
+    // X request profiler, dumped to imagefs/tmp when the game exits
+    private val ENABLE_X_REQUEST_PROFILER = booleanPreferencesKey("enable_x_request_profiler")
+    var enableXRequestProfiler: Boolean
+        get() = getPref(ENABLE_X_REQUEST_PROFILER, false)
+        set(value) = setPref(ENABLE_X_REQUEST_PROFILER, value)
+
+    private val CAPTURE_X_REQUEST_TRACE = booleanPreferencesKey("capture_x_request_trace")
+    var captureXRequestTrace: Boolean
+        get() = getPref(CAPTURE_X_REQUEST_TRACE, false)
+        set(value) = setPref(CAPTURE_X_REQUEST_TRACE, value)
+
+    // Let full-frame MIT-SHM PutImage show the client's segment instead of copying it
+    private val ZERO_COPY_SHM_PUT_IMAGE = booleanPreferencesKey("zero_copy_shm_put_image")
+    var zeroCopyShmPutImage: Boolean
+        get() = getPref(ZERO_COPY_SHM_PUT_IMAGE, false)
+        set(value) = setPref(ZERO_COPY_SHM_PUT_IMAGE, value)
+
+    // Session metrics are otherwise only recorded while the FPS HUD is shown
+    private val RECORD_SESSION_METRICS = booleanPreferencesKey("record_session_metrics")
+    var recordSessionMetrics: Boolean
+        get() = getPref(RECORD_SESSION_METRICS, false)
+        set(value) = setPref(RECORD_SESSION_METRICS, value)
+
+    // Keep the X server and other environment components running between launches
+    private val KEEP_ENVIRONMENT_WARM = booleanPreferencesKey("keep_environment_warm")
+    var keepEnvironmentWarm: Boolean
+        get() = getPref(KEEP_ENVIRONMENT_WARM, false)
+        set(value) = setPref(KEEP_ENVIRONMENT_WARM, value)
+
     // App and notification icon variants
     private val USE_ALT_LAUNCHER_ICON = booleanPreferencesKey("use_alt_launcher_icon")
     var useAltLauncherIcon: Boolean
@@ -147,7 +147,9 @@ import app.gamenative.data.AppInfo
 import app.gamenative.db.dao.AppInfoDao
 import kotlinx.coroutines.ensureActive
 import app.gamenative.enums.Marker
+import app.gamenative.utils.DiskUsageService
 import app.gamenative.utils.FileUtils
+import app.gamenative.utils.InstallTreeIndex
 import app.gamenative.utils.MarkerUtils
 import app.gamenative.utils.LicenseSerializer
 import app.gamenative.data.CachedLicense
@@ -648,17 +650,24 @@ class SteamService : Service(), IChallengeUrlChanged {
             "crash", "handler", "viewer", "compiler", "tool",
             "setup", "unins", "eac", "launcher", "steam"
         )
+        private val NON_LETTERS = Regex("[^a-z]")
+
         /* add near-name helper */
         private fun fuzzyMatch(a: String, b: String): Boolean {
             /* strip digits & punctuation, compare first 5 letters */
-            val cleanA = a.replace(Regex("[^a-z]"), "")
-            val cleanB = b.replace(Regex("[^a-z]"), "")
+            val cleanA = a.replace(NON_LETTERS, "")
+            val cleanB = b.replace(NON_LETTERS, "")
             return cleanA.take(5) == cleanB.take(5)
         }
 
         /* add generic short-name detector: one letter + digits, ≤4 chars  */
         private val GENERIC_NAME = Regex("^[a-z]\\d{1,3}\\.exe$", RegexOption.IGNORE_CASE)
 
+        private val STUB_KEYWORDS = listOf("launcher", "steam", "crash", "handler", "setup", "unins", "eac")
+
+        /* appId -> (manifests the pick was made from, picked exe) */
+        private val installedExeCache = ConcurrentHashMap<Int, Pair<String, String>>()
+
         /* -------------------------------------------------------------------------- */
         /* 2. Heuristic score (same signature!)                                       */
         /* -------------------------------------------------------------------------- */
@@ -695,27 +704,23 @@ class SteamService : Service(), IChallengeUrlChanged {
 
         fun FileData.isStub(): Boolean {
             /* stub detector (same short rules) */
-            val generic = Regex("^[a-z]\\d{1,3}\\.exe$", RegexOption.IGNORE_CASE)
-            val bad     = listOf("launcher","steam","crash","handler","setup","unins","eac")
             val n = fileName.lowercase()
-            val stub = generic.matches(n) || bad.any { it in n } || totalSize < 1_000_000
+            val stub = GENERIC_NAME.matches(n) || STUB_KEYWORDS.any { it in n } || totalSize < 1_000_000
             if (stub) Timber.d("Stub filtered: $fileName  size=$totalSize")
             return stub
         }
 
-        /** select the primary binary */
+        /** select the primary binary, scoring every candidate once */
         fun choosePrimaryExe(
             files: List<FileData>?,
             gameName: String
-        ): FileData? = files?.maxWithOrNull { a, b ->
-            val sa = scoreExe(a, gameName, isExecutable(a.flags))   // <- fixed
-            val sb = scoreExe(b, gameName, isExecutable(b.flags))
-
-            when {
-                sa != sb -> sa - sb                                 // higher score wins
-                else     -> (a.totalSize - b.totalSize).toInt()     // tie-break on size
-            }
-        }
+        ): FileData? = files
+            ?.map { it to scoreExe(it, gameName, isExecutable(it.flags)) }
+            ?.maxWithOrNull(
+                compareBy<Pair<FileData, Int>> { it.second }        // higher score wins
+                    .thenBy { it.first.totalSize },                 // tie-break on size
+            )
+            ?.first
 
         /**
          * Picks the real shipped EXE for a Steam app.
@@ -757,12 +762,28 @@ class SteamService : Service(), IChallengeUrlChanged {
                 })?.executable ?: ""
             }
 
+            // The pick only changes with the manifests, so relaunches skip loading them again
+            val manifestDir = "${getAppDirPath(appId)}/.DepotDownloader"
+            val manifestFiles = depots.mapNotNull { depot ->
+                depot.manifests["public"]?.let { mi -> File(manifestDir, "${depot.depotId}_${mi.gid}.manifest") }
+            }
+            val signature = manifestFiles.joinToString("|", "$installDir|$launchTargets|") {
+                "${it.name}:${it.length()}:${it.lastModified()}"
+            }
+            installedExeCache[appId]?.let { (cachedSignature, exe) ->
+                if (cachedSignature == signature) {
+                    Timber.i("Picked from cache: $exe")
+                    return exe
+                }
+            }
+            fun pick(exe: String): String = exe.also { installedExeCache[appId] = signature to it }
+
             for (depot in depots) {
                 val mi = depot.manifests["public"] ?: continue
                 if (mi.size > largestDepotSize) largestDepotSize = mi.size
 
-                // Check cache first
-                val man = DepotManifest.loadFromFile("${getAppDirPath(appId)}/.DepotDownloader/${depot.depotId}_${mi.gid}.manifest")
+                // Loaded one at a time, a launch entry found early saves parsing the rest
+                val man = DepotManifest.loadFromFile("$manifestDir/${depot.depotId}_${mi.gid}.manifest")
 
                 Timber.d("Using manifest for depot ${depot.depotId}  size=${mi.size}")
 
@@ -771,7 +792,7 @@ class SteamService : Service(), IChallengeUrlChanged {
                     f.fileName.lowercase() in launchTargets && !f.isStub()
                 }?.let {
                     Timber.i("Picked via launch entry: ${it.fileName}")
-                    return it.fileName.replace('\\','/').toString()
+                    return pick(it.fileName.replace('\\','/'))
                 }
 
                 /* collect for later */
@@ -792,7 +813,7 @@ class SteamService : Service(), IChallengeUrlChanged {
                 installDir.lowercase()
             )?.let {
                 Timber.i("Picked via scorer: ${it.fileName}")
-                return it.fileName.replace('\\', '/')
+                return pick(it.fileName.replace('\\', '/'))
             }
 
             /* 3️⃣ fallback: biggest exe from the biggest depot */
@@ -801,7 +822,7 @@ class SteamService : Service(), IChallengeUrlChanged {
                 .maxByOrNull { it.first.totalSize }
                 ?.let {
                     Timber.i("Picked via largest-depot fallback: ${it.first.fileName}")
-                    return it.first.fileName.replace('\\','/').toString()
+                    return pick(it.first.fileName.replace('\\','/'))
                 }
 
             /* 4️⃣ last resort */
@@ -827,7 +848,10 @@ class SteamService : Service(), IChallengeUrlChanged {
 
             val appDirPath = getAppDirPath(appId)
 
-            return File(appDirPath).deleteRecursively()
+            return File(appDirPath).deleteRecursively().also {
+                DiskUsageService.invalidate(appDirPath)
+                InstallTreeIndex.invalidate(appDirPath)
+            }
         }
 
         fun downloadApp(appId: Int): DownloadInfo? {
@@ -1120,6 +1144,8 @@ class SteamService : Service(), IChallengeUrlChanged {
                 // Handle completion: add marker, update database
                 val ownedDlc = runBlocking { getOwnedAppDlc(appId) }
                 MarkerUtils.addMarker(getAppDirPath(appId), Marker.DOWNLOAD_COMPLETE_MARKER)
+                DiskUsageService.invalidate(getAppDirPath(appId))
+                InstallTreeIndex.invalidate(getAppDirPath(appId))
                 PluviaApp.events.emit(AndroidEvent.LibraryInstallStatusChanged(appId))
                 runBlocking {
                     instance?.appInfoDao?.insert(
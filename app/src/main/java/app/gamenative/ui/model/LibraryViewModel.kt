@@ -177,6 +177,7 @@ class LibraryViewModel @Inject constructor(
     fun onRefresh() {
         viewModelScope.launch {
             _state.update { it.copy(isRefreshing = true) }
+            CustomGameScanner.invalidateScanIndex()
 
             try {
                 val newApps = SteamService.refreshOwnedGamesFromServer()
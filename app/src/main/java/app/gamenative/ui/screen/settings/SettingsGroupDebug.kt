@@ -73,6 +73,10 @@ fun SettingsGroupDebug() {
     // states for debug toggles
     var enableWineDebugPref by rememberSaveable { mutableStateOf(PrefManager.enableWineDebug) }
     var enableBox86Logs by rememberSaveable { mutableStateOf(WinlatorPrefManager.getBoolean("enable_box86_64_logs", false)) }
+    var enableXRequestProfiler by rememberSaveable { mutableStateOf(PrefManager.enableXRequestProfiler) }
+    var captureXRequestTrace by rememberSaveable { mutableStateOf(PrefManager.captureXRequestTrace) }
+    var recordSessionMetrics by rememberSaveable { mutableStateOf(PrefManager.recordSessionMetrics) }
+    var zeroCopyShmPutImage by rememberSaveable { mutableStateOf(PrefManager.zeroCopyShmPutImage) }
     var latestCrashFile: File? by rememberSaveable { mutableStateOf(null) }
     LaunchedEffect(Unit) {
         val crashDir = File(context.getExternalFilesDir(null), "crash_logs")
@@ -189,6 +193,47 @@ fun SettingsGroupDebug() {
                 WinlatorPrefManager.putBoolean("enable_box86_64_logs", it)
             },
         )
+        SettingsSwitch(
+            colors = settingsTileColorsAlt(),
+            state = enableXRequestProfiler,
+            title = { Text(text = stringResource(R.string.settings_debug_x_request_profiler_title)) },
+            subtitle = { Text(text = stringResource(R.string.settings_debug_x_request_profiler_subtitle)) },
+            onCheckedChange = {
+                enableXRequestProfiler = it
+                PrefManager.enableXRequestProfiler = it
+            },
+        )
+        SettingsSwitch(
+            colors = settingsTileColorsAlt(),
+            enabled = enableXRequestProfiler,
+            state = captureXRequestTrace,
+            title = { Text(text = stringResource(R.string.settings_debug_x_request_trace_title)) },
+            subtitle = { Text(text = stringResource(R.string.settings_debug_x_request_trace_subtitle)) },
+            onCheckedChange = {
+                captureXRequestTrace = it
+                PrefManager.captureXRequestTrace = it
+            },
+        )
+        SettingsSwitch(
+            colors = settingsTileColorsAlt(),
+            state = recordSessionMetrics,
+            title = { Text(text = stringResource(R.string.settings_debug_record_session_metrics_title)) },
+            subtitle = { Text(text = stringResource(R.string.settings_debug_record_session_metrics_subtitle)) },
+            onCheckedChange = {
+                recordSessionMetrics = it
+                PrefManager.recordSessionMetrics = it
+            },
+        )
+        SettingsSwitch(
+            colors = settingsTileColorsAlt(),
+            state = zeroCopyShmPutImage,
+            title = { Text(text = stringResource(R.string.settings_debug_zero_copy_shm_title)) },
+            subtitle = { Text(text = stringResource(R.string.settings_debug_zero_copy_shm_subtitle)) },
+            onCheckedChange = {
+                zeroCopyShmPutImage = it
+                PrefManager.zeroCopyShmPutImage = it
+            },
+        )
         SettingsMenuLink(
             colors = settingsTileColors(),
             title = { Text(text = stringResource(R.string.settings_debug_view_crash_title)) },
@@ -7,15 +7,18 @@ import androidx.compose.runtime.mutableStateOf
 import androidx.compose.runtime.saveable.rememberSaveable
 import androidx.compose.runtime.setValue
 import androidx.compose.ui.res.stringResource
+import app.gamenative.PrefManager
 import app.gamenative.R
 import app.gamenative.ui.component.dialog.Box64PresetsDialog
 import app.gamenative.ui.component.dialog.ContainerConfigDialog
 import app.gamenative.ui.component.dialog.FEXCorePresetsDialog
 import app.gamenative.ui.component.dialog.OrientationDialog
 import app.gamenative.ui.theme.settingsTileColors
+import app.gamenative.ui.theme.settingsTileColorsAlt
 import app.gamenative.utils.ContainerUtils
 import com.alorma.compose.settings.ui.SettingsGroup
 import com.alorma.compose.settings.ui.SettingsMenuLink
+import com.alorma.compose.settings.ui.SettingsSwitch
 
 @Composable
 fun SettingsGroupEmulation() {
@@ -23,6 +26,7 @@ fun SettingsGroupEmulation() {
         var showConfigDialog by rememberSaveable { mutableStateOf(false) }
         var showOrientationDialog by rememberSaveable { mutableStateOf(false) }
         var showBox64PresetsDialog by rememberSaveable { mutableStateOf(false) }
+        var keepEnvironmentWarm by rememberSaveable { mutableStateOf(PrefManager.keepEnvironmentWarm) }
 
         OrientationDialog(
             openDialog = showOrientationDialog,
@@ -111,5 +115,15 @@ fun SettingsGroupEmulation() {
             subtitle = { Text(text = stringResource(R.string.settings_emulation_wine_proton_manager_subtitle)) },
             onClick = { showWineProtonManager = true },
         )
+        SettingsSwitch(
+            colors = settingsTileColorsAlt(),
+            state = keepEnvironmentWarm,
+            title = { Text(text = stringResource(R.string.settings_emulation_keep_environment_warm_title)) },
+            subtitle = { Text(text = stringResource(R.string.settings_emulation_keep_environment_warm_subtitle)) },
+            onCheckedChange = {
+                keepEnvironmentWarm = it
+                PrefManager.keepEnvironmentWarm = it
+            },
+        )
     }
 }
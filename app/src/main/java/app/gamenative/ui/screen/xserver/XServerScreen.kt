@@ -40,6 +40,7 @@ import app.gamenative.service.SteamService
 import app.gamenative.ui.data.XServerState
 import app.gamenative.utils.ContainerUtils
 import app.gamenative.utils.CustomGameScanner
+import app.gamenative.utils.InstallTreeIndex
 import app.gamenative.utils.SteamUtils
 import com.posthog.PostHog
 import com.winlator.alsaserver.ALSAClient
@@ -53,6 +54,7 @@ import com.winlator.core.AppUtils
 import com.winlator.core.Callback
 import com.winlator.core.DXVKHelper
 import com.winlator.core.DefaultVersion
+import com.winlator.core.ExtractionLedger
 import com.winlator.core.FileUtils
 import com.winlator.core.GPUHelper
 import com.winlator.core.GPUInformation
@@ -62,7 +64,7 @@ import com.winlator.core.ProcessHelper
 import com.winlator.core.TarCompressorUtils
 import com.winlator.core.Win32AppWorkarounds
 import com.winlator.core.WineInfo
-import com.winlator.core.WineRegistryEditor
+import com.winlator.core.WineRegistryTransaction
 import com.winlator.core.WineStartMenuCreator
 import com.winlator.core.WineThemeManager
 import com.winlator.core.WineUtils
@@ -81,6 +83,7 @@ import com.winlator.winhandler.WinHandler
 import com.winlator.winhandler.WinHandler.PreferredInputApi
 import com.winlator.xconnector.UnixSocketConfig
 import com.winlator.xenvironment.ImageFs
+import com.winlator.xenvironment.LaunchOrchestrator
 import com.winlator.xenvironment.XEnvironment
 import com.winlator.xenvironment.components.ALSAServerComponent
 import com.winlator.xenvironment.components.BionicProgramLauncherComponent
@@ -95,6 +98,8 @@ import com.winlator.xenvironment.components.VortekRendererComponent
 import com.winlator.xenvironment.components.XServerComponent
 import com.winlator.xserver.Keyboard
 import com.winlator.xserver.Property
+import com.winlator.xserver.RequestProfiler
+import com.winlator.xserver.RequestTrace
 import com.winlator.xserver.ScreenInfo
 import com.winlator.xserver.Window
 import com.winlator.xserver.WindowManager
@@ -204,6 +209,7 @@ fun XServerScreen(
     }
 
     var win32AppWorkarounds: Win32AppWorkarounds? by remember { mutableStateOf(null) }
+    var windowModificationListener: WindowManager.OnWindowModificationListener? by remember { mutableStateOf(null) }
 
     var isKeyboardVisible = false
     var areControlsVisible = false
@@ -287,9 +293,16 @@ fun XServerScreen(
                             }
                             exit(xServerView!!.getxServer().winHandler, PluviaApp.xEnvironment, frameRating, currentAppInfo, container, onExit, navigateBack)
                         }
+
+                        NavigationDialog.ACTION_DUMP_X_REQUEST_PROFILE -> {
+                            val profiler = xServerView?.getxServer()?.requestProfiler ?: return
+                            val imageFs = ImageFs.find(context)
+                            CoroutineScope(Dispatchers.IO).launch { writeRequestProfile(profiler, imageFs) }
+                        }
                     }
                 }
             },
+            xServerView?.getxServer()?.requestProfiler != null,
         ).show()
     }
 
@@ -369,6 +382,11 @@ fun XServerScreen(
             PluviaApp.events.off<AndroidEvent.GuestProgramTerminated, Unit>(onGuestProgramTerminated)
             PluviaApp.events.off<SteamEvent.ForceCloseApp, Unit>(onForceCloseApp)
             ProcessHelper.removeDebugCallback(debugCallback)
+            // The X server may outlive this screen, on standby or across activity recreation
+            xServerView?.let { view ->
+                windowModificationListener?.let { view.getxServer().windowManager.removeOnWindowModificationListener(it) }
+                view.renderer.detachFromXServer()
+            }
         }
     }
 
@@ -400,6 +418,10 @@ fun XServerScreen(
                 PluviaApp.xEnvironment
                     ?.getComponent<XServerComponent>(XServerComponent::class.java)
                     ?.xServer
+                    ?: PluviaApp.standbyEnvironment
+                        ?.takeIf { it.canRelaunch(getStandbyKey(xServerState.value, container)) }
+                        ?.getComponent<XServerComponent>(XServerComponent::class.java)
+                        ?.xServer
             val xServerToUse = existingXServer ?: XServer(ScreenInfo(xServerState.value.screenSize))
             val xServerView = XServerView(
                 context,
@@ -413,6 +435,13 @@ fun XServerScreen(
                 frameLayout.addView(PluviaApp.touchpadView)
                 PluviaApp.touchpadView?.setMoveCursorToTouchpoint(PrefManager.getBoolean("move_cursor_to_touchpoint", false))
                 getxServer().winHandler = WinHandler(getxServer(), this)
+                if (PrefManager.enableXRequestProfiler && getxServer().requestProfiler == null) {
+                    val profiler = RequestProfiler(getxServer().extensions)
+                    if (PrefManager.captureXRequestTrace) {
+                        profiler.setTrace(RequestTrace(File(ImageFs.find(context).tmpDir, "xrequests.trace")))
+                    }
+                    getxServer().requestProfiler = profiler
+                }
                 win32AppWorkarounds = Win32AppWorkarounds(
                     getxServer(),
                     taskAffinityMask,
@@ -488,7 +517,7 @@ fun XServerScreen(
                             changeFrameRatingVisibility(window, null)
                             onWindowUnmapped?.invoke(window)
                         }
-                    },
+                    }.also { windowModificationListener = it },
                 )
 
                 if (PluviaApp.xEnvironment == null) {
@@ -572,44 +601,75 @@ fun XServerScreen(
                             Timber.i("Doing things once")
                             val envVars = EnvVars()
 
-                            setupWineSystemFiles(
-                                context,
-                                firstTimeBoot,
-                                xServerView!!.getxServer().screenInfo,
-                                xServerState,
-                                container,
-                                containerManager,
-                                envVars,
-                                contentsManager,
-                                onExtractFileListener,
-                            )
-                            extractArm64ecInputDLLs(context, container) // REQUIRED: Uses updated xinput1_3 main.c from x86_64 build, prevents crashes with 3+ players, avoids need for input shim dlls.
-                            extractx86_64InputDlls(context, container)
-                            extractGraphicsDriverFiles(
-                                context,
-                                xServerState.value.graphicsDriver,
-                                xServerState.value.dxwrapper,
-                                xServerState.value.dxwrapperConfig!!,
-                                container,
-                                envVars,
-                                firstTimeBoot,
-                                vkbasaltConfig,
-                            )
-                            changeWineAudioDriver(xServerState.value.audioDriver, container, ImageFs.find(context))
-                            setImagefsContainerVariant(context, container)
-                            PluviaApp.xEnvironment = setupXEnvironment(
-                                context,
-                                appId,
-                                bootToContainer,
-                                xServerState,
-                                envVars,
-                                container,
-                                appLaunchInfo,
-                                xServerView!!.getxServer(),
-                                containerVariantChanged,
-                                onGameLaunchError,
-                                navigateBack,
-                            )
+                            // Registry edits, DX wrapper extraction and container extras all happen in
+                            // setupWineSystemFiles; steps that touch neither run next to the ones that do
+                            val launch = LaunchOrchestrator()
+                            // Every registry edit of the launch is queued here and written in one go
+                            val registry = WineRegistryTransaction()
+                            launch.addStage("wineSystemFiles") {
+                                setupWineSystemFiles(
+                                    context,
+                                    firstTimeBoot,
+                                    xServerView!!.getxServer().screenInfo,
+                                    xServerState,
+                                    container,
+                                    containerManager,
+                                    envVars,
+                                    contentsManager,
+                                    onExtractFileListener,
+                                    registry,
+                                )
+                            }
+                            launch.addStage("inputDlls", listOf("wineSystemFiles")) {
+                                extractArm64ecInputDLLs(context, container) // REQUIRED: Uses updated xinput1_3 main.c from x86_64 build, prevents crashes with 3+ players, avoids need for input shim dlls.
+                                extractx86_64InputDlls(context, container)
+                            }
+                            launch.addStage("graphicsDriver", listOf("wineSystemFiles")) {
+                                extractGraphicsDriverFiles(
+                                    context,
+                                    xServerState.value.graphicsDriver,
+                                    xServerState.value.dxwrapper,
+                                    xServerState.value.dxwrapperConfig!!,
+                                    container,
+                                    envVars,
+                                    firstTimeBoot,
+                                    vkbasaltConfig,
+                                )
+                            }
+                            launch.addStage("imagefsVariant", listOf("wineSystemFiles")) {
+                                setImagefsContainerVariant(context, container)
+                            }
+                            // Reads container extras that graphicsDriver writes and saves, and neither is thread-safe
+                            launch.addStage("audioDriver", listOf("wineSystemFiles", "graphicsDriver")) {
+                                changeWineAudioDriver(xServerState.value.audioDriver, container, ImageFs.find(context), registry)
+                            }
+                            // Its commit actions save container extras, so after the other stage that does
+                            launch.addStage("registry", listOf("audioDriver", "graphicsDriver")) {
+                                val report = registry.commit()
+                                Timber.i("Registry edits: $report")
+                                if (!report.isCommitted) throw IOException("Failed to write registry edits")
+                            }
+                            launch.addStage("environment", listOf("inputDlls", "imagefsVariant", "registry")) {
+                                PluviaApp.xEnvironment = setupXEnvironment(
+                                    context,
+                                    appId,
+                                    bootToContainer,
+                                    xServerState,
+                                    envVars,
+                                    container,
+                                    appLaunchInfo,
+                                    xServerView!!.getxServer(),
+                                    containerVariantChanged,
+                                    onGameLaunchError,
+                                    navigateBack,
+                                )
+                            }
+                            try {
+                                launch.run()
+                            } finally {
+                                Timber.i("Launch stages: $launch")
+                                writeLaunchTrace(imageFs, launch, PluviaApp.xEnvironment?.componentLaunch)
+                            }
                         } catch (e: Exception) {
                             Timber.e(e, "Error during wine setup operations")
                             onGameLaunchError?.invoke("Failed to setup wine: ${e.message}")
@@ -680,6 +740,7 @@ fun XServerScreen(
             }
             frameRating = FrameRating(context)
             frameRating?.setVisibility(View.GONE)
+            frameRating?.setRecordMetrics(PrefManager.recordSessionMetrics)
 
             if (container.isShowFPS()) {
                 Timber.i("Attempting to show FPS")
@@ -948,6 +1009,7 @@ private fun shiftXEnvironmentToContext(
     val sysVSharedMemoryComponent = SysVSharedMemoryComponent(
         xServer,
         UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.SYSVSHM_SERVER_PATH),
+        PrefManager.zeroCopyShmPutImage,
     )
     // val sysVSharedMemoryComponent = xEnvironment.getComponent<SysVSharedMemoryComponent>(SysVSharedMemoryComponent::class.java)
     // sysVSharedMemoryComponent.connectToXServer(xServer)
@@ -1069,16 +1131,29 @@ private fun setupXEnvironment(
         wineLogDir.mkdirs()
         logFile = File(wineLogDir, "wine_debug.log")
         if (logFile.exists()) logFile.delete()
+        wineLogDir.listFiles { file -> file.name.startsWith("wine_debug.log.") }?.forEach { it.delete() }
     }
 
-    ProcessHelper.addDebugCallback { line ->
-        if (captureLogs) {
-            logFile?.appendText(line + "\n")
-        }
-    }
+    // Debug channels can produce megabytes per second, so only rate limit when nobody asked for them
+    val logPump = ProcessHelper.getLogPump()
+    logPump.setLogFile(logFile, 32L * 1024 * 1024, 4)
+    logPump.setMaxLinesPerSecond(if (captureLogs) 0 else 2000)
 
     val rootPath = imageFs.getRootDir().getPath()
-    FileUtils.clear(imageFs.getTmpDir())
+    val standbyKey = getStandbyKey(xServerState.value, container)
+    // Reused only if the screen picked up its X server, otherwise it has to go
+    val standby = PluviaApp.standbyEnvironment?.takeIf {
+        it.canRelaunch(standbyKey) && it.getComponent<XServerComponent>(XServerComponent::class.java)?.xServer === xServer
+    }
+    PluviaApp.standbyEnvironment?.let {
+        if (it !== standby) {
+            Timber.i("Stopping standby environment, it does not match this launch")
+            it.stopEnvironmentComponents()
+        }
+    }
+    PluviaApp.standbyEnvironment = null
+    // Relaunching clears the tmp dir itself, keeping the sockets of the running servers
+    if (standby == null) FileUtils.clear(imageFs.getTmpDir())
 
     val usrGlibc: Boolean = container.getContainerVariant().equals(Container.GLIBC, ignoreCase = true)
     val guestProgramLauncherComponent = if (usrGlibc) {
@@ -1149,16 +1224,20 @@ private fun setupXEnvironment(
         }
     }
 
-    val environment = XEnvironment(context, imageFs)
-    environment.addComponent(
-        SysVSharedMemoryComponent(
-            xServer,
-            UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.SYSVSHM_SERVER_PATH),
-        ),
-    )
-    environment.addComponent(XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH)))
-    environment.addComponent(NetworkInfoUpdateComponent())
-    environment.addComponent(SteamClientComponent())
+    val environment = standby ?: XEnvironment(context, imageFs)
+    environment.configKey = standbyKey
+    if (standby == null) {
+        environment.addComponent(
+            SysVSharedMemoryComponent(
+                xServer,
+                UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.SYSVSHM_SERVER_PATH),
+                PrefManager.zeroCopyShmPutImage,
+            ),
+        )
+        environment.addComponent(XServerComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.XSERVER_PATH)))
+        environment.addComponent(NetworkInfoUpdateComponent())
+        environment.addComponent(SteamClientComponent())
+    }
 
     // environment.addComponent(SteamClientComponent(UnixSocketConfig.createSocket(
     //     rootPath,
@@ -1171,19 +1250,25 @@ private fun setupXEnvironment(
         envVars.put("ANDROID_ALSA_SERVER", imageFs.getRootDir().getPath() + UnixSocketConfig.ALSA_SERVER_PATH)
         envVars.put("ANDROID_ASERVER_USE_SHM", "true")
         val options = ALSAClient.Options.fromKeyValueSet(null)
-        environment.addComponent(ALSAServerComponent(UnixSocketConfig.createSocket(imageFs.getRootDir().getPath(), UnixSocketConfig.ALSA_SERVER_PATH), options))
+        if (standby == null) {
+            environment.addComponent(ALSAServerComponent(UnixSocketConfig.createSocket(imageFs.getRootDir().getPath(), UnixSocketConfig.ALSA_SERVER_PATH), options))
+        }
     } else if (xServerState.value.audioDriver == "pulseaudio") {
         envVars.put("PULSE_SERVER", imageFs.getRootDir().getPath() + UnixSocketConfig.PULSE_SERVER_PATH)
-        environment.addComponent(PulseAudioComponent(UnixSocketConfig.createSocket(imageFs.getRootDir().getPath(), UnixSocketConfig.PULSE_SERVER_PATH)))
+        if (standby == null) {
+            environment.addComponent(PulseAudioComponent(UnixSocketConfig.createSocket(imageFs.getRootDir().getPath(), UnixSocketConfig.PULSE_SERVER_PATH)))
+        }
     }
 
     if (xServerState.value.graphicsDriver == "virgl") {
-        environment.addComponent(
-            VirGLRendererComponent(
-                xServer,
-                UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.VIRGL_SERVER_PATH),
-            ),
-        )
+        if (standby == null) {
+            environment.addComponent(
+                VirGLRendererComponent(
+                    xServer,
+                    UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.VIRGL_SERVER_PATH),
+                ),
+            )
+        }
     } else if (xServerState.value.graphicsDriver == "vortek" || xServerState.value.graphicsDriver == "adreno" || xServerState.value.graphicsDriver == "sd-8-elite") {
         Timber.i("Adding VortekRendererComponent to Environment")
         val gcfg = KeyValueSet(container.getGraphicsDriverConfig())
@@ -1192,8 +1277,10 @@ private fun setupXEnvironment(
             gcfg.put("adrenotoolsDriver", "vulkan.adreno.so")
             container.setGraphicsDriverConfig(gcfg.toString())
         }
-        val options2: VortekRendererComponent.Options? = VortekRendererComponent.Options.fromKeyValueSet(context, gcfg)
-        environment.addComponent(VortekRendererComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.VORTEK_SERVER_PATH), options2, context))
+        if (standby == null) {
+            val options2: VortekRendererComponent.Options? = VortekRendererComponent.Options.fromKeyValueSet(context, gcfg)
+            environment.addComponent(VortekRendererComponent(xServer, UnixSocketConfig.createSocket(rootPath, UnixSocketConfig.VORTEK_SERVER_PATH), options2, context))
+        }
     }
 
     guestProgramLauncherComponent.envVars = envVars
@@ -1205,7 +1292,7 @@ private fun setupXEnvironment(
         }
         PluviaApp.events.emit(AndroidEvent.GuestProgramTerminated)
     }
-    environment.addComponent(guestProgramLauncherComponent)
+    if (standby == null) environment.addComponent(guestProgramLauncherComponent)
 
 
     // Generate fexcore per app settings
@@ -1251,7 +1338,12 @@ private fun setupXEnvironment(
         }
     }
 
-    environment.startEnvironmentComponents()
+    if (standby != null) {
+        Timber.i("Relaunching in the standby environment")
+        standby.relaunch(guestProgramLauncherComponent)
+    } else {
+        environment.startEnvironmentComponents()
+    }
 
     // put in separate scope since winhandler start method does some network stuff
     CoroutineScope(Dispatchers.IO).launch {
@@ -1422,7 +1514,13 @@ private fun exit(winHandler: WinHandler?, environment: XEnvironment?, frameRatin
     }
 
     winHandler?.stop()
-    environment?.stopEnvironmentComponents()
+    environment?.let { dumpRequestProfile(it) }
+    if (environment != null && PrefManager.keepEnvironmentWarm) {
+        environment.standby()
+        PluviaApp.standbyEnvironment = environment
+    } else {
+        environment?.stopEnvironmentComponents()
+    }
     SteamService.isGameRunning = false
     // AppUtils.restartApplication(this)
     // PluviaApp.xServerState = null
@@ -1439,6 +1537,45 @@ private fun exit(winHandler: WinHandler?, environment: XEnvironment?, frameRatin
     navigateBack()
 }
 
+/** The settings the environment components are created with, a standby environment is only reused when they match. */
+private fun getStandbyKey(xServerState: XServerState, container: Container): String = listOf(
+    xServerState.screenSize,
+    xServerState.audioDriver,
+    xServerState.graphicsDriver,
+    container.graphicsDriverConfig,
+    container.containerVariant,
+    PrefManager.zeroCopyShmPutImage,
+).joinToString("|")
+
+private fun writeLaunchTrace(imageFs: ImageFs, vararg orchestrators: LaunchOrchestrator?) {
+    try {
+        LaunchOrchestrator.writeTrace(File(imageFs.tmpDir, "launch_trace.json"), *orchestrators)
+    } catch (e: IOException) {
+        Timber.w(e, "Failed to write launch trace")
+    }
+}
+
+private fun dumpRequestProfile(environment: XEnvironment) {
+    val xServer = environment.getComponent<XServerComponent>(XServerComponent::class.java)?.xServer ?: return
+    val profiler = xServer.requestProfiler ?: return
+    xServer.requestProfiler = null
+    try {
+        writeRequestProfile(profiler, environment.imageFs)
+    } finally {
+        profiler.close()
+    }
+}
+
+/** Overwrites the profile file with the totals so far, the profiler keeps recording. */
+private fun writeRequestProfile(profiler: RequestProfiler, imageFs: ImageFs) {
+    try {
+        profiler.dump(File(imageFs.tmpDir, "xrequest_profile.txt"))
+        Timber.i("Wrote X request profile")
+    } catch (e: IOException) {
+        Timber.w(e, "Failed to write X request profile")
+    }
+}
+
 /**
  * Installs redistributables (vcredist, physx, XNA) from _CommonRedist folder
  * if shared depots are present and the redistributable executables exist.
@@ -1661,6 +1798,7 @@ private fun unpackExecutableFile(
             if (exe.exists() && unpackedExe.exists()) {
                 Files.copy(exe.toPath(), originalExe.toPath())
                 Files.copy(unpackedExe.toPath(), exe.toPath(), REPLACE_EXISTING)
+                InstallTreeIndex.invalidate(exe.parent)
             } else {
                 val errorMsg = "Either original exe or unpacked exe does not exist. Original: ${exe.exists()}, Unpacked: ${unpackedExe.exists()}"
                 Timber.w(errorMsg)
@@ -1698,7 +1836,7 @@ private fun extractArm64ecInputDLLs(context: Context, container: Container) {
     if (wineVersion != null && wineVersion.contains("proton-9.0-arm64ec")) {
         val wineFolder: File = File(imageFs.getWinePath() + "/lib/wine/")
         Log.d("XServerDisplayActivity", "Wine version contains arm64ec. Extracting input dlls to " + wineFolder.getPath())
-        val success: Boolean = TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, inputAsset, wineFolder)
+        val success: Boolean = ExtractionLedger.get(context).extract(TarCompressorUtils.Type.ZSTD, context, inputAsset, wineFolder, "input_dlls").success
         if (!success) {
             Log.d("XServerDisplayActivity", "Failed to extract input dlls")
         }
@@ -1731,6 +1869,7 @@ private fun setupWineSystemFiles(
     envVars: EnvVars,
     contentsManager: ContentsManager,
     onExtractFileListener: OnExtractFileListener?,
+    registry: WineRegistryTransaction,
 ) {
     val imageFs = ImageFs.find(context)
     val appVersion = AppUtils.getVersionCode(context).toString()
@@ -1738,13 +1877,14 @@ private fun setupWineSystemFiles(
     val wineVersion = imageFs.getArch()
     val variant = imageFs.getVariant()
     var containerDataChanged = false
+    // Markers of steps that queue registry edits, saved once those edits are on disk
+    val registryExtras = LinkedHashMap<String, String>()
 
     if (!container.getExtra("appVersion").equals(appVersion) || !container.getExtra("imgVersion").equals(imgVersion) ||
         container.containerVariant != variant || (container.containerVariant == variant && container.wineVersion != wineVersion)) {
-        applyGeneralPatches(context, container, imageFs, xServerState.value.wineInfo, containerManager, onExtractFileListener)
-        container.putExtra("appVersion", appVersion)
-        container.putExtra("imgVersion", imgVersion)
-        containerDataChanged = true
+        applyGeneralPatches(context, container, imageFs, xServerState.value.wineInfo, containerManager, onExtractFileListener, registry)
+        registryExtras["appVersion"] = appVersion
+        registryExtras["imgVersion"] = imgVersion
     }
 
     // Normalize dxwrapper for state (dxvk includes version for extraction switch)
@@ -1787,9 +1927,8 @@ private fun setupWineSystemFiles(
     // val wincomponents = if (shortcut != null) shortcut.getExtra("wincomponents", container.winComponents) else container.winComponents
     val wincomponents = container.winComponents
     if (!wincomponents.equals(container.getExtra("wincomponents"))) {
-        extractWinComponentFiles(context, firstTimeBoot, imageFs, container, containerManager, onExtractFileListener)
-        container.putExtra("wincomponents", wincomponents)
-        containerDataChanged = true
+        extractWinComponentFiles(context, firstTimeBoot, imageFs, container, containerManager, onExtractFileListener, registry)
+        registryExtras["wincomponents"] = wincomponents
     }
 
     if (container.isLaunchRealSteam){
@@ -1798,9 +1937,8 @@ private fun setupWineSystemFiles(
 
     val desktopTheme = container.desktopTheme
     if ((desktopTheme + "," + screenInfo) != container.getExtra("desktopTheme")) {
-        WineThemeManager.apply(context, WineThemeManager.ThemeInfo(desktopTheme), screenInfo)
-        container.putExtra("desktopTheme", desktopTheme + "," + screenInfo)
-        containerDataChanged = true
+        WineThemeManager.apply(context, WineThemeManager.ThemeInfo(desktopTheme), screenInfo, registry)
+        registryExtras["desktopTheme"] = desktopTheme + "," + screenInfo
     }
 
     WineStartMenuCreator.create(context, container)
@@ -1808,12 +1946,17 @@ private fun setupWineSystemFiles(
 
     val startupSelection = container.startupSelection.toString()
     if (startupSelection != container.getExtra("startupSelection")) {
-        WineUtils.changeServicesStatus(container, container.startupSelection != Container.STARTUP_SELECTION_NORMAL)
-        container.putExtra("startupSelection", startupSelection)
-        containerDataChanged = true
+        WineUtils.changeServicesStatus(container, container.startupSelection != Container.STARTUP_SELECTION_NORMAL, registry)
+        registryExtras["startupSelection"] = startupSelection
     }
 
     if (containerDataChanged) container.saveData()
+    if (registryExtras.isNotEmpty()) {
+        registry.addCommitAction {
+            registryExtras.forEach { (name, value) -> container.putExtra(name, value) }
+            container.saveData()
+        }
+    }
 }
 
 private fun applyGeneralPatches(
@@ -1823,38 +1966,42 @@ private fun applyGeneralPatches(
     wineInfo: WineInfo,
     containerManager: ContainerManager,
     onExtractFileListener: OnExtractFileListener?,
+    registry: WineRegistryTransaction,
 ) {
     Timber.i("Applying general patches")
     val rootDir = imageFs.getRootDir()
     val contentsManager = ContentsManager(context)
+    val ledger = ExtractionLedger.get(context)
     if (container.containerVariant.equals(Container.GLIBC)) {
         FileUtils.delete(File(rootDir, "/opt/apps"))
         val downloaded = File(imageFs.getFilesDir(), "imagefs_patches_gamenative.tzst")
         Timber.i("Extracting imagefs_patches_gamenative.tzst")
         if (Arrays.asList<String?>(*context.getAssets().list("")).contains("imagefs_patches_gamenative.tzst") == true) {
-            TarCompressorUtils.extract(
+            ledger.extract(
                 TarCompressorUtils.Type.ZSTD,
-                context.assets,
+                context,
                 "imagefs_patches_gamenative.tzst",
                 rootDir,
+                "imagefs_patches",
                 onExtractFileListener,
             )
         } else if (downloaded.exists()){
-            TarCompressorUtils.extract(
+            ledger.extract(
                 TarCompressorUtils.Type.ZSTD,
                 downloaded,
                 rootDir,
+                "imagefs_patches",
                 onExtractFileListener,
             );
         }
     } else {
         Timber.i("Extracting container_pattern_common.tzst")
-        TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "container_pattern_common.tzst", rootDir);
+        ledger.extract(TarCompressorUtils.Type.ZSTD, context, "container_pattern_common.tzst", rootDir, "container_pattern_common");
         Timber.i("Attempting to extract _container_pattern.tzst with wine version " + container.wineVersion)
     }
-    containerManager.extractContainerPatternFile(container.getWineVersion(), contentsManager, container.rootDir, null)
-    TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "pulseaudio.tzst", File(context.filesDir, "pulseaudio"))
-    WineUtils.applySystemTweaks(context, wineInfo)
+    containerManager.applyContainerPattern(container, contentsManager)
+    ledger.extract(TarCompressorUtils.Type.ZSTD, context, "pulseaudio.tzst", File(context.filesDir, "pulseaudio"), "pulseaudio")
+    WineUtils.applySystemTweaks(context, wineInfo, registry)
     container.putExtra("graphicsDriver", null)
     container.putExtra("desktopTheme", null)
     WinlatorPrefManager.init(context)
@@ -1886,6 +2033,7 @@ private fun extractDXWrapperFiles(
     if (firstTimeBoot && splitDxWrapper != "vkd3d") cloneOriginalDllFiles(imageFs, *dlls)
     val rootDir = imageFs.getRootDir()
     val windowsDir = File(rootDir, ImageFs.WINEPREFIX + "/drive_c/windows")
+    val ledger = ExtractionLedger.get(context)
 
     when (splitDxWrapper) {
         "wined3d" -> {
@@ -1899,9 +2047,9 @@ private fun extractDXWrapperFiles(
             val shadersDir = File(rootDir, ImageFs.WINEPREFIX + "/drive_c/ProgramData/cnc-ddraw/Shaders")
             FileUtils.delete(shadersDir)
             FileUtils.copy(context, "$assetDir/Shaders", shadersDir)
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD, context.assets,
-                "$assetDir/ddraw.tzst", windowsDir, onExtractFileListener,
+            ledger.extract(
+                TarCompressorUtils.Type.ZSTD, context,
+                "$assetDir/ddraw.tzst", windowsDir, "cnc-ddraw", onExtractFileListener,
             )
         }
         "vkd3d" -> {
@@ -1911,9 +2059,9 @@ private fun extractDXWrapperFiles(
             val vortekLike = container.graphicsDriver == "vortek" || container.graphicsDriver == "adreno" || container.graphicsDriver == "sd-8-elite"
             val dxvkVersionForVkd3d = if (vortekLike && GPUHelper.vkGetApiVersionSafe() < GPUHelper.vkMakeVersion(1, 3, 0)) "1.10.3" else "2.4.1"
             Timber.i("Extracting VKD3D DX version for dxwrapper: $dxvkVersionForVkd3d")
-            TarCompressorUtils.extract(
-                TarCompressorUtils.Type.ZSTD, context.assets,
-                "dxwrapper/dxvk-${dxvkVersionForVkd3d}.tzst", windowsDir, onExtractFileListener,
+            ledger.extract(
+                TarCompressorUtils.Type.ZSTD, context,
+                "dxwrapper/dxvk-${dxvkVersionForVkd3d}.tzst", windowsDir, "dxvk-${dxvkVersionForVkd3d}", onExtractFileListener,
             )
             if (profile != null) {
                 Timber.d("Applying user-defined VKD3D content profile: " + dxwrapper)
@@ -1922,11 +2070,12 @@ private fun extractDXWrapperFiles(
                 // Determine VKD3D version from state config
                 Timber.i("Extracting VKD3D D3D12 DLLs version: $dxwrapper")
 
-                TarCompressorUtils.extract(
+                ledger.extract(
                     TarCompressorUtils.Type.ZSTD,
-                    context.assets,
+                    context,
                     "dxwrapper/$dxwrapper.tzst",
                     windowsDir,
+                    "vkd3d",
                     onExtractFileListener,
                 )
             }
@@ -1940,16 +2089,17 @@ private fun extractDXWrapperFiles(
                 Timber.d("Applying user-defined DXVK content profile: " + dxwrapper)
                 contentsManager.applyContent(profile);
             } else {
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD, context.assets,
-                    "dxwrapper/$dxwrapper.tzst", windowsDir, onExtractFileListener,
+                ledger.extract(
+                    TarCompressorUtils.Type.ZSTD, context,
+                    "dxwrapper/$dxwrapper.tzst", windowsDir, dxwrapper, onExtractFileListener,
                 )
             }
-            TarCompressorUtils.extract(
+            ledger.extract(
                 TarCompressorUtils.Type.ZSTD,
-                context.assets,
+                context,
                 "dxwrapper/d8vk-${DefaultVersion.D8VK}.tzst",
                 windowsDir,
+                "d8vk",
                 onExtractFileListener,
             )
         }
@@ -2043,6 +2193,7 @@ private fun extractWinComponentFiles(
     containerManager: ContainerManager,
     // shortcut: Shortcut?,
     onExtractFileListener: OnExtractFileListener?,
+    registry: WineRegistryTransaction,
 ) {
     val rootDir = imageFs.rootDir
     val windowsDir = File(rootDir, ImageFs.WINEPREFIX + "/drive_c/windows")
@@ -2092,8 +2243,8 @@ private fun extractWinComponentFiles(
                     dlls.add(if (!dlname.endsWith(".exe")) "$dlname.dll" else dlname)
                 }
             }
-            WineUtils.overrideWinComponentDlls(context, container, identifier, useNative)
-            WineUtils.setWinComponentRegistryKeys(systemRegFile, identifier, useNative)
+            WineUtils.overrideWinComponentDlls(context, container, identifier, useNative, registry)
+            WineUtils.setWinComponentRegistryKeys(systemRegFile, identifier, useNative, registry)
         }
 
         if (!dlls.isEmpty()) restoreOriginalDllFiles(context, container, containerManager, imageFs, *dlls.toTypedArray())
@@ -2146,6 +2297,7 @@ private fun extractGraphicsDriverFiles(
         val changed = cacheId != container.getExtra("graphicsDriver") || cacheId != onDiskId
         Timber.i("Changed is " + changed + " will re-extract drivers accordingly.")
         val rootDir = imageFs.rootDir
+        val ledger = ExtractionLedger.get(context)
         envVars.put("vblank_mode", "0")
 
         if (changed) {
@@ -2186,17 +2338,19 @@ private fun extractGraphicsDriverFiles(
             }
 
             if (changed) {
-                TarCompressorUtils.extract(
+                ledger.extract(
                     TarCompressorUtils.Type.ZSTD,
-                    context.assets,
+                    context,
                     "graphics_driver/turnip-${turnipVersion}.tzst",
                     rootDir,
+                    "turnip",
                 )
-                TarCompressorUtils.extract(
+                ledger.extract(
                     TarCompressorUtils.Type.ZSTD,
-                    context.assets,
+                    context,
                     "graphics_driver/zink-${zinkVersion}.tzst",
                     rootDir,
+                    "zink-${zinkVersion}",
                 )
             }
         } else if (graphicsDriver == "virgl") {
@@ -2207,9 +2361,9 @@ private fun extractGraphicsDriverFiles(
             envVars.put("MESA_GL_VERSION_OVERRIDE", "3.1")
             envVars.put("vblank_mode", "0")
             if (changed) {
-                TarCompressorUtils.extract(
-                    TarCompressorUtils.Type.ZSTD, context.assets,
-                    "graphics_driver/virgl-${virglVersion}.tzst", rootDir,
+                ledger.extract(
+                    TarCompressorUtils.Type.ZSTD, context,
+                    "graphics_driver/virgl-${virglVersion}.tzst", rootDir, "virgl",
                 )
             }
         } else if (graphicsDriver == "vortek") {
@@ -2224,8 +2378,8 @@ private fun extractGraphicsDriverFiles(
                 envVars.put("WINE_D3D_CONFIG", "renderer=gdi")
             }
             if (changed) {
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/vortek-2.1.tzst", rootDir)
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/zink-22.2.5.tzst", rootDir)
+                ledger.extract(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/vortek-2.1.tzst", rootDir, "vortek")
+                ledger.extract(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/zink-22.2.5.tzst", rootDir, "zink-22.2.5")
             }
         } else if (graphicsDriver == "adreno" || graphicsDriver == "sd-8-elite") {
             val assetZip = if (graphicsDriver == "adreno") "Adreno_${adrenoVersion}_adpkg.zip" else "SD8Elite_${sd8EliteVersion}.zip"
@@ -2266,8 +2420,8 @@ private fun extractGraphicsDriverFiles(
                 envVars.put("WINE_D3D_CONFIG", "renderer=gdi")
             }
             if (changed) {
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/vortek-2.1.tzst", rootDir)
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.assets, "graphics_driver/zink-22.2.5.tzst", rootDir)
+                ledger.extract(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/vortek-2.1.tzst", rootDir, "vortek")
+                ledger.extract(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/zink-22.2.5.tzst", rootDir, "zink-22.2.5")
             }
         }
     } else {
@@ -2327,7 +2481,7 @@ private fun extractGraphicsDriverFiles(
             if (mainWrapperSelection.lowercase(Locale.getDefault()).startsWith("wrapper")) {
                 val assetPath = "graphics_driver/" + mainWrapperSelection.lowercase(Locale.getDefault()) + ".tzst"
                 Log.d("GraphicsDriverExtraction", "WRAPPER selection changed or first boot. Extracting: " + assetPath)
-                val success: Boolean = TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), assetPath, rootDir)
+                val success: Boolean = ExtractionLedger.get(context).extract(TarCompressorUtils.Type.ZSTD, context, assetPath, rootDir, "wrapper").success
                 if (success) {
                     // After success, save the new version so we don't re-extract next time.
                     container.putExtra("lastInstalledMainWrapper", mainWrapperSelection)
@@ -2338,7 +2492,7 @@ private fun extractGraphicsDriverFiles(
             // 4. Extract common libraries, but only when the container is first created.
             if (firstTimeBoot) {
                 Log.d("XServerDisplayActivity", "First time container boot, extracting extra_libs.tzst")
-                TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), "graphics_driver/extra_libs.tzst", rootDir)
+                ExtractionLedger.get(context).extract(TarCompressorUtils.Type.ZSTD, context, "graphics_driver/extra_libs.tzst", rootDir, "extra_libs")
             }
         }
 
@@ -2428,19 +2582,20 @@ private fun readLibraryNameFromExtractedDir(destinationDir: File): String? {
         null
     }
 }
-private fun changeWineAudioDriver(audioDriver: String, container: Container, imageFs: ImageFs) {
+private fun changeWineAudioDriver(audioDriver: String, container: Container, imageFs: ImageFs, registry: WineRegistryTransaction) {
     if (audioDriver != container.getExtra("audioDriver")) {
         val rootDir = imageFs.rootDir
         val userRegFile = File(rootDir, ImageFs.WINEPREFIX + "/user.reg")
-        WineRegistryEditor(userRegFile).use { registryEditor ->
-            if (audioDriver == "alsa") {
-                registryEditor.setStringValue("Software\\Wine\\Drivers", "Audio", "alsa")
-            } else if (audioDriver == "pulseaudio") {
-                registryEditor.setStringValue("Software\\Wine\\Drivers", "Audio", "pulse")
-            }
+        val registryEditor = registry.edit(userRegFile, "audioDriver")
+        if (audioDriver == "alsa") {
+            registryEditor.setStringValue("Software\\Wine\\Drivers", "Audio", "alsa")
+        } else if (audioDriver == "pulseaudio") {
+            registryEditor.setStringValue("Software\\Wine\\Drivers", "Audio", "pulse")
+        }
+        registry.addCommitAction {
+            container.putExtra("audioDriver", audioDriver)
+            container.saveData()
         }
-        container.putExtra("audioDriver", audioDriver)
-        container.saveData()
     }
 }
 private fun setImagefsContainerVariant(context: Context, container: Container) {
@@ -0,0 +1,225 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.coroutines.cancellation.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.withContext
+import timber.log.Timber
+
+/**
+ * Two-tier cache for downloaded artwork (SteamGridDB grids, heroes and logos).
+ *
+ * Encoded images are kept in a byte-sized LRU in memory and in an LRU directory on disk, each entry
+ * stored under the SHA-256 of its URL. Disk recency is kept in the file mtimes, so the eviction
+ * order survives restarts. Concurrent requests for the same URL share one fetch. [fetch] does the
+ * network call and returns the body, or null on failure; it is injected so tests can run against a
+ * local server.
+ */
+internal class ArtworkCache(
+    private val directory: File?,
+    private val maxMemoryBytes: Long = 16L * 1024 * 1024,
+    private val maxDiskBytes: Long = 128L * 1024 * 1024,
+    private val fetch: (String) -> ByteArray?,
+) {
+
+    data class Stats(
+        val requests: Long,
+        val memoryHits: Long,
+        val diskHits: Long,
+        /** Requests that waited on a fetch already in flight for the same URL */
+        val coalesced: Long,
+        val fetches: Long,
+        val failures: Long,
+        val bytesFetched: Long,
+    ) {
+        /** Share of requests answered without a fetch of their own */
+        val hitRate: Double
+            get() = if (requests == 0L) 0.0 else (memoryHits + diskHits + coalesced).toDouble() / requests
+    }
+
+    private val memory = LinkedHashMap<String, ByteArray>(16, 0.75f, true)
+    private var memoryBytes = 0L
+
+    // Key to file size, least recently used first
+    private val disk = LinkedHashMap<String, Long>(16, 0.75f, true)
+    private var diskBytes = 0L
+
+    @Volatile
+    private var diskLoaded = false
+
+    private val inFlight = ConcurrentHashMap<String, CompletableDeferred<ByteArray?>>()
+
+    private val requests = AtomicLong()
+    private val memoryHits = AtomicLong()
+    private val diskHits = AtomicLong()
+    private val coalesced = AtomicLong()
+    private val fetches = AtomicLong()
+    private val failures = AtomicLong()
+    private val bytesFetched = AtomicLong()
+
+    val stats: Stats
+        get() = Stats(
+            requests = requests.get(),
+            memoryHits = memoryHits.get(),
+            diskHits = diskHits.get(),
+            coalesced = coalesced.get(),
+            fetches = fetches.get(),
+            failures = failures.get(),
+            bytesFetched = bytesFetched.get(),
+        )
+
+    /** The image at [url] from memory, disk or the network, or null if it can't be fetched. */
+    suspend fun get(url: String): ByteArray? {
+        requests.incrementAndGet()
+        val key = keyOf(url)
+        memoryGet(key)?.let {
+            memoryHits.incrementAndGet()
+            return it
+        }
+
+        val deferred = CompletableDeferred<ByteArray?>()
+        inFlight.putIfAbsent(url, deferred)?.let {
+            coalesced.incrementAndGet()
+            return it.await()
+        }
+        try {
+            val bytes = withContext(Dispatchers.IO) { load(url, key) }
+            deferred.complete(bytes)
+            return bytes
+        } catch (e: CancellationException) {
+            // Waiters weren't cancelled themselves, they just don't get an image this time
+            deferred.complete(null)
+            throw e
+        } finally {
+            inFlight.remove(url, deferred)
+        }
+    }
+
+    /** Dimensions of the image at [url], read from its header. Fetches it if it isn't cached. */
+    suspend fun size(url: String): ImageHeader.Size? = get(url)?.let { ImageHeader.read(it) }
+
+    /** Drops every cached image, in memory and on disk. */
+    fun clear() {
+        synchronized(memory) {
+            memory.clear()
+            memoryBytes = 0
+        }
+        synchronized(disk) {
+            directory?.listFiles()?.forEach { it.delete() }
+            disk.clear()
+            diskBytes = 0
+        }
+    }
+
+    private fun load(url: String, key: String): ByteArray? {
+        diskGet(key)?.let {
+            diskHits.incrementAndGet()
+            memoryPut(key, it)
+            return it
+        }
+
+        fetches.incrementAndGet()
+        val bytes = try {
+            fetch(url)
+        } catch (e: Exception) {
+            Timber.tag("ArtworkCache").w(e, "Failed to fetch $url")
+            null
+        }
+        if (bytes == null) {
+            failures.incrementAndGet()
+            return null
+        }
+        bytesFetched.addAndGet(bytes.size.toLong())
+        diskPut(key, bytes)
+        memoryPut(key, bytes)
+        return bytes
+    }
+
+    private fun memoryGet(key: String): ByteArray? = synchronized(memory) { memory[key] }
+
+    private fun memoryPut(key: String, bytes: ByteArray) {
+        // One image shouldn't flush everything else
+        if (bytes.size > maxMemoryBytes / 4) return
+        synchronized(memory) {
+            memory.put(key, bytes)?.let { memoryBytes -= it.size }
+            memoryBytes += bytes.size
+            val iterator = memory.values.iterator()
+            while (memoryBytes > maxMemoryBytes && iterator.hasNext()) {
+                memoryBytes -= iterator.next().size
+                iterator.remove()
+            }
+        }
+    }
+
+    private fun diskGet(key: String): ByteArray? {
+        val dir = directory ?: return null
+        synchronized(disk) {
+            if (!diskLoaded) loadDisk(dir)
+            if (disk[key] == null) return null
+        }
+        val file = File(dir, key)
+        return try {
+            val bytes = file.readBytes()
+            file.setLastModified(System.currentTimeMillis())
+            bytes
+        } catch (e: Exception) {
+            // Evicted or removed behind our back
+            synchronized(disk) { disk.remove(key)?.let { diskBytes -= it } }
+            null
+        }
+    }
+
+    private fun diskPut(key: String, bytes: ByteArray) {
+        val dir = directory ?: return
+        if (bytes.size > maxDiskBytes) return
+        try {
+            dir.mkdirs()
+            val tmp = File(dir, "$key.tmp")
+            tmp.writeBytes(bytes)
+            val file = File(dir, key)
+            if (!tmp.renameTo(file)) {
+                file.delete()
+                tmp.renameTo(file)
+            }
+        } catch (e: Exception) {
+            Timber.tag("ArtworkCache").w(e, "Failed to write cache entry for $key")
+            return
+        }
+
+        synchronized(disk) {
+            if (!diskLoaded) loadDisk(dir)
+            disk.put(key, bytes.size.toLong())?.let { diskBytes -= it }
+            diskBytes += bytes.size
+            val iterator = disk.entries.iterator()
+            while (diskBytes > maxDiskBytes && iterator.hasNext()) {
+                val (eldest, size) = iterator.next()
+                if (eldest == key) continue
+                File(dir, eldest).delete()
+                diskBytes -= size
+                iterator.remove()
+            }
+        }
+    }
+
+    // Called with the disk lock held
+    private fun loadDisk(dir: File) {
+        val files = dir.listFiles()?.filter { it.isFile }.orEmpty()
+        for (file in files.sortedBy { it.lastModified() }) {
+            if (file.name.endsWith(".tmp")) {
+                file.delete()
+                continue
+            }
+            disk[file.name] = file.length()
+            diskBytes += file.length()
+        }
+        diskLoaded = true
+        Timber.tag("ArtworkCache").d("Loaded ${disk.size} cached images (${diskBytes / 1024}KB) from ${dir.path}")
+    }
+
+    private fun keyOf(url: String): String =
+        MessageDigest.getInstance("SHA-256").digest(url.toByteArray()).joinToString("") { "%02x".format(it) }
+}
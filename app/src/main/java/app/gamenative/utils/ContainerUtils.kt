@@ -14,6 +14,7 @@ import com.winlator.core.DefaultVersion
 import com.winlator.core.FileUtils
 import com.winlator.core.GPUInformation
 import com.winlator.core.WineRegistryEditor
+import com.winlator.core.WineRegistryTransaction
 import com.winlator.core.WineThemeManager
 import com.winlator.fexcore.FEXCoreManager
 import com.winlator.inputcontrols.ControlsProfile
@@ -319,6 +320,19 @@ object ContainerUtils {
     }
 
     fun applyToContainer(context: Context, container: Container, containerData: ContainerData, saveToDisk: Boolean) {
+        val registry = WineRegistryTransaction()
+        applyToContainer(context, container, containerData, saveToDisk, registry)
+        registry.commit()
+    }
+
+    /** Queues the registry edits on [registry] instead of writing user.reg right away. */
+    fun applyToContainer(
+        context: Context,
+        container: Container,
+        containerData: ContainerData,
+        saveToDisk: Boolean,
+        registry: WineRegistryTransaction,
+    ) {
         Timber.d("Applying containerData to container. execArgs: '${containerData.execArgs}', saveToDisk: $saveToDisk")
         // Detect language change before mutating container
         val previousLanguage: String = try {
@@ -328,22 +342,21 @@ object ContainerUtils {
         }
         val previousForceDlc: Boolean = container.isForceDlc
         val userRegFile = File(container.rootDir, ".wine/user.reg")
-        WineRegistryEditor(userRegFile).use { registryEditor ->
-            registryEditor.setStringValue("Software\\Wine\\Direct3D", "renderer", containerData.renderer)
-            registryEditor.setDwordValue("Software\\Wine\\Direct3D", "csmt", if (containerData.csmt) 3 else 0)
-            registryEditor.setDwordValue("Software\\Wine\\Direct3D", "VideoPciDeviceID", containerData.videoPciDeviceID)
-            registryEditor.setDwordValue(
-                "Software\\Wine\\Direct3D",
-                "VideoPciVendorID",
-                getGPUCards(context)[containerData.videoPciDeviceID]!!.vendorId,
-            )
-            registryEditor.setStringValue("Software\\Wine\\Direct3D", "OffScreenRenderingMode", containerData.offScreenRenderingMode)
-            registryEditor.setDwordValue("Software\\Wine\\Direct3D", "strict_shader_math", if (containerData.strictShaderMath) 1 else 0)
-            registryEditor.setStringValue("Software\\Wine\\Direct3D", "VideoMemorySize", containerData.videoMemorySize)
-            registryEditor.setStringValue("Software\\Wine\\DirectInput", "MouseWarpOverride", containerData.mouseWarpOverride)
-            registryEditor.setStringValue("Software\\Wine\\Direct3D", "shader_backend", "glsl")
-            registryEditor.setStringValue("Software\\Wine\\Direct3D", "UseGLSL", "enabled")
-        }
+        val registryEditor = registry.edit(userRegFile, "applyToContainer")
+        registryEditor.setStringValue("Software\\Wine\\Direct3D", "renderer", containerData.renderer)
+        registryEditor.setDwordValue("Software\\Wine\\Direct3D", "csmt", if (containerData.csmt) 3 else 0)
+        registryEditor.setDwordValue("Software\\Wine\\Direct3D", "VideoPciDeviceID", containerData.videoPciDeviceID)
+        registryEditor.setDwordValue(
+            "Software\\Wine\\Direct3D",
+            "VideoPciVendorID",
+            getGPUCards(context)[containerData.videoPciDeviceID]!!.vendorId,
+        )
+        registryEditor.setStringValue("Software\\Wine\\Direct3D", "OffScreenRenderingMode", containerData.offScreenRenderingMode)
+        registryEditor.setDwordValue("Software\\Wine\\Direct3D", "strict_shader_math", if (containerData.strictShaderMath) 1 else 0)
+        registryEditor.setStringValue("Software\\Wine\\Direct3D", "VideoMemorySize", containerData.videoMemorySize)
+        registryEditor.setStringValue("Software\\Wine\\DirectInput", "MouseWarpOverride", containerData.mouseWarpOverride)
+        registryEditor.setStringValue("Software\\Wine\\Direct3D", "shader_backend", "glsl")
+        registryEditor.setStringValue("Software\\Wine\\Direct3D", "UseGLSL", "enabled")
 
         container.name = containerData.name
         container.screenSize = containerData.screenSize
@@ -0,0 +1,225 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import org.json.JSONArray
+import org.json.JSONObject
+import timber.log.Timber
+
+/**
+ * Persistent index of Custom Game folder scans.
+ * Each manual folder remembers the mtimes of every directory [CustomGameScanner.scanFolder] lists
+ * (the root and its immediate subfolders) together with its game id, unique executable and icon,
+ * so folders are only listed again when one of those mtimes changes. Library filter passes and
+ * search keystrokes are then served from memory.
+ */
+internal class CustomGameScanIndex(private val indexFile: File?) {
+
+    data class FolderScan(
+        val uniqueExeRel: String?,
+        val iconPath: String?,
+    )
+
+    data class Entry(
+        val folderPath: String,
+        val name: String,
+        val lastModified: Long,
+        // Immediate subfolder name to mtime; adding or removing a subfolder already bumps the root
+        val subfolderMtimes: Map<String, Long>,
+        val gameId: Int,
+        val uniqueExeRel: String?,
+        val iconPath: String?,
+    )
+
+    data class RefreshResult(
+        val entries: List<Entry>,
+        val rescanned: List<Entry>,
+        val removed: Int,
+        val elapsedMs: Long,
+    )
+
+    private val entries = ConcurrentHashMap<String, Entry>()
+    private val mutex = Mutex()
+
+    @Volatile
+    private var indexedFolders: Set<String>? = null
+
+    @Volatile
+    private var loaded = false
+
+    /**
+     * Returns true if the index was last refreshed against exactly [folders].
+     */
+    fun isCurrent(folders: Set<String>): Boolean = indexedFolders == folders
+
+    /**
+     * Returns the indexed entries for [folders] in iteration order, without touching the disk.
+     */
+    fun entriesFor(folders: Collection<String>): List<Entry> = folders.mapNotNull { entries[File(it).absolutePath] }
+
+    fun findByGameId(gameId: Int): Entry? = entries.values.firstOrNull { it.gameId == gameId }
+
+    /**
+     * Records an icon that was produced after the folder was scanned (e.g. by background extraction).
+     */
+    suspend fun updateIcon(folderPath: String, iconPath: String) = mutex.withLock {
+        // Icon extraction finishes in the background, so wait for a running refresh before writing the file
+        entries.computeIfPresent(folderPath) { _, entry -> entry.copy(iconPath = iconPath) }
+        save()
+    }
+
+    /**
+     * Drops every entry so the next refresh rescans all folders.
+     */
+    suspend fun invalidate() = mutex.withLock {
+        entries.clear()
+        indexedFolders = null
+        indexFile?.delete()
+        Timber.tag("CustomGameScanIndex").d("Scan index invalidated")
+    }
+
+    /**
+     * Brings the index in line with [folders]. Roots and their indexed subfolders are stat'ed in parallel
+     * and only roots where one of those mtimes differs from the indexed one are handed to [scanFolder]. Game ids for rescanned roots are resolved
+     * sequentially with [resolveGameId] since id generation checks for collisions across all games.
+     */
+    suspend fun refresh(
+        folders: Set<String>,
+        scanFolder: (File) -> FolderScan,
+        resolveGameId: (File) -> Int,
+    ): RefreshResult = mutex.withLock {
+        val start = System.nanoTime()
+        if (!loaded) load()
+
+        val scans = coroutineScope {
+            folders.map { path ->
+                async(Dispatchers.IO) {
+                    val folder = File(path).absoluteFile
+                    val lastModified = folder.lastModified()
+                    val cached = entries[folder.path]
+                    when {
+                        lastModified == 0L || !folder.isDirectory -> PendingScan(folder, null, null, emptyMap())
+                        cached != null && cached.lastModified == lastModified &&
+                            cached.subfolderMtimes.all { (name, mtime) -> File(folder, name).lastModified() == mtime } ->
+                            PendingScan(folder, cached, null, cached.subfolderMtimes)
+                        else -> {
+                            // Stamped before listing, so a change made during the scan triggers another one
+                            val subfolderMtimes = subfolderMtimes(folder)
+                            PendingScan(folder, null, scanFolder(folder), subfolderMtimes)
+                        }
+                    }
+                }
+            }.awaitAll()
+        }
+
+        val result = ArrayList<Entry>(scans.size)
+        val rescanned = ArrayList<Entry>()
+        val live = HashSet<String>()
+        for (scan in scans) {
+            val entry = when {
+                scan.cached != null -> scan.cached
+                scan.scan != null -> {
+                    val gameId = resolveGameId(scan.folder)
+                    // Resolving a fresh id writes .gamenative into the folder and bumps its mtime, so restamp here
+                    Entry(
+                        folderPath = scan.folder.path,
+                        name = scan.folder.name,
+                        lastModified = scan.folder.lastModified(),
+                        subfolderMtimes = scan.subfolderMtimes,
+                        gameId = gameId,
+                        uniqueExeRel = scan.scan.uniqueExeRel,
+                        iconPath = scan.scan.iconPath,
+                    ).also { rescanned.add(it) }
+                }
+                else -> null
+            } ?: continue
+            entries[entry.folderPath] = entry
+            live.add(entry.folderPath)
+            result.add(entry)
+        }
+
+        val stale = entries.keys.filter { it !in live }
+        stale.forEach { entries.remove(it) }
+        indexedFolders = folders
+
+        if (rescanned.isNotEmpty() || stale.isNotEmpty()) save()
+
+        val elapsedMs = (System.nanoTime() - start) / 1_000_000
+        Timber.tag("CustomGameScanIndex").d(
+            "Refreshed ${result.size} folder(s), rescanned ${rescanned.size}, removed ${stale.size} in ${elapsedMs}ms",
+        )
+        RefreshResult(result, rescanned, stale.size, elapsedMs)
+    }
+
+    private class PendingScan(
+        val folder: File,
+        val cached: Entry?,
+        val scan: FolderScan?,
+        val subfolderMtimes: Map<String, Long>,
+    )
+
+    private fun subfolderMtimes(folder: File): Map<String, Long> =
+        folder.listFiles()?.filter { it.isDirectory }?.associate { it.name to it.lastModified() } ?: emptyMap()
+
+    private fun load() {
+        loaded = true
+        val file = indexFile ?: return
+        if (!file.isFile) return
+        try {
+            val array = JSONArray(file.readText())
+            for (i in 0 until array.length()) {
+                val json = array.getJSONObject(i)
+                // Entries written before subfolders were tracked are left out and rescanned once
+                val subfolders = json.optJSONObject("subfolderMtimes") ?: continue
+                val entry = Entry(
+                    folderPath = json.getString("folderPath"),
+                    name = json.getString("name"),
+                    lastModified = json.getLong("lastModified"),
+                    subfolderMtimes = subfolders.keys().asSequence().associateWith { subfolders.getLong(it) },
+                    gameId = json.getInt("gameId"),
+                    uniqueExeRel = json.optString("uniqueExeRel").takeIf { it.isNotEmpty() },
+                    iconPath = json.optString("iconPath").takeIf { it.isNotEmpty() },
+                )
+                entries[entry.folderPath] = entry
+            }
+            Timber.tag("CustomGameScanIndex").d("Loaded ${entries.size} entries from ${file.path}")
+        } catch (e: Exception) {
+            Timber.tag("CustomGameScanIndex").w(e, "Failed to load scan index, starting cold")
+            entries.clear()
+        }
+    }
+
+    private fun save() {
+        val file = indexFile ?: return
+        try {
+            val array = JSONArray()
+            for (entry in entries.values) {
+                array.put(
+                    JSONObject()
+                        .put("folderPath", entry.folderPath)
+                        .put("name", entry.name)
+                        .put("lastModified", entry.lastModified)
+                        .put("subfolderMtimes", JSONObject(entry.subfolderMtimes))
+                        .put("gameId", entry.gameId)
+                        .put("uniqueExeRel", entry.uniqueExeRel ?: "")
+                        .put("iconPath", entry.iconPath ?: ""),
+                )
+            }
+            file.parentFile?.mkdirs()
+            val tmp = File(file.parentFile, file.name + ".tmp")
+            tmp.writeText(array.toString())
+            if (!tmp.renameTo(file)) {
+                file.delete()
+                tmp.renameTo(file)
+            }
+        } catch (e: Exception) {
+            Timber.tag("CustomGameScanIndex").w(e, "Failed to save scan index")
+        }
+    }
+}
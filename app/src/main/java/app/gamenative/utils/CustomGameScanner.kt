@@ -17,12 +17,32 @@ import app.gamenative.service.DownloadService
 import com.winlator.container.ContainerManager
 import java.io.File
 import kotlin.math.abs
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
 import kotlinx.coroutines.launch
 import timber.log.Timber
 import org.json.JSONObject
 
 object CustomGameScanner {
 
+    // Persistent scan index reused across library filter passes; folders are only re-listed when their mtime changes
+    private val scanIndex by lazy {
+        val indexFile = DownloadService.baseDataDirPath.takeIf { it.isNotEmpty() }
+            ?.let { File(it, "custom_game_scan_index.json") }
+        CustomGameScanIndex(indexFile)
+    }
+
+    // Background icon extraction for detected games, a few workers with outcomes remembered per exe
+    private val iconQueue by lazy {
+        val cacheFile = DownloadService.baseDataDirPath.takeIf { it.isNotEmpty() }
+            ?.let { File(it, "exe_icon_cache.json") }
+        IconExtractionQueue(cacheFile)
+    }
+
+    // Icon results arrive on extraction workers and are written to the index from here
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+
     // Default root path for Custom Games. Always use the app's external storage sandbox
     // (Android/data/<package>/CustomGames) when available; fall back to internal only if external is unavailable.
     // This ensures the folder is visible via MTP/file managers.
@@ -101,6 +121,15 @@ object CustomGameScanner {
      * Returns the absolute file path to the icon when found; otherwise null.
      */
     fun findIconFileForCustomGame(appId: String): String? {
+        // Served from the scan index when the folder has been indexed; only exes still awaiting
+        // icon extraction fall through to the disk heuristics below
+        appId.removePrefix("${GameSource.CUSTOM_GAME.name}_").toIntOrNull()
+            ?.let { scanIndex.findByGameId(it) }
+            ?.let { entry ->
+                if (entry.iconPath != null) return entry.iconPath
+                if (entry.uniqueExeRel == null) return null
+            }
+
         val folderPath = getFolderPathFromAppId(appId) ?: return null
         val folder = File(folderPath)
         if (!folder.exists() || !folder.isDirectory) return null
@@ -211,13 +240,26 @@ object CustomGameScanner {
 
     // Shared helper for .ico/.png heuristic
     private fun findNearbyImageIcon(folder: File, uniqueExeRel: String?): String? {
-        fun File.icoFiles(): List<File> = this.listFiles { f ->
-            f.isFile && (f.name.endsWith(".ico", ignoreCase = true) || f.name.endsWith(".png", ignoreCase = true))
-        }?.toList() ?: emptyList()
+        fun File.icoFiles(): List<File> = this.listFiles { f -> f.isFile && f.isImageIconCandidate() }?.toList() ?: emptyList()
 
         val rootIcons = folder.icoFiles()
         val subdirIcons = folder.listFiles { f -> f.isDirectory }?.flatMap { it.icoFiles() } ?: emptyList()
-        val allIcons = (rootIcons + subdirIcons)
+        return pickNearbyImageIcon(folder, rootIcons + subdirIcons, uniqueExeRel)
+    }
+
+    private fun File.isImageIconCandidate(): Boolean =
+        name.endsWith(".ico", ignoreCase = true) || name.endsWith(".png", ignoreCase = true)
+
+    private fun File.isSteamGridLogo(): Boolean =
+        name.startsWith("steamgriddb_logo", ignoreCase = true) &&
+            (name.endsWith(".png", ignoreCase = true) ||
+                name.endsWith(".jpg", ignoreCase = true) ||
+                name.endsWith(".webp", ignoreCase = true))
+
+    private fun File.isValidExe(): Boolean =
+        name.endsWith(".exe", ignoreCase = true) && !name.startsWith("unins", ignoreCase = true)
+
+    private fun pickNearbyImageIcon(folder: File, allIcons: List<File>, uniqueExeRel: String?): String? {
         if (allIcons.isEmpty()) {
             Timber.tag("CustomGameScanner").d("findNearbyImageIcon - No icon files found in $folder")
             return null
@@ -271,6 +313,49 @@ object CustomGameScanner {
         return null
     }
 
+    /**
+     * Lists a game folder root and its immediate subfolders once, deriving the unique executable and
+     * icon with the same rules as [findUniqueExeRelativeToFolder] and [findIconFileForCustomGame].
+     * Used by the scan index so a changed folder is walked a single time.
+     */
+    internal fun scanFolder(folder: File): CustomGameScanIndex.FolderScan {
+        val exeCandidates = mutableListOf<String>()
+        val iconFiles = mutableListOf<File>()
+        var steamGridLogo: File? = null
+
+        val subDirs = mutableListOf<File>()
+        folder.listFiles()?.forEach { f ->
+            if (f.isDirectory) {
+                subDirs.add(f)
+            } else if (f.isFile) {
+                if (steamGridLogo == null && f.isSteamGridLogo()) steamGridLogo = f
+                if (f.isValidExe()) exeCandidates.add(f.name)
+                if (f.isImageIconCandidate()) iconFiles.add(f)
+            }
+        }
+        for (sd in subDirs) {
+            sd.listFiles()?.forEach { f ->
+                if (f.isFile) {
+                    if (f.isValidExe()) exeCandidates.add(sd.name + "/" + f.name)
+                    if (f.isImageIconCandidate()) iconFiles.add(f)
+                }
+            }
+        }
+
+        val unique = exeCandidates.distinct()
+        val uniqueExeRel = if (unique.size == 1) unique.first() else null
+
+        val iconPath = steamGridLogo?.absolutePath
+            ?: uniqueExeRel?.let { rel ->
+                val exeFile = File(folder, rel.replace('/', File.separatorChar))
+                val outIco = File(exeFile.parentFile, exeFile.nameWithoutExtension + ".extracted.ico")
+                outIco.takeIf { it.exists() && it.lastModified() >= exeFile.lastModified() }?.absolutePath
+            }
+            ?: pickNearbyImageIcon(folder, iconFiles, uniqueExeRel)
+
+        return CustomGameScanIndex.FolderScan(uniqueExeRel = uniqueExeRel, iconPath = iconPath)
+    }
+
     /**
      * Scan a game folder and return the executable relative path if and only if
      * there is exactly ONE candidate .exe within the folder root or exactly one
@@ -412,58 +497,87 @@ object CustomGameScanner {
     /**
      * All manually added folders are included regardless of content.
      * Optionally filter by [query] contained in folder name (case-insensitive).
+     *
+     * Folders are resolved through the scan index: unfiltered passes stat each root in parallel and
+     * rescan only those whose mtime changed, while search passes filter the index without touching the disk.
      */
-    fun scanAsLibraryItems(query: String = "", indexOffsetStart: Int = 0, includeWhenInstalledFilterActive: Boolean = true): List<LibraryItem> {
+    suspend fun scanAsLibraryItems(query: String = "", indexOffsetStart: Int = 0, includeWhenInstalledFilterActive: Boolean = true): List<LibraryItem> {
         val items = mutableListOf<LibraryItem>()
         var indexCounter = indexOffsetStart
         val q = query.trim()
 
         val manualFolders = PrefManager.customGameManualFolders
-        if (manualFolders.isNotEmpty()) {
-            val existingAppIds = mutableSetOf<String>()
-            for (manualPath in manualFolders) {
-                // Filter by query if provided
-                if (q.isNotEmpty()) {
-                    val folderName = File(manualPath).name
-                    if (!folderName.contains(q, ignoreCase = true)) continue
-                }
-                
-                val manualItem = createLibraryItemFromFolder(manualPath)
-                if (manualItem != null && existingAppIds.add(manualItem.appId)) {
-                    items.add(manualItem.copy(index = indexCounter++))
-                }
+        if (manualFolders.isEmpty()) return items
+
+        val entries = if (q.isNotEmpty() && scanIndex.isCurrent(manualFolders)) {
+            scanIndex.entriesFor(manualFolders)
+        } else {
+            val result = scanIndex.refresh(
+                folders = manualFolders,
+                scanFolder = ::scanFolder,
+                resolveGameId = ::getOrGenerateGameId,
+            )
+            result.rescanned.forEach { handleCustomGameDetection(it) }
+            result.entries
+        }
+
+        val existingAppIds = mutableSetOf<String>()
+        for (entry in entries) {
+            // Filter by query if provided
+            if (q.isNotEmpty() && !entry.name.contains(q, ignoreCase = true)) continue
+
+            val appId = "${GameSource.CUSTOM_GAME.name}_${entry.gameId}"
+            if (existingAppIds.add(appId)) {
+                items.add(
+                    LibraryItem(
+                        index = indexCounter++,
+                        appId = appId,
+                        name = entry.name,
+                        iconHash = "",
+                        isShared = false,
+                        gameSource = GameSource.CUSTOM_GAME,
+                    ),
+                )
             }
         }
 
         return items
     }
 
+    private fun handleCustomGameDetection(entry: CustomGameScanIndex.Entry) {
+        CustomGameCache.addEntry(entry.gameId, entry.folderPath)
+
+        // The scan already found a SteamGridDB logo or an up-to-date extracted icon
+        val iconPath = entry.iconPath
+        if (iconPath != null && (iconPath.endsWith(".extracted.ico", ignoreCase = true) || File(iconPath).isSteamGridLogo())) return
+        val uniqueExeRel = entry.uniqueExeRel ?: return
+
+        val exeFile = File(entry.folderPath, uniqueExeRel.replace('/', File.separatorChar))
+        val outIco = File(exeFile.parentFile, exeFile.nameWithoutExtension + ".extracted.ico")
+        iconQueue.submit(exeFile, outIco) { iconPath ->
+            if (iconPath != null) {
+                Timber.tag("CustomGameScanner").d("Extracted icon for ${entry.name} from ${exeFile.name}")
+                scope.launch { scanIndex.updateIcon(entry.folderPath, iconPath) }
+            }
+        }
+    }
+
     private fun handleCustomGameDetection(folder: File, appId: String, idPart: Int) {
         CustomGameCache.addEntry(idPart, folder.absolutePath)
 
-        kotlinx.coroutines.CoroutineScope(kotlinx.coroutines.Dispatchers.IO).launch {
-            try {
-                val hasExtractedIcon = folder.listFiles { file ->
-                    file.isFile && file.name.endsWith(".extracted.ico", ignoreCase = true)
-                }?.isNotEmpty() == true
-
-                if (!hasExtractedIcon) {
-                    val uniqueExeRel = findUniqueExeRelativeToFolder(folder)
-                    if (!uniqueExeRel.isNullOrEmpty()) {
-                        val exeFile = File(folder, uniqueExeRel.replace('/', File.separatorChar))
-                        if (exeFile.exists()) {
-                            val outIco = File(exeFile.parentFile, exeFile.nameWithoutExtension + ".extracted.ico")
-                            if (!outIco.exists() || outIco.lastModified() < exeFile.lastModified()) {
-                                if (ExeIconExtractor.tryExtractMainIcon(exeFile, outIco)) {
-                                    Timber.tag("CustomGameScanner").d("Extracted icon for ${folder.name} from ${exeFile.name}")
-                                }
-                            }
-                        }
-                    }
-                }
-            } catch (e: Exception) {
-                Timber.tag("CustomGameScanner").d(e, "Icon extraction failed for ${folder.name}")
-            }
+        val hasExtractedIcon = folder.listFiles { file ->
+            file.isFile && file.name.endsWith(".extracted.ico", ignoreCase = true)
+        }?.isNotEmpty() == true
+        if (hasExtractedIcon) return
+
+        val uniqueExeRel = findUniqueExeRelativeToFolder(folder)
+        if (uniqueExeRel.isNullOrEmpty()) return
+        val exeFile = File(folder, uniqueExeRel.replace('/', File.separatorChar))
+        if (!exeFile.exists()) return
+        val outIco = File(exeFile.parentFile, exeFile.nameWithoutExtension + ".extracted.ico")
+        if (outIco.exists() && outIco.lastModified() >= exeFile.lastModified()) return
+        iconQueue.submit(exeFile, outIco) { iconPath ->
+            if (iconPath != null) Timber.tag("CustomGameScanner").d("Extracted icon for ${folder.name} from ${exeFile.name}")
         }
     }
 
@@ -524,6 +638,14 @@ object CustomGameScanner {
         CustomGameCache.invalidate()
     }
 
+    /**
+     * Drops the persistent scan index so the next library pass rescans every Custom Game folder.
+     * Folder additions/removals and mtime changes are picked up without this; use it for explicit refreshes.
+     */
+    suspend fun invalidateScanIndex() {
+        scanIndex.invalidate()
+    }
+
     /**
      * Gets or rebuilds the appId cache if needed.
      * Cache is invalidated when Custom Game manual folders change.
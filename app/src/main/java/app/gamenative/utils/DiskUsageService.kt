@@ -0,0 +1,119 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.LinkOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveTask
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runInterruptible
+import timber.log.Timber
+
+/**
+ * Shared disk-usage service for storage screens.
+ *
+ * Directory trees are walked with a fork/join work-stealing traversal. For every directory the
+ * bytes of its direct files and the names of its subdirectories are cached keyed by the directory
+ * mtime, so a warm walk only stats directories and re-lists those whose entries changed.
+ * Files modified in place do not bump the directory mtime, so writers call [invalidate] after
+ * installs, downloads and deletes, and entries older than [MAX_ENTRY_AGE_NANOS] are re-listed
+ * anyway to pick up growth nobody reported.
+ */
+object DiskUsageService {
+
+    private const val MAX_ENTRY_AGE_NANOS = 30_000_000_000L
+
+    private class DirEntry(
+        val lastModified: Long,
+        val scannedAt: Long,
+        val fileBytes: Long,
+        val subDirs: Array<String>,
+    )
+
+    // Replaced by tests to age cached entries without sleeping
+    @Volatile
+    internal var clock: () -> Long = System::nanoTime
+
+    private val dirCache = ConcurrentHashMap<String, DirEntry>()
+    private val pool = ForkJoinPool(Runtime.getRuntime().availableProcessors().coerceIn(2, 4))
+
+    private class SizeTask(private val dir: File) : RecursiveTask<Long>() {
+        override fun compute(): Long {
+            val lastModified = dir.lastModified()
+            if (lastModified == 0L) {
+                dirCache.remove(dir.path)
+                return 0L
+            }
+
+            val cached = dirCache[dir.path]
+            val entry = if (cached != null && cached.lastModified == lastModified && clock() - cached.scannedAt < MAX_ENTRY_AGE_NANOS) {
+                cached
+            } else {
+                scan(dir, lastModified)
+            }
+            if (entry.subDirs.isEmpty()) return entry.fileBytes
+
+            val tasks = entry.subDirs.map { SizeTask(File(dir, it)) }
+            invokeAll(tasks)
+            return entry.fileBytes + tasks.sumOf { it.join() }
+        }
+
+        private fun scan(dir: File, lastModified: Long): DirEntry {
+            val scannedAt = clock()
+            var fileBytes = 0L
+            val subDirs = ArrayList<String>()
+            dir.list()?.forEach { name ->
+                try {
+                    // Single lstat per entry; symlinked directories are not followed to avoid counting twice
+                    val attrs = Files.readAttributes(File(dir, name).toPath(), BasicFileAttributes::class.java, LinkOption.NOFOLLOW_LINKS)
+                    when {
+                        attrs.isDirectory -> subDirs.add(name)
+                        attrs.isRegularFile -> fileBytes += attrs.size()
+                    }
+                } catch (e: IOException) {
+                    // Entry vanished while walking
+                }
+            }
+            val entry = DirEntry(lastModified, scannedAt, fileBytes, subDirs.toTypedArray())
+            dirCache[dir.path] = entry
+            return entry
+        }
+    }
+
+    /**
+     * Returns the total size in bytes of the files under [path], walking in parallel and reusing
+     * cached per-directory totals. Blocks the calling thread; prefer [getSize] from coroutines.
+     */
+    fun getSizeBlocking(path: File): Long {
+        val file = path.absoluteFile
+        return when {
+            file.isFile -> file.length()
+            file.isDirectory -> pool.invoke(SizeTask(file))
+            else -> 0L
+        }
+    }
+
+    suspend fun getSize(path: String): Long = runInterruptible(Dispatchers.IO) {
+        getSizeBlocking(File(path))
+    }
+
+    /**
+     * Drops cached totals for [path] and everything below it. Call after installs, downloads and deletes.
+     */
+    fun invalidate(path: String) {
+        val root = File(path).absolutePath
+        val prefix = root + File.separator
+        dirCache.keys.removeIf { it == root || it.startsWith(prefix) }
+        Timber.tag("DiskUsageService").d("Invalidated disk usage cache for $root")
+    }
+
+    /**
+     * Drops every cached total.
+     */
+    fun clear() {
+        dirCache.clear()
+    }
+}
@@ -0,0 +1,234 @@
+package app.gamenative.utils
+
+import android.system.Os
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.concurrent.atomic.AtomicLong
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import timber.log.Timber
+
+/**
+ * Moves a game library directory to a new location.
+ *
+ * When source and target live on the same volume every top-level game directory is renamed
+ * in one atomic step. Across volumes files are copied by a bounded pool of workers into a
+ * temporary name, size-verified, renamed into place and only then deleted from the source.
+ * Completed files are appended to a journal in the target directory so an interrupted move
+ * resumes where it stopped; the journal is removed once the source is empty.
+ */
+class GameLibraryRelocator(
+    private val sourceDir: File,
+    private val targetDir: File,
+    private val maxParallelCopies: Int = 3,
+    private val isSameVolume: (File, File) -> Boolean = ::isSameVolumeByDevice,
+) {
+    data class Progress(
+        val currentFile: String,
+        val bytesDone: Long,
+        val totalBytes: Long,
+        val filesDone: Int,
+        val totalFiles: Int,
+    ) {
+        val fraction: Float
+            get() = when {
+                totalBytes > 0 -> (bytesDone.toDouble() / totalBytes).toFloat()
+                totalFiles > 0 -> filesDone.toFloat() / totalFiles
+                else -> 1f
+            }
+    }
+
+    data class Result(
+        val renamed: Boolean,
+        val filesMoved: Int,
+        val bytesMoved: Long,
+        val resumedFiles: Int,
+    )
+
+    private class PendingFile(val relativePath: String, val size: Long)
+
+    val journalFile: File
+        get() = File(targetDir, JOURNAL_NAME)
+
+    suspend fun relocate(onProgress: (Progress) -> Unit): Result = withContext(Dispatchers.IO) {
+        targetDir.mkdirs()
+        val result = if (isSameVolume(sourceDir, targetDir) && !journalFile.exists()) {
+            renameAll(onProgress) ?: copyAll(onProgress)
+        } else {
+            copyAll(onProgress)
+        }
+        deleteEmptyDirectories(sourceDir)
+        result
+    }
+
+    /**
+     * Renames every top-level entry of the source into the target. Entries that already exist in the
+     * target (e.g. left over from an earlier copy) are merged by renaming their files one by one.
+     * Returns null if a rename failed, in which case the caller falls back to copying.
+     */
+    private fun renameAll(onProgress: (Progress) -> Unit): Result? {
+        val entries = sourceDir.listFiles() ?: return Result(renamed = true, filesMoved = 0, bytesMoved = 0, resumedFiles = 0)
+        var moved = 0
+        for (entry in entries) {
+            val target = File(targetDir, entry.name)
+            val success = if (!target.exists()) {
+                entry.renameTo(target)
+            } else {
+                entry.isDirectory && target.isDirectory && mergeByRename(entry, target)
+            }
+            if (!success) {
+                Timber.tag("GameLibraryRelocator").w("Rename of ${entry.path} failed, falling back to copy")
+                return null
+            }
+            moved++
+            onProgress(Progress(entry.name, 0, 0, moved, entries.size))
+        }
+        Timber.tag("GameLibraryRelocator").i("Renamed $moved entries from ${sourceDir.path} to ${targetDir.path}")
+        return Result(renamed = true, filesMoved = moved, bytesMoved = 0, resumedFiles = 0)
+    }
+
+    private fun mergeByRename(sourceDir: File, targetDir: File): Boolean {
+        val entries = sourceDir.listFiles() ?: return true
+        for (entry in entries) {
+            val target = File(targetDir, entry.name)
+            val success = when {
+                !target.exists() -> entry.renameTo(target)
+                entry.isDirectory && target.isDirectory -> mergeByRename(entry, target)
+                else -> target.delete() && entry.renameTo(target)
+            }
+            if (!success) return false
+        }
+        return true
+    }
+
+    private suspend fun copyAll(onProgress: (Progress) -> Unit): Result = coroutineScope {
+        val journaled = readJournal()
+        val pending = ArrayList<PendingFile>()
+        var resumed = 0
+        sourceDir.walkTopDown()
+            .onEnter { !Files.isSymbolicLink(it.toPath()) }
+            .filter { it.isFile }
+            .forEach { file ->
+                val relativePath = file.relativeTo(sourceDir).path
+                val size = file.length()
+                // Interrupted after journaling but before deleting the source
+                if (relativePath in journaled && File(targetDir, relativePath).length() == size) {
+                    file.delete()
+                    resumed++
+                } else {
+                    pending.add(PendingFile(relativePath, size))
+                }
+            }
+
+        val totalBytes = pending.sumOf { it.size }
+        val bytesDone = AtomicLong()
+        val filesDone = AtomicInteger()
+        val queue = Channel<PendingFile>(Channel.UNLIMITED)
+        pending.forEach { queue.trySend(it) }
+        queue.close()
+
+        journalFile.appendText("")
+        repeat(maxParallelCopies.coerceAtLeast(1)) {
+            launch {
+                val buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE)
+                for (item in queue) {
+                    ensureActive()
+                    copyFile(item, buffer) { copied ->
+                        onProgress(Progress(item.relativePath, bytesDone.addAndGet(copied), totalBytes, filesDone.get(), pending.size))
+                    }
+                    onProgress(Progress(item.relativePath, bytesDone.get(), totalBytes, filesDone.incrementAndGet(), pending.size))
+                }
+            }
+        }
+        Result(renamed = false, filesMoved = pending.size, bytesMoved = totalBytes, resumedFiles = resumed)
+    }.also {
+        // coroutineScope only returns once every worker finished, so nothing is left to resume
+        journalFile.delete()
+        Timber.tag("GameLibraryRelocator").i("Copied ${it.filesMoved} files (${it.bytesMoved} bytes), resumed ${it.resumedFiles}")
+    }
+
+    private fun copyFile(item: PendingFile, buffer: ByteBuffer, onBytesCopied: (Long) -> Unit) {
+        val source = File(sourceDir, item.relativePath)
+        val target = File(targetDir, item.relativePath)
+        val temp = File(target.parentFile, target.name + TEMP_SUFFIX)
+        target.parentFile?.mkdirs()
+
+        FileChannel.open(source.toPath(), StandardOpenOption.READ).use { sourceChannel ->
+            FileChannel.open(
+                temp.toPath(),
+                StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+            ).use { targetChannel ->
+                buffer.clear()
+                while (true) {
+                    val read = sourceChannel.read(buffer)
+                    if (read <= 0) break
+                    buffer.flip()
+                    while (buffer.hasRemaining()) targetChannel.write(buffer)
+                    buffer.clear()
+                    onBytesCopied(read.toLong())
+                }
+                targetChannel.force(true)
+            }
+        }
+
+        if (temp.length() != item.size) {
+            temp.delete()
+            throw IOException("Size mismatch copying ${item.relativePath}: expected ${item.size}, got ${temp.length()}")
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        appendJournal(item.relativePath)
+        source.delete()
+    }
+
+    private fun readJournal(): Set<String> =
+        if (journalFile.isFile) journalFile.readLines().filter { it.isNotEmpty() }.toHashSet() else emptySet()
+
+    private fun appendJournal(relativePath: String) {
+        synchronized(this) {
+            journalFile.appendText(relativePath + "\n")
+        }
+    }
+
+    private fun deleteEmptyDirectories(dir: File) {
+        dir.walkBottomUp()
+            .onEnter { !Files.isSymbolicLink(it.toPath()) }
+            .filter { it.isDirectory }
+            .forEach { d ->
+                if (d.list()?.isEmpty() == true && !d.delete()) {
+                    Timber.tag("GameLibraryRelocator").e("Failed to delete directory: $d")
+                }
+            }
+    }
+
+    companion object {
+        const val JOURNAL_NAME = ".relocation_journal"
+        private const val TEMP_SUFFIX = ".relocating"
+        private const val COPY_BUFFER_SIZE = 1024 * 1024
+
+        /**
+         * Compares the device ids of the source and the nearest existing ancestor of the target.
+         */
+        fun isSameVolumeByDevice(source: File, target: File): Boolean {
+            var existingTarget: File? = target.absoluteFile
+            while (existingTarget != null && !existingTarget.exists()) existingTarget = existingTarget.parentFile
+            if (existingTarget == null || !source.exists()) return false
+            return try {
+                Os.stat(source.absolutePath).st_dev == Os.stat(existingTarget.path).st_dev
+            } catch (e: Exception) {
+                false
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
+import org.json.JSONArray
+import org.json.JSONObject
+import timber.log.Timber
+
+/**
+ * Bounded queue of EXE icon extractions for the Custom Game library.
+ *
+ * A fixed number of workers drain the queue, so a scan that turns up hundreds of folders doesn't
+ * start a coroutine per folder. Requests beyond the capacity are dropped and picked up again by
+ * the next scan. Outcomes are remembered in [cacheFile] against the size and mtime of the exe,
+ * including executables without an icon, so those aren't parsed again on every scan.
+ */
+internal class IconExtractionQueue(
+    private val cacheFile: File?,
+    workers: Int = 2,
+    capacity: Int = 64,
+    private val extract: (File, File) -> Boolean = ExeIconExtractor::tryExtractMainIcon,
+) {
+
+    data class Entry(
+        val exePath: String,
+        val size: Long,
+        val lastModified: Long,
+        /** The extracted .ico, null if the exe has none */
+        val iconPath: String?,
+    )
+
+    private class Request(val exeFile: File, val outIco: File)
+
+    private val channel = Channel<Request>(capacity)
+    private val scope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
+    private val entries = ConcurrentHashMap<String, Entry>()
+    private val pending = HashMap<String, MutableList<(String?) -> Unit>>()
+    private val queued = AtomicInteger()
+
+    val extracted = AtomicInteger()
+    val dropped = AtomicInteger()
+
+    @Volatile
+    private var loaded = false
+
+    init {
+        repeat(workers) {
+            scope.launch {
+                for (request in channel) process(request)
+            }
+        }
+    }
+
+    /**
+     * Queues extracting the icon of [exeFile] into [outIco]. [onDone] gets the icon path, or null if
+     * the exe has no icon, on a worker thread, or right away when the cache already has the answer.
+     * Requests for an exe that is already queued share its result. Returns false if the queue is
+     * full and the request was dropped.
+     */
+    fun submit(exeFile: File, outIco: File, onDone: (String?) -> Unit = {}): Boolean {
+        if (!loaded) load()
+        lookup(exeFile, outIco)?.let {
+            onDone(it.iconPath)
+            return true
+        }
+
+        val key = exeFile.absolutePath
+        synchronized(pending) {
+            pending[key]?.let {
+                it.add(onDone)
+                return true
+            }
+            queued.incrementAndGet()
+            if (channel.trySend(Request(exeFile, outIco)).isFailure) {
+                queued.decrementAndGet()
+                dropped.incrementAndGet()
+                return false
+            }
+            pending[key] = mutableListOf(onDone)
+        }
+        return true
+    }
+
+    /** The remembered outcome for [exeFile] if it still matches the file on disk. */
+    fun lookup(exeFile: File, outIco: File): Entry? {
+        if (!loaded) load()
+        val entry = entries[exeFile.absolutePath] ?: return null
+        if (entry.size != exeFile.length() || entry.lastModified != exeFile.lastModified()) return null
+        if (entry.iconPath != null && (entry.iconPath != outIco.absolutePath || !outIco.isFile)) return null
+        return entry
+    }
+
+    fun stop() {
+        channel.close()
+    }
+
+    private fun process(request: Request) {
+        val exeFile = request.exeFile
+        val cached = lookup(exeFile, request.outIco)
+        val iconPath = if (cached != null) {
+            cached.iconPath
+        } else {
+            val size = exeFile.length()
+            val lastModified = exeFile.lastModified()
+            val result = if (extract(exeFile, request.outIco)) request.outIco.absolutePath else null
+            extracted.incrementAndGet()
+            // An exe that vanished or can't be read isn't worth remembering
+            if (lastModified != 0L) entries[exeFile.absolutePath] = Entry(exeFile.absolutePath, size, lastModified, result)
+            result
+        }
+
+        val callbacks = synchronized(pending) { pending.remove(exeFile.absolutePath) }
+        if (queued.decrementAndGet() == 0) save()
+        callbacks?.forEach {
+            try {
+                it(iconPath)
+            } catch (e: Exception) {
+                Timber.tag("IconExtractionQueue").w(e, "Icon callback failed for ${exeFile.name}")
+            }
+        }
+    }
+
+    @Synchronized
+    private fun load() {
+        if (loaded) return
+        val file = cacheFile
+        if (file != null && file.isFile) {
+            try {
+                val array = JSONArray(file.readText())
+                for (i in 0 until array.length()) {
+                    val json = array.getJSONObject(i)
+                    val entry = Entry(
+                        exePath = json.getString("exePath"),
+                        size = json.getLong("size"),
+                        lastModified = json.getLong("lastModified"),
+                        iconPath = json.optString("iconPath").takeIf { it.isNotEmpty() },
+                    )
+                    entries[entry.exePath] = entry
+                }
+                Timber.tag("IconExtractionQueue").d("Loaded ${entries.size} entries from ${file.path}")
+            } catch (e: Exception) {
+                Timber.tag("IconExtractionQueue").w(e, "Failed to load icon cache, starting cold")
+                entries.clear()
+            }
+        }
+        loaded = true
+    }
+
+    @Synchronized
+    private fun save() {
+        val file = cacheFile ?: return
+        try {
+            val array = JSONArray()
+            for (entry in entries.values) {
+                array.put(
+                    JSONObject()
+                        .put("exePath", entry.exePath)
+                        .put("size", entry.size)
+                        .put("lastModified", entry.lastModified)
+                        .put("iconPath", entry.iconPath ?: ""),
+                )
+            }
+            file.parentFile?.mkdirs()
+            val tmp = File(file.parentFile, file.name + ".tmp")
+            tmp.writeText(array.toString())
+            if (!tmp.renameTo(file)) {
+                file.delete()
+                tmp.renameTo(file)
+            }
+        } catch (e: Exception) {
+            Timber.tag("IconExtractionQueue").w(e, "Failed to save icon cache")
+        }
+    }
+}
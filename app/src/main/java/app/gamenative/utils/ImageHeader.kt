@@ -0,0 +1,146 @@
+package app.gamenative.utils
+
+import java.io.ByteArrayInputStream
+import java.io.EOFException
+import java.io.File
+import java.io.InputStream
+
+/**
+ * Reads image dimensions from the file header without decoding any pixels.
+ *
+ * Supports PNG, JPEG, GIF, WebP (lossy, lossless and extended) and BMP, which covers what
+ * SteamGridDB and the Steam CDN serve. Only the bytes up to the size fields are read, so for a
+ * stream this is usually the first few hundred bytes. Returns null for anything else.
+ */
+object ImageHeader {
+
+    data class Size(val width: Int, val height: Int) {
+        val isHorizontal: Boolean get() = width > height
+    }
+
+    fun read(bytes: ByteArray): Size? = read(ByteArrayInputStream(bytes))
+
+    fun read(file: File): Size? = try {
+        file.inputStream().buffered().use { read(it) }
+    } catch (e: Exception) {
+        null
+    }
+
+    fun read(input: InputStream): Size? = try {
+        val header = ByteArray(12)
+        readFully(input, header, 12)
+        when {
+            header.startsWith(PNG_SIGNATURE) -> readPng(input)
+            header[0] == 0xFF.toByte() && header[1] == 0xD8.toByte() -> readJpeg(input, header)
+            header.startsWith("GIF8".toByteArray()) -> Size(le16(header, 6), le16(header, 8))
+            header.startsWith("RIFF".toByteArray()) && String(header, 8, 4, Charsets.US_ASCII) == "WEBP" -> readWebp(input)
+            header[0] == 'B'.code.toByte() && header[1] == 'M'.code.toByte() -> readBmp(input)
+            else -> null
+        }?.takeIf { it.width > 0 && it.height > 0 }
+    } catch (e: Exception) {
+        null
+    }
+
+    private fun readPng(input: InputStream): Size? {
+        // The signature is followed by the IHDR chunk: length(4) "IHDR" width(4) height(4)
+        val ihdr = ByteArray(12)
+        readFully(input, ihdr, 12)
+        if (String(ihdr, 0, 4, Charsets.US_ASCII) != "IHDR") return null
+        return Size(be32(ihdr, 4), be32(ihdr, 8))
+    }
+
+    private fun readJpeg(input: InputStream, header: ByteArray): Size? {
+        // Walk the marker segments from the first one after SOI until a start-of-frame
+        val stream = java.io.SequenceInputStream(ByteArrayInputStream(header, 2, header.size - 2), input)
+        while (true) {
+            var b = stream.read()
+            if (b != 0xFF) return null
+            while (b == 0xFF) b = stream.read()
+            if (b < 0) return null
+            val marker = b
+            // Standalone markers without a length
+            if (marker == 0x01 || marker in 0xD0..0xD8) continue
+            if (marker == 0xD9 || marker == 0xDA) return null
+
+            val lengthBytes = ByteArray(2)
+            readFully(stream, lengthBytes, 2)
+            val length = be16(lengthBytes, 0)
+            if (length < 2) return null
+            val isStartOfFrame = marker in 0xC0..0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC
+            if (isStartOfFrame) {
+                // precision(1) height(2) width(2)
+                val frame = ByteArray(5)
+                readFully(stream, frame, 5)
+                return Size(be16(frame, 3), be16(frame, 1))
+            }
+            skipFully(stream, (length - 2).toLong())
+        }
+    }
+
+    private fun readWebp(input: InputStream): Size? {
+        // Chunk fourcc(4) size(4) and the start of the payload; lossless needs five bytes, the others ten
+        val chunk = ByteArray(18)
+        readFully(input, chunk, 13)
+        val fourcc = String(chunk, 0, 4, Charsets.US_ASCII)
+        if (fourcc != "VP8L") readFully(input, chunk, 5, offset = 13)
+        return when (fourcc) {
+            // Frame tag(3), start code 9d 01 2a, then 14-bit width and height
+            "VP8 " -> Size(le16(chunk, 14) and 0x3FFF, le16(chunk, 16) and 0x3FFF)
+            // Signature 0x2f, then 14-bit width-1 and height-1 packed into four bytes
+            "VP8L" -> {
+                if (chunk[8] != 0x2F.toByte()) return null
+                val b0 = chunk[9].toInt() and 0xFF
+                val b1 = chunk[10].toInt() and 0xFF
+                val b2 = chunk[11].toInt() and 0xFF
+                val b3 = chunk[12].toInt() and 0xFF
+                Size(1 + (b0 or ((b1 and 0x3F) shl 8)), 1 + ((b1 shr 6) or (b2 shl 2) or ((b3 and 0x0F) shl 10)))
+            }
+            // Flags(4), then 24-bit canvas width-1 and height-1
+            "VP8X" -> Size(1 + le24(chunk, 12), 1 + le24(chunk, 15))
+            else -> null
+        }
+    }
+
+    private fun readBmp(input: InputStream): Size? {
+        // BITMAPFILEHEADER ends at 14, the info header starts with its size, then width and height
+        val info = ByteArray(14)
+        readFully(input, info, 14)
+        val width = le32(info, 6)
+        // Negative height means a top-down bitmap
+        val height = le32(info, 10)
+        return Size(width, if (height < 0) -height else height)
+    }
+
+    private fun ByteArray.startsWith(prefix: ByteArray): Boolean =
+        size >= prefix.size && prefix.indices.all { this[it] == prefix[it] }
+
+    private fun readFully(input: InputStream, buffer: ByteArray, count: Int, offset: Int = 0) {
+        var read = 0
+        while (read < count) {
+            val n = input.read(buffer, offset + read, count - read)
+            if (n < 0) throw EOFException()
+            read += n
+        }
+    }
+
+    private fun skipFully(input: InputStream, count: Long) {
+        var remaining = count
+        while (remaining > 0) {
+            val skipped = input.skip(remaining)
+            if (skipped > 0) {
+                remaining -= skipped
+            } else {
+                if (input.read() < 0) throw EOFException()
+                remaining--
+            }
+        }
+    }
+
+    private fun be16(b: ByteArray, i: Int) = ((b[i].toInt() and 0xFF) shl 8) or (b[i + 1].toInt() and 0xFF)
+    private fun be32(b: ByteArray, i: Int) = (be16(b, i) shl 16) or be16(b, i + 2)
+    private fun le16(b: ByteArray, i: Int) = (b[i].toInt() and 0xFF) or ((b[i + 1].toInt() and 0xFF) shl 8)
+    private fun le24(b: ByteArray, i: Int) = le16(b, i) or ((b[i + 2].toInt() and 0xFF) shl 16)
+    private fun le32(b: ByteArray, i: Int) = le16(b, i) or (le16(b, i + 2) shl 16)
+
+    private val PNG_SIGNATURE = byteArrayOf(0x89.toByte(), 0x50, 0x4E, 0x47, 0x0D, 0x0A, 0x1A, 0x0A)
+}
@@ -0,0 +1,143 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.LinkOption
+import java.nio.file.attribute.BasicFileAttributes
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.RecursiveTask
+import timber.log.Timber
+
+/**
+ * One indexed scan of a game's install tree, shared by everything that used to walk it on launch
+ * (steam_api DLLs and their backups, Steamless executable backups, exe candidates).
+ *
+ * The tree is walked once with a fork/join traversal down to [MAX_DEPTH], and the file list is
+ * cached until the depot manifests in `.DepotDownloader` or the top level of the tree change.
+ * Files written by the app itself don't show up in either, so writers call [invalidate] afterwards.
+ */
+object InstallTreeIndex {
+
+    /** Same depth the walkTopDown().maxDepth(10) scans went to. */
+    const val MAX_DEPTH = 10
+
+    class FileEntry(
+        /** Relative to the root, separated by '/' */
+        val path: String,
+        val name: String,
+        val size: Long,
+    )
+
+    class Snapshot internal constructor(
+        /** The root as the caller named it, which [fileOf] resolves against */
+        val root: File,
+        internal val signature: String,
+        val files: List<FileEntry>,
+        val elapsedMs: Long,
+        private val byName: Map<String, List<FileEntry>> = files.groupBy { it.name.lowercase() },
+    ) {
+        internal fun withRoot(root: File): Snapshot =
+            if (root == this.root) this else Snapshot(root, signature, files, elapsedMs, byName)
+
+        /** Files with any of [names], ignoring case, in path order. */
+        fun named(vararg names: String): List<FileEntry> = names.flatMap { byName[it.lowercase()].orEmpty() }.sortedBy { it.path }
+
+        /** Files whose name ends with [suffix], ignoring case, in path order. */
+        fun withSuffix(suffix: String): List<FileEntry> = files.filter { it.name.endsWith(suffix, ignoreCase = true) }
+
+        val executables: List<FileEntry> get() = withSuffix(".exe")
+
+        fun fileOf(entry: FileEntry): File = File(root, entry.path)
+    }
+
+    private val snapshots = ConcurrentHashMap<String, Snapshot>()
+    private val pool = ForkJoinPool(Runtime.getRuntime().availableProcessors().coerceIn(2, 4))
+
+    private class ScanTask(
+        private val dir: File,
+        private val relativePath: String,
+        private val depth: Int,
+    ) : RecursiveTask<List<FileEntry>>() {
+        override fun compute(): List<FileEntry> {
+            val files = ArrayList<FileEntry>()
+            val tasks = ArrayList<ScanTask>()
+            dir.list()?.forEach { name ->
+                try {
+                    // Single lstat per entry; symlinked directories are not followed so links back up the tree can't loop
+                    val attrs = Files.readAttributes(File(dir, name).toPath(), BasicFileAttributes::class.java, LinkOption.NOFOLLOW_LINKS)
+                    val path = if (relativePath.isEmpty()) name else "$relativePath/$name"
+                    when {
+                        attrs.isDirectory -> if (depth + 1 < MAX_DEPTH) tasks.add(ScanTask(File(dir, name), path, depth + 1))
+                        attrs.isRegularFile -> files.add(FileEntry(path, name, attrs.size()))
+                    }
+                } catch (e: IOException) {
+                    // Entry vanished while walking
+                }
+            }
+            if (tasks.isNotEmpty()) {
+                invokeAll(tasks)
+                tasks.forEach { files.addAll(it.join()) }
+            }
+            return files
+        }
+    }
+
+    /**
+     * Returns the index of the tree at [root], scanning it first if there is none or the manifests
+     * changed since. Symlinked roots such as dosdevices/a: share the index of their target.
+     * Blocks the calling thread.
+     */
+    fun get(root: File): Snapshot {
+        val requested = root.absoluteFile
+        val dir = try {
+            requested.canonicalFile
+        } catch (e: IOException) {
+            requested
+        }
+        val signature = signatureOf(dir)
+        snapshots[dir.path]?.let { if (it.signature == signature) return it.withRoot(requested) }
+
+        val start = System.currentTimeMillis()
+        val files = if (dir.isDirectory) pool.invoke(ScanTask(dir, "", 0)).sortedBy { it.path } else emptyList()
+        val snapshot = Snapshot(dir, signature, files, System.currentTimeMillis() - start)
+        snapshots[dir.path] = snapshot
+        Timber.tag("InstallTreeIndex").d("Indexed ${files.size} files under $dir in ${snapshot.elapsedMs}ms")
+        return snapshot.withRoot(requested)
+    }
+
+    fun get(root: String): Snapshot = get(File(root))
+
+    /**
+     * What the cached file list is checked against: the depot manifests, which change with every
+     * install and update, and the mtime of the root, which changes when top level entries come or go.
+     */
+    internal fun signatureOf(dir: File): String {
+        val signature = StringBuilder().append(dir.lastModified())
+        File(dir, ".DepotDownloader").listFiles()?.sortedBy { it.name }?.forEach {
+            signature.append('|').append(it.name).append(':').append(it.length()).append(':').append(it.lastModified())
+        }
+        return signature.toString()
+    }
+
+    /**
+     * Drops every index whose tree contains [path] or lies below it. Call after writing into an
+     * install tree, and after installs and deletes.
+     */
+    fun invalidate(path: String) {
+        val file = File(path)
+        val target = try {
+            file.canonicalPath
+        } catch (e: IOException) {
+            file.absolutePath
+        }
+        snapshots.keys.removeIf { root ->
+            root == target || target.startsWith(root + File.separator) || root.startsWith(target + File.separator)
+        }
+    }
+
+    fun clear() {
+        snapshots.clear()
+    }
+}
@@ -0,0 +1,407 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+
+/**
+ * Read-only view of a Windows PE image (EXE/DLL) over a memory-mapped file.
+ *
+ * Only the headers are checked when the file is opened. Sections, resources and version info are
+ * looked up on demand straight from the mapping, walking the resource directory in place rather
+ * than building lists per level, and resource data is handed out as slices of the mapping so
+ * nothing is copied onto the heap. All lookups are bounds checked and return null for anything
+ * that doesn't fit the file.
+ */
+class PeFile private constructor(
+    private val buffer: ByteBuffer,
+    /** IMAGE_FILE_MACHINE_* from the COFF header */
+    val machine: Int,
+    /** PE32+ optional header, i.e. a 64-bit image */
+    val isPe32Plus: Boolean,
+    private val numberOfSections: Int,
+    private val sectionTableOffset: Int,
+    private val resourceRva: Int,
+    private val resourceSize: Int,
+) {
+    enum class Architecture { X86, X64, ARM, ARM64, UNKNOWN }
+
+    class Section(
+        val name: String,
+        val virtualAddress: Int,
+        val virtualSize: Int,
+        val sizeOfRawData: Int,
+        val pointerToRawData: Int,
+    )
+
+    class Resource(
+        val type: Int,
+        val id: Int,
+        val language: Int,
+        /** File offset and size of the data */
+        val offset: Int,
+        val size: Int,
+    )
+
+    class IconImage(
+        val width: Int,
+        val height: Int,
+        val colorCount: Int,
+        val planes: Int,
+        val bitCount: Int,
+        val resource: Resource,
+    )
+
+    class VersionInfo(
+        /** From VS_FIXEDFILEINFO, as "major.minor.build.revision" */
+        val fileVersion: String?,
+        val productVersion: String?,
+        /** StringFileInfo values such as ProductName or CompanyName, first string table wins */
+        val strings: Map<String, String>,
+    )
+
+    val size: Int get() = buffer.capacity()
+
+    val architecture: Architecture
+        get() = when (machine) {
+            IMAGE_FILE_MACHINE_I386 -> Architecture.X86
+            IMAGE_FILE_MACHINE_AMD64 -> Architecture.X64
+            IMAGE_FILE_MACHINE_ARM, IMAGE_FILE_MACHINE_ARMNT -> Architecture.ARM
+            IMAGE_FILE_MACHINE_ARM64 -> Architecture.ARM64
+            else -> Architecture.UNKNOWN
+        }
+
+    val sections: List<Section> by lazy {
+        (0 until numberOfSections).map { i ->
+            val base = sectionTableOffset + i * SECTION_HEADER_SIZE
+            val name = StringBuilder()
+            for (j in 0 until 8) {
+                val c = buffer.get(base + j).toInt() and 0xFF
+                if (c == 0) break
+                name.append(c.toChar())
+            }
+            Section(name.toString(), buffer.getInt(base + 12), buffer.getInt(base + 8), buffer.getInt(base + 16), buffer.getInt(base + 20))
+        }
+    }
+
+    val hasResources: Boolean get() = resourceRva != 0 && resourceSize != 0 && resourceRoot() >= 0
+
+    /** File offset of [rva], or -1 if no section holds it on disk. */
+    fun rvaToOffset(rva: Int): Int {
+        for (i in 0 until numberOfSections) {
+            val base = sectionTableOffset + i * SECTION_HEADER_SIZE
+            val virtualAddress = buffer.getInt(base + 12)
+            val sizeOfRawData = buffer.getInt(base + 16)
+            val pointerToRawData = buffer.getInt(base + 20)
+            if (rva >= virtualAddress && rva - virtualAddress < sizeOfRawData && pointerToRawData > 0) {
+                val offset = pointerToRawData + (rva - virtualAddress)
+                return if (offset >= 0 && offset < buffer.capacity()) offset else -1
+            }
+        }
+        return -1
+    }
+
+    /**
+     * Finds a resource by [type] and [id], or the first one of [type] if [id] is null, in the first
+     * language it is available in.
+     */
+    fun findResource(type: Int, id: Int? = null): Resource? {
+        val typeEntry = findEntry(resourceRoot(), type)
+        val idEntry = findEntry(subdirectory(typeEntry), id)
+        val resourceId = if (idEntry >= 0) buffer.getInt(idEntry) else return null
+        val languageEntry = findEntry(subdirectory(idEntry), null)
+        val dataEntry = dataEntry(languageEntry)
+        if (dataEntry < 0) return null
+
+        val size = buffer.getInt(dataEntry + 4)
+        val offset = rvaToOffset(buffer.getInt(dataEntry))
+        if (offset < 0 || size < 0 || size > buffer.capacity() - offset) return null
+        return Resource(type, resourceId and 0x7FFFFFFF, buffer.getInt(languageEntry) and 0x7FFFFFFF, offset, size)
+    }
+
+    /** Numeric ids of the resources of [type], named ones are left out. */
+    fun resourceIds(type: Int): IntArray {
+        val dir = subdirectory(findEntry(resourceRoot(), type))
+        if (dir < 0) return IntArray(0)
+        val count = entryCount(dir)
+        val ids = IntArray(count)
+        var found = 0
+        for (i in 0 until count) {
+            val name = buffer.getInt(dir + 16 + i * 8)
+            if (name >= 0) ids[found++] = name
+        }
+        return ids.copyOf(found)
+    }
+
+    /** The data of [resource] as a little-endian slice of the mapping, positioned at 0. */
+    fun read(resource: Resource): ByteBuffer {
+        val slice = buffer.duplicate()
+        slice.position(resource.offset)
+        slice.limit(resource.offset + resource.size)
+        return slice.slice().order(ByteOrder.LITTLE_ENDIAN)
+    }
+
+    /** Images of the first icon group, the one Explorer shows for the file, or null if there is none. */
+    fun findMainIcon(): List<IconImage>? {
+        val group = findResource(RT_GROUP_ICON) ?: return null
+        val data = read(group)
+        if (data.remaining() < 6) return null
+        val reserved = data.getShort(0).toInt() and 0xFFFF
+        val type = data.getShort(2).toInt() and 0xFFFF
+        val count = data.getShort(4).toInt() and 0xFFFF
+        if (reserved != 0 || type != 1 || count <= 0 || count > 64) return null
+
+        val images = ArrayList<IconImage>(count)
+        for (i in 0 until count) {
+            // GRPICONDIRENTRY, 14 bytes
+            val entry = 6 + i * 14
+            if (entry + 14 > data.limit()) return null
+            val id = data.getShort(entry + 12).toInt() and 0xFFFF
+            val resource = findResource(RT_ICON, id) ?: continue
+            images.add(
+                IconImage(
+                    width = data.get(entry).toInt() and 0xFF,
+                    height = data.get(entry + 1).toInt() and 0xFF,
+                    colorCount = data.get(entry + 2).toInt() and 0xFF,
+                    planes = data.getShort(entry + 4).toInt() and 0xFFFF,
+                    bitCount = data.getShort(entry + 6).toInt() and 0xFFFF,
+                    resource = resource,
+                ),
+            )
+        }
+        return images.takeIf { it.isNotEmpty() }
+    }
+
+    /**
+     * Writes the main icon group as a standard .ico file. The images go from the mapping to the file
+     * channel without a heap copy, and the file only appears once complete.
+     */
+    fun writeMainIcon(outIcoFile: File): Boolean {
+        val images = findMainIcon() ?: return false
+
+        val header = ByteBuffer.allocate(6 + images.size * 16).order(ByteOrder.LITTLE_ENDIAN)
+        header.putShort(0.toShort()).putShort(1.toShort()).putShort(images.size.toShort())
+        var imageOffset = header.capacity()
+        for (image in images) {
+            header.put(image.width.toByte()).put(image.height.toByte()).put(image.colorCount.toByte()).put(0.toByte())
+            header.putShort(image.planes.toShort()).putShort(image.bitCount.toShort())
+            header.putInt(image.resource.size).putInt(imageOffset)
+            imageOffset += image.resource.size
+        }
+        header.flip()
+
+        val tmp = File(outIcoFile.parentFile, outIcoFile.name + ".tmp")
+        FileOutputStream(tmp).use { out ->
+            val channel = out.channel
+            while (header.hasRemaining()) channel.write(header)
+            for (image in images) {
+                val data = read(image.resource)
+                while (data.hasRemaining()) channel.write(data)
+            }
+        }
+        if (!tmp.renameTo(outIcoFile)) {
+            outIcoFile.delete()
+            if (!tmp.renameTo(outIcoFile)) {
+                tmp.delete()
+                return false
+            }
+        }
+        return true
+    }
+
+    /** The VS_VERSIONINFO resource, or null if there is none or it is malformed. */
+    val versionInfo: VersionInfo? by lazy {
+        val resource = findResource(RT_VERSION) ?: return@lazy null
+        try {
+            parseVersionInfo(read(resource))
+        } catch (e: IndexOutOfBoundsException) {
+            null
+        }
+    }
+
+    private fun parseVersionInfo(data: ByteBuffer): VersionInfo? {
+        val rootLength = data.getShort(0).toInt() and 0xFFFF
+        val end = minOf(rootLength, data.limit())
+        if (readKey(data, 6) != "VS_VERSION_INFO") return null
+        val valueLength = data.getShort(2).toInt() and 0xFFFF
+        val valueOffset = align4(6 + ("VS_VERSION_INFO".length + 1) * 2)
+
+        var fileVersion: String? = null
+        var productVersion: String? = null
+        if (valueLength >= 52 && data.getInt(valueOffset) == VS_FFI_SIGNATURE) {
+            fileVersion = formatVersion(data.getInt(valueOffset + 8), data.getInt(valueOffset + 12))
+            productVersion = formatVersion(data.getInt(valueOffset + 16), data.getInt(valueOffset + 20))
+        }
+
+        val strings = LinkedHashMap<String, String>()
+        // StringFileInfo and VarFileInfo blocks
+        var block = align4(valueOffset + valueLength)
+        while (block + 6 < end) {
+            val blockLength = data.getShort(block).toInt() and 0xFFFF
+            if (blockLength == 0) break
+            val blockEnd = minOf(block + blockLength, end)
+            val key = readKey(data, block + 6)
+            if (key == "StringFileInfo" && strings.isEmpty()) {
+                // The first string table, usually the only one
+                val table = align4(block + 6 + (key.length + 1) * 2)
+                if (table + 6 < blockEnd) {
+                    val tableLength = data.getShort(table).toInt() and 0xFFFF
+                    val tableEnd = minOf(table + tableLength, blockEnd)
+                    var string = align4(table + 6 + (readKey(data, table + 6).length + 1) * 2)
+                    while (string + 6 < tableEnd) {
+                        val stringLength = data.getShort(string).toInt() and 0xFFFF
+                        if (stringLength == 0) break
+                        val stringEnd = minOf(string + stringLength, tableEnd)
+                        val name = readKey(data, string + 6, stringEnd)
+                        val value = readKey(data, align4(string + 6 + (name.length + 1) * 2), stringEnd)
+                        if (name.isNotEmpty()) strings[name] = value.trim()
+                        string = align4(string + stringLength)
+                    }
+                }
+            }
+            block = align4(blockEnd)
+        }
+        return VersionInfo(fileVersion, productVersion, strings)
+    }
+
+    /** Null terminated UTF-16LE string at [offset], cut at [end]. */
+    private fun readKey(data: ByteBuffer, offset: Int, end: Int = data.limit()): String {
+        val key = StringBuilder()
+        var position = offset
+        while (position + 1 < end) {
+            val c = data.getChar(position)
+            if (c == '\u0000') break
+            key.append(c)
+            position += 2
+        }
+        return key.toString()
+    }
+
+    private fun formatVersion(ms: Int, ls: Int): String = "${ms ushr 16}.${ms and 0xFFFF}.${ls ushr 16}.${ls and 0xFFFF}"
+
+    private fun align4(offset: Int): Int = (offset + 3) and 3.inv()
+
+    private fun resourceRoot(): Int {
+        if (resourceRva == 0) return -1
+        val offset = rvaToOffset(resourceRva)
+        return if (offset >= 0 && offset + 16 <= buffer.capacity()) offset else -1
+    }
+
+    private fun entryCount(dir: Int): Int {
+        val count = (buffer.getShort(dir + 12).toInt() and 0xFFFF) + (buffer.getShort(dir + 14).toInt() and 0xFFFF)
+        // Entries that would run past the end of the file are not there
+        return minOf(count, (buffer.capacity() - dir - 16) / 8)
+    }
+
+    /**
+     * File offset of the entry with numeric [id] in the resource directory at [dir], or of its
+     * first entry of any kind if [id] is null. -1 if there is none.
+     */
+    private fun findEntry(dir: Int, id: Int?): Int {
+        if (dir < 0) return -1
+        val count = entryCount(dir)
+        if (id == null) return if (count > 0) dir + 16 else -1
+        for (i in 0 until count) {
+            val entry = dir + 16 + i * 8
+            // Named entries have the high bit set and never match an id
+            if (buffer.getInt(entry) == id) return entry
+        }
+        return -1
+    }
+
+    /** File offset of the directory [entry] points to, or -1 if it is missing or a leaf. */
+    private fun subdirectory(entry: Int): Int {
+        if (entry < 0) return -1
+        val value = buffer.getInt(entry + 4)
+        if (value >= 0) return -1
+        val offset = rvaToOffset(resourceRva + (value and 0x7FFFFFFF))
+        return if (offset >= 0 && offset + 16 <= buffer.capacity()) offset else -1
+    }
+
+    /** File offset of the IMAGE_RESOURCE_DATA_ENTRY leaf [entry] points to, or -1. */
+    private fun dataEntry(entry: Int): Int {
+        if (entry < 0) return -1
+        val value = buffer.getInt(entry + 4)
+        if (value < 0) return -1
+        val offset = rvaToOffset(resourceRva + value)
+        return if (offset >= 0 && offset + 16 <= buffer.capacity()) offset else -1
+    }
+
+    companion object {
+        const val RT_ICON = 3
+        const val RT_GROUP_ICON = 14
+        const val RT_VERSION = 16
+
+        const val IMAGE_FILE_MACHINE_I386 = 0x14C
+        const val IMAGE_FILE_MACHINE_AMD64 = 0x8664
+        const val IMAGE_FILE_MACHINE_ARM = 0x1C0
+        const val IMAGE_FILE_MACHINE_ARMNT = 0x1C4
+        const val IMAGE_FILE_MACHINE_ARM64 = 0xAA64
+
+        private const val SECTION_HEADER_SIZE = 40
+        private const val VS_FFI_SIGNATURE = 0xFEEF04BD.toInt()
+        private const val IMAGE_DIRECTORY_ENTRY_RESOURCE = 2
+
+        /**
+         * Maps [file] and checks its headers. Returns null if it isn't a PE image. The mapping stays
+         * valid after the file is closed and goes away with the returned object.
+         */
+        fun open(file: File): PeFile? {
+            return try {
+                FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+                    val size = channel.size()
+                    if (size < 0x40 || size > Int.MAX_VALUE) return null
+                    parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, size))
+                }
+            } catch (e: IOException) {
+                null
+            }
+        }
+
+        /** Same as [open] for an image already in memory. */
+        fun parse(image: ByteBuffer): PeFile? {
+            val buffer = image.duplicate().order(ByteOrder.LITTLE_ENDIAN)
+            val capacity = buffer.capacity()
+            if (capacity < 0x40 || buffer.getShort(0) != 0x5A4D.toShort()) return null // MZ
+
+            val peHeader = buffer.getInt(0x3C)
+            if (peHeader <= 0 || peHeader > capacity - 24 || buffer.getInt(peHeader) != 0x00004550) return null // PE\0\0
+
+            val coff = peHeader + 4
+            val machine = buffer.getShort(coff).toInt() and 0xFFFF
+            val numberOfSections = buffer.getShort(coff + 2).toInt() and 0xFFFF
+            val sizeOfOptionalHeader = buffer.getShort(coff + 16).toInt() and 0xFFFF
+            val optionalHeader = coff + 20
+            if (sizeOfOptionalHeader < 2 || optionalHeader + sizeOfOptionalHeader > capacity) return null
+
+            val sectionTable = optionalHeader + sizeOfOptionalHeader
+            if (sectionTable.toLong() + numberOfSections.toLong() * SECTION_HEADER_SIZE > capacity) return null
+
+            // Data directories sit at a different offset in PE32 and PE32+
+            val isPe32Plus = when (buffer.getShort(optionalHeader).toInt() and 0xFFFF) {
+                0x10B -> false
+                0x20B -> true
+                else -> return null
+            }
+            val numberOfRvaAndSizes = if (isPe32Plus) 108 else 92
+            val dataDirectories = optionalHeader + if (isPe32Plus) 112 else 96
+            val resourceDirectory = dataDirectories + IMAGE_DIRECTORY_ENTRY_RESOURCE * 8
+            val hasResourceDirectory = resourceDirectory + 8 <= sectionTable &&
+                buffer.getInt(optionalHeader + numberOfRvaAndSizes) > IMAGE_DIRECTORY_ENTRY_RESOURCE
+
+            return PeFile(
+                buffer = buffer,
+                machine = machine,
+                isPe32Plus = isPe32Plus,
+                numberOfSections = numberOfSections,
+                sectionTableOffset = sectionTable,
+                resourceRva = if (hasResourceDirectory) buffer.getInt(resourceDirectory) else 0,
+                resourceSize = if (hasResourceDirectory) buffer.getInt(resourceDirectory + 4) else 0,
+            )
+        }
+    }
+}
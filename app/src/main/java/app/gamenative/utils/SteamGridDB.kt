@@ -1,8 +1,7 @@
 package app.gamenative.utils
 
-import android.content.Context
-import android.graphics.BitmapFactory
 import app.gamenative.PrefManager
+import app.gamenative.service.DownloadService
 import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.withContext
 import okhttp3.OkHttpClient
@@ -33,6 +32,22 @@ object SteamGridDB {
         .readTimeout(30, TimeUnit.SECONDS)
         .build()
 
+    // Downloaded images, shared across games so a re-fetch or a retried search doesn't hit the network again
+    private val artworkCache by lazy {
+        val directory = DownloadService.baseCacheDirPath.takeIf { it.isNotEmpty() }
+            ?.let { File(it, "artwork_cache") }
+        ArtworkCache(directory) { url ->
+            httpClient.newCall(Request.Builder().url(url).build()).execute().use { response ->
+                if (!response.isSuccessful) {
+                    Timber.tag("SteamGridDB").w("Failed to download image from $url - HTTP ${response.code}")
+                    null
+                } else {
+                    response.body?.bytes()
+                }
+            }
+        }
+    }
+
     /**
      * Get the SteamGridDB API key from BuildConfig.
      * The key should be added to local.properties as: STEAMGRIDDB_API_KEY=YOUR_API_KEY
@@ -77,6 +92,7 @@ object SteamGridDB {
 
             if (!response.isSuccessful) {
                 Timber.tag("SteamGridDB").w("Search failed for '$gameName' - HTTP ${response.code}")
+                response.close()
                 return@withContext null
             }
 
@@ -117,24 +133,23 @@ object SteamGridDB {
      * Check if an image is horizontal (width > height) or vertical (height > width)
      * Returns true if horizontal, false if vertical, null if cannot determine
      */
-    private suspend fun isImageHorizontal(imageBytes: ByteArray): Boolean? = withContext(Dispatchers.IO) {
-        try {
-            val options = BitmapFactory.Options().apply {
-                inJustDecodeBounds = true // Only decode bounds, not the full image
-            }
-            BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.size, options)
-
-            val width = options.outWidth
-            val height = options.outHeight
-
-            if (width > 0 && height > 0) {
-                return@withContext width > height
-            }
-            return@withContext null
-        } catch (e: Exception) {
-            Timber.tag("SteamGridDB").w(e, "Failed to determine image orientation")
-            return@withContext null
+    private fun isImageHorizontal(imageBytes: ByteArray): Boolean? {
+        val size = ImageHeader.read(imageBytes)
+        if (size == null) {
+            Timber.tag("SteamGridDB").w("Failed to determine image orientation")
         }
+        return size?.isHorizontal
+    }
+
+    /**
+     * Orientation of a grid from the width and height the API reports, falling back to the header
+     * of the image itself.
+     */
+    private suspend fun isGridHorizontal(imageObj: JSONObject, imageUrl: String): Boolean? {
+        val width = imageObj.optInt("width", 0)
+        val height = imageObj.optInt("height", 0)
+        if (width > 0 && height > 0) return width > height
+        return artworkCache.get(imageUrl)?.let { isImageHorizontal(it) }
     }
 
     /**
@@ -148,18 +163,7 @@ object SteamGridDB {
     ): Pair<String, Boolean?>? = withContext(Dispatchers.IO) {
         try {
             // Download the image
-            val imageRequest = Request.Builder()
-                .url(imageUrl)
-                .build()
-
-            val imageResponse = httpClient.newCall(imageRequest).execute()
-
-            if (!imageResponse.isSuccessful) {
-                Timber.tag("SteamGridDB").w("Failed to download image from $imageUrl - HTTP ${imageResponse.code}")
-                return@withContext null
-            }
-
-            val imageBytes = imageResponse.body?.bytes() ?: return@withContext null
+            val imageBytes = artworkCache.get(imageUrl) ?: return@withContext null
 
             // Determine orientation
             val isHorizontal = isImageHorizontal(imageBytes)
@@ -210,6 +214,7 @@ object SteamGridDB {
 
             if (!response.isSuccessful) {
                 Timber.tag("SteamGridDB").w("Failed to fetch grids for game $gameId - HTTP ${response.code}")
+                response.close()
                 return@withContext Pair(null, null)
             }
 
@@ -246,22 +251,11 @@ object SteamGridDB {
                     else -> ".png" // Default to PNG
                 }
 
-                // Download the image to check orientation first
-                val imageRequest = Request.Builder()
-                    .url(imageUrl)
-                    .build()
-
-                val imageResponse = httpClient.newCall(imageRequest).execute()
-
-                if (!imageResponse.isSuccessful) {
-                    Timber.tag("SteamGridDB").w("Failed to download grid image from $imageUrl - HTTP ${imageResponse.code}")
-                    continue
-                }
-
-                val imageBytes = imageResponse.body?.bytes() ?: continue
-
-                // Determine orientation
-                val isHorizontal = isImageHorizontal(imageBytes)
+                // Determine orientation, only downloading grids we are going to keep
+                val isHorizontal = isGridHorizontal(imageObj, imageUrl)
+                val needed = (isHorizontal == true && heroPath == null) || (isHorizontal == false && capsulePath == null)
+                if (!needed) continue
+                val imageBytes = artworkCache.get(imageUrl) ?: continue
 
                 // Save directly to the final filename based on orientation
                 if (isHorizontal == true && heroPath == null) {
@@ -343,6 +337,7 @@ object SteamGridDB {
 
             if (!response.isSuccessful) {
                 Timber.tag("SteamGridDB").w("Failed to fetch $imageType for game $gameId - HTTP ${response.code}")
+                response.close()
                 return@withContext null
             }
 
@@ -382,18 +377,7 @@ object SteamGridDB {
             val outputFile = File(gameFolder, fileName)
 
             // Download the image
-            val imageRequest = Request.Builder()
-                .url(imageUrl)
-                .build()
-
-            val imageResponse = httpClient.newCall(imageRequest).execute()
-
-            if (!imageResponse.isSuccessful) {
-                Timber.tag("SteamGridDB").w("Failed to download image from $imageUrl - HTTP ${imageResponse.code}")
-                return@withContext null
-            }
-
-            val imageBytes = imageResponse.body?.bytes() ?: return@withContext null
+            val imageBytes = artworkCache.get(imageUrl) ?: return@withContext null
 
             // Save to file
             FileOutputStream(outputFile).use { it.write(imageBytes) }
@@ -538,6 +522,12 @@ object SteamGridDB {
             Timber.tag("SteamGridDB").w(e, "Failed to update metadata after fetch")
         }
 
+        artworkCache.stats.let {
+            Timber.tag("SteamGridDB").d(
+                "Artwork cache: ${it.requests} requests, hit rate ${"%.2f".format(it.hitRate)}, ${it.bytesFetched / 1024}KB fetched",
+            )
+        }
+
         return@withContext ImageFetchResult(
             gridPath = gridHeroPath, // Horizontal grid for hero view
             heroPath = heroPath, // Heroes endpoint for header view
@@ -158,14 +158,12 @@ object SteamUtils {
         autoLoginUserChanges(imageFs)
         setupLightweightSteamConfig(imageFs, SteamService.userSteamId?.toString())
 
-        val rootPath = Paths.get(appDirPath)
         // Get ticket once for all DLLs
         val ticketBase64 = SteamService.instance?.getEncryptedAppTicketBase64(steamAppId)
 
-        rootPath.toFile().walkTopDown().maxDepth(10).forEach { file ->
-            val path = file.toPath()
-            if (!file.isFile || !path.name.startsWith("steam_api", ignoreCase = true)) return@forEach
-
+        val index = InstallTreeIndex.get(appDirPath)
+        index.named("steam_api.dll", "steam_api64.dll").forEach { entry ->
+            val path = index.fileOf(entry).toPath()
             val is64Bit = path.name.equals("steam_api64.dll", ignoreCase = true)
             val is32Bit = path.name.equals("steam_api.dll", ignoreCase = true)
 
@@ -189,6 +187,8 @@ object SteamUtils {
             }
         }
 
+        // The .orig backups and steam_settings folders are new files in the tree
+        if (replaced32 || replaced64) InstallTreeIndex.invalidate(appDirPath)
         Timber.i("Finished replaceSteamApi for appId: $appId. Replaced 32bit: $replaced32, Replaced 64bit: $replaced64")
 
         // Restore unpacked executable if it exists (for DRM-free mode)
@@ -555,18 +555,12 @@ object SteamUtils {
             return 0L
         }
 
-        var size = 0L
-        try {
-            directory.walkTopDown().forEach { file ->
-                if (file.isFile()) {
-                    size += file.length()
-                }
-            }
+        return try {
+            DiskUsageService.getSizeBlocking(directory)
         } catch (e: Exception) {
             Timber.w(e, "Error calculating directory size")
+            0L
         }
-
-        return size
     }
 
     /**
@@ -618,12 +612,10 @@ object SteamUtils {
     }
 
     fun putBackSteamDlls(appDirPath: String) {
-        val rootPath = Paths.get(appDirPath)
-
-        rootPath.toFile().walkTopDown().maxDepth(10).forEach { file ->
-            val path = file.toPath()
-            if (!file.isFile || !path.name.startsWith("steam_api", ignoreCase = true) || !path.name.endsWith(".orig", ignoreCase = true)) return@forEach
+        val index = InstallTreeIndex.get(appDirPath)
 
+        index.named("steam_api.dll.orig", "steam_api64.dll.orig").forEach { entry ->
+            val path = index.fileOf(entry).toPath()
             val is64Bit = path.name.equals("steam_api64.dll.orig", ignoreCase = true)
             val is32Bit = path.name.equals("steam_api.dll.orig", ignoreCase = true)
 
@@ -649,6 +641,7 @@ object SteamUtils {
                 }
             }
         }
+        InstallTreeIndex.invalidate(appDirPath)
     }
 
     /**
@@ -664,9 +657,9 @@ object SteamUtils {
         val imageFs = ImageFs.find(context)
         val dosDevicesPath = File(imageFs.wineprefix, "dosdevices/a:")
 
-        dosDevicesPath.walkTopDown().maxDepth(10).firstOrNull {
-            it.isFile && it.name.endsWith(".original.exe", ignoreCase = true)
-        }?.let { file ->
+        val index = InstallTreeIndex.get(dosDevicesPath)
+        index.withSuffix(".original.exe").firstOrNull()?.let { entry ->
+            val file = index.fileOf(entry)
             try {
                 val origPath = file.toPath()
                 val originalPath = origPath.parent.resolve(origPath.name.removeSuffix(".original.exe"))
@@ -681,6 +674,7 @@ object SteamUtils {
                 Files.copy(origPath, originalPath)
 
                 Timber.i("Restored ${originalPath.fileName} from backup")
+                InstallTreeIndex.invalidate(dosDevicesPath.path)
                 restoredCount++
             } catch (e: IOException) {
                 Timber.w(e, "Failed to restore ${file.name} from backup")
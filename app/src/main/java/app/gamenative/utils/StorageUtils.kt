@@ -2,21 +2,11 @@ package app.gamenative.utils
 
 import android.os.StatFs
 import java.io.File
-import java.nio.ByteBuffer
-import java.nio.channels.FileChannel
-import java.nio.file.FileVisitResult
-import java.nio.file.Paths
-import java.nio.file.SimpleFileVisitor
-import java.nio.file.StandardCopyOption
-import java.nio.file.StandardOpenOption
-import java.nio.file.attribute.BasicFileAttributes
 import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.launch
 import kotlinx.coroutines.withContext
-import kotlinx.coroutines.yield
 import timber.log.Timber
-import java.io.IOException
-import java.nio.file.Files
-import java.nio.file.Path
 
 object StorageUtils {
 
@@ -26,18 +16,7 @@ object StorageUtils {
     }
 
     suspend fun getFolderSize(folderPath: String): Long {
-        val folder = File(folderPath)
-        if (folder.exists()) {
-            var bytes = 0L
-            val tree = folder.walk()
-            tree.forEach {
-                bytes += it.length()
-                // allow interruption if run as coroutine
-                yield()
-            }
-            return bytes
-        }
-        return 0L
+        return DiskUsageService.getSize(folderPath)
     }
 
     fun formatBinarySize(bytes: Long, decimalPlaces: Int = 2): String {
@@ -67,147 +46,34 @@ object StorageUtils {
      * Move games from internal only storage to user storage.
      * This should be removed after a few versions and just
      * remove the old path to free up space.
+     *
+     * Same-volume moves rename whole game directories; cross-volume moves go through the
+     * journaled parallel copier in [GameLibraryRelocator] and resume if interrupted.
+     * [onProgressUpdate] receives the overall byte progress.
      */
     suspend fun moveGamesFromOldPath(
         sourceDir: String,
         targetDir: String,
-        onProgressUpdate: (currentFile: String, fileProgress: Float, movedFiles: Int, totalFiles: Int) -> Unit,
+        onProgressUpdate: (currentFile: String, progress: Float, movedFiles: Int, totalFiles: Int) -> Unit,
         onComplete: () -> Unit,
     ) = withContext(Dispatchers.IO) {
         try {
-            val sourcePath = Paths.get(sourceDir)
-            val targetPath = Paths.get(targetDir)
-
-            if (!Files.exists(targetPath)) {
-                Files.createDirectories(targetPath)
+            val relocator = GameLibraryRelocator(File(sourceDir), File(targetDir))
+            val progressUpdates = Channel<GameLibraryRelocator.Progress>(Channel.CONFLATED)
+            val progressJob = launch(Dispatchers.Main) {
+                for (p in progressUpdates) onProgressUpdate(p.currentFile, p.fraction, p.filesDone, p.totalFiles)
             }
-
-            val allFiles = mutableListOf<Path>()
-            Files.walkFileTree(
-                sourcePath,
-                object : SimpleFileVisitor<Path>() {
-                    override fun visitFile(file: Path, attrs: BasicFileAttributes): FileVisitResult {
-                        if (Files.isRegularFile(file)) {
-                            allFiles.add(file)
-                        }
-                        return FileVisitResult.CONTINUE
-                    }
-
-                    override fun visitFileFailed(file: Path, exc: IOException): FileVisitResult {
-                        Timber.e(exc, "Failed to visit file: $file")
-                        return FileVisitResult.CONTINUE
-                    }
-                },
-            )
-
-            val totalFiles = allFiles.size
-            var filesMoved = 0
-
-            for (sourcePath in allFiles) {
-                val relativePath = sourcePath.subpath(Paths.get(sourceDir).nameCount, sourcePath.nameCount)
-                val targetFilePath = Paths.get(targetDir, relativePath.toString())
-
-                Files.createDirectories(targetFilePath.parent)
-
-                // val fileName = sourcePath.fileName.toString()
-
-                try {
-                    Files.move(sourcePath, targetFilePath, StandardCopyOption.ATOMIC_MOVE)
-
-                    withContext(Dispatchers.Main) {
-                        onProgressUpdate(relativePath.toString(), 1f, filesMoved++, totalFiles)
-                    }
-                } catch (e: Exception) {
-                    val fileSize = Files.size(sourcePath)
-                    var bytesCopied = 0L
-
-                    FileChannel.open(sourcePath, StandardOpenOption.READ).use { sourceChannel ->
-                        FileChannel.open(
-                            targetFilePath,
-                            StandardOpenOption.CREATE,
-                            StandardOpenOption.WRITE,
-                            StandardOpenOption.TRUNCATE_EXISTING,
-                        ).use { targetChannel ->
-                            val buffer = ByteBuffer.allocateDirect(8 * 1024 * 1024)
-                            var bytesRead: Int
-
-                            while (sourceChannel.read(buffer).also { bytesRead = it } > 0) {
-                                buffer.flip()
-                                targetChannel.write(buffer)
-                                buffer.compact()
-
-                                bytesCopied += bytesRead
-
-                                val fileProgress = if (fileSize > 0) {
-                                    bytesCopied.toFloat() / fileSize
-                                } else {
-                                    1f
-                                }
-
-                                withContext(Dispatchers.Main) {
-                                    onProgressUpdate(relativePath.toString(), fileProgress, filesMoved, totalFiles)
-                                }
-                            }
-
-                            targetChannel.force(true)
-                        }
-                    }
-
-                    Files.delete(sourcePath)
-                    withContext(Dispatchers.Main) {
-                        onProgressUpdate(relativePath.toString(), 1f, filesMoved++, totalFiles)
-                    }
-                }
-            }
-
-            Files.walkFileTree(
-                sourcePath,
-                object : SimpleFileVisitor<Path>() {
-                    override fun postVisitDirectory(dir: Path, exc: IOException?): FileVisitResult {
-                        if (exc == null) {
-                            try {
-                                var isEmpty = true
-                                Files.newDirectoryStream(dir).use { stream ->
-                                    if (stream.iterator().hasNext()) {
-                                        isEmpty = false
-                                    }
-                                }
-
-                                if (isEmpty && (dir != sourcePath)) {
-                                    Files.delete(dir)
-                                }
-                            } catch (e: Exception) {
-                                Timber.e(e, "Failed to delete directory: $dir")
-                            }
-                        }
-                        return FileVisitResult.CONTINUE
-                    }
-                },
-            )
-
             try {
-                var isEmpty = true
-                Files.newDirectoryStream(sourcePath).use { stream ->
-                    if (stream.iterator().hasNext()) {
-                        isEmpty = false
-                    }
-                }
-
-                if (isEmpty) {
-                    Files.delete(sourcePath)
-                }
-            } catch (e: Exception) {
-                Timber.e(e)
-            }
-
-            withContext(Dispatchers.Main) {
-                onComplete()
+                relocator.relocate { progressUpdates.trySend(it) }
+            } finally {
+                progressUpdates.close()
+                progressJob.join()
             }
         } catch (e: Exception) {
             Timber.e(e)
-            withContext(Dispatchers.Main) {
-                onComplete()
-            }
+        }
+        withContext(Dispatchers.Main) {
+            onComplete()
         }
     }
 }
@@ -9,6 +9,10 @@ import android.util.Log;
 import com.winlator.container.Container;
 import com.winlator.core.KeyValueSet;
 import com.winlator.math.Mathf;
+import com.winlator.metrics.Counter;
+import com.winlator.metrics.Gauge;
+import com.winlator.metrics.Histogram;
+import com.winlator.metrics.MetricsRegistry;
 import com.winlator.sysvshm.SysVSharedMemory;
 import com.winlator.xenvironment.ImageFs;
 
@@ -16,6 +20,10 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 
 public class ALSAClient {
+    private static final Counter underruns = MetricsRegistry.get().counter("alsa.underruns");
+    private static final Counter writtenBytes = MetricsRegistry.get().counter("alsa.bytes");
+    private static final Histogram writeTime = MetricsRegistry.get().histogram("alsa.write_ns");
+    private static final Gauge bufferFrames = MetricsRegistry.get().gauge("alsa.buffer_frames");
     private static short framesPerBuffer = 256;
     private ByteBuffer auxBuffer;
     private int bufferCapacity;
@@ -29,6 +37,7 @@ public class ALSAClient {
     private byte channels = 2;
     private int sampleRate = 0;
     private short previousUnderrunCount = 0;
+    private int reportedUnderrunCount = 0;
     private String containerVariant = null;
 
     public enum DataType {
@@ -120,6 +129,7 @@ public class ALSAClient {
     public void prepare() {
         this.position = 0;
         this.previousUnderrunCount = (short) 0;
+        this.reportedUnderrunCount = 0;
         this.frameBytes = (byte) (this.channels * this.dataType.byteCount);
         release();
         if (isValidBufferSize()) {
@@ -127,6 +137,7 @@ public class ALSAClient {
             AudioTrack build = new AudioTrack.Builder().setPerformanceMode(this.options.performanceMode).setAudioFormat(format).setBufferSizeInBytes(getBufferSizeInBytes()).build();
             this.audioTrack = build;
             this.bufferCapacity = build.getBufferCapacityInFrames();
+            bufferFrames.set(this.bufferSize);
             float f = this.options.volume;
             if (f != 1.0f) {
                 this.audioTrack.setVolume(f);
@@ -172,6 +183,8 @@ public class ALSAClient {
             data.order(ByteOrder.BIG_ENDIAN);
         }
         if (this.audioTrack != null) {
+            boolean recordMetrics = MetricsRegistry.get().isEnabled();
+            long startTime = recordMetrics ? System.nanoTime() : 0;
             data.position(0);
             do {
                 try {
@@ -185,6 +198,10 @@ public class ALSAClient {
                 }
             } while (data.position() != data.limit());
             this.position += data.position();
+            if (recordMetrics) {
+                writtenBytes.add(data.position());
+                writeTime.record(System.nanoTime() - startTime);
+            }
             data.rewind();
         }
     }
@@ -192,11 +209,16 @@ public class ALSAClient {
     private void increaseBufferSizeIfUnderrunOccurs() {
         int i;
         int underrunCount = this.audioTrack.getUnderrunCount();
+        if (underrunCount > reportedUnderrunCount) {
+            underruns.add(underrunCount - reportedUnderrunCount);
+            reportedUnderrunCount = underrunCount;
+        }
         if (underrunCount > this.previousUnderrunCount && (i = this.bufferSize) < this.bufferCapacity) {
             this.previousUnderrunCount = (short) underrunCount;
             int i2 = i + framesPerBuffer;
             this.bufferSize = i2;
             this.audioTrack.setBufferSizeInFrames(i2);
+            bufferFrames.set(i2);
         }
     }
 
@@ -0,0 +1,172 @@
+package com.winlator.container;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import com.winlator.core.Callback;
+import com.winlator.core.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Duplicates a container directory, hardlinking the files nothing ever rewrites (fonts and NLS
+ * tables under drive_c/windows) and copying everything else on a small thread pool.
+ * System DLLs are always copied: wineboot, DXVK/VKD3D swaps and redist installers rewrite them
+ * in place, and through a shared inode that write would reach every container at once.
+ */
+public class ContainerDuplicator {
+    private static final String WINDOWS_DIR = ".wine/drive_c/windows/";
+    private static final String FONTS_DIR = "Fonts/";
+    private static final String[] FONT_EXTENSIONS = {".ttf", ".ttc", ".fon", ".otf"};
+    private static final String NLS_EXTENSION = ".nls";
+
+    public static class Result {
+        public boolean success;
+        public int filesCopied;
+        public int filesLinked;
+        public long bytesCopied;
+        public long bytesLinked;
+        public long elapsedMs;
+
+        @Override
+        public String toString() {
+            return "copied "+filesCopied+" files ("+bytesCopied+" bytes), linked "+filesLinked+" files ("+bytesLinked+" bytes) in "+elapsedMs+"ms";
+        }
+    }
+
+    private final boolean linkImmutableFiles;
+    private final int numThreads;
+    private final AtomicInteger filesCopied = new AtomicInteger();
+    private final AtomicInteger filesLinked = new AtomicInteger();
+    private final AtomicLong bytesCopied = new AtomicLong();
+    private final AtomicLong bytesLinked = new AtomicLong();
+
+    public ContainerDuplicator(boolean linkImmutableFiles) {
+        this(linkImmutableFiles, Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    public ContainerDuplicator(boolean linkImmutableFiles, int numThreads) {
+        this.linkImmutableFiles = linkImmutableFiles;
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Whether a file under the container root is read-only content that can be shared between
+     * containers: fonts in windows/Fonts and NLS tables anywhere under windows.
+     */
+    public static boolean isImmutable(String relativePath) {
+        if (!relativePath.startsWith(WINDOWS_DIR)) return false;
+        String windowsPath = relativePath.substring(WINDOWS_DIR.length());
+        String lowerPath = windowsPath.toLowerCase();
+
+        if (lowerPath.endsWith(NLS_EXTENSION)) return true;
+        if (!windowsPath.regionMatches(true, 0, FONTS_DIR, 0, FONTS_DIR.length())) return false;
+        for (String extension : FONT_EXTENSIONS) {
+            if (lowerPath.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    public Result duplicate(File srcDir, File dstDir, Callback<File> callback) {
+        long startTime = System.currentTimeMillis();
+        Result result = new Result();
+
+        ArrayList<File[]> copyTasks = new ArrayList<>();
+        result.success = walk(srcDir, dstDir, "", callback, copyTasks);
+
+        if (result.success && !copyTasks.isEmpty()) {
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                ArrayList<Future<Boolean>> futures = new ArrayList<>(copyTasks.size());
+                for (File[] task : copyTasks) {
+                    futures.add(executor.submit(() -> copyFile(task[0], task[1], callback)));
+                }
+                for (Future<Boolean> future : futures) {
+                    if (!future.get()) result.success = false;
+                }
+            }
+            catch (Exception e) {
+                Log.e("ContainerDuplicator", "Failed to copy container files: " + e);
+                result.success = false;
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+
+        result.filesCopied = filesCopied.get();
+        result.filesLinked = filesLinked.get();
+        result.bytesCopied = bytesCopied.get();
+        result.bytesLinked = bytesLinked.get();
+        result.elapsedMs = System.currentTimeMillis() - startTime;
+        Log.d("ContainerDuplicator", "Duplicated "+srcDir.getName()+" -> "+dstDir.getName()+": "+result);
+        return result;
+    }
+
+    private boolean walk(File srcDir, File dstDir, String relativePath, Callback<File> callback, ArrayList<File[]> copyTasks) {
+        if (!dstDir.exists() && !dstDir.mkdirs()) return false;
+        if (callback != null) callback.call(dstDir);
+
+        String[] filenames = srcDir.list();
+        if (filenames == null) return true;
+
+        for (String filename : filenames) {
+            File srcFile = new File(srcDir, filename);
+            File dstFile = new File(dstDir, filename);
+            // Symlinks (dosdevices, etc.) are recreated by the container setup, same as FileUtils.copy
+            if (FileUtils.isSymlink(srcFile)) continue;
+
+            String childPath = relativePath + filename;
+            if (srcFile.isDirectory()) {
+                if (!walk(srcFile, dstFile, childPath + "/", callback, copyTasks)) return false;
+            }
+            else if (!(linkImmutableFiles && isImmutable(childPath) && linkFile(srcFile, dstFile))) {
+                copyTasks.add(new File[]{srcFile, dstFile});
+            }
+        }
+        return true;
+    }
+
+    private boolean linkFile(File srcFile, File dstFile) {
+        try {
+            Os.link(srcFile.getAbsolutePath(), dstFile.getAbsolutePath());
+            filesLinked.incrementAndGet();
+            bytesLinked.addAndGet(srcFile.length());
+            return true;
+        }
+        catch (ErrnoException e) {
+            // EXDEV or a filesystem without hardlink support, fall back to copying
+            return false;
+        }
+    }
+
+    private boolean copyFile(File srcFile, File dstFile, Callback<File> callback) {
+        try (FileChannel inChannel = (new FileInputStream(srcFile)).getChannel();
+             FileChannel outChannel = (new FileOutputStream(dstFile)).getChannel()) {
+            long size = inChannel.size();
+            long position = 0;
+            while (position < size) position += inChannel.transferTo(position, size - position, outChannel);
+
+            filesCopied.incrementAndGet();
+            bytesCopied.addAndGet(size);
+        }
+        catch (IOException e) {
+            Log.e("ContainerDuplicator", "Failed to copy " + srcFile + ": " + e);
+            return false;
+        }
+
+        if (callback != null) callback.call(dstFile);
+        return true;
+    }
+}
@@ -12,6 +12,7 @@ import app.gamenative.R;
 import com.winlator.box86_64.Box86_64Preset;
 import com.winlator.contents.ContentsManager;
 import com.winlator.core.Callback;
+import com.winlator.core.ExtractionLedger;
 import com.winlator.core.FileUtils;
 import com.winlator.core.OnExtractFileListener;
 import com.winlator.core.TarCompressorUtils;
@@ -177,7 +178,7 @@ public class ContainerManager {
             boolean isMainWineVersion = !data.has("wineVersion") || WineInfo.isMainWineVersion(data.getString("wineVersion"));
             if (!isMainWineVersion) container.setWineVersion(data.getString("wineVersion"));
 
-            if (!extractContainerPatternFile(container.getWineVersion(), contentsManager, containerDir, null)) {
+            if (!applyContainerPattern(container, contentsManager)) {
                 Log.w("Container Manager", "Failed to extract container pattern, deleting container directory...");
                 FileUtils.delete(containerDir);
                 return null;
@@ -193,17 +194,19 @@ public class ContainerManager {
         return null;
     }
 
-    private void duplicateContainer(Container srcContainer) {
+    private ContainerDuplicator.Result duplicateContainer(Container srcContainer) {
         // Generate a unique ID by appending (1), (2), etc. to the original ID
         String baseId = srcContainer.id;
         String newId = generateUniqueContainerId(baseId);
 
         File dstDir = new File(homeDir, ImageFs.USER+"-"+newId);
-        if (!dstDir.mkdirs()) return;
+        if (!dstDir.mkdirs()) return null;
 
-        if (!FileUtils.copy(srcContainer.getRootDir(), dstDir, (file) -> FileUtils.chmod(file, 0771))) {
+        ContainerDuplicator duplicator = new ContainerDuplicator(true);
+        ContainerDuplicator.Result result = duplicator.duplicate(srcContainer.getRootDir(), dstDir, (file) -> FileUtils.chmod(file, 0771));
+        if (!result.success) {
             FileUtils.delete(dstDir);
-            return;
+            return result;
         }
 
         Container dstContainer = new Container(newId);
@@ -232,6 +235,7 @@ public class ContainerManager {
         dstContainer.saveData();
 
         containers.add(dstContainer);
+        return result;
     }
 
     private String generateUniqueContainerId(String baseId) {
@@ -367,6 +371,60 @@ public class ContainerManager {
         }
     }
 
+    /**
+     * Populates the container root from the cached template of its (wine version, variant) pattern,
+     * hardlinking what Wine never modifies in place, instead of extracting the pattern again.
+     */
+    public boolean applyContainerPattern(Container container, ContentsManager contentsManager) {
+        String wineVersion = container.getWineVersion();
+        File containerDir = container.getRootDir();
+        if (!WineInfo.isMainWineVersion(wineVersion)) {
+            // Common DLLs of the main version the new pattern may not have
+            try {
+                JSONObject commonDlls = new JSONObject(FileUtils.readString(context, "common_dlls.json"));
+                deleteCommonDlls("system32", commonDlls, containerDir);
+                deleteCommonDlls("syswow64", commonDlls, containerDir);
+            }
+            catch (JSONException e) {
+                return false;
+            }
+        }
+
+        ContainerPatternCache patternCache = ContainerPatternCache.get(context);
+        String key = ContainerPatternCache.getKey(wineVersion, container.getContainerVariant());
+        ContainerPatternCache.Result result = patternCache.populate(key, getContainerPatternIdentity(wineVersion, contentsManager),
+            (templateDir) -> extractContainerPatternFile(wineVersion, contentsManager, templateDir, null),
+            containerDir, (file) -> FileUtils.chmod(file, 0771));
+        if (result.success) return true;
+
+        Log.w("ContainerManager", "Container pattern cache unavailable, extracting "+key+" directly");
+        return extractContainerPatternFile(wineVersion, contentsManager, containerDir, null);
+    }
+
+    /** Everything a pattern is made from, a template is rebuilt when this changes. */
+    private String getContainerPatternIdentity(String wineVersion, ContentsManager contentsManager) {
+        ImageFs imageFs = ImageFs.find(context);
+        StringBuilder identity = new StringBuilder(wineVersion);
+        identity.append("|imagefs@").append(imageFs.getVersion());
+        if (WineInfo.isMainWineVersion(wineVersion)) {
+            identity.append("|").append(ExtractionLedger.assetSource(context, "container_pattern_gamenative.tzst").getIdentity());
+            // The common DLLs come from /opt/wine, which the imagefs patches update
+            File downloadedPatches = new File(imageFs.getFilesDir(), "imagefs_patches_gamenative.tzst");
+            if (downloadedPatches.isFile()) identity.append("|").append(ExtractionLedger.fileSource(downloadedPatches).getIdentity());
+        }
+        else {
+            WineInfo wineInfo = WineInfo.fromIdentifier(context, contentsManager, wineVersion);
+            identity.append("|").append(ExtractionLedger.assetSource(context, wineVersion+"_container_pattern.tzst").getIdentity());
+            for (String name : new String[]{"prefixPack.tzst", "prefixPack.txz"}) {
+                File prefixPack = new File(wineInfo.path, name);
+                if (prefixPack.isFile()) identity.append("|").append(ExtractionLedger.fileSource(prefixPack).getIdentity());
+            }
+            File libDir = new File(wineInfo.path, "lib/wine");
+            identity.append("|").append(libDir.getAbsolutePath()).append("@").append(libDir.lastModified());
+        }
+        return identity.toString();
+    }
+
     public boolean extractContainerPatternFile(String wineVersion, ContentsManager contentsManager, File containerDir, OnExtractFileListener onExtractFileListener) {
         WineInfo wineInfo = WineInfo.fromIdentifier(context, contentsManager, wineVersion);
         if (WineInfo.isMainWineVersion(wineVersion)) {
@@ -0,0 +1,426 @@
+package com.winlator.container;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.winlator.core.Callback;
+import com.winlator.core.FileUtils;
+import com.winlator.core.StreamUtils;
+import com.winlator.xenvironment.ImageFs;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+
+/**
+ * Materializes each container pattern (the pattern archive or a Wine version's prefix pack, plus its
+ * common DLLs) once per (wine version, variant) into a template directory, then populates container
+ * roots from it instead of extracting the pattern again. Only fonts and NLS tables (see
+ * {@link ContainerDuplicator#isImmutable}) are hardlinked; DLLs and everything else are copied, since
+ * Wine and installers rewrite DLLs in place and a shared inode would carry that write into the
+ * template and every container made from it.
+ *
+ * Every template has a manifest with the SHA-256 of each file. populate() compares size and mtime
+ * against it and rehashes what differs, verify() rehashes everything; a template that no longer
+ * matches is rebuilt, as is one whose identity (the pattern's sources) changed.
+ */
+public class ContainerPatternCache {
+    private static final Object lock = new Object();
+    private static final String MANIFEST_HEADER = "container-pattern 1";
+    private static final char TYPE_FILE = 'f';
+    private static final char TYPE_DIRECTORY = 'd';
+    private static final char TYPE_SYMLINK = 'l';
+
+    /** Writes the pattern into an empty directory, ContainerManager.extractContainerPatternFile() outside of tests. */
+    public interface Materializer {
+        boolean materialize(File templateDir);
+    }
+
+    public static class Result {
+        public boolean success;
+        public boolean templateBuilt;
+        public int filesLinked;
+        public int filesCopied;
+        public int filesUnchanged;
+        public long bytesLinked;
+        public long bytesCopied;
+        public long elapsedMs;
+
+        @Override
+        public String toString() {
+            return (success ? "" : "failed, ")+(templateBuilt ? "built template, " : "")+"linked "+filesLinked+" files ("+bytesLinked+" bytes), copied "+filesCopied+" files ("+bytesCopied+" bytes), "+filesUnchanged+" unchanged in "+elapsedMs+"ms";
+        }
+    }
+
+    private static class Entry {
+        private final char type;
+        private final long size;
+        private long mtime;
+        /** SHA-256 of a file, the target of a symlink */
+        private final String data;
+
+        private Entry(char type, long size, long mtime, String data) {
+            this.type = type;
+            this.size = size;
+            this.mtime = mtime;
+            this.data = data;
+        }
+    }
+
+    private static class Manifest {
+        String identity = "";
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    }
+
+    private final File cacheDir;
+
+    public ContainerPatternCache(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /** Next to the containers, hardlinks cannot cross filesystems. */
+    public static ContainerPatternCache get(Context context) {
+        return new ContainerPatternCache(new File(ImageFs.find(context).getRootDir(), "home/.container_patterns"));
+    }
+
+    public static String getKey(String wineVersion, String variant) {
+        return (wineVersion+"@"+variant).replaceAll("[^A-Za-z0-9._@-]", "_");
+    }
+
+    public File getTemplateDir(String key) {
+        return new File(cacheDir, key);
+    }
+
+    /**
+     * Fills containerDir from the template of key, building the template first if it is missing,
+     * was made from other sources than identity describes, or no longer matches its manifest.
+     * Files already in containerDir are replaced like an extraction would; callback gets every
+     * directory and copied file, e.g. for chmod.
+     */
+    public Result populate(String key, String identity, Materializer materializer, File containerDir, Callback<File> callback) {
+        long startTime = System.currentTimeMillis();
+        Result result = new Result();
+        synchronized (lock) {
+            Manifest manifest = readManifest(key);
+            if (manifest == null || !manifest.identity.equals(identity) || !checkTemplate(key, manifest)) {
+                manifest = buildTemplate(key, identity, materializer);
+                result.templateBuilt = manifest != null;
+            }
+
+            if (manifest != null) {
+                try {
+                    copyTemplate(getTemplateDir(key), manifest, containerDir, callback, result);
+                    result.success = true;
+                }
+                catch (IOException e) {
+                    Log.e("ContainerPatternCache", "Failed to populate "+containerDir+" from "+key+": "+e);
+                }
+            }
+        }
+
+        result.elapsedMs = System.currentTimeMillis() - startTime;
+        Log.d("ContainerPatternCache", key+" -> "+containerDir.getName()+": "+result);
+        return result;
+    }
+
+    /**
+     * Rehashes every file of the template and returns the paths that no longer match the manifest.
+     * A template with mismatches is dropped, so the next populate() rebuilds it.
+     */
+    public ArrayList<String> verify(String key) {
+        ArrayList<String> corruptPaths = new ArrayList<>();
+        synchronized (lock) {
+            Manifest manifest = readManifest(key);
+            if (manifest == null) return corruptPaths;
+
+            File templateDir = getTemplateDir(key);
+            for (String path : manifest.entries.keySet()) {
+                if (!matches(new File(templateDir, path), manifest.entries.get(path), true)) corruptPaths.add(path);
+            }
+            if (!corruptPaths.isEmpty()) {
+                Log.w("ContainerPatternCache", "Template "+key+" is corrupt: "+corruptPaths);
+                getManifestFile(key).delete();
+            }
+        }
+        return corruptPaths;
+    }
+
+    public void remove(String key) {
+        synchronized (lock) {
+            getManifestFile(key).delete();
+            deleteTree(getTemplateDir(key));
+        }
+    }
+
+    /** Compares size and mtime and rehashes only the files where those changed. */
+    private boolean checkTemplate(String key, Manifest manifest) {
+        File templateDir = getTemplateDir(key);
+        boolean touched = false;
+        for (String path : manifest.entries.keySet()) {
+            File file = new File(templateDir, path);
+            Entry entry = manifest.entries.get(path);
+            if (matches(file, entry, false)) continue;
+            if (entry.type != TYPE_FILE || !matches(file, entry, true)) {
+                Log.w("ContainerPatternCache", "Template "+key+" changed at "+path+", rebuilding");
+                return false;
+            }
+            // Same content, only the timestamp moved
+            entry.mtime = file.lastModified();
+            touched = true;
+        }
+
+        if (touched) {
+            try {
+                writeManifest(getManifestFile(key), manifest);
+            }
+            catch (IOException e) {
+                Log.w("ContainerPatternCache", "Failed to update manifest of "+key+": "+e);
+            }
+        }
+        return true;
+    }
+
+    private Manifest buildTemplate(String key, String identity, Materializer materializer) {
+        File templateDir = getTemplateDir(key);
+        File tmpDir = new File(cacheDir, key+".tmp");
+        getManifestFile(key).delete();
+        deleteTree(tmpDir);
+        if (!tmpDir.mkdirs()) return null;
+
+        if (!materializer.materialize(tmpDir)) {
+            Log.e("ContainerPatternCache", "Failed to materialize "+key);
+            deleteTree(tmpDir);
+            return null;
+        }
+
+        try {
+            Manifest manifest = new Manifest();
+            manifest.identity = identity;
+            scan(tmpDir, "", manifest);
+
+            // Containers keep their links to the files of an old template, removing it only drops the names here
+            deleteTree(templateDir);
+            if (!tmpDir.renameTo(templateDir)) throw new IOException("Failed to rename "+tmpDir);
+            setTreeWritable(templateDir, false);
+            writeManifest(getManifestFile(key), manifest);
+            Log.d("ContainerPatternCache", "Built template "+key+" with "+manifest.entries.size()+" entries");
+            return manifest;
+        }
+        catch (IOException e) {
+            Log.e("ContainerPatternCache", "Failed to build template "+key+": "+e);
+            deleteTree(tmpDir);
+            return null;
+        }
+    }
+
+    private static void scan(File dir, String relativePath, Manifest manifest) throws IOException {
+        String[] filenames = dir.list();
+        if (filenames == null) return;
+        Arrays.sort(filenames);
+
+        for (String filename : filenames) {
+            File file = new File(dir, filename);
+            String path = relativePath+filename;
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isSymbolicLink()) {
+                manifest.entries.put(path, new Entry(TYPE_SYMLINK, 0, 0, Files.readSymbolicLink(file.toPath()).toString()));
+            }
+            else if (attributes.isDirectory()) {
+                manifest.entries.put(path, new Entry(TYPE_DIRECTORY, 0, 0, ""));
+                scan(file, path+"/", manifest);
+            }
+            else {
+                try (InputStream inStream = new FileInputStream(file)) {
+                    manifest.entries.put(path, new Entry(TYPE_FILE, attributes.size(), attributes.lastModifiedTime().toMillis(), digest(inStream)));
+                }
+            }
+        }
+    }
+
+    private static void copyTemplate(File templateDir, Manifest manifest, File containerDir, Callback<File> callback, Result result) throws IOException {
+        if (!containerDir.isDirectory() && !containerDir.mkdirs()) throw new IOException("Failed to create "+containerDir);
+
+        for (String path : manifest.entries.keySet()) {
+            Entry entry = manifest.entries.get(path);
+            File srcFile = new File(templateDir, path);
+            File dstFile = new File(containerDir, path);
+            Path dstPath = dstFile.toPath();
+
+            if (entry.type == TYPE_DIRECTORY) {
+                if (Files.isSymbolicLink(dstPath) || (dstFile.exists() && !dstFile.isDirectory())) dstFile.delete();
+                if (!dstFile.isDirectory() && !dstFile.mkdirs()) throw new IOException("Failed to create "+dstFile);
+                if (callback != null) callback.call(dstFile);
+            }
+            else if (entry.type == TYPE_SYMLINK) {
+                if (Files.isSymbolicLink(dstPath) && Files.readSymbolicLink(dstPath).toString().equals(entry.data)) {
+                    result.filesUnchanged++;
+                    continue;
+                }
+                // A real directory in the way is left alone, same as extracting a symlink over it
+                if (dstFile.isDirectory() && !Files.isSymbolicLink(dstPath)) continue;
+                Files.deleteIfExists(dstPath);
+                Files.createSymbolicLink(dstPath, Paths.get(entry.data));
+            }
+            else if (ContainerDuplicator.isImmutable(path)) {
+                if (dstFile.exists() && Files.isSameFile(srcFile.toPath(), dstPath)) {
+                    result.filesUnchanged++;
+                    continue;
+                }
+                Files.deleteIfExists(dstPath);
+                if (linkFile(srcFile, dstFile)) {
+                    result.filesLinked++;
+                    result.bytesLinked += entry.size;
+                }
+                else {
+                    copyFile(srcFile, dstFile);
+                    result.filesCopied++;
+                    result.bytesCopied += entry.size;
+                    if (callback != null) callback.call(dstFile);
+                }
+            }
+            else {
+                // Unlinking first keeps a copy-up from writing through into another container's file
+                Files.deleteIfExists(dstPath);
+                copyFile(srcFile, dstFile);
+                result.filesCopied++;
+                result.bytesCopied += entry.size;
+                if (callback != null) callback.call(dstFile);
+            }
+        }
+    }
+
+    private static boolean linkFile(File srcFile, File dstFile) {
+        try {
+            Files.createLink(dstFile.toPath(), srcFile.toPath());
+            return true;
+        }
+        catch (IOException | UnsupportedOperationException e) {
+            // EXDEV or a filesystem without hardlink support, fall back to copying
+            return false;
+        }
+    }
+
+    private static void copyFile(File srcFile, File dstFile) throws IOException {
+        try (FileChannel inChannel = (new FileInputStream(srcFile)).getChannel();
+             FileChannel outChannel = (new FileOutputStream(dstFile)).getChannel()) {
+            long size = inChannel.size();
+            long position = 0;
+            while (position < size) position += inChannel.transferTo(position, size - position, outChannel);
+        }
+    }
+
+    private static boolean matches(File file, Entry expected, boolean checkDigest) {
+        try {
+            Path path = file.toPath();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            switch (expected.type) {
+                case TYPE_SYMLINK:
+                    return attributes.isSymbolicLink() && Files.readSymbolicLink(path).toString().equals(expected.data);
+                case TYPE_DIRECTORY:
+                    return attributes.isDirectory();
+                default:
+                    if (!attributes.isRegularFile() || attributes.size() != expected.size) return false;
+                    if (!checkDigest) return attributes.lastModifiedTime().toMillis() == expected.mtime;
+                    try (InputStream inStream = new FileInputStream(file)) {
+                        return digest(inStream).equals(expected.data);
+                    }
+            }
+        }
+        catch (IOException e) {
+            return false;
+        }
+    }
+
+    /** Templates are kept read-only at the directory level, the files themselves are shared with containers. */
+    private static void setTreeWritable(File dir, boolean writable) {
+        if (!dir.isDirectory() || Files.isSymbolicLink(dir.toPath())) return;
+        if (writable) dir.setWritable(true);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) setTreeWritable(file, writable);
+        }
+        if (!writable) dir.setWritable(false, false);
+    }
+
+    private static void deleteTree(File dir) {
+        if (!dir.exists() && !Files.isSymbolicLink(dir.toPath())) return;
+        setTreeWritable(dir, true);
+        FileUtils.delete(dir);
+    }
+
+    private File getManifestFile(String key) {
+        return new File(cacheDir, key+".manifest");
+    }
+
+    private Manifest readManifest(String key) {
+        File file = getManifestFile(key);
+        if (!file.isFile() || !getTemplateDir(key).isDirectory()) return null;
+        Manifest manifest = new Manifest();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            if (!MANIFEST_HEADER.equals(reader.readLine())) return null;
+            manifest.identity = reader.readLine();
+            if (manifest.identity == null) return null;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 5);
+                if (parts.length != 5 || parts[0].length() != 1) return null;
+                manifest.entries.put(parts[4], new Entry(parts[0].charAt(0), Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3]));
+            }
+            return manifest;
+        }
+        catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeManifest(File file, Manifest manifest) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) parent.mkdirs();
+        File tmpFile = new File(file.getPath()+".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+            writer.write(MANIFEST_HEADER+"\n");
+            writer.write(manifest.identity+"\n");
+            for (String path : manifest.entries.keySet()) {
+                Entry entry = manifest.entries.get(path);
+                writer.write(entry.type+"\t"+entry.size+"\t"+entry.mtime+"\t"+entry.data+"\t"+path+"\n");
+            }
+        }
+        if (!tmpFile.renameTo(file)) throw new IOException("Failed to write "+file);
+    }
+
+    private static String digest(InputStream inStream) throws IOException {
+        MessageDigest messageDigest;
+        try {
+            messageDigest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+        int length;
+        while ((length = inStream.read(buffer)) != -1) messageDigest.update(buffer, 0, length);
+        byte[] bytes = messageDigest.digest();
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+}
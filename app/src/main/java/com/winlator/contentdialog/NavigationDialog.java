@@ -25,12 +25,18 @@ public class NavigationDialog extends ContentDialog {
     public static final int ACTION_KEYBOARD = 1;
     public static final int ACTION_INPUT_CONTROLS = 2;
     public static final int ACTION_EXIT_GAME = 3;
+    public static final int ACTION_DUMP_X_REQUEST_PROFILE = 4;
 
     public interface NavigationListener {
         void onNavigationItemSelected(int itemId);
     }
 
     public NavigationDialog(@NonNull Context context, NavigationListener listener) {
+        this(context, listener, false);
+    }
+
+    /** showRequestProfile adds an item that writes the running X request profile without stopping it. */
+    public NavigationDialog(@NonNull Context context, NavigationListener listener, boolean showRequestProfile) {
         super(context, R.layout.navigation_dialog);
         if (getWindow() != null) {
             getWindow().setBackgroundDrawableResource(R.drawable.navigation_dialog_background);
@@ -49,6 +55,9 @@ public class NavigationDialog extends ContentDialog {
 
         addMenuItem(context, grid, R.drawable.icon_keyboard, R.string.keyboard, ACTION_KEYBOARD, listener);
         addMenuItem(context, grid, R.drawable.icon_input_controls, R.string.input_controls, ACTION_INPUT_CONTROLS, listener);
+        if (showRequestProfile) {
+            addMenuItem(context, grid, R.drawable.icon_debug, R.string.dump_x_request_profile, ACTION_DUMP_X_REQUEST_PROFILE, listener);
+        }
         addMenuItem(context, grid, R.drawable.icon_exit, R.string.exit_game, ACTION_EXIT_GAME, listener);
     }
 
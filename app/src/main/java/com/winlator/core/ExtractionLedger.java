@@ -0,0 +1,426 @@
+package com.winlator.core;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import com.winlator.xenvironment.ImageFs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers what each archive extracted into each destination, so extracting it again costs one
+ * stat per extracted path instead of decompressing and rewriting everything. A manifest is kept per
+ * (slot, destination), the slot naming what is installed there (e.g. "box64"), and records the
+ * archive's identity and SHA-256 together with the type, size and mtime of every path it wrote, and
+ * whether something was already there when it did (an overlay, e.g. a DLL of the Wine prefix that
+ * DXVK replaces, or an imagefs file a patch archive replaces).
+ *
+ * On extract():
+ * - same archive, all paths unchanged: nothing is written;
+ * - same archive, some paths missing or modified since: only those entries are written again;
+ * - different archive: it is extracted in full, then paths only the previous archive had are
+ *   removed, unless they were overlays or something else has modified them since. An overlaid path
+ *   belongs to the layer underneath, so it is left as it is.
+ * An archive is the same if its identity (asset name and APK update time, or file path, size and
+ * mtime) matches, or else if its content hashes to the recorded digest.
+ */
+public class ExtractionLedger {
+    private static final char TYPE_FILE = 'f';
+    private static final char TYPE_DIRECTORY = 'd';
+    private static final char TYPE_SYMLINK = 'l';
+
+    public enum Action {SKIPPED, REPAIRED, EXTRACTED, FAILED}
+
+    public static class Result {
+        public boolean success;
+        public Action action = Action.FAILED;
+        public int pathsChecked;
+        public int pathsRepaired;
+        public int pathsRemoved;
+        public long elapsedMs;
+
+        @Override
+        public String toString() {
+            return action.name().toLowerCase()+" checked="+pathsChecked+" repaired="+pathsRepaired+" removed="+pathsRemoved+" in "+elapsedMs+"ms";
+        }
+    }
+
+    /** Where an archive is read from, and the cheap identity that stands in for its digest. */
+    public interface Source {
+        String getIdentity();
+
+        InputStream open() throws IOException;
+    }
+
+    private static class Entry {
+        final char type;
+        final long size;
+        final long mtime;
+        final boolean overlay;
+
+        Entry(char type, long size, long mtime, boolean overlay) {
+            this.type = type;
+            this.size = size;
+            this.mtime = mtime;
+            this.overlay = overlay;
+        }
+    }
+
+    private static class Manifest {
+        String identity = "";
+        String digest = "";
+        final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+    }
+
+    /** Writes the entries of an archive into a destination, TarCompressorUtils.extract() outside of tests. */
+    interface Extractor {
+        boolean extract(TarCompressorUtils.Type type, InputStream source, File destination, OnExtractFileListener onExtractFileListener) throws IOException;
+    }
+
+    private static ExtractionLedger instance;
+    private final File ledgerDir;
+    private final Extractor extractor;
+    // One per manifest, so only extractions into the same (slot, destination) wait for each other
+    private final ConcurrentHashMap<String, Object> manifestLocks = new ConcurrentHashMap<>();
+
+    public ExtractionLedger(File ledgerDir) {
+        this(ledgerDir, TarCompressorUtils::extract);
+    }
+
+    ExtractionLedger(File ledgerDir, Extractor extractor) {
+        this.ledgerDir = ledgerDir;
+        this.extractor = extractor;
+    }
+
+    /** Shared by every caller, so extractions into the same (slot, destination) are serialized. */
+    public static synchronized ExtractionLedger get(Context context) {
+        if (instance == null) instance = new ExtractionLedger(new File(ImageFs.find(context).getConfigDir(), "extraction_ledger"));
+        return instance;
+    }
+
+    public static Source assetSource(Context context, String assetFile) {
+        long updateTime;
+        try {
+            updateTime = context.getPackageManager().getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+        }
+        catch (PackageManager.NameNotFoundException e) {
+            updateTime = 0;
+        }
+        final String identity = "asset:"+assetFile+"@"+updateTime;
+        return new Source() {
+            @Override
+            public String getIdentity() {
+                return identity;
+            }
+
+            @Override
+            public InputStream open() throws IOException {
+                return context.getAssets().open(assetFile);
+            }
+        };
+    }
+
+    public static Source fileSource(File file) {
+        final String identity = "file:"+file.getAbsolutePath()+"@"+file.length()+":"+file.lastModified();
+        return new Source() {
+            @Override
+            public String getIdentity() {
+                return identity;
+            }
+
+            @Override
+            public InputStream open() throws IOException {
+                return new FileInputStream(file);
+            }
+        };
+    }
+
+    public Result extract(TarCompressorUtils.Type type, Context context, String assetFile, File destination, String slot) {
+        return extract(type, assetSource(context, assetFile), destination, slot, null);
+    }
+
+    public Result extract(TarCompressorUtils.Type type, Context context, String assetFile, File destination, String slot, OnExtractFileListener onExtractFileListener) {
+        return extract(type, assetSource(context, assetFile), destination, slot, onExtractFileListener);
+    }
+
+    public Result extract(TarCompressorUtils.Type type, File source, File destination, String slot, OnExtractFileListener onExtractFileListener) {
+        if (source == null || !source.isFile()) return new Result();
+        return extract(type, fileSource(source), destination, slot, onExtractFileListener);
+    }
+
+    public Result extract(TarCompressorUtils.Type type, Source source, File destination, String slot, OnExtractFileListener onExtractFileListener) {
+        String destinationPath = getCanonicalPath(destination);
+        File manifestFile = new File(ledgerDir, sha1(slot+"\n"+destinationPath)+".manifest");
+        synchronized (manifestLocks.computeIfAbsent(manifestFile.getName(), name -> new Object())) {
+            return extract(type, source, destination, destinationPath, manifestFile, slot, onExtractFileListener);
+        }
+    }
+
+    private Result extract(TarCompressorUtils.Type type, Source source, File destination, String destinationPath, File manifestFile, String slot, OnExtractFileListener onExtractFileListener) {
+        long startTime = System.currentTimeMillis();
+        Result result = new Result();
+        // The listener can redirect or drop entries, so the same archive extracted with and without one differs
+        String variant = onExtractFileListener != null ? "|"+onExtractFileListener.getClass().getName() : "";
+        String identity = source.getIdentity()+variant;
+        Manifest previous = readManifest(manifestFile);
+
+        try {
+            boolean sameArchive = previous != null && previous.identity.equals(identity);
+            if (previous != null && !sameArchive && !previous.digest.isEmpty()) {
+                try (InputStream inStream = source.open()) {
+                    sameArchive = previous.digest.equals(digest(inStream)+variant);
+                }
+            }
+
+            if (sameArchive) {
+                HashSet<String> changedPaths = new HashSet<>();
+                for (String path : previous.entries.keySet()) {
+                    result.pathsChecked++;
+                    if (!matches(resolve(destination, path), previous.entries.get(path))) changedPaths.add(path);
+                }
+
+                if (!changedPaths.isEmpty()) {
+                    Manifest repaired = extractArchive(type, source, destination, destinationPath, onExtractFileListener, changedPaths, previous);
+                    if (repaired == null) {
+                        manifestFile.delete();
+                        return finish(result, slot, startTime);
+                    }
+                    previous.entries.putAll(repaired.entries);
+                    result.pathsRepaired = changedPaths.size();
+                }
+
+                if (!changedPaths.isEmpty() || !previous.identity.equals(identity)) {
+                    previous.identity = identity;
+                    writeManifest(manifestFile, previous);
+                }
+                result.action = changedPaths.isEmpty() ? Action.SKIPPED : Action.REPAIRED;
+                result.success = true;
+                return finish(result, slot, startTime);
+            }
+
+            // Without a manifest a crash part way through simply means extracting in full next time
+            manifestFile.delete();
+            Manifest manifest = extractArchive(type, source, destination, destinationPath, onExtractFileListener, null, previous);
+            if (manifest == null) return finish(result, slot, startTime);
+            manifest.identity = identity;
+            manifest.digest += variant;
+            if (previous != null) result.pathsRemoved = removeStalePaths(destination, previous, manifest);
+            writeManifest(manifestFile, manifest);
+            result.action = Action.EXTRACTED;
+            result.success = true;
+        }
+        catch (IOException e) {
+            Log.e("ExtractionLedger", "Failed to extract "+slot+": "+e);
+        }
+        return finish(result, slot, startTime);
+    }
+
+    private static Result finish(Result result, String slot, long startTime) {
+        result.elapsedMs = System.currentTimeMillis() - startTime;
+        Log.d("ExtractionLedger", slot+": "+result);
+        return result;
+    }
+
+    /**
+     * Extracts the archive, only the entries at onlyPaths if given, and returns the manifest of what
+     * was written. Paths keep the overlay flag previous has for them, others get one if they existed.
+     */
+    private Manifest extractArchive(TarCompressorUtils.Type type, Source source, File destination, String destinationPath, OnExtractFileListener onExtractFileListener, HashSet<String> onlyPaths, Manifest previous) throws IOException {
+        final ArrayList<String> extractedPaths = new ArrayList<>();
+        final HashSet<String> overlaidPaths = new HashSet<>();
+        OnExtractFileListener recorder = (file, size) -> {
+            if (onExtractFileListener != null) {
+                file = onExtractFileListener.onExtractFile(file, size);
+                if (file == null) return null;
+            }
+            String path = relativize(destination, destinationPath, file);
+            if (onlyPaths != null && !onlyPaths.contains(path)) return null;
+            Entry previousEntry = previous != null ? previous.entries.get(path) : null;
+            boolean overlay = previousEntry != null ? previousEntry.overlay : Files.exists(file.toPath(), LinkOption.NOFOLLOW_LINKS);
+            if (overlay) overlaidPaths.add(path);
+            extractedPaths.add(path);
+            return file;
+        };
+
+        MessageDigest messageDigest = newDigest();
+        boolean success;
+        // The tar reader stops at the end-of-archive marker, so hash whatever follows it on close
+        try (DigestInputStream inStream = new DigestInputStream(source.open(), messageDigest) {
+            private boolean closed = false;
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+                while (read(buffer) != -1);
+                super.close();
+            }
+        }) {
+            success = extractor.extract(type, new BufferedInputStream(inStream, StreamUtils.BUFFER_SIZE), destination, recorder);
+        }
+        if (!success) return null;
+
+        Manifest manifest = new Manifest();
+        manifest.digest = toHex(messageDigest.digest());
+        for (String path : extractedPaths) {
+            Entry entry = stat(resolve(destination, path), overlaidPaths.contains(path));
+            if (entry != null) manifest.entries.put(path, entry);
+        }
+        return manifest;
+    }
+
+    /**
+     * Removes paths of the previous archive that the current one no longer has, unless they were
+     * overlays or something else changed them.
+     */
+    private static int removeStalePaths(File destination, Manifest previous, Manifest current) {
+        int removed = 0;
+        ArrayList<File> directories = new ArrayList<>();
+        for (String path : previous.entries.keySet()) {
+            Entry entry = previous.entries.get(path);
+            if (entry.overlay || current.entries.containsKey(path)) continue;
+            File file = resolve(destination, path);
+            if (entry.type == TYPE_DIRECTORY) {
+                directories.add(file);
+            }
+            else if (matches(file, entry) && file.delete()) removed++;
+        }
+
+        // Deepest first, and only the ones left empty
+        Collections.sort(directories, (a, b) -> b.getPath().length() - a.getPath().length());
+        for (File directory : directories) {
+            String[] children = directory.list();
+            if (children != null && children.length == 0 && directory.delete()) removed++;
+        }
+        return removed;
+    }
+
+    private static Entry stat(File file, boolean overlay) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attributes.isSymbolicLink()) return new Entry(TYPE_SYMLINK, 0, 0, overlay);
+            if (attributes.isDirectory()) return new Entry(TYPE_DIRECTORY, 0, 0, overlay);
+            return new Entry(TYPE_FILE, attributes.size(), attributes.lastModifiedTime().toMillis(), overlay);
+        }
+        catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean matches(File file, Entry expected) {
+        Entry actual = stat(file, false);
+        if (actual == null || actual.type != expected.type) return false;
+        return expected.type != TYPE_FILE || (actual.size == expected.size && actual.mtime == expected.mtime);
+    }
+
+    private static File resolve(File destination, String path) {
+        return path.startsWith("/") ? new File(path) : new File(destination, path);
+    }
+
+    private static String relativize(File destination, String destinationPath, File file) {
+        String path = file.getAbsolutePath();
+        String prefix = destination.getAbsolutePath()+"/";
+        if (path.startsWith(prefix)) return path.substring(prefix.length());
+        prefix = destinationPath+"/";
+        return path.startsWith(prefix) ? path.substring(prefix.length()) : path;
+    }
+
+    private static String getCanonicalPath(File file) {
+        try {
+            return file.getCanonicalPath();
+        }
+        catch (IOException e) {
+            return file.getAbsolutePath();
+        }
+    }
+
+    private static Manifest readManifest(File file) {
+        if (!file.isFile()) return null;
+        Manifest manifest = new Manifest();
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            manifest.identity = reader.readLine();
+            manifest.digest = reader.readLine();
+            if (manifest.identity == null || manifest.digest == null) return null;
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 5);
+                if (parts.length != 5 || parts[0].length() != 1) return null;
+                manifest.entries.put(parts[4], new Entry(parts[0].charAt(0), Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3].equals("o")));
+            }
+            return manifest;
+        }
+        catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static void writeManifest(File file, Manifest manifest) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory()) parent.mkdirs();
+        File tmpFile = new File(file.getPath()+".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tmpFile))) {
+            writer.write(manifest.identity+"\n");
+            writer.write(manifest.digest+"\n");
+            for (String path : manifest.entries.keySet()) {
+                Entry entry = manifest.entries.get(path);
+                writer.write(entry.type+"\t"+entry.size+"\t"+entry.mtime+"\t"+(entry.overlay ? "o" : "-")+"\t"+path+"\n");
+            }
+        }
+        if (!tmpFile.renameTo(file)) throw new IOException("Failed to write "+file);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String digest(InputStream inStream) throws IOException {
+        MessageDigest messageDigest = newDigest();
+        byte[] buffer = new byte[StreamUtils.BUFFER_SIZE];
+        int length;
+        while ((length = inStream.read(buffer)) != -1) messageDigest.update(buffer, 0, length);
+        return toHex(messageDigest.digest());
+    }
+
+    private static String sha1(String value) {
+        try {
+            return toHex(MessageDigest.getInstance("SHA-1").digest(value.getBytes(StandardCharsets.UTF_8)));
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) sb.append(String.format("%02x", b & 0xff));
+        return sb.toString();
+    }
+}
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.content.res.AssetFileDescriptor;
 import android.content.res.AssetManager;
 import android.net.Uri;
+import android.os.Build;
 import android.os.Environment;
 import android.os.StatFs;
 import android.system.ErrnoException;
@@ -23,21 +24,28 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Stack;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
 
 public abstract class FileUtils {
+    private static final int COMPARE_CHUNK_SIZE = 256 * 1024;
+    private static final ThreadLocal<byte[][]> compareBuffers = ThreadLocal.withInitial(() -> new byte[][]{new byte[COMPARE_CHUNK_SIZE], new byte[COMPARE_CHUNK_SIZE]});
+
     public static byte[] read(Context context, String assetFile) {
         try (InputStream inStream = context.getAssets().open(assetFile)) {
             return StreamUtils.copyToByteArray(inStream);
@@ -149,6 +157,17 @@ public abstract class FileUtils {
         return Files.isSymbolicLink(file.toPath());
     }
 
+    /**
+     * Unlinks a file that shares its inode with other hardlinks (e.g. after a deduplicated
+     * container duplication) so the caller's subsequent write creates a private copy.
+     */
+    public static void breakHardlink(File file) {
+        try {
+            if (Os.lstat(file.getPath()).st_nlink > 1) file.delete();
+        }
+        catch (ErrnoException e) {}
+    }
+
     public static boolean delete(File targetFile) {
         if (targetFile == null) return false;
         if (targetFile.isDirectory()) {
@@ -202,6 +221,7 @@ public abstract class FileUtils {
             File parent = dstFile.getParentFile();
             if (!srcFile.exists() || (parent != null && !parent.exists() && !parent.mkdirs())) return false;
 
+            breakHardlink(dstFile);
             try {
                 FileChannel inChannel = (new FileInputStream(srcFile)).getChannel();
                 FileChannel outChannel = (new FileOutputStream(dstFile)).getChannel();
@@ -312,21 +332,89 @@ public abstract class FileUtils {
     }
 
     public static boolean contentEquals(File origin, File target) {
-        if (origin.length() != target.length()) return false;
-
-        try (InputStream inStream1 = new BufferedInputStream(new FileInputStream(origin));
-             InputStream inStream2 = new BufferedInputStream(new FileInputStream(target))) {
-            int data;
-            while ((data = inStream1.read()) != -1) {
-                if (data != inStream2.read()) return false;
+        long length = origin.length();
+        if (length != target.length()) return false;
+
+        try (FileChannel inChannel1 = FileChannel.open(origin.toPath(), StandardOpenOption.READ);
+             FileChannel inChannel2 = FileChannel.open(target.toPath(), StandardOpenOption.READ)) {
+            byte[][] buffers = compareBuffers.get();
+            ByteBuffer buffer1 = ByteBuffer.wrap(buffers[0]);
+            ByteBuffer buffer2 = ByteBuffer.wrap(buffers[1]);
+
+            boolean result = true;
+            while (result) {
+                buffer1.clear();
+                buffer2.clear();
+                int read1 = readChunk(inChannel1, buffer1);
+                int read2 = readChunk(inChannel2, buffer2);
+                if (read1 != read2) result = false;
+                else if (read1 == 0) break;
+                else result = chunkEquals(buffer1, buffer2, read1);
             }
-            return true;
+            return result;
         }
         catch (IOException e) {
             return false;
         }
     }
 
+    /**
+     * Compares every file in dstDir with the same-named file in srcDir on a small thread pool and
+     * returns the names whose contents are identical.
+     */
+    public static ArrayList<String> findIdenticalFiles(File srcDir, File dstDir) {
+        ArrayList<String> result = new ArrayList<>();
+        File[] dstFiles = dstDir.listFiles();
+        if (dstFiles == null) return result;
+
+        ArrayList<File[]> pairs = new ArrayList<>();
+        for (File dstFile : dstFiles) {
+            File srcFile = new File(srcDir, dstFile.getName());
+            if (dstFile.isFile() && srcFile.isFile()) pairs.add(new File[]{srcFile, dstFile});
+        }
+
+        int numThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            ArrayList<Future<Boolean>> futures = new ArrayList<>(pairs.size());
+            for (File[] pair : pairs) futures.add(executor.submit(() -> contentEquals(pair[0], pair[1])));
+            for (int i = 0; i < pairs.size(); i++) {
+                if (futures.get(i).get()) result.add(pairs.get(i)[1].getName());
+            }
+        }
+        catch (Exception e) {
+            Log.e("FileUtils", "Failed to compare directories: " + e);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        return result;
+    }
+
+    private static int readChunk(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) break;
+        }
+        return buffer.position();
+    }
+
+    private static boolean chunkEquals(ByteBuffer buffer1, ByteBuffer buffer2, int length) {
+        byte[] data1 = buffer1.array();
+        byte[] data2 = buffer2.array();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU) {
+            return Arrays.mismatch(data1, 0, length, data2, 0, length) == -1;
+        }
+
+        int i = 0;
+        for (int end = length - 7; i < end; i += 8) {
+            if (buffer1.getLong(i) != buffer2.getLong(i)) return false;
+        }
+        for (; i < length; i++) {
+            if (data1[i] != data2[i]) return false;
+        }
+        return true;
+    }
+
     public static void getSizeAsync(File file, Callback<Long> callback) {
         Executors.newSingleThreadExecutor().execute(() -> getSize(file, callback));
     }
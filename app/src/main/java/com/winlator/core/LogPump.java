@@ -0,0 +1,640 @@
+package com.winlator.core;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+import android.system.StructPollfd;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Reads the output of every guest process on one thread, polling the pipes instead of blocking a
+ * thread per stream. Lines are tagged with their source, filtered, rate limited per source and kept
+ * in a bounded ring of recent lines; a second thread hands them to callbacks and the optional log
+ * file in batches, so a slow consumer never stalls the guest on a full pipe. When the consumers fall
+ * behind, lines are dropped and counted rather than queued without bound.
+ */
+public class LogPump {
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LINE_LENGTH = 4096;
+    private static final int IDLE_WAIT_MS = 100;
+    private static final int STREAM_WAIT_MS = 10;
+    private static final int BATCH_INTERVAL_MS = 50;
+    private static final int BATCH_SIZE = 1024;
+
+    public static class Line {
+        public final String tag;
+        public final String text;
+        public final long timeMillis;
+
+        public Line(String tag, String text, long timeMillis) {
+            this.tag = tag;
+            this.text = text;
+            this.timeMillis = timeMillis;
+        }
+
+        @Override
+        public String toString() {
+            return "["+tag+"] "+text;
+        }
+    }
+
+    /** Reads without blocking: the number of bytes read, 0 if nothing is available yet, -1 at the end. */
+    public interface Source {
+        int read(byte[] buffer, int offset, int length) throws IOException;
+
+        void close();
+    }
+
+    public interface Filter {
+        boolean accept(String tag, String text);
+    }
+
+    public static class Stats {
+        public long bytesRead;
+        public long linesRead;
+        public long linesFiltered;
+        public long linesRateLimited;
+        public long linesDropped;
+        public long linesDelivered;
+        public long batchesDelivered;
+        public int sources;
+
+        @Override
+        public String toString() {
+            return "sources="+sources+" read="+bytesRead+" bytes/"+linesRead+" lines, filtered="+linesFiltered+", rate limited="+linesRateLimited+
+                ", dropped="+linesDropped+", delivered="+linesDelivered+" in "+batchesDelivered+" batches";
+        }
+    }
+
+    /** A pipe read through poll(2), the case for the streams of a java.lang.Process. */
+    private static class PipeSource implements Source {
+        private final FileDescriptor fd;
+        private final InputStream stream;
+
+        private PipeSource(FileDescriptor fd, InputStream stream) {
+            this.fd = fd;
+            this.stream = stream;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            try {
+                StructPollfd pollfd = newPollfd(fd);
+                if (Os.poll(new StructPollfd[]{pollfd}, 0) == 0) return 0;
+                if ((pollfd.revents & OsConstants.POLLIN) == 0) return -1;
+                int read = Os.read(fd, buffer, offset, length);
+                return read > 0 ? read : -1;
+            }
+            catch (ErrnoException e) {
+                return e.errno == OsConstants.EAGAIN || e.errno == OsConstants.EINTR ? 0 : -1;
+            }
+            catch (InterruptedIOException e) {
+                return 0;
+            }
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(stream);
+        }
+    }
+
+    /** Anything else, read only as far as available() promises. */
+    private static class StreamSource implements Source {
+        private final InputStream stream;
+
+        private StreamSource(InputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int available = stream.available();
+            if (available <= 0) return 0;
+            return stream.read(buffer, offset, Math.min(available, length));
+        }
+
+        @Override
+        public void close() {
+            closeQuietly(stream);
+        }
+    }
+
+    private static class SourceState {
+        private final String tag;
+        private final Source source;
+        private final byte[] partialLine = new byte[MAX_LINE_LENGTH];
+        private int partialLength = 0;
+        private double tokens;
+        private long refillTime;
+        private long suppressedLines = 0;
+
+        private SourceState(String tag, Source source) {
+            this.tag = tag;
+            this.source = source;
+        }
+    }
+
+    /** Plain text while written, so it can be shown as is; full files move to .1.gz, .2.gz and so on. */
+    private static class RotatingFile {
+        private final File file;
+        private final long maxBytes;
+        private final int maxFiles;
+        private OutputStream outStream;
+        private long written;
+
+        private RotatingFile(File file, long maxBytes, int maxFiles) {
+            this.file = file;
+            this.maxBytes = maxBytes;
+            this.maxFiles = maxFiles;
+        }
+
+        private void write(List<Line> lines) throws IOException {
+            for (Line line : lines) {
+                if (outStream == null) {
+                    File parent = file.getParentFile();
+                    if (parent != null && !parent.isDirectory()) parent.mkdirs();
+                    outStream = new BufferedOutputStream(new FileOutputStream(file, true), StreamUtils.BUFFER_SIZE);
+                    written = file.length();
+                }
+
+                byte[] bytes = (line.tag+": "+line.text+"\n").getBytes(StandardCharsets.UTF_8);
+                outStream.write(bytes);
+                written += bytes.length;
+                if (written >= maxBytes) rotate();
+            }
+            if (outStream != null) outStream.flush();
+        }
+
+        private void rotate() throws IOException {
+            close();
+            for (int i = maxFiles - 1; i >= 1; i--) {
+                File from = getRotatedFile(i);
+                if (!from.exists()) continue;
+                if (i == maxFiles - 1) from.delete();
+                else from.renameTo(getRotatedFile(i + 1));
+            }
+
+            if (maxFiles > 1) {
+                try (FileInputStream inStream = new FileInputStream(file);
+                     GZIPOutputStream gzipStream = new GZIPOutputStream(new FileOutputStream(getRotatedFile(1)), StreamUtils.BUFFER_SIZE) {
+                         {
+                             def.setLevel(Deflater.BEST_SPEED);
+                         }
+                     }) {
+                    StreamUtils.copy(inStream, gzipStream);
+                }
+            }
+            file.delete();
+        }
+
+        private File getRotatedFile(int index) {
+            return new File(file.getPath()+"."+index+".gz");
+        }
+
+        private void close() {
+            closeQuietly(outStream);
+            outStream = null;
+        }
+    }
+
+    private final Object lock = new Object();
+    private final ArrayList<SourceState> sources = new ArrayList<>();
+    private final CopyOnWriteArrayList<Callback<String>> lineCallbacks = new CopyOnWriteArrayList<>();
+    private final CopyOnWriteArrayList<Callback<List<Line>>> batchCallbacks = new CopyOnWriteArrayList<>();
+    private final Line[] recentLines;
+    private int recentNext = 0;
+    private int recentSize = 0;
+    private ArrayList<Line> pending = new ArrayList<>();
+    private final int maxPending;
+    private volatile Filter filter;
+    private volatile int maxLinesPerSecond = 0;
+    private RotatingFile logFile;
+    private final Stats stats = new Stats();
+    private boolean pumpIdle = true;
+    private int sourcesGeneration = 0;
+    private boolean delivering = false;
+    private Thread pumpThread;
+    private Thread deliveryThread;
+
+    public LogPump() {
+        this(2000, 16384);
+    }
+
+    public LogPump(int recentCapacity, int maxPending) {
+        this.recentLines = new Line[recentCapacity];
+        this.maxPending = maxPending;
+    }
+
+    /** Tags every line of the stream with tag, it is closed at its end or on stop(). */
+    public void addStream(String tag, InputStream stream) {
+        FileDescriptor fd = getFileDescriptor(stream);
+        addSource(tag, fd != null ? new PipeSource(fd, stream) : new StreamSource(stream));
+    }
+
+    public void addSource(String tag, Source source) {
+        synchronized (lock) {
+            sources.add(new SourceState(tag, source));
+            stats.sources = sources.size();
+            sourcesGeneration++;
+            pumpIdle = false;
+            startThreads();
+            lock.notifyAll();
+        }
+    }
+
+    public void addLineCallback(Callback<String> callback) {
+        if (!lineCallbacks.contains(callback)) lineCallbacks.add(callback);
+    }
+
+    public void removeLineCallback(Callback<String> callback) {
+        lineCallbacks.remove(callback);
+    }
+
+    public void removeAllLineCallbacks() {
+        lineCallbacks.clear();
+    }
+
+    public void addBatchCallback(Callback<List<Line>> callback) {
+        if (!batchCallbacks.contains(callback)) batchCallbacks.add(callback);
+    }
+
+    public void removeBatchCallback(Callback<List<Line>> callback) {
+        batchCallbacks.remove(callback);
+    }
+
+    /** Lines the filter rejects are counted but neither kept nor delivered. */
+    public void setFilter(Filter filter) {
+        this.filter = filter;
+    }
+
+    /** Per source, 0 for no limit. Lines over the limit are summarized in one line once it allows more. */
+    public void setMaxLinesPerSecond(int maxLinesPerSecond) {
+        this.maxLinesPerSecond = maxLinesPerSecond;
+    }
+
+    /** Writes every delivered line to file, rotating it into gzip files once it reaches maxBytes. */
+    public void setLogFile(File file, long maxBytes, int maxFiles) {
+        synchronized (lock) {
+            if (logFile != null) logFile.close();
+            logFile = file != null ? new RotatingFile(file, maxBytes, maxFiles) : null;
+        }
+    }
+
+    public ArrayList<Line> getRecentLines() {
+        synchronized (lock) {
+            ArrayList<Line> lines = new ArrayList<>(recentSize);
+            int start = (recentNext - recentSize + recentLines.length) % recentLines.length;
+            for (int i = 0; i < recentSize; i++) lines.add(recentLines[(start + i) % recentLines.length]);
+            return lines;
+        }
+    }
+
+    public Stats getStats() {
+        synchronized (lock) {
+            Stats copy = new Stats();
+            copy.bytesRead = stats.bytesRead;
+            copy.linesRead = stats.linesRead;
+            copy.linesFiltered = stats.linesFiltered;
+            copy.linesRateLimited = stats.linesRateLimited;
+            copy.linesDropped = stats.linesDropped;
+            copy.linesDelivered = stats.linesDelivered;
+            copy.batchesDelivered = stats.batchesDelivered;
+            copy.sources = stats.sources;
+            return copy;
+        }
+    }
+
+    /** Waits until every source had nothing more to read and everything read was delivered. */
+    public boolean awaitIdle(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        synchronized (lock) {
+            while (!pumpIdle || !pending.isEmpty() || delivering) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) return false;
+                try {
+                    lock.wait(Math.min(remaining, STREAM_WAIT_MS));
+                }
+                catch (InterruptedException e) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Closes every source and the log file, after delivering what was already read. */
+    public void stop() {
+        Thread pump, delivery;
+        synchronized (lock) {
+            pump = pumpThread;
+            delivery = deliveryThread;
+            pumpThread = null;
+            deliveryThread = null;
+            lock.notifyAll();
+        }
+        joinThread(pump);
+        joinThread(delivery);
+
+        synchronized (lock) {
+            for (SourceState state : sources) state.source.close();
+            sources.clear();
+            stats.sources = 0;
+            pumpIdle = true;
+            if (logFile != null) logFile.close();
+        }
+    }
+
+    private void startThreads() {
+        if (pumpThread == null) {
+            pumpThread = new Thread(this::pump, "LogPump");
+            pumpThread.setDaemon(true);
+            pumpThread.start();
+        }
+        if (deliveryThread == null) {
+            deliveryThread = new Thread(this::deliver, "LogPumpDelivery");
+            deliveryThread.setDaemon(true);
+            deliveryThread.start();
+        }
+    }
+
+    private void pump() {
+        Thread thread = Thread.currentThread();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        ArrayList<SourceState> current = new ArrayList<>();
+        int generation;
+
+        while (true) {
+            synchronized (lock) {
+                if (pumpThread != thread) break;
+            }
+
+            synchronized (lock) {
+                current.clear();
+                current.addAll(sources);
+                generation = sourcesGeneration;
+            }
+
+            boolean readAny = false;
+            for (SourceState state : current) {
+                int read;
+                try {
+                    read = state.source.read(buffer, 0, buffer.length);
+                }
+                catch (IOException e) {
+                    read = -1;
+                }
+
+                if (read > 0) {
+                    readAny = true;
+                    consume(state, buffer, read);
+                }
+                else if (read < 0) {
+                    if (state.partialLength > 0) emitLine(state, state.partialLine, 0, state.partialLength);
+                    state.partialLength = 0;
+                    state.source.close();
+                    synchronized (lock) {
+                        sources.remove(state);
+                        stats.sources = sources.size();
+                    }
+                }
+            }
+
+            if (!readAny) {
+                synchronized (lock) {
+                    // A source added during this pass hasn't been read yet
+                    pumpIdle = generation == sourcesGeneration;
+                    lock.notifyAll();
+                }
+                waitForData(current);
+                synchronized (lock) {
+                    pumpIdle = false;
+                }
+            }
+        }
+    }
+
+    /** Sleeps in poll(2) on the pipes so new output wakes the pump, or briefly if there are other streams. */
+    private void waitForData(ArrayList<SourceState> current) {
+        ArrayList<StructPollfd> pollfds = new ArrayList<>();
+        boolean hasStreams = false;
+        for (SourceState state : current) {
+            if (state.source instanceof PipeSource) pollfds.add(newPollfd(((PipeSource)state.source).fd));
+            else hasStreams = true;
+        }
+
+        int timeout = hasStreams ? STREAM_WAIT_MS : IDLE_WAIT_MS;
+        if (!pollfds.isEmpty()) {
+            try {
+                Os.poll(pollfds.toArray(new StructPollfd[0]), timeout);
+                return;
+            }
+            catch (ErrnoException e) {}
+        }
+
+        synchronized (lock) {
+            if (sources.size() != current.size() || pumpThread == null) return;
+            try {
+                lock.wait(timeout);
+            }
+            catch (InterruptedException e) {}
+        }
+    }
+
+    private void consume(SourceState state, byte[] buffer, int length) {
+        synchronized (lock) {
+            stats.bytesRead += length;
+        }
+
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            if (buffer[i] != '\n') continue;
+            if (state.partialLength > 0) {
+                appendPartial(state, buffer, start, i - start);
+                emitLine(state, state.partialLine, 0, state.partialLength);
+                state.partialLength = 0;
+            }
+            else emitLine(state, buffer, start, i - start);
+            start = i + 1;
+        }
+        if (start < length) appendPartial(state, buffer, start, length - start);
+    }
+
+    /** Longer lines are cut at MAX_LINE_LENGTH, the rest goes out as the next line. */
+    private void appendPartial(SourceState state, byte[] buffer, int offset, int length) {
+        while (length > 0) {
+            int count = Math.min(length, MAX_LINE_LENGTH - state.partialLength);
+            System.arraycopy(buffer, offset, state.partialLine, state.partialLength, count);
+            state.partialLength += count;
+            offset += count;
+            length -= count;
+            if (state.partialLength == MAX_LINE_LENGTH) {
+                emitLine(state, state.partialLine, 0, state.partialLength);
+                state.partialLength = 0;
+            }
+        }
+    }
+
+    private void emitLine(SourceState state, byte[] buffer, int offset, int length) {
+        if (length > 0 && buffer[offset + length - 1] == '\r') length--;
+        String text = new String(buffer, offset, length, StandardCharsets.UTF_8);
+        long time = System.currentTimeMillis();
+
+        Filter currentFilter = filter;
+        boolean accepted = currentFilter == null || currentFilter.accept(state.tag, text);
+        boolean allowed = accepted && takeToken(state);
+
+        synchronized (lock) {
+            stats.linesRead++;
+            if (!accepted) {
+                stats.linesFiltered++;
+                return;
+            }
+            if (!allowed) {
+                stats.linesRateLimited++;
+                state.suppressedLines++;
+                return;
+            }
+
+            if (state.suppressedLines > 0) {
+                enqueue(new Line(state.tag, "("+state.suppressedLines+" lines suppressed by rate limit)", time));
+                state.suppressedLines = 0;
+            }
+            enqueue(new Line(state.tag, text, time));
+        }
+    }
+
+    private boolean takeToken(SourceState state) {
+        int limit = maxLinesPerSecond;
+        if (limit <= 0) return true;
+        long now = System.nanoTime();
+        if (state.refillTime == 0) {
+            state.tokens = limit;
+        }
+        else {
+            state.tokens = Math.min(limit, state.tokens + (now - state.refillTime) * limit / 1e9);
+        }
+        state.refillTime = now;
+        if (state.tokens < 1) return false;
+        state.tokens--;
+        return true;
+    }
+
+    /** Called with lock held. */
+    private void enqueue(Line line) {
+        recentLines[recentNext] = line;
+        recentNext = (recentNext + 1) % recentLines.length;
+        if (recentSize < recentLines.length) recentSize++;
+
+        if (pending.size() >= maxPending) {
+            stats.linesDropped++;
+            return;
+        }
+        pending.add(line);
+        if (pending.size() >= BATCH_SIZE) lock.notifyAll();
+    }
+
+    private void deliver() {
+        Thread thread = Thread.currentThread();
+        while (true) {
+            ArrayList<Line> batch;
+            RotatingFile file;
+            synchronized (lock) {
+                boolean current = deliveryThread == thread;
+                if (current && pending.size() < BATCH_SIZE) {
+                    try {
+                        lock.wait(BATCH_INTERVAL_MS);
+                    }
+                    catch (InterruptedException e) {}
+                    current = deliveryThread == thread;
+                }
+                if (pending.isEmpty()) {
+                    if (!current) break;
+                    continue;
+                }
+                batch = pending;
+                pending = new ArrayList<>(Math.min(maxPending, BATCH_SIZE));
+                delivering = true;
+                file = logFile;
+            }
+
+            if (file != null) {
+                try {
+                    file.write(batch);
+                }
+                catch (IOException e) {
+                    Log.e("LogPump", "Failed to write log file: "+e);
+                }
+            }
+            for (Callback<List<Line>> callback : batchCallbacks) callback.call(batch);
+            if (!lineCallbacks.isEmpty()) {
+                for (Line line : batch) {
+                    for (Callback<String> callback : lineCallbacks) callback.call(line.text);
+                }
+            }
+
+            synchronized (lock) {
+                delivering = false;
+                stats.linesDelivered += batch.size();
+                stats.batchesDelivered++;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    private static void joinThread(Thread thread) {
+        if (thread == null) return;
+        try {
+            thread.join(1000);
+        }
+        catch (InterruptedException e) {}
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        }
+        catch (IOException e) {}
+    }
+
+    private static StructPollfd newPollfd(FileDescriptor fd) {
+        StructPollfd pollfd = new StructPollfd();
+        pollfd.fd = fd;
+        pollfd.events = (short)OsConstants.POLLIN;
+        return pollfd;
+    }
+
+    /** The pipe under the buffered stream a java.lang.Process hands out, or null if there is none. */
+    private static FileDescriptor getFileDescriptor(InputStream stream) {
+        try {
+            Field inField = FilterInputStream.class.getDeclaredField("in");
+            inField.setAccessible(true);
+            // Nothing was read yet, so the buffered stream holds nothing the pipe won't return
+            while (stream instanceof FilterInputStream) stream = (InputStream)inField.get(stream);
+            return stream instanceof FileInputStream ? ((FileInputStream)stream).getFD() : null;
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -3,13 +3,7 @@ package com.winlator.core;
 import android.os.Process;
 import android.util.Log;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FilenameFilter;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -18,7 +12,7 @@ import java.util.concurrent.Executors;
 
 public abstract class ProcessHelper {
     public static final boolean PRINT_DEBUG = true; // FIXME change to false
-    private static final ArrayList<Callback<String>> debugCallbacks = new ArrayList<>();
+    private static final LogPump logPump = new LogPump();
     private static final byte SIGCONT = 18;
     private static final byte SIGSTOP = 19;
     private static final byte SIGTERM = 15;
@@ -91,13 +85,10 @@ public abstract class ProcessHelper {
             pid = pidField.getInt(process);
             pidField.setAccessible(false);
 
-            if (!debugCallbacks.isEmpty()) {
-                createDebugThread(process.getInputStream());
-                createDebugThread(process.getErrorStream());
-            }
-//            Uncomment the following lines to see logs from wine
-//            createDebugThread(process.getInputStream(), "STDOUT", pid);
-//            createDebugThread(process.getErrorStream(), "STDERR", pid);
+            // Always drained, a guest writing to a full pipe would block
+            String tag = getLogTag(command, pid);
+            logPump.addStream(tag, process.getInputStream());
+            logPump.addStream(tag, process.getErrorStream());
 
             if (terminationCallback != null) createWaitForThread(process, terminationCallback);
         }
@@ -109,110 +100,28 @@ public abstract class ProcessHelper {
         return pid;
     }
 
+    /** Processes of the app's user other than the app itself, read from /proc. */
     public static List<ProcessInfo> listSubProcesses() {
         List<ProcessInfo> processes = new ArrayList<>();
-        String myUser = null;
-
-        // First get our username using the id command
-        try {
-            java.lang.Process idProcess = Runtime.getRuntime().exec("id");
-            BufferedReader idReader = new BufferedReader(new InputStreamReader(idProcess.getInputStream()));
-            String idOutput = idReader.readLine();
-            if (idOutput != null) {
-                // id output format: uid=10290(u0_a290) gid=10290(u0_a290) ...
-                int startIndex = idOutput.indexOf('(');
-                int endIndex = idOutput.indexOf(')');
-                if (startIndex != -1 && endIndex != -1) {
-                    myUser = idOutput.substring(startIndex + 1, endIndex);
-                }
-            }
-        } catch (IOException e) {
-            Log.e("ProcessHelper", "Failed to retrieve user id in order to list processes: " + e);
-            return processes;
-        }
-
-        if (myUser == null) {
-            return processes;
-        }
-
-        // Log.d("ProcessHelper", "Found user value to be: " + myUser);
-
-        // Now get the processes
-        try {
-            java.lang.Process process = Runtime.getRuntime().exec("ps -A -o USER,PID,PPID,VSZ,RSS,WCHAN,ADDR,S,NAME");
-            BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
-            String line;
-
-            // Skip header line
-            reader.readLine();
-
-            while ((line = reader.readLine()) != null) {
-                String[] parts = line.trim().split("\\s+");
-                if (parts.length >= 9) {
-                    String user = parts[0];
-                    int pid = Integer.parseInt(parts[1]);
-                    int ppid = Integer.parseInt(parts[2]);
-                    String processName = parts[8];
-
-                    // Check if process belongs to our app (same user)
-                    if (user.equals(myUser) && pid != Process.myPid()) {
-                        ProcessInfo info = new ProcessInfo(pid, ppid, processName);
-                        processes.add(info);
-                    }
-                }
-            }
-        } catch (IOException e) {
-            Log.e("ProcessHelper", "Failed to list processes: " + e);
+        int myPid = Process.myPid();
+        for (ProcessTable.ProcessStat process : ProcessTable.get().snapshot(Process.myUid()).getProcesses()) {
+            if (process.pid != myPid) processes.add(new ProcessInfo(process.pid, process.ppid, process.name));
         }
-
         return processes;
     }
 
-    private static void createDebugThread(final InputStream inputStream) {
-        Executors.newSingleThreadExecutor().execute(() -> {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    if (PRINT_DEBUG) System.out.println(line);
-                    synchronized (debugCallbacks) {
-                        if (!debugCallbacks.isEmpty()) {
-                            for (Callback<String> callback : debugCallbacks) callback.call(line);
-                        }
-                    }
-                }
-            }
-            catch (IOException e) {
-                Log.e("ProcessHelper", "Error on debug thread: " + e);
-            }
-        });
+    /** The executable's name and the pid, e.g. "box64[1234]". */
+    static String getLogTag(String command, int pid) {
+        String[] parts = splitCommand(command);
+        String name = parts.length > 0 ? parts[0].replace("\"", "") : "";
+        name = name.substring(name.lastIndexOf('/') + 1);
+        return name+"["+pid+"]";
     }
 
-    private static void createDebugThread(final InputStream inputStream, final String streamType, final int pid) {
-        Executors.newSingleThreadExecutor().execute(() -> {
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    // Always log to debug log
-                    if (streamType != null && pid != -1) {
-                        Log.d("ProcessOutput", "[PID:" + pid + "][" + streamType + "] " + line);
-                    } else {
-                        // Always log even if streamType/pid not provided
-                        Log.d("ProcessOutput", line);
-                    }
-
-                    if (PRINT_DEBUG) System.out.println(line);
-                    synchronized (debugCallbacks) {
-                        if (!debugCallbacks.isEmpty()) {
-                            for (Callback<String> callback : debugCallbacks) callback.call(line);
-                        }
-                    }
-                }
-            }
-            catch (IOException e) {}
-        });
+    public static LogPump getLogPump() {
+        return logPump;
     }
 
-
     private static void createWaitForThread(java.lang.Process process, final Callback<Integer> terminationCallback) {
         Executors.newSingleThreadExecutor().execute(new Runnable() {
             @Override
@@ -229,21 +138,15 @@ public abstract class ProcessHelper {
     }
 
     public static void removeAllDebugCallbacks() {
-        synchronized (debugCallbacks) {
-            debugCallbacks.clear();
-        }
+        logPump.removeAllLineCallbacks();
     }
 
     public static void addDebugCallback(Callback<String> callback) {
-        synchronized (debugCallbacks) {
-            if (!debugCallbacks.contains(callback)) debugCallbacks.add(callback);
-        }
+        logPump.addLineCallback(callback);
     }
 
     public static void removeDebugCallback(Callback<String> callback) {
-        synchronized (debugCallbacks) {
-            debugCallbacks.remove(callback);
-        }
+        logPump.removeLineCallback(callback);
     }
 
     public static String[] splitCommand(String command) {
@@ -331,30 +234,10 @@ public abstract class ProcessHelper {
         return affinityMask;
     }
 
-    public static ArrayList<String> listRunningWineProcesses(){
-        File proc = new File("/proc");
-        String[] filters = {"wine", "exe"};
-        String[] allPids;
-        ArrayList<String> filteredPids = new ArrayList<String>();
-        List<String> filterList = Arrays.asList(filters);
-        allPids = proc.list(new FilenameFilter(){
-            public boolean accept(File proc, String filename){
-                return new File(proc, filename).isDirectory() && filename.matches("[0-9]+");
-            }
-        });
-
-        for (int index = 0; index < allPids.length; index++){
-            String data = "";
-            try {
-                FileInputStream fr = new FileInputStream(proc + "/" + allPids[index] + "/stat");
-                BufferedReader br = new BufferedReader(new InputStreamReader(fr));
-                data = br.readLine();
-            }
-            catch (IOException e) {}
-            for (String filter : filterList) {
-                if (data.contains(filter))
-                    filteredPids.add(allPids[index]);
-            }
+    public static ArrayList<String> listRunningWineProcesses() {
+        ArrayList<String> filteredPids = new ArrayList<>();
+        for (ProcessTable.ProcessStat process : ProcessTable.get().snapshot().getProcesses()) {
+            if (process.name.contains("wine") || process.name.contains("exe")) filteredPids.add(String.valueOf(process.pid));
         }
         return filteredPids;
     }
@@ -0,0 +1,346 @@
+package com.winlator.core;
+
+import android.util.Log;
+
+import com.winlator.metrics.Gauge;
+import com.winlator.metrics.MetricsRegistry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Reads the process table straight from /proc, parsing each process's stat and status files out
+ * of one reused buffer instead of forking ps and splitting its text output. A Snapshot holds every
+ * process with its parent, owner, CPU time and resident size; two snapshots give per-process CPU
+ * usage over the time between them.
+ */
+public class ProcessTable {
+    /** USER_HZ, the unit of the CPU times in /proc/[pid]/stat, is fixed at 100 by the kernel ABI. */
+    public static final int CLOCK_TICKS_PER_SECOND = 100;
+    private static final ProcessTable instance = new ProcessTable(new File("/proc"));
+
+    public static class ProcessStat {
+        public final int pid;
+        public int ppid;
+        public int uid = -1;
+        public String name = "";
+        public char state = '?';
+        public int threads;
+        /** CPU time in clock ticks spent in user and kernel mode */
+        public long utime;
+        public long stime;
+        /** Start time in clock ticks after boot, tells a reused pid apart */
+        public long startTime;
+        public long rssKb;
+
+        public ProcessStat(int pid) {
+            this.pid = pid;
+        }
+
+        public long getCpuTicks() {
+            return utime + stime;
+        }
+
+        @Override
+        public String toString() {
+            return name+" | "+pid+" | "+ppid;
+        }
+    }
+
+    public static class Snapshot {
+        public final long timeNanos;
+        private final HashMap<Integer, ProcessStat> processes = new HashMap<>();
+        private HashMap<Integer, ArrayList<ProcessStat>> children;
+
+        public Snapshot(long timeNanos) {
+            this.timeNanos = timeNanos;
+        }
+
+        public ProcessStat get(int pid) {
+            return processes.get(pid);
+        }
+
+        public Collection<ProcessStat> getProcesses() {
+            return processes.values();
+        }
+
+        public int size() {
+            return processes.size();
+        }
+
+        public ArrayList<ProcessStat> getProcessesOfUser(int uid) {
+            ArrayList<ProcessStat> result = new ArrayList<>();
+            for (ProcessStat process : processes.values()) {
+                if (process.uid == uid) result.add(process);
+            }
+            return result;
+        }
+
+        public synchronized List<ProcessStat> getChildren(int pid) {
+            if (children == null) {
+                children = new HashMap<>();
+                for (ProcessStat process : processes.values()) {
+                    ArrayList<ProcessStat> list = children.get(process.ppid);
+                    if (list == null) children.put(process.ppid, list = new ArrayList<>());
+                    list.add(process);
+                }
+            }
+            ArrayList<ProcessStat> list = children.get(pid);
+            return list != null ? list : new ArrayList<>();
+        }
+
+        /** Every process below pid, parents before their children. */
+        public ArrayList<ProcessStat> getDescendants(int pid) {
+            ArrayList<ProcessStat> result = new ArrayList<>(getChildren(pid));
+            for (int i = 0; i < result.size(); i++) {
+                ProcessStat process = result.get(i);
+                // pid 0 is the parent of init and kthreadd, don't walk into the root twice
+                if (process.pid != pid) result.addAll(getChildren(process.pid));
+            }
+            return result;
+        }
+
+        /**
+         * CPU usage of pid between previous and this snapshot in percent of one core, or -1 if the
+         * process is missing from either or the pid was reused in between.
+         */
+        public float getCpuPercent(Snapshot previous, int pid) {
+            ProcessStat current = processes.get(pid);
+            ProcessStat before = previous != null ? previous.processes.get(pid) : null;
+            long elapsedNanos = previous != null ? timeNanos - previous.timeNanos : 0;
+            if (current == null || before == null || before.startTime != current.startTime || elapsedNanos <= 0) return -1;
+            long ticks = current.getCpuTicks() - before.getCpuTicks();
+            return ticks * (100.0f * 1_000_000_000L / CLOCK_TICKS_PER_SECOND) / elapsedNanos;
+        }
+
+        /** Change of resident size in KB, 0 when the process is missing from either snapshot. */
+        public long getRssDeltaKb(Snapshot previous, int pid) {
+            ProcessStat current = processes.get(pid);
+            ProcessStat before = previous != null ? previous.processes.get(pid) : null;
+            if (current == null || before == null || before.startTime != current.startTime) return 0;
+            return current.rssKb - before.rssKb;
+        }
+    }
+
+    /**
+     * Takes a snapshot at a fixed interval and publishes the CPU usage, resident size and count of
+     * one user's processes as gauges, which the HUD's MetricsRecorder samples with everything else.
+     */
+    public static class Sampler implements Runnable {
+        private final ProcessTable table;
+        private final int uid;
+        private final int excludedPid;
+        private final long intervalMillis;
+        private final Gauge processCount;
+        private final Gauge cpuPercent;
+        private final Gauge rssKb;
+        private Snapshot previous;
+        private Thread thread;
+
+        public Sampler(ProcessTable table, MetricsRegistry registry, int uid, int excludedPid, long intervalMillis) {
+            this.table = table;
+            this.uid = uid;
+            this.excludedPid = excludedPid;
+            this.intervalMillis = intervalMillis;
+            processCount = registry.gauge("proc.count");
+            cpuPercent = registry.gauge("proc.cpu_percent");
+            rssKb = registry.gauge("proc.rss_kb");
+        }
+
+        public synchronized void start() {
+            if (thread != null) return;
+            thread = new Thread(this, "ProcessTableSampler");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public synchronized void stop() {
+            if (thread == null) return;
+            thread.interrupt();
+            thread = null;
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                sample();
+                try {
+                    Thread.sleep(intervalMillis);
+                }
+                catch (InterruptedException e) {
+                    break;
+                }
+            }
+        }
+
+        /** Takes one snapshot and returns it, the gauges cover the time since the previous one. */
+        public synchronized Snapshot sample() {
+            Snapshot snapshot = table.snapshot(uid);
+            int count = 0;
+            float cpu = 0;
+            long rss = 0;
+            for (ProcessStat process : snapshot.getProcesses()) {
+                if (process.pid == excludedPid) continue;
+                count++;
+                rss += process.rssKb;
+                float processCpu = snapshot.getCpuPercent(previous, process.pid);
+                if (processCpu > 0) cpu += processCpu;
+            }
+
+            processCount.set(count);
+            rssKb.set(rss);
+            if (previous != null) cpuPercent.set(Math.round(cpu));
+            previous = snapshot;
+            return snapshot;
+        }
+    }
+
+    private final File procDir;
+    private byte[] buffer = new byte[4096];
+    private int length;
+
+    public ProcessTable(File procDir) {
+        this.procDir = procDir;
+    }
+
+    public static ProcessTable get() {
+        return instance;
+    }
+
+    public Snapshot snapshot() {
+        return snapshot(-1);
+    }
+
+    /** Reads every process, or only those of uid if it isn't -1. Processes that exit meanwhile are left out. */
+    public synchronized Snapshot snapshot(int uid) {
+        Snapshot snapshot = new Snapshot(System.nanoTime());
+        String[] filenames = procDir.list();
+        if (filenames == null) {
+            Log.e("ProcessTable", "Failed to list "+procDir);
+            return snapshot;
+        }
+
+        for (String filename : filenames) {
+            int pid = parsePid(filename);
+            if (pid <= 0) continue;
+
+            File dir = new File(procDir, filename);
+            ProcessStat process = new ProcessStat(pid);
+            if (!readFile(new File(dir, "status")) || !parseStatus(process)) continue;
+            if (uid != -1 && process.uid != uid) continue;
+            if (!readFile(new File(dir, "stat")) || !parseStat(process)) continue;
+            snapshot.processes.put(pid, process);
+        }
+        return snapshot;
+    }
+
+    private static int parsePid(String filename) {
+        int pid = 0;
+        for (int i = 0, count = filename.length(); i < count; i++) {
+            char c = filename.charAt(i);
+            if (c < '0' || c > '9' || i >= 9) return -1;
+            pid = pid * 10 + (c - '0');
+        }
+        return pid;
+    }
+
+    private boolean readFile(File file) {
+        length = 0;
+        try (FileInputStream inStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inStream.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    byte[] newBuffer = new byte[buffer.length * 2];
+                    System.arraycopy(buffer, 0, newBuffer, 0, length);
+                    buffer = newBuffer;
+                }
+            }
+            return true;
+        }
+        catch (IOException e) {
+            // Gone since listing the directory
+            return false;
+        }
+    }
+
+    /** "pid (comm) state ppid ..." where comm may itself contain spaces and parentheses. */
+    private boolean parseStat(ProcessStat process) {
+        int nameStart = indexOf((byte)'(', 0, length);
+        int nameEnd = lastIndexOf((byte)')', length);
+        if (nameStart == -1 || nameEnd < nameStart) return false;
+        process.name = new String(buffer, nameStart + 1, nameEnd - nameStart - 1);
+
+        // Fields from state on, numbered as in proc(5) starting at 3
+        int position = nameEnd + 1;
+        for (int field = 3; field <= 24; field++) {
+            while (position < length && buffer[position] == ' ') position++;
+            if (position >= length) return false;
+            int end = position;
+            while (end < length && buffer[end] != ' ' && buffer[end] != '\n') end++;
+
+            switch (field) {
+                case 3: process.state = (char)buffer[position]; break;
+                case 4: process.ppid = (int)parseLong(position, end); break;
+                case 14: process.utime = parseLong(position, end); break;
+                case 15: process.stime = parseLong(position, end); break;
+                case 20: process.threads = (int)parseLong(position, end); break;
+                case 22: process.startTime = parseLong(position, end); break;
+            }
+            position = end;
+        }
+        return true;
+    }
+
+    /** Only the real uid and VmRSS, which kernel threads don't have. */
+    private boolean parseStatus(ProcessStat process) {
+        int position = 0;
+        boolean foundUid = false;
+        while (position < length) {
+            int end = indexOf((byte)'\n', position, length);
+            if (end == -1) end = length;
+            if (startsWith(position, "Uid:")) {
+                process.uid = (int)parseLong(position + 4, end);
+                foundUid = true;
+            }
+            else if (startsWith(position, "VmRSS:")) {
+                process.rssKb = parseLong(position + 6, end);
+            }
+            position = end + 1;
+        }
+        return foundUid;
+    }
+
+    /** First number in [start, end), skipping leading whitespace. */
+    private long parseLong(int start, int end) {
+        while (start < end && (buffer[start] == ' ' || buffer[start] == '\t')) start++;
+        boolean negative = start < end && buffer[start] == '-';
+        if (negative) start++;
+        long value = 0;
+        while (start < end && buffer[start] >= '0' && buffer[start] <= '9') value = value * 10 + (buffer[start++] - '0');
+        return negative ? -value : value;
+    }
+
+    private boolean startsWith(int position, String prefix) {
+        if (position + prefix.length() > length) return false;
+        for (int i = 0; i < prefix.length(); i++) {
+            if (buffer[position + i] != prefix.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private int indexOf(byte value, int from, int to) {
+        for (int i = from; i < to; i++) if (buffer[i] == value) return i;
+        return -1;
+    }
+
+    private int lastIndexOf(byte value, int to) {
+        for (int i = to - 1; i >= 0; i--) if (buffer[i] == value) return i;
+        return -1;
+    }
+}
@@ -11,17 +11,25 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Reader;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.Iterator;
 import java.util.Locale;
-import java.util.function.ToIntFunction;
 
+/**
+ * Edits a Wine registry hive (system.reg, user.reg) held in memory: the file is read once when the
+ * editor is created and written back once, through a temporary file and a rename, on close. Edits
+ * that leave a value as it was do not count as modifications, so a session that changes nothing
+ * does not rewrite the hive.
+ */
 public class WineRegistryEditor implements Closeable {
     private final File file;
-    private final File cloneFile;
+    private final StringBuilder content = new StringBuilder();
+    private boolean readFailed = false;
     private boolean modified = false;
+    private long bytesRead = 0;
+    private long bytesWritten = 0;
     private boolean createKeyIfNotExist = true;
     private int lastParentKeyPosition = 0;
     private String lastParentKey = "";
@@ -60,18 +68,80 @@ public class WineRegistryEditor implements Closeable {
         }
     }
 
+    /** Reads the characters of the in-memory hive, so lookups can scan it like the file. */
+    private static class ContentReader extends Reader {
+        private final StringBuilder content;
+        private int position = 0;
+
+        private ContentReader(StringBuilder content) {
+            this.content = content;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (position >= content.length()) return -1;
+            length = Math.min(length, content.length() - position);
+            content.getChars(position, position + length, buffer, offset);
+            position += length;
+            return length;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int)Math.max(0, Math.min(n, content.length() - position));
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() {}
+    }
+
     public WineRegistryEditor(File file) {
         this.file = file;
-        cloneFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
-        if (!file.isFile()) {
-            try {
-                cloneFile.createNewFile();
-            }
-            catch (IOException e) {
-                Log.e("WineRegistryEditor", "Failed to set up editor: " + e);
-            }
+        if (!file.isFile()) return;
+
+        char[] buffer = new char[StreamUtils.BUFFER_SIZE];
+        try (BufferedReader reader = new BufferedReader(new FileReader(file), StreamUtils.BUFFER_SIZE)) {
+            int length;
+            while ((length = reader.read(buffer)) != -1) content.append(buffer, 0, length);
+            bytesRead = file.length();
+        }
+        catch (IOException e) {
+            // Never write back a partially read hive
+            readFailed = true;
+            Log.e("WineRegistryEditor", "Failed to set up editor: " + e);
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public boolean isModified() {
+        return modified;
+    }
+
+    /** Bytes read from the hive file, 0 if it did not exist. */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /** Bytes written to the hive file by close(), 0 if nothing changed. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private BufferedReader openReader() {
+        return new BufferedReader(new ContentReader(content), StreamUtils.BUFFER_SIZE);
+    }
+
+    private boolean contentEquals(int start, int end, String value) {
+        if (end - start != value.length() || end > content.length()) return false;
+        for (int i = 0; i < value.length(); i++) {
+            if (content.charAt(start + i) != value.charAt(i)) return false;
         }
-        else FileUtils.copy(file, cloneFile);
+        return true;
     }
 
     private static String escape(String str) {
@@ -91,10 +161,23 @@ public class WineRegistryEditor implements Closeable {
 
     @Override
     public void close() {
-        if (modified && cloneFile.exists()) {
-            cloneFile.renameTo(file);
+        if (!modified || readFailed) return;
+        boolean success = false;
+        File tempFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
+
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), StreamUtils.BUFFER_SIZE)) {
+            writer.append(content);
+            success = true;
+        }
+        catch (IOException e) {
+            Log.e("WineRegistryEditor", "Failed to write registry file: " + e);
+        }
+
+        if (success && tempFile.renameTo(file)) {
+            bytesWritten += file.length();
+            modified = false;
         }
-        else cloneFile.delete();
+        else tempFile.delete();
     }
 
     private void resetLastParentKeyPositionIfNeed(String newKey) {
@@ -117,48 +200,17 @@ public class WineRegistryEditor implements Closeable {
     private Location createKey(String key) {
         lastParentKeyPosition = 0;
         Location location = getParentKeyLocation(key);
-        boolean success = false;
-        int offset = 0;
-        int totalLength = 0;
-
-        char[] buffer = new char[StreamUtils.BUFFER_SIZE];
-        File tempFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE);
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), StreamUtils.BUFFER_SIZE)) {
+        int offset = location != null ? Math.min(location.end+1, content.length()) : content.length();
 
-            int length;
-            for (int i = 0, end = location != null ? location.end+1 : (int)cloneFile.length(); i < end; i += length) {
-                length = Math.min(buffer.length, end - i);
-                reader.read(buffer, 0, length);
-                writer.write(buffer, 0, length);
-                totalLength += length;
-            }
-
-            offset = totalLength;
-            long ticks1601To1970 = 86400L * (369 * 365 + 89) * 10000000;
-            long currentTime = System.currentTimeMillis() + ticks1601To1970;
-            String content = "\n["+escape(key)+"] "+((currentTime - ticks1601To1970) / 1000) +
-                    String.format(Locale.ENGLISH, "\n#time=%x%08x", currentTime >> 32, (int)currentTime)+"\n";
-            writer.write(content);
-            totalLength += content.length() - 1;
-
-            while ((length = reader.read(buffer)) != -1) writer.write(buffer, 0, length);
-            success = true;
-        }
-        catch (IOException e) {
-            Log.e("WineRegistryEditor", "Failed to create key: " + e);
-        }
+        long ticks1601To1970 = 86400L * (369 * 365 + 89) * 10000000;
+        long currentTime = System.currentTimeMillis() + ticks1601To1970;
+        String header = "\n["+escape(key)+"] "+((currentTime - ticks1601To1970) / 1000) +
+                String.format(Locale.ENGLISH, "\n#time=%x%08x", currentTime >> 32, (int)currentTime)+"\n";
+        content.insert(offset, header);
+        modified = true;
 
-        if (success) {
-            modified = true;
-            tempFile.renameTo(cloneFile);
-            return new Location(offset, totalLength, totalLength);
-        }
-        else {
-            tempFile.delete();
-            return null;
-        }
+        int totalLength = offset + header.length() - 1;
+        return new Location(offset, totalLength, totalLength);
     }
 
     public String getStringValue(String key, String name) {
@@ -230,18 +282,8 @@ public class WineRegistryEditor implements Closeable {
         if (keyLocation == null) return null;
 
         Location valueLocation = getValueLocation(keyLocation, name);
-        if (valueLocation == null) return null;
-        boolean success = false;
-        char[] buffer = new char[valueLocation.length()];
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE)) {
-            reader.skip(valueLocation.start);
-            success = reader.read(buffer) == buffer.length;
-        }
-        catch (IOException e) {
-            Log.e("WineRegistryEditor", "Failed to get raw value: " + e);
-        }
-        return success ? unescape(new String(buffer)) : null;
+        if (valueLocation == null || valueLocation.end > content.length()) return null;
+        return unescape(content.substring(valueLocation.start, valueLocation.end));
     }
 
     private void setRawValue(String key, String name, String value) {
@@ -256,160 +298,50 @@ public class WineRegistryEditor implements Closeable {
         }
 
         Location valueLocation = getValueLocation(keyLocation, name);
-        char[] buffer = new char[StreamUtils.BUFFER_SIZE];
-        boolean success = false;
-
-        File tempFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE);
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), StreamUtils.BUFFER_SIZE)) {
-
-            int length;
-            for (int i = 0, end = valueLocation != null ? valueLocation.start : keyLocation.end; i < end; i += length) {
-                length = Math.min(buffer.length, end - i);
-                reader.read(buffer, 0, length);
-                writer.write(buffer, 0, length);
-            }
-
-            if (valueLocation == null) {
-                writer.write("\n"+(name != null ? "\""+escape(name)+"\"" : "@")+"="+value);
-            }
-            else {
-                writer.write(value);
-                reader.skip(valueLocation.length());
-            }
-
-            while ((length = reader.read(buffer)) != -1) writer.write(buffer, 0, length);
-            success = true;
+        if (valueLocation == null) {
+            content.insert(keyLocation.end, "\n"+(name != null ? "\""+escape(name)+"\"" : "@")+"="+value);
         }
-        catch (IOException e) {
-            Log.e("WineRegistryEditor", "Failed to set raw value: " + e);
+        else if (!contentEquals(valueLocation.start, valueLocation.end, value)) {
+            content.replace(valueLocation.start, valueLocation.end, value);
         }
-
-        if (success) {
-            modified = true;
-            tempFile.renameTo(cloneFile);
-        }
-        else tempFile.delete();
+        else return;
+        modified = true;
     }
 
     private void setRawValues(String key, String[]... items) {
-        int i;
-        String str;
         Location keyLocation = getKeyLocation(key);
         if (keyLocation == null) {
-            if (this.createKeyIfNotExist) {
+            if (createKeyIfNotExist) {
                 keyLocation = createKey(key);
-            } else {
-                return;
             }
+            else return;
         }
+
         ArrayList<Location> valueLocations = new ArrayList<>();
-        int i2 = 0;
-        while (true) {
-            i = -1;
-            if (i2 >= items.length) {
-                break;
+        StringBuilder newValues = new StringBuilder();
+        for (String[] item : items) {
+            Location valueLocation = getValueLocation(keyLocation, item[0]);
+            if (valueLocation != null) {
+                valueLocation.tag = item[1];
+                valueLocations.add(valueLocation);
             }
-            Location valueLocation = getValueLocation(keyLocation, items[i2][0]);
-            if (valueLocation == null) {
-                valueLocation = new Location(0, (Integer.MAX_VALUE - items.length) + i2, -1);
-            }
-            valueLocation.tag = items[i2];
-            valueLocations.add(valueLocation);
-            i2++;
-        }
-        valueLocations.sort(Comparator.comparingInt(new ToIntFunction() {
-            @Override
-            public final int applyAsInt(Object obj) {
-                return ((WineRegistryEditor.Location) obj).start;
-            }
-        }));
-        char[] buffer = new char[65536];
-        boolean success = false;
-        File tempFile = FileUtils.createTempFile(this.file.getParentFile(), FileUtils.getBasename(this.file.getPath()));
-        try {
-            BufferedReader reader = new BufferedReader(new FileReader(this.cloneFile), 65536);
-            try {
-                BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), 65536);
-                int position = 0;
-                try {
-                    Iterator<Location> it = valueLocations.iterator();
-                    while (it.hasNext()) {
-                        Location valueLocation2 = it.next();
-                        if (valueLocation2.end != i) {
-                            int i3 = position;
-                            while (true) {
-                                int i4 = valueLocation2.start;
-                                if (i3 >= i4) {
-                                    break;
-                                }
-                                int length = Math.min(buffer.length, i4 - i3);
-                                reader.read(buffer, 0, length);
-                                writer.write(buffer, 0, length);
-                                position += length;
-                                i3 += length;
-                            }
-                            writer.write(((String[]) valueLocation2.tag)[1]);
-                            reader.skip(valueLocation2.length());
-                            position += valueLocation2.length();
-                            i = -1;
-                        }
-                    }
-                    int i5 = position;
-                    while (true) {
-                        int i6 = keyLocation.end;
-                        if (i5 >= i6) {
-                            break;
-                        }
-                        int length2 = Math.min(buffer.length, i6 - i5);
-                        reader.read(buffer, 0, length2);
-                        writer.write(buffer, 0, length2);
-                        i5 += length2;
-                    }
-                    Iterator<Location> it2 = valueLocations.iterator();
-                    while (it2.hasNext()) {
-                        Location valueLocation3 = it2.next();
-                        if (valueLocation3.end == -1) {
-                            String[] item = (String[]) valueLocation3.tag;
-                            StringBuilder sb = new StringBuilder();
-                            sb.append("\n");
-                            if (item[0] != null) {
-                                str = "\"" + escape(item[0]) + "\"";
-                            } else {
-                                str = "@";
-                            }
-                            sb.append(str);
-                            sb.append("=");
-                            sb.append(item[1]);
-                            writer.write(sb.toString());
-                        }
-                    }
-                    while (true) {
-                        int length3 = reader.read(buffer);
-                        if (length3 == -1) {
-                            break;
-                        } else {
-                            writer.write(buffer, 0, length3);
-                        }
-                    }
-                    success = true;
-                    writer.close();
-                    reader.close();
-                } finally {
-                }
-            } finally {
-            }
-        } catch (IOException e) {
+            else newValues.append("\n").append(item[0] != null ? "\""+escape(item[0])+"\"" : "@").append("=").append(item[1]);
         }
-        if (success) {
-            this.modified = true;
-            tempFile.renameTo(this.cloneFile);
-        } else {
-            tempFile.delete();
+
+        // New values go after the last one of the key, existing ones are replaced from the end so
+        // that the locations found above stay valid
+        if (newValues.length() > 0) {
+            content.insert(keyLocation.end, newValues);
+            modified = true;
+        }
+        valueLocations.sort(Comparator.comparingInt((Location location) -> location.start).reversed());
+        for (Location valueLocation : valueLocations) {
+            String value = (String)valueLocation.tag;
+            if (contentEquals(valueLocation.start, valueLocation.end, value)) continue;
+            content.replace(valueLocation.start, valueLocation.end, value);
+            modified = true;
         }
     }
-
     public void removeValue(String key, String name) {
         lastParentKeyPosition = 0;
         Location keyLocation = getKeyLocation(key);
@@ -441,36 +373,14 @@ public class WineRegistryEditor implements Closeable {
     }
 
     private boolean removeRegion(Location location) {
-        char[] buffer = new char[StreamUtils.BUFFER_SIZE];
-        boolean success = false;
-
-        File tempFile = FileUtils.createTempFile(file.getParentFile(), FileUtils.getBasename(file.getPath()));
-
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE);
-             BufferedWriter writer = new BufferedWriter(new FileWriter(tempFile), StreamUtils.BUFFER_SIZE)) {
-
-            int length = 0;
-            for (int i = 0; i < location.offset; i += length) {
-                length = Math.min(buffer.length, location.offset - i);
-                reader.read(buffer, 0, length);
-                writer.write(buffer, 0, length);
-            }
-
-            boolean skipLine = length > 1 && buffer[length-1] == '\n';
-            reader.skip(location.end - location.offset + (skipLine ? 1 : 0));
-            while ((length = reader.read(buffer)) != -1) writer.write(buffer, 0, length);
-            success = true;
-        }
-        catch (IOException e) {
-            Log.e("WineRegistryEditor", "Failed to remove region: " + e);
-        }
-
-        if (success) {
-            modified = true;
-            tempFile.renameTo(cloneFile);
-        }
-        else tempFile.delete();
-        return success;
+        int start = Math.max(0, location.offset);
+        boolean skipLine = start > 1 && content.charAt(start-1) == '\n';
+        int end = Math.min(content.length(), start + location.end - location.offset + (skipLine ? 1 : 0));
+        if (end <= start) return false;
+
+        content.delete(start, end);
+        modified = true;
+        return true;
     }
 
     private Location getKeyLocation(String key) {
@@ -478,7 +388,7 @@ public class WineRegistryEditor implements Closeable {
     }
 
     private Location getKeyLocation(String key, boolean keyAsPrefix) {
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE)) {
+        try (BufferedReader reader = openReader()) {
             int lastIndex = key.lastIndexOf("\\");
             String parentKey = lastParentKeyPosition == 0 && lastIndex != -1 ? "["+escape(key.substring(0, lastIndex)) : null;
 
@@ -537,7 +447,7 @@ public class WineRegistryEditor implements Closeable {
 
     private Location getValueLocation(Location keyLocation, String name) {
         if (keyLocation.start == keyLocation.end) return null;
-        try (BufferedReader reader = new BufferedReader(new FileReader(cloneFile), StreamUtils.BUFFER_SIZE)) {
+        try (BufferedReader reader = openReader()) {
             reader.skip(keyLocation.start);
             name = name != null ? "\""+escape(name)+"\"=" : "@=";
             int totalLength = 0;
@@ -0,0 +1,327 @@
+package com.winlator.core;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Collects the registry edits of several setup steps and applies them with a single
+ * {@link WineRegistryEditor} per hive on commit(), so a launch reads and writes system.reg and user.reg
+ * once each instead of once per step. Edits are applied in the order they were made, as if each step
+ * had opened its own editor. When a step sets or removes a value another step already set to
+ * something else, the later edit still wins but the pair is reported as a conflict.
+ *
+ * Hives are told apart by canonical path, so the container's .wine/user.reg and the imagefs prefix
+ * path pointing at it are the same hive.
+ */
+public class WineRegistryTransaction {
+    private static final String REMOVED = "(removed)";
+
+    private interface Operation {
+        void apply(WineRegistryEditor editor);
+    }
+
+    private static class Edit {
+        private final boolean createKeyIfNotExist;
+        private final Operation operation;
+
+        private Edit(boolean createKeyIfNotExist, Operation operation) {
+            this.createKeyIfNotExist = createKeyIfNotExist;
+            this.operation = operation;
+        }
+    }
+
+    private static class ValueWrite {
+        private final String step;
+        private final String value;
+
+        private ValueWrite(String step, String value) {
+            this.step = step;
+            this.value = value;
+        }
+    }
+
+    private static class Hive {
+        private final File file;
+        private final ArrayList<Edit> edits = new ArrayList<>();
+        private final HashMap<String, ValueWrite> values = new HashMap<>();
+        private int sessions = 0;
+
+        private Hive(File file) {
+            this.file = file;
+        }
+    }
+
+    public static class Conflict {
+        public final File file;
+        public final String key;
+        public final String name;
+        public final String firstStep;
+        public final String firstValue;
+        public final String secondStep;
+        public final String secondValue;
+
+        private Conflict(File file, String key, String name, String firstStep, String firstValue, String secondStep, String secondValue) {
+            this.file = file;
+            this.key = key;
+            this.name = name;
+            this.firstStep = firstStep;
+            this.firstValue = firstValue;
+            this.secondStep = secondStep;
+            this.secondValue = secondValue;
+        }
+
+        @Override
+        public String toString() {
+            return file.getName()+" ["+key+"] "+(name != null ? "\""+name+"\"" : "@")+": "+firstStep+" set "+firstValue+", "+secondStep+" set "+secondValue;
+        }
+    }
+
+    public static class HiveReport {
+        public final File file;
+        public final int sessions;
+        public final int edits;
+        public final boolean committed;
+        public final long bytesRead;
+        public final long bytesWritten;
+        /**
+         * Lower bounds for the same edits with one editor per step, each rewriting the hive per edit:
+         * every session and edit reads the hive, every edit writes it out at its committed size.
+         */
+        public final long legacyBytesRead;
+        public final long legacyBytesWritten;
+
+        private HiveReport(File file, int sessions, int edits, boolean committed, long bytesRead, long bytesWritten) {
+            this.file = file;
+            this.sessions = sessions;
+            this.edits = edits;
+            this.committed = committed;
+            this.bytesRead = bytesRead;
+            this.bytesWritten = bytesWritten;
+            this.legacyBytesRead = (long)(sessions + edits) * bytesRead;
+            this.legacyBytesWritten = (long)edits * bytesWritten;
+        }
+    }
+
+    public static class Report {
+        public final ArrayList<HiveReport> hives = new ArrayList<>();
+        public final ArrayList<Conflict> conflicts = new ArrayList<>();
+
+        public boolean isCommitted() {
+            for (HiveReport hive : hives) if (!hive.committed) return false;
+            return true;
+        }
+
+        public long getBytesRead() {
+            long total = 0;
+            for (HiveReport hive : hives) total += hive.bytesRead;
+            return total;
+        }
+
+        public long getBytesWritten() {
+            long total = 0;
+            for (HiveReport hive : hives) total += hive.bytesWritten;
+            return total;
+        }
+
+        public long getLegacyBytesRead() {
+            long total = 0;
+            for (HiveReport hive : hives) total += hive.legacyBytesRead;
+            return total;
+        }
+
+        public long getLegacyBytesWritten() {
+            long total = 0;
+            for (HiveReport hive : hives) total += hive.legacyBytesWritten;
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format(Locale.ENGLISH, "read=%d written=%d (per step: read>=%d written>=%d) conflicts=%d",
+                getBytesRead(), getBytesWritten(), getLegacyBytesRead(), getLegacyBytesWritten(), conflicts.size()));
+            for (HiveReport hive : hives) {
+                sb.append(String.format(Locale.ENGLISH, "\n  %-12s sessions=%d edits=%d read=%d written=%d%s",
+                    hive.file.getName(), hive.sessions, hive.edits, hive.bytesRead, hive.bytesWritten, hive.committed ? "" : " failed"));
+            }
+            for (Conflict conflict : conflicts) sb.append("\n  conflict: ").append(conflict);
+            return sb.toString();
+        }
+    }
+
+    /**
+     * The edits of one step against one hive. Mirrors the setters of {@link WineRegistryEditor}; nothing
+     * is written until the transaction commits.
+     */
+    public class Editor {
+        private final Hive hive;
+        private final String step;
+        private boolean createKeyIfNotExist = true;
+
+        private Editor(Hive hive, String step) {
+            this.hive = hive;
+            this.step = step;
+        }
+
+        public void setCreateKeyIfNotExist(boolean createKeyIfNotExist) {
+            this.createKeyIfNotExist = createKeyIfNotExist;
+        }
+
+        public void setStringValue(String key, String name, String value) {
+            addValueEdit(this, key, name, "\""+(value != null ? value : "")+"\"", (editor) -> editor.setStringValue(key, name, value));
+        }
+
+        public void setStringValues(String key, String[]... items) {
+            synchronized (WineRegistryTransaction.this) {
+                for (String[] item : items) checkValue(this, key, item[0], "\""+(item[1] != null ? item[1] : "")+"\"");
+                addEdit(this, (editor) -> editor.setStringValues(key, items));
+            }
+        }
+
+        public void setDwordValue(String key, String name, int value) {
+            addValueEdit(this, key, name, String.format(Locale.ENGLISH, "dword:%08x", value), (editor) -> editor.setDwordValue(key, name, value));
+        }
+
+        public void setHexValue(String key, String name, String value) {
+            addValueEdit(this, key, name, "hex:"+value.toLowerCase(Locale.ENGLISH), (editor) -> editor.setHexValue(key, name, value));
+        }
+
+        public void setHexValue(String key, String name, byte[] bytes) {
+            StringBuilder data = new StringBuilder();
+            for (byte b : bytes) data.append(String.format(Locale.ENGLISH, "%02x", Byte.toUnsignedInt(b)));
+            setHexValue(key, name, data.toString());
+        }
+
+        public void removeValue(String key, String name) {
+            addValueEdit(this, key, name, REMOVED, (editor) -> editor.removeValue(key, name));
+        }
+
+        public void removeKey(String key) {
+            removeKey(key, false);
+        }
+
+        public void removeKey(String key, boolean removeTree) {
+            synchronized (WineRegistryTransaction.this) {
+                String prefix = key+"\n";
+                String subkeyPrefix = key+"\\";
+                Iterator<Map.Entry<String, ValueWrite>> iterator = hive.values.entrySet().iterator();
+                while (iterator.hasNext()) {
+                    Map.Entry<String, ValueWrite> entry = iterator.next();
+                    String valueKey = entry.getKey();
+                    if (!valueKey.startsWith(prefix) && !(removeTree && valueKey.startsWith(subkeyPrefix))) continue;
+
+                    ValueWrite write = entry.getValue();
+                    if (!write.step.equals(step) && !write.value.equals(REMOVED)) {
+                        String[] parts = valueKey.split("\n", 2);
+                        addConflict(new Conflict(hive.file, parts[0], parts[1].isEmpty() ? null : parts[1].substring(1), write.step, write.value, step, REMOVED));
+                    }
+                    iterator.remove();
+                }
+                addEdit(this, (editor) -> editor.removeKey(key, removeTree));
+            }
+        }
+    }
+
+    private final LinkedHashMap<String, Hive> hives = new LinkedHashMap<>();
+    private final ArrayList<Conflict> conflicts = new ArrayList<>();
+    private final ArrayList<Runnable> commitActions = new ArrayList<>();
+    private boolean committed = false;
+
+    /** Starts the edits of a step against a hive, the counterpart of opening a WineRegistryEditor. */
+    public synchronized Editor edit(File file, String step) {
+        if (committed) throw new IllegalStateException("Transaction already committed");
+        String path;
+        try {
+            path = file.getCanonicalPath();
+        }
+        catch (IOException e) {
+            path = file.getAbsolutePath();
+        }
+
+        Hive hive = hives.get(path);
+        if (hive == null) {
+            hive = new Hive(file);
+            hives.put(path, hive);
+        }
+        hive.sessions++;
+        return new Editor(hive, step);
+    }
+
+    /** Runs after every hive was written, for markers that must only exist once the edits are on disk. */
+    public synchronized void addCommitAction(Runnable action) {
+        commitActions.add(action);
+    }
+
+    public synchronized ArrayList<Conflict> getConflicts() {
+        return new ArrayList<>(conflicts);
+    }
+
+    public synchronized boolean isEmpty() {
+        for (Hive hive : hives.values()) if (!hive.edits.isEmpty()) return false;
+        return true;
+    }
+
+    /** Applies every edit, reading and writing each hive once. Can only be called once. */
+    public synchronized Report commit() {
+        if (committed) throw new IllegalStateException("Transaction already committed");
+        committed = true;
+
+        Report report = new Report();
+        report.conflicts.addAll(conflicts);
+        for (Hive hive : hives.values()) {
+            if (hive.edits.isEmpty()) continue;
+            WineRegistryEditor editor = new WineRegistryEditor(hive.file);
+            try {
+                for (Edit edit : hive.edits) {
+                    editor.setCreateKeyIfNotExist(edit.createKeyIfNotExist);
+                    edit.operation.apply(editor);
+                }
+            }
+            finally {
+                editor.close();
+            }
+            // Still modified after close() means the hive could not be read or written back
+            report.hives.add(new HiveReport(hive.file, hive.sessions, hive.edits.size(), !editor.isModified(), editor.getBytesRead(), editor.getBytesWritten()));
+        }
+
+        if (report.isCommitted()) {
+            for (Runnable action : commitActions) action.run();
+        }
+        else Log.e("WineRegistryTransaction", "Failed to commit registry edits: " + report);
+        return report;
+    }
+
+    private void addValueEdit(Editor editor, String key, String name, String value, Operation operation) {
+        synchronized (this) {
+            checkValue(editor, key, name, value);
+            addEdit(editor, operation);
+        }
+    }
+
+    private void checkValue(Editor editor, String key, String name, String value) {
+        String valueKey = key+"\n"+(name != null ? "\""+name : "");
+        ValueWrite previous = editor.hive.values.put(valueKey, new ValueWrite(editor.step, value));
+        if (previous != null && !previous.step.equals(editor.step) && !Objects.equals(previous.value, value)) {
+            addConflict(new Conflict(editor.hive.file, key, name, previous.step, previous.value, editor.step, value));
+        }
+    }
+
+    private void addEdit(Editor editor, Operation operation) {
+        if (committed) throw new IllegalStateException("Transaction already committed");
+        editor.hive.edits.add(new Edit(editor.createKeyIfNotExist, operation));
+    }
+
+    private void addConflict(Conflict conflict) {
+        Log.w("WineRegistryTransaction", "Conflicting registry edit: " + conflict);
+        conflicts.add(conflict);
+    }
+}
@@ -42,82 +42,87 @@ public abstract class WineThemeManager {
     }
 
     public static void apply(Context context, ThemeInfo themeInfo, ScreenInfo screenInfo) {
+        WineRegistryTransaction registry = new WineRegistryTransaction();
+        apply(context, themeInfo, screenInfo, registry);
+        registry.commit();
+    }
+
+    public static void apply(Context context, ThemeInfo themeInfo, ScreenInfo screenInfo, WineRegistryTransaction registry) {
         File rootDir = ImageFs.find(context).getRootDir();
         File userRegFile = new File(rootDir, ImageFs.WINEPREFIX+"/user.reg");
         String background = Color.red(themeInfo.backgroundColor)+" "+Color.green(themeInfo.backgroundColor)+" "+Color.blue(themeInfo.backgroundColor);
 
         if (themeInfo.backgroundType == BackgroundType.IMAGE) createWallpaperBMPFile(context, screenInfo);
 
-        try (WineRegistryEditor registryEditor = new WineRegistryEditor(userRegFile)) {
-            if (themeInfo.backgroundType == BackgroundType.IMAGE) {
-                registryEditor.setStringValue("Control Panel\\Desktop", "Wallpaper", ImageFs.CACHE_PATH+"/wallpaper.bmp");
-            }
-            else registryEditor.removeValue("Control Panel\\Desktop", "Wallpaper");
-
-            if (themeInfo.theme == Theme.LIGHT) {
-                registryEditor.setStringValue("Control Panel\\Colors", "ActiveBorder", "245 245 245");
-                registryEditor.setStringValue("Control Panel\\Colors", "ActiveTitle", "96 125 139");
-                registryEditor.setStringValue("Control Panel\\Colors", "Background", background);
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonAlternateFace", "245 245 245");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonDkShadow", "158 158 158");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonFace", "245 245 245");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonHilight", "224 224 224");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonLight", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonShadow", "158 158 158");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonText", "0 0 0");
-                registryEditor.setStringValue("Control Panel\\Colors", "GradientActiveTitle", "96 125 139");
-                registryEditor.setStringValue("Control Panel\\Colors", "GradientInactiveTitle", "117 117 117");
-                registryEditor.setStringValue("Control Panel\\Colors", "GrayText", "158 158 158");
-                registryEditor.setStringValue("Control Panel\\Colors", "Hilight", "2 136 209");
-                registryEditor.setStringValue("Control Panel\\Colors", "HilightText", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "HotTrackingColor", "2 136 209");
-                registryEditor.setStringValue("Control Panel\\Colors", "InactiveBorder", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "InactiveTitle", "117 117 117");
-                registryEditor.setStringValue("Control Panel\\Colors", "InactiveTitleText", "200 200 200");
-                registryEditor.setStringValue("Control Panel\\Colors", "InfoText", "0 0 0");
-                registryEditor.setStringValue("Control Panel\\Colors", "InfoWindow", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "Menu", "245 245 245");
-                registryEditor.setStringValue("Control Panel\\Colors", "MenuBar", "245 245 245");
-                registryEditor.setStringValue("Control Panel\\Colors", "MenuHilight", "2 136 209");
-                registryEditor.setStringValue("Control Panel\\Colors", "MenuText", "0 0 0");
-                registryEditor.setStringValue("Control Panel\\Colors", "Scrollbar", "245 245 245");
-                registryEditor.setStringValue("Control Panel\\Colors", "TitleText", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "Window", "245 245 245");
-                registryEditor.setStringValue("Control Panel\\Colors", "WindowFrame", "158 158 158");
-                registryEditor.setStringValue("Control Panel\\Colors", "WindowText", "0 0 0");
-            }
-            else if (themeInfo.theme == Theme.DARK) {
-                registryEditor.setStringValue("Control Panel\\Colors", "ActiveBorder", "48 48 48");
-                registryEditor.setStringValue("Control Panel\\Colors", "ActiveTitle", "33 33 33");
-                registryEditor.setStringValue("Control Panel\\Colors", "Background", background);
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonAlternateFace", "33 33 33");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonDkShadow", "0 0 0");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonFace", "33 33 33");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonHilight", "48 48 48");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonLight", "48 48 48");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonShadow", "0 0 0");
-                registryEditor.setStringValue("Control Panel\\Colors", "ButtonText", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "GradientActiveTitle", "33 33 33");
-                registryEditor.setStringValue("Control Panel\\Colors", "GradientInactiveTitle", "33 33 33");
-                registryEditor.setStringValue("Control Panel\\Colors", "GrayText", "117 117 117");
-                registryEditor.setStringValue("Control Panel\\Colors", "Hilight", "2 136 209");
-                registryEditor.setStringValue("Control Panel\\Colors", "HilightText", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "HotTrackingColor", "2 136 209");
-                registryEditor.setStringValue("Control Panel\\Colors", "InactiveBorder", "48 48 48");
-                registryEditor.setStringValue("Control Panel\\Colors", "InactiveTitle", "33 33 33");
-                registryEditor.setStringValue("Control Panel\\Colors", "InactiveTitleText", "117 117 117");
-                registryEditor.setStringValue("Control Panel\\Colors", "InfoText", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "InfoWindow", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "Menu", "33 33 33");
-                registryEditor.setStringValue("Control Panel\\Colors", "MenuBar", "48 48 48");
-                registryEditor.setStringValue("Control Panel\\Colors", "MenuHilight", "2 136 209");
-                registryEditor.setStringValue("Control Panel\\Colors", "MenuText", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "Scrollbar", "48 48 48");
-                registryEditor.setStringValue("Control Panel\\Colors", "TitleText", "255 255 255");
-                registryEditor.setStringValue("Control Panel\\Colors", "Window", "48 48 48");
-                registryEditor.setStringValue("Control Panel\\Colors", "WindowFrame", "0 0 0");
-                registryEditor.setStringValue("Control Panel\\Colors", "WindowText", "255 255 255");
-            }
+        WineRegistryTransaction.Editor registryEditor = registry.edit(userRegFile, "desktopTheme");
+        if (themeInfo.backgroundType == BackgroundType.IMAGE) {
+            registryEditor.setStringValue("Control Panel\\Desktop", "Wallpaper", ImageFs.CACHE_PATH+"/wallpaper.bmp");
+        }
+        else registryEditor.removeValue("Control Panel\\Desktop", "Wallpaper");
+
+        if (themeInfo.theme == Theme.LIGHT) {
+            registryEditor.setStringValue("Control Panel\\Colors", "ActiveBorder", "245 245 245");
+            registryEditor.setStringValue("Control Panel\\Colors", "ActiveTitle", "96 125 139");
+            registryEditor.setStringValue("Control Panel\\Colors", "Background", background);
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonAlternateFace", "245 245 245");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonDkShadow", "158 158 158");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonFace", "245 245 245");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonHilight", "224 224 224");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonLight", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonShadow", "158 158 158");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonText", "0 0 0");
+            registryEditor.setStringValue("Control Panel\\Colors", "GradientActiveTitle", "96 125 139");
+            registryEditor.setStringValue("Control Panel\\Colors", "GradientInactiveTitle", "117 117 117");
+            registryEditor.setStringValue("Control Panel\\Colors", "GrayText", "158 158 158");
+            registryEditor.setStringValue("Control Panel\\Colors", "Hilight", "2 136 209");
+            registryEditor.setStringValue("Control Panel\\Colors", "HilightText", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "HotTrackingColor", "2 136 209");
+            registryEditor.setStringValue("Control Panel\\Colors", "InactiveBorder", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "InactiveTitle", "117 117 117");
+            registryEditor.setStringValue("Control Panel\\Colors", "InactiveTitleText", "200 200 200");
+            registryEditor.setStringValue("Control Panel\\Colors", "InfoText", "0 0 0");
+            registryEditor.setStringValue("Control Panel\\Colors", "InfoWindow", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "Menu", "245 245 245");
+            registryEditor.setStringValue("Control Panel\\Colors", "MenuBar", "245 245 245");
+            registryEditor.setStringValue("Control Panel\\Colors", "MenuHilight", "2 136 209");
+            registryEditor.setStringValue("Control Panel\\Colors", "MenuText", "0 0 0");
+            registryEditor.setStringValue("Control Panel\\Colors", "Scrollbar", "245 245 245");
+            registryEditor.setStringValue("Control Panel\\Colors", "TitleText", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "Window", "245 245 245");
+            registryEditor.setStringValue("Control Panel\\Colors", "WindowFrame", "158 158 158");
+            registryEditor.setStringValue("Control Panel\\Colors", "WindowText", "0 0 0");
+        }
+        else if (themeInfo.theme == Theme.DARK) {
+            registryEditor.setStringValue("Control Panel\\Colors", "ActiveBorder", "48 48 48");
+            registryEditor.setStringValue("Control Panel\\Colors", "ActiveTitle", "33 33 33");
+            registryEditor.setStringValue("Control Panel\\Colors", "Background", background);
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonAlternateFace", "33 33 33");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonDkShadow", "0 0 0");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonFace", "33 33 33");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonHilight", "48 48 48");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonLight", "48 48 48");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonShadow", "0 0 0");
+            registryEditor.setStringValue("Control Panel\\Colors", "ButtonText", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "GradientActiveTitle", "33 33 33");
+            registryEditor.setStringValue("Control Panel\\Colors", "GradientInactiveTitle", "33 33 33");
+            registryEditor.setStringValue("Control Panel\\Colors", "GrayText", "117 117 117");
+            registryEditor.setStringValue("Control Panel\\Colors", "Hilight", "2 136 209");
+            registryEditor.setStringValue("Control Panel\\Colors", "HilightText", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "HotTrackingColor", "2 136 209");
+            registryEditor.setStringValue("Control Panel\\Colors", "InactiveBorder", "48 48 48");
+            registryEditor.setStringValue("Control Panel\\Colors", "InactiveTitle", "33 33 33");
+            registryEditor.setStringValue("Control Panel\\Colors", "InactiveTitleText", "117 117 117");
+            registryEditor.setStringValue("Control Panel\\Colors", "InfoText", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "InfoWindow", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "Menu", "33 33 33");
+            registryEditor.setStringValue("Control Panel\\Colors", "MenuBar", "48 48 48");
+            registryEditor.setStringValue("Control Panel\\Colors", "MenuHilight", "2 136 209");
+            registryEditor.setStringValue("Control Panel\\Colors", "MenuText", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "Scrollbar", "48 48 48");
+            registryEditor.setStringValue("Control Panel\\Colors", "TitleText", "255 255 255");
+            registryEditor.setStringValue("Control Panel\\Colors", "Window", "48 48 48");
+            registryEditor.setStringValue("Control Panel\\Colors", "WindowFrame", "0 0 0");
+            registryEditor.setStringValue("Control Panel\\Colors", "WindowText", "255 255 255");
         }
     }
 
@@ -32,6 +32,9 @@ public class TouchMouse {
     private boolean pointerButtonRightEnabled = true;
     private Finger fingerPointerButtonLeft;
     private Finger fingerPointerButtonRight;
+    // Injected input is applied on the X server thread later, so xServer.pointer lags behind what was sent
+    private volatile boolean pointerButtonLeftPressed;
+    private volatile boolean pointerButtonRightPressed;
     private float scrollAccumY = 0;
     private boolean scrolling = false;
     private final XServer xServer;
@@ -147,6 +150,10 @@ public class TouchMouse {
                 }
                 break;
             case MotionEvent.ACTION_CANCEL:
+                if (pointerButtonLeftPressed) xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_LEFT);
+                if (pointerButtonRightPressed) xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_RIGHT);
+                pointerButtonLeftPressed = pointerButtonRightPressed = false;
+                fingerPointerButtonLeft = fingerPointerButtonRight = null;
                 for (byte i = 0; i < MAX_FINGERS; i++) fingers[i] = null;
                 numFingers = 0;
                 break;
@@ -201,7 +208,7 @@ public class TouchMouse {
                 }
                 scrolling = true;
             }
-            else if (currDistance >= MAX_TWO_FINGERS_SCROLL_DISTANCE && !xServer.pointer.isButtonPressed(Pointer.Button.BUTTON_LEFT) &&
+            else if (currDistance >= MAX_TWO_FINGERS_SCROLL_DISTANCE && !pointerButtonLeftPressed &&
                     finger2.travelDistance() < MAX_TAP_TRAVEL_DISTANCE) {
                 pressPointerButtonLeft(finger1);
                 skipPointerMove = true;
@@ -228,24 +235,27 @@ public class TouchMouse {
     }
 
     private void pressPointerButtonLeft(Finger finger) {
-        if (pointerButtonLeftEnabled && !xServer.pointer.isButtonPressed(Pointer.Button.BUTTON_LEFT)) {
+        if (pointerButtonLeftEnabled && !pointerButtonLeftPressed) {
             xServer.injectPointerButtonPress(Pointer.Button.BUTTON_LEFT);
+            pointerButtonLeftPressed = true;
             fingerPointerButtonLeft = finger;
         }
     }
 
     private void pressPointerButtonRight(Finger finger) {
-        if (pointerButtonRightEnabled && !xServer.pointer.isButtonPressed(Pointer.Button.BUTTON_RIGHT)) {
+        if (pointerButtonRightEnabled && !pointerButtonRightPressed) {
             xServer.injectPointerButtonPress(Pointer.Button.BUTTON_RIGHT);
+            pointerButtonRightPressed = true;
             fingerPointerButtonRight = finger;
         }
     }
 
     private void releasePointerButtonLeft(final Finger finger) {
-        if (pointerButtonLeftEnabled && finger == fingerPointerButtonLeft && xServer.pointer.isButtonPressed(Pointer.Button.BUTTON_LEFT)) {
+        if (pointerButtonLeftEnabled && finger == fingerPointerButtonLeft && pointerButtonLeftPressed) {
+            fingerPointerButtonLeft = null;
             Executors.newSingleThreadScheduledExecutor().schedule(() -> {
                 xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_LEFT);
-                fingerPointerButtonLeft = null;
+                pointerButtonLeftPressed = false;
             }, 30, TimeUnit.MILLISECONDS);
             // postDelayed(() -> {
             //     xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_LEFT);
@@ -255,10 +265,11 @@ public class TouchMouse {
     }
 
     private void releasePointerButtonRight(final Finger finger) {
-        if (pointerButtonRightEnabled && finger == fingerPointerButtonRight && xServer.pointer.isButtonPressed(Pointer.Button.BUTTON_RIGHT)) {
+        if (pointerButtonRightEnabled && finger == fingerPointerButtonRight && pointerButtonRightPressed) {
+            fingerPointerButtonRight = null;
             Executors.newSingleThreadScheduledExecutor().schedule(() -> {
                 xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_RIGHT);
-                fingerPointerButtonRight = null;
+                pointerButtonRightPressed = false;
             }, 30, TimeUnit.MILLISECONDS);
             // postDelayed(() -> {
             //     xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_RIGHT);
@@ -0,0 +1,25 @@
+package com.winlator.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/** Monotonic count, cheap to increment from many threads at once. */
+public class Counter {
+    public final String name;
+    private final LongAdder value = new LongAdder();
+
+    Counter(String name) {
+        this.name = name;
+    }
+
+    public void increment() {
+        value.increment();
+    }
+
+    public void add(long amount) {
+        value.add(amount);
+    }
+
+    public long get() {
+        return value.sum();
+    }
+}
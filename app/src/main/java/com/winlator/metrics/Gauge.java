@@ -0,0 +1,19 @@
+package com.winlator.metrics;
+
+/** Last value of something that goes up and down, like a queue depth or buffer size. */
+public class Gauge {
+    public final String name;
+    private volatile long value;
+
+    Gauge(String name) {
+        this.name = name;
+    }
+
+    public void set(long value) {
+        this.value = value;
+    }
+
+    public long get() {
+        return value;
+    }
+}
@@ -0,0 +1,110 @@
+package com.winlator.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Distribution of non-negative values (usually nanoseconds) in log-linear buckets, in the spirit
+ * of HdrHistogram: values below 64 are counted exactly, larger ones in 32 buckets per power of two,
+ * so any percentile is reported within about 3% of the recorded value. Recording is a handful of
+ * atomic adds and never blocks, which makes it usable on the X request path.
+ */
+public class Histogram {
+    private static final int LINEAR_BUCKETS = 64;
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int FIRST_LOG_EXPONENT = 6;
+    static final int BUCKET_COUNT = LINEAR_BUCKETS + (63 - FIRST_LOG_EXPONENT) * SUB_BUCKETS;
+    public final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public static class Snapshot {
+        private final long[] counts;
+        public final long count;
+        public final long sum;
+
+        private Snapshot(long[] counts, long sum) {
+            long count = 0;
+            for (long value : counts) count += value;
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double)sum / count : 0;
+        }
+
+        /** Returns the value below which the given percentage (0 to 100) of recorded values fall. */
+        public long getValueAtPercentile(double percentile) {
+            if (count == 0) return 0;
+            long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return upperBound(i);
+            }
+            return getMax();
+        }
+
+        public long getMax() {
+            for (int i = counts.length - 1; i >= 0; i--) {
+                if (counts[i] > 0) return upperBound(i);
+            }
+            return 0;
+        }
+
+        /** Values recorded after the earlier snapshot was taken. */
+        public Snapshot minus(Snapshot earlier) {
+            long[] delta = new long[counts.length];
+            for (int i = 0; i < delta.length; i++) delta[i] = counts[i] - earlier.counts[i];
+            return new Snapshot(delta, sum - earlier.sum);
+        }
+    }
+
+    public Histogram(String name) {
+        this.name = name;
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_BUCKETS) return value > 0 ? (int)value : 0;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int)(value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_BUCKETS + (exponent - FIRST_LOG_EXPONENT) * SUB_BUCKETS + subBucket;
+    }
+
+    static long lowerBound(int index) {
+        if (index < LINEAR_BUCKETS) return index;
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_LOG_EXPONENT;
+        long subBucket = (index - LINEAR_BUCKETS) % SUB_BUCKETS;
+        return (1L << exponent) | (subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+
+    static long upperBound(int index) {
+        if (index < LINEAR_BUCKETS) return index;
+        int exponent = (index - LINEAR_BUCKETS) / SUB_BUCKETS + FIRST_LOG_EXPONENT;
+        return lowerBound(index) + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) value = 0;
+        counts.incrementAndGet(bucketIndex(value));
+        sum.add(value);
+        long current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value));
+    }
+
+    /** Exact largest value recorded so far. */
+    public long getMax() {
+        return max.get();
+    }
+
+    public Snapshot snapshot() {
+        long[] values = new long[BUCKET_COUNT];
+        for (int i = 0; i < values.length; i++) values[i] = counts.get(i);
+        return new Snapshot(values, sum.sum());
+    }
+}
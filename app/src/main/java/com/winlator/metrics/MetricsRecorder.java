@@ -0,0 +1,176 @@
+package com.winlator.metrics;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples every metric of a registry at a fixed interval into a ring of rows, keeping the last
+ * capacity samples. Counters are recorded as the increase since the previous sample and histograms
+ * as count, p50, p99 and max of the values recorded during the interval. Only the sampling thread
+ * and exporters synchronize on the recorder, publishers never do.
+ */
+public class MetricsRecorder implements Runnable {
+    private final MetricsRegistry registry;
+    private final long intervalMillis;
+    private final long[] times;
+    private final long[][] rows;
+    private final ArrayList<String> columns = new ArrayList<>();
+    private final IdentityHashMap<Object, Object> previousValues = new IdentityHashMap<>();
+    private int registeredMetrics = 0;
+    private int next = 0;
+    private int size = 0;
+    private Thread thread;
+
+    public MetricsRecorder(MetricsRegistry registry, long intervalMillis, int capacity) {
+        this.registry = registry;
+        this.intervalMillis = intervalMillis;
+        this.times = new long[capacity];
+        this.rows = new long[capacity][];
+    }
+
+    public synchronized void start() {
+        if (thread != null) return;
+        thread = new Thread(this, "MetricsRecorder");
+        thread.setDaemon(true);
+        thread.start();
+        registry.recorderStarted();
+    }
+
+    public synchronized void stop() {
+        if (thread == null) return;
+        thread.interrupt();
+        thread = null;
+        registry.recorderStopped();
+    }
+
+    @Override
+    public void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(intervalMillis);
+            }
+            catch (InterruptedException e) {
+                break;
+            }
+            sample(System.currentTimeMillis());
+        }
+    }
+
+    private void addColumns(List<Object> metrics) {
+        for (int i = registeredMetrics; i < metrics.size(); i++) {
+            Object metric = metrics.get(i);
+            if (metric instanceof Counter) {
+                columns.add(((Counter)metric).name);
+            }
+            else if (metric instanceof Gauge) {
+                columns.add(((Gauge)metric).name);
+            }
+            else if (metric instanceof Histogram) {
+                String name = ((Histogram)metric).name;
+                columns.add(name+".count");
+                columns.add(name+".p50");
+                columns.add(name+".p99");
+                columns.add(name+".max");
+            }
+        }
+        registeredMetrics = metrics.size();
+    }
+
+    public synchronized void sample(long timeMillis) {
+        List<Object> metrics = registry.getMetrics();
+        addColumns(metrics);
+
+        long[] row = new long[columns.size()];
+        int column = 0;
+        for (Object metric : metrics) {
+            if (metric instanceof Counter) {
+                long value = ((Counter)metric).get();
+                Long previous = (Long)previousValues.put(metric, value);
+                row[column++] = previous != null ? value - previous : value;
+            }
+            else if (metric instanceof Gauge) {
+                row[column++] = ((Gauge)metric).get();
+            }
+            else if (metric instanceof Histogram) {
+                Histogram.Snapshot snapshot = ((Histogram)metric).snapshot();
+                Histogram.Snapshot previous = (Histogram.Snapshot)previousValues.put(metric, snapshot);
+                Histogram.Snapshot interval = previous != null ? snapshot.minus(previous) : snapshot;
+                row[column++] = interval.count;
+                row[column++] = interval.getValueAtPercentile(50);
+                row[column++] = interval.getValueAtPercentile(99);
+                row[column++] = interval.getMax();
+            }
+        }
+
+        times[next] = timeMillis;
+        rows[next] = row;
+        next = (next + 1) % rows.length;
+        if (size < rows.length) size++;
+    }
+
+    public synchronized int getSampleCount() {
+        return size;
+    }
+
+    public synchronized List<String> getColumns() {
+        return new ArrayList<>(columns);
+    }
+
+    /** Values of the most recent sample by column name, for the HUD. Empty before the first sample. */
+    public synchronized Map<String, Long> getLatest() {
+        LinkedHashMap<String, Long> latest = new LinkedHashMap<>();
+        if (size == 0) return latest;
+        long[] row = rows[(next - 1 + rows.length) % rows.length];
+        for (int i = 0; i < row.length; i++) latest.put(columns.get(i), row[i]);
+        return latest;
+    }
+
+    private int oldest() {
+        return (next - size + rows.length) % rows.length;
+    }
+
+    /** Writes one line per sample, oldest first. Columns that did not exist yet at a sample are left empty. */
+    public synchronized void writeCsv(Writer writer) throws IOException {
+        writer.write("time_ms");
+        for (String column : columns) writer.write(","+column);
+        writer.write("\n");
+
+        for (int i = 0, index = oldest(); i < size; i++, index = (index + 1) % rows.length) {
+            long[] row = rows[index];
+            writer.write(String.valueOf(times[index]));
+            for (int j = 0; j < columns.size(); j++) writer.write(j < row.length ? ","+row[j] : ",");
+            writer.write("\n");
+        }
+    }
+
+    public synchronized void writeJson(Writer writer) throws IOException {
+        writer.write("{\n  \"interval_ms\": "+intervalMillis+",\n  \"columns\": [");
+        for (int i = 0; i < columns.size(); i++) writer.write((i > 0 ? ", " : "")+"\""+columns.get(i)+"\"");
+        writer.write("],\n  \"samples\": [");
+
+        for (int i = 0, index = oldest(); i < size; i++, index = (index + 1) % rows.length) {
+            long[] row = rows[index];
+            writer.write((i > 0 ? ",\n    [" : "\n    [")+times[index]);
+            for (int j = 0; j < columns.size(); j++) writer.write(j < row.length ? ", "+row[j] : ", null");
+            writer.write("]");
+        }
+        writer.write(size > 0 ? "\n  ]\n}\n" : "]\n}\n");
+    }
+
+    /** Writes name.csv and name.json into dir. */
+    public void export(File dir, String name) throws IOException {
+        try (FileWriter writer = new FileWriter(new File(dir, name+".csv"), false)) {
+            writeCsv(writer);
+        }
+        try (FileWriter writer = new FileWriter(new File(dir, name+".json"), false)) {
+            writeJson(writer);
+        }
+    }
+}
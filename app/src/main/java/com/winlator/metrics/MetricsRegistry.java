@@ -0,0 +1,73 @@
+package com.winlator.metrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Named counters, gauges and histograms shared by the X server, renderer, audio and input code.
+ * Publishers look their metrics up once, usually into static fields, and afterwards only touch
+ * the metric itself, so publishing never takes a lock. Metric names are dotted, starting with the
+ * subsystem ("xserver.requests", "alsa.underruns").
+ *
+ * Recording is off until a {@link MetricsRecorder} starts sampling. Hot paths read
+ * {@link #isEnabled()} once per request, frame or write and skip their timing and counting when
+ * nobody is recording.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry instance = new MetricsRegistry();
+    private final ConcurrentHashMap<String, Object> metrics = new ConcurrentHashMap<>();
+    private final List<Object> ordered = new ArrayList<>();
+    private volatile boolean enabled = false;
+    private int recorders = 0;
+
+    public static MetricsRegistry get() {
+        return instance;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    synchronized void recorderStarted() {
+        enabled = ++recorders > 0;
+    }
+
+    synchronized void recorderStopped() {
+        enabled = --recorders > 0;
+    }
+
+    private <T> T register(String name, Class<T> type, T metric) {
+        Object existing = metrics.putIfAbsent(name, metric);
+        if (existing == null) {
+            synchronized (ordered) {
+                ordered.add(metric);
+            }
+            return metric;
+        }
+        if (!type.isInstance(existing)) throw new IllegalArgumentException("Metric "+name+" is already registered as "+existing.getClass().getSimpleName());
+        return type.cast(existing);
+    }
+
+    public Counter counter(String name) {
+        Object metric = metrics.get(name);
+        return metric instanceof Counter ? (Counter)metric : register(name, Counter.class, new Counter(name));
+    }
+
+    public Gauge gauge(String name) {
+        Object metric = metrics.get(name);
+        return metric instanceof Gauge ? (Gauge)metric : register(name, Gauge.class, new Gauge(name));
+    }
+
+    public Histogram histogram(String name) {
+        Object metric = metrics.get(name);
+        return metric instanceof Histogram ? (Histogram)metric : register(name, Histogram.class, new Histogram(name));
+    }
+
+    /** All metrics in the order they were registered. */
+    public List<Object> getMetrics() {
+        synchronized (ordered) {
+            return new ArrayList<>(ordered);
+        }
+    }
+}
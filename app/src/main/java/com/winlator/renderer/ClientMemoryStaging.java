@@ -0,0 +1,53 @@
+package com.winlator.renderer;
+
+import android.opengl.GLES20;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Stages texture uploads in ordinary direct buffers, for contexts without pixel buffer objects.
+ * The driver has consumed the memory when glTexSubImage2D returns, so slots never need a fence, but
+ * the renderLock is still only held for the copy.
+ */
+public class ClientMemoryStaging implements StagingRing.Backend {
+    private final ByteBuffer[] buffers;
+
+    public ClientMemoryStaging(int slotCount) {
+        buffers = new ByteBuffer[slotCount];
+    }
+
+    @Override
+    public ByteBuffer map(int slot, int size) {
+        if (buffers[slot] == null || buffers[slot].capacity() < size) {
+            buffers[slot] = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer buffer = buffers[slot].duplicate();
+        buffer.clear();
+        buffer.limit(size);
+        return buffer;
+    }
+
+    @Override
+    public long upload(int slot, int textureId, int format, int y, int width, int height) {
+        ByteBuffer buffer = buffers[slot].duplicate();
+        buffer.clear();
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, y, width, height, format, GLES20.GL_UNSIGNED_BYTE, buffer);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        return 0;
+    }
+
+    @Override
+    public boolean isSignaled(long fence, boolean wait) {
+        return true;
+    }
+
+    @Override
+    public void deleteFence(long fence) {}
+
+    @Override
+    public void destroy() {
+        for (int i = 0; i < buffers.length; i++) buffers[i] = null;
+    }
+}
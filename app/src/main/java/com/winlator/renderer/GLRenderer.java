@@ -11,6 +11,9 @@ import android.opengl.GLSurfaceView;
 import app.gamenative.R;
 import com.winlator.math.Mathf;
 import com.winlator.math.XForm;
+import com.winlator.metrics.Counter;
+import com.winlator.metrics.Histogram;
+import com.winlator.metrics.MetricsRegistry;
 import com.winlator.renderer.material.CursorMaterial;
 import com.winlator.renderer.material.ShaderMaterial;
 import com.winlator.renderer.material.WindowMaterial;
@@ -31,6 +34,8 @@ import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindowModificationListener, Pointer.OnPointerMotionListener {
+    private static final Counter frameCount = MetricsRegistry.get().counter("renderer.frames");
+    private static final Histogram frameTime = MetricsRegistry.get().histogram("renderer.draw_frame_ns");
     public final XServerView xServerView;
     private final XServer xServer;
     private final VertexAttribute quadVertices = new VertexAttribute("position", 2);
@@ -70,6 +75,12 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
         xServer.pointer.addOnPointerMotionListener(this);
     }
 
+    /** Stops following the X server, for when it outlives the view and gets a new renderer. */
+    public void detachFromXServer() {
+        xServer.windowManager.removeOnWindowModificationListener(this);
+        xServer.pointer.removeOnPointerMotionListener(this);
+    }
+
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
         GPUImage.checkIsSupported();
@@ -122,7 +133,14 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
             viewportNeedsUpdate = true;
         }
 
+        if (!MetricsRegistry.get().isEnabled()) {
+            drawFrame();
+            return;
+        }
+        long startTime = System.nanoTime();
         drawFrame();
+        frameTime.record(System.nanoTime() - startTime);
+        frameCount.increment();
     }
 
     private void drawFrame() {
@@ -232,26 +250,29 @@ public class GLRenderer implements GLSurfaceView.Renderer, WindowManager.OnWindo
 
     private void renderDrawable(Drawable drawable, int x, int y, ShaderMaterial material, boolean forceFullscreen) {
         if (drawable == null) return;
+        Texture texture;
+        // Only the copy into staging memory has to exclude writers, the upload and draw happen after
         synchronized (drawable.renderLock) {
-            Texture texture = drawable.getTexture();
-            texture.updateFromDrawable(drawable);
+            texture = drawable.getTexture();
+            texture.stageFromDrawable(drawable);
+        }
+        texture.commitStaged();
 
-            if (forceFullscreen) {
-                short newHeight = (short)Math.min(xServer.screenInfo.height, ((float)xServer.screenInfo.width / drawable.width) * drawable.height);
-                short newWidth = (short)(((float)newHeight / drawable.height) * drawable.width);
-                XForm.set(tmpXForm1, (xServer.screenInfo.width - newWidth) * 0.5f, (xServer.screenInfo.height - newHeight) * 0.5f, newWidth, newHeight);
-            }
-            else XForm.set(tmpXForm1, x, y, drawable.width, drawable.height);
+        if (forceFullscreen) {
+            short newHeight = (short)Math.min(xServer.screenInfo.height, ((float)xServer.screenInfo.width / drawable.width) * drawable.height);
+            short newWidth = (short)(((float)newHeight / drawable.height) * drawable.width);
+            XForm.set(tmpXForm1, (xServer.screenInfo.width - newWidth) * 0.5f, (xServer.screenInfo.height - newHeight) * 0.5f, newWidth, newHeight);
+        }
+        else XForm.set(tmpXForm1, x, y, drawable.width, drawable.height);
 
-            XForm.multiply(tmpXForm1, tmpXForm1, tmpXForm2);
+        XForm.multiply(tmpXForm1, tmpXForm1, tmpXForm2);
 
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.getTextureId());
-            GLES20.glUniform1i(material.getUniformLocation("texture"), 0);
-            GLES20.glUniform1fv(material.getUniformLocation("xform"), tmpXForm1.length, tmpXForm1, 0);
-            GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, quadVertices.count());
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-        }
+        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.getTextureId());
+        GLES20.glUniform1i(material.getUniformLocation("texture"), 0);
+        GLES20.glUniform1fv(material.getUniformLocation("xform"), tmpXForm1.length, tmpXForm1, 0);
+        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, quadVertices.count());
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
     }
 
     private void renderWindows() {
@@ -58,7 +58,7 @@ public class GPUImage extends Texture {
     }
 
     @Override
-    public void updateFromDrawable(Drawable drawable) {
+    public void stageFromDrawable(Drawable drawable) {
         if (!isAllocated()) allocateTexture(drawable.width, drawable.height, null);
         needsUpdate = false;
     }
@@ -0,0 +1,63 @@
+package com.winlator.renderer;
+
+import android.opengl.GLES20;
+import android.opengl.GLES30;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/** Stages texture uploads in pixel unpack buffers so glTexSubImage2D returns without waiting for the transfer. */
+public class PixelBufferStaging implements StagingRing.Backend {
+    private static final long WAIT_TIMEOUT_NS = 100_000_000L;
+    private final int[] buffers;
+    private final int[] sizes;
+
+    public PixelBufferStaging(int slotCount) {
+        buffers = new int[slotCount];
+        sizes = new int[slotCount];
+        GLES30.glGenBuffers(slotCount, buffers, 0);
+    }
+
+    @Override
+    public ByteBuffer map(int slot, int size) {
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, buffers[slot]);
+        if (sizes[slot] < size) {
+            GLES30.glBufferData(GLES30.GL_PIXEL_UNPACK_BUFFER, size, null, GLES30.GL_STREAM_DRAW);
+            sizes[slot] = size;
+        }
+
+        // The ring only maps a slot after the fence of its last upload signaled
+        int access = GLES30.GL_MAP_WRITE_BIT | GLES30.GL_MAP_INVALIDATE_RANGE_BIT | GLES30.GL_MAP_UNSYNCHRONIZED_BIT;
+        Buffer mapped = GLES30.glMapBufferRange(GLES30.GL_PIXEL_UNPACK_BUFFER, 0, size, access);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+        return mapped instanceof ByteBuffer ? ((ByteBuffer)mapped).order(ByteOrder.LITTLE_ENDIAN) : null;
+    }
+
+    @Override
+    public long upload(int slot, int textureId, int format, int y, int width, int height) {
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, buffers[slot]);
+        GLES30.glUnmapBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES30.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, y, width, height, format, GLES20.GL_UNSIGNED_BYTE, 0);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+        GLES30.glBindBuffer(GLES30.GL_PIXEL_UNPACK_BUFFER, 0);
+        return GLES30.glFenceSync(GLES30.GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+    }
+
+    @Override
+    public boolean isSignaled(long fence, boolean wait) {
+        int result = GLES30.glClientWaitSync(fence, wait ? GLES30.GL_SYNC_FLUSH_COMMANDS_BIT : 0, wait ? WAIT_TIMEOUT_NS : 0);
+        return result != GLES30.GL_TIMEOUT_EXPIRED;
+    }
+
+    @Override
+    public void deleteFence(long fence) {
+        GLES30.glDeleteSync(fence);
+    }
+
+    @Override
+    public void destroy() {
+        GLES30.glDeleteBuffers(buffers.length, buffers, 0);
+    }
+}
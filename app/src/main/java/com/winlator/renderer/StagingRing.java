@@ -0,0 +1,179 @@
+package com.winlator.renderer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Ring of staging buffers a texture is streamed through. stage() copies the changed rows of a
+ * drawable into the next free slot, which is all that has to happen while the drawable's renderLock
+ * is held, and commit() hands the slot to the GPU afterwards. A slot is written again only once the
+ * fence of its previous upload has signaled, so with two or more slots the copy of one frame
+ * overlaps with the transfer of the one before it. If waiting for a fence times out the frame is not
+ * staged at all and the caller uploads it directly. Everything that touches GL is behind Backend,
+ * which keeps this class usable in JVM tests.
+ */
+public class StagingRing {
+    public interface Backend {
+        /** Returns writable staging memory of at least size bytes for the slot, or null if none is available. */
+        ByteBuffer map(int slot, int size);
+
+        /**
+         * Uploads the bytes written to the slot into rows y to y + height of the texture and returns
+         * a fence that signals once the GPU is done reading them, or 0 if the slot can be reused
+         * immediately.
+         */
+        long upload(int slot, int textureId, int format, int y, int width, int height);
+
+        /** Checks the fence, blocking until it signals when wait is set. */
+        boolean isSignaled(long fence, boolean wait);
+
+        void deleteFence(long fence);
+
+        void destroy();
+    }
+
+    public static class Stats {
+        private volatile long stagedFrames;
+        private volatile long stagedBytes;
+        private volatile long stalls;
+        private volatile long snapshotNanos;
+        private volatile long uploadNanos;
+
+        public long getStagedFrames() {
+            return stagedFrames;
+        }
+
+        public long getStagedBytes() {
+            return stagedBytes;
+        }
+
+        /** Number of times every slot was still in flight and stage() had to wait for the GPU. */
+        public long getStalls() {
+            return stalls;
+        }
+
+        /** Average time spent copying a frame into staging memory, i.e. holding the renderLock. */
+        public long getAvgSnapshotMicros() {
+            return stagedFrames > 0 ? snapshotNanos / stagedFrames / 1000 : 0;
+        }
+
+        public long getAvgUploadMicros() {
+            return stagedFrames > 0 ? uploadNanos / stagedFrames / 1000 : 0;
+        }
+
+        public void reset() {
+            stagedFrames = 0;
+            stagedBytes = 0;
+            stalls = 0;
+            snapshotNanos = 0;
+            uploadNanos = 0;
+        }
+
+        @Override
+        public String toString() {
+            return "stagedFrames="+stagedFrames+" stagedBytes="+stagedBytes+" stalls="+stalls+" avgSnapshotMicros="+getAvgSnapshotMicros()+" avgUploadMicros="+getAvgUploadMicros();
+        }
+    }
+
+    private final Backend backend;
+    private final Stats stats;
+    private final long[] fences;
+    private int nextSlot = 0;
+    private int stagedSlot = -1;
+    private int stagedTextureId;
+    private int stagedFormat;
+    private int stagedY;
+    private int stagedWidth;
+    private int stagedHeight;
+
+    public StagingRing(Backend backend, int slotCount, Stats stats) {
+        this.backend = backend;
+        this.stats = stats;
+        this.fences = new long[slotCount];
+    }
+
+    public int getSlotCount() {
+        return fences.length;
+    }
+
+    public boolean hasStagedRows() {
+        return stagedSlot != -1;
+    }
+
+    private void releaseFence(int slot) {
+        backend.deleteFence(fences[slot]);
+        fences[slot] = 0;
+    }
+
+    /** Returns a slot the GPU is done reading, or -1 if the oldest one is still in flight after waiting. */
+    private int acquireSlot() {
+        for (int i = 0; i < fences.length; i++) {
+            int slot = (nextSlot + i) % fences.length;
+            if (fences[slot] == 0) return slot;
+            if (backend.isSignaled(fences[slot], false)) {
+                releaseFence(slot);
+                return slot;
+            }
+        }
+
+        stats.stalls++;
+        int slot = nextSlot;
+        if (!backend.isSignaled(fences[slot], true)) return -1;
+        releaseFence(slot);
+        return slot;
+    }
+
+    /**
+     * Copies rows top to bottom of a width pixels wide 32-bit image into a free slot. Returns false,
+     * with nothing staged, if no slot became free in time or the backend has no staging memory, so
+     * the caller has to upload the rows itself.
+     */
+    public boolean stage(ByteBuffer data, int textureId, int format, int width, int top, int bottom) {
+        if (stagedSlot != -1) commit();
+        if (top >= bottom) return true;
+
+        long start = System.nanoTime();
+        int slot = acquireSlot();
+        if (slot == -1) return false;
+        int offset = top * width * 4;
+        int size = (bottom - top) * width * 4;
+        ByteBuffer staging = backend.map(slot, size);
+        if (staging == null) return false;
+
+        ByteBuffer rows = data.duplicate();
+        rows.clear();
+        rows.position(offset).limit(offset + size);
+        staging.clear();
+        staging.put(rows);
+
+        stagedSlot = slot;
+        stagedTextureId = textureId;
+        stagedFormat = format;
+        stagedY = top;
+        stagedWidth = width;
+        stagedHeight = bottom - top;
+        nextSlot = (slot + 1) % fences.length;
+
+        stats.stagedFrames++;
+        stats.stagedBytes += size;
+        stats.snapshotNanos += System.nanoTime() - start;
+        return true;
+    }
+
+    /** Uploads the rows copied by the last stage(). Does not need the renderLock. */
+    public void commit() {
+        if (stagedSlot == -1) return;
+        long start = System.nanoTime();
+        int slot = stagedSlot;
+        stagedSlot = -1;
+        fences[slot] = backend.upload(slot, stagedTextureId, stagedFormat, stagedY, stagedWidth, stagedHeight);
+        stats.uploadNanos += System.nanoTime() - start;
+    }
+
+    public void destroy() {
+        stagedSlot = -1;
+        for (int i = 0; i < fences.length; i++) {
+            if (fences[i] != 0) releaseFence(i);
+        }
+        backend.destroy();
+    }
+}
@@ -9,6 +9,12 @@ import com.winlator.xserver.Drawable;
 import java.nio.ByteBuffer;
 
 public class Texture {
+    // Smaller drawables (cursors, icons, menus) are cheaper to upload directly than to stage
+    private static final int STREAMING_MIN_PIXELS = 256 * 256;
+    private static final int STAGING_SLOTS = 2;
+    private static final boolean streamingEnabled = !"false".equals(System.getProperty("winlator.texture_streaming"));
+    private static final StagingRing.Stats streamingStats = new StagingRing.Stats();
+    private static Boolean pixelBuffersSupported;
     protected int textureId = 0;
     private int wrapS = GLES20.GL_CLAMP_TO_EDGE;
     private int wrapT = GLES20.GL_CLAMP_TO_EDGE;
@@ -17,6 +23,13 @@ public class Texture {
     private int format = GLES11Ext.GL_BGRA;
     protected byte unpackAlignment = 4;
     protected boolean needsUpdate = true;
+    private final TextureDamage damage = new TextureDamage();
+    private StagingRing stagingRing;
+    private boolean stagingFailed = false;
+
+    public static StagingRing.Stats getStreamingStats() {
+        return streamingStats;
+    }
 
     protected void generateTextureId() {
         int[] textureIds = new int[1];
@@ -46,22 +59,75 @@ public class Texture {
     }
 
     public void setNeedsUpdate(boolean needsUpdate) {
+        if (needsUpdate) damage.addAll();
         this.needsUpdate = needsUpdate;
     }
 
+    /** Like setNeedsUpdate(true), but only rows y to y + height have to be uploaded again. */
+    public void invalidateRows(int y, int height) {
+        damage.add(y, y + height);
+        needsUpdate = true;
+    }
+
     public void updateFromDrawable(Drawable drawable) {
+        stageFromDrawable(drawable);
+        commitStaged();
+    }
+
+    /**
+     * Takes what the GL thread needs from the drawable while its renderLock is held. Large textures
+     * get their changed rows copied into a staging buffer, which commitStaged() uploads after the
+     * lock is released; everything else is uploaded right away as before.
+     */
+    public void stageFromDrawable(Drawable drawable) {
         ByteBuffer data = drawable.getData();
         if (data == null) return;
 
         if (!isAllocated()) {
+            damage.take(drawable.height);
+            needsUpdate = false;
             allocateTexture(drawable.width, drawable.height, data);
+            return;
         }
-        else if (needsUpdate) {
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
-            GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, 0, drawable.width, drawable.height, format, GLES20.GL_UNSIGNED_BYTE, data);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-            needsUpdate = false;
+        if (!needsUpdate) return;
+        needsUpdate = false;
+
+        long band = damage.take(drawable.height);
+        if (TextureDamage.isEmpty(band)) return;
+        int top = TextureDamage.top(band);
+        int bottom = TextureDamage.bottom(band);
+
+        StagingRing ring = getStagingRing(drawable);
+        if (ring != null && ring.stage(data, textureId, format, drawable.width, top, bottom)) return;
+        if (ring != null) {
+            stagingFailed = true;
+            ring.destroy();
+            stagingRing = null;
         }
+
+        ByteBuffer rows = data.duplicate();
+        rows.clear();
+        rows.position(top * drawable.width * 4);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        GLES20.glTexSubImage2D(GLES20.GL_TEXTURE_2D, 0, 0, top, drawable.width, bottom - top, format, GLES20.GL_UNSIGNED_BYTE, rows);
+        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
+    }
+
+    /** Uploads the rows copied by stageFromDrawable(). Called on the GL thread without the renderLock. */
+    public void commitStaged() {
+        if (stagingRing != null) stagingRing.commit();
+    }
+
+    private StagingRing getStagingRing(Drawable drawable) {
+        if (stagingRing == null && streamingEnabled && !stagingFailed && drawable.width * drawable.height >= STREAMING_MIN_PIXELS) {
+            if (pixelBuffersSupported == null) {
+                String version = GLES20.glGetString(GLES20.GL_VERSION);
+                pixelBuffersSupported = version != null && version.startsWith("OpenGL ES ") && !version.startsWith("OpenGL ES 2");
+            }
+            StagingRing.Backend backend = pixelBuffersSupported ? new PixelBufferStaging(STAGING_SLOTS) : new ClientMemoryStaging(STAGING_SLOTS);
+            stagingRing = new StagingRing(backend, STAGING_SLOTS, streamingStats);
+        }
+        return stagingRing;
     }
 
     public boolean isAllocated() {
@@ -86,7 +152,9 @@ public class Texture {
 
     public void invalidate() {
         textureId = 0;
-        needsUpdate = true;
+        // The staging buffers and fences went away with the context
+        stagingRing = null;
+        setNeedsUpdate(true);
     }
 
     public void destroy() {
@@ -95,5 +163,9 @@ public class Texture {
             GLES20.glDeleteTextures(textureIds.length, textureIds, 0);
             textureId = 0;
         }
+        if (stagingRing != null) {
+            stagingRing.destroy();
+            stagingRing = null;
+        }
     }
 }
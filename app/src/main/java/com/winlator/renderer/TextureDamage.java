@@ -0,0 +1,60 @@
+package com.winlator.renderer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Band of texture rows changed since the last upload. The X server thread adds rows while drawing
+ * and the GL thread takes the whole band when it uploads, without either side taking a lock. The
+ * band is packed as (top << 32) | bottom, an empty band having bottom 0.
+ */
+public class TextureDamage {
+    private static final long EMPTY = 0;
+    private static final int ALL_ROWS = 0xffff;
+    private final AtomicLong rows = new AtomicLong(EMPTY);
+
+    public static int top(long band) {
+        return (int)(band >>> 32);
+    }
+
+    public static int bottom(long band) {
+        return (int)band;
+    }
+
+    public static boolean isEmpty(long band) {
+        return top(band) >= bottom(band);
+    }
+
+    private static long pack(int top, int bottom) {
+        return ((long)top << 32) | bottom;
+    }
+
+    /** Marks rows [top, bottom) as changed. */
+    public void add(int top, int bottom) {
+        top = Math.max(top, 0);
+        bottom = Math.min(bottom, ALL_ROWS);
+        if (top >= bottom) return;
+
+        long current, next;
+        do {
+            current = rows.get();
+            next = isEmpty(current) ? pack(top, bottom) : pack(Math.min(top, top(current)), Math.max(bottom, bottom(current)));
+        }
+        while (current != next && !rows.compareAndSet(current, next));
+    }
+
+    public void addAll() {
+        add(0, ALL_ROWS);
+    }
+
+    public boolean isEmpty() {
+        return isEmpty(rows.get());
+    }
+
+    /** Returns the changed band clipped to height rows and clears it. */
+    public long take(int height) {
+        long band = rows.getAndSet(EMPTY);
+        if (isEmpty(band)) return EMPTY;
+        int bottom = Math.min(bottom(band), height);
+        return top(band) < bottom ? pack(top(band), bottom) : EMPTY;
+    }
+}
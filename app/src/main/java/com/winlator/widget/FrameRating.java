@@ -1,6 +1,7 @@
 package com.winlator.widget;
 
 import android.content.Context;
+import android.os.Process;
 import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.view.LayoutInflater;
@@ -8,6 +9,12 @@ import android.view.View;
 import android.widget.FrameLayout;
 import android.widget.TextView;
 
+import com.winlator.core.ProcessTable;
+import com.winlator.metrics.Histogram;
+import com.winlator.metrics.MetricsRecorder;
+import com.winlator.metrics.MetricsRegistry;
+import com.winlator.renderer.StagingRing;
+import com.winlator.renderer.Texture;
 import com.winlator.xenvironment.ImageFs;
 
 import app.gamenative.R;
@@ -37,6 +44,24 @@ public class FrameRating extends FrameLayout implements Runnable {
     private long lastReadingTime = 0;
     private long fpsSum = 0; // Sum of all FPS readings for average calculation
 
+    // Frame time tracking, to see the effect of renderer changes beyond the FPS average
+    private static final long SLOW_FRAME_NS = 33_333_333L;
+    private long lastFrameTimeNs = 0;
+    private long frameTimeSumNs = 0;
+    private long maxFrameTimeNs = 0;
+    private int frameTimeCount = 0;
+    private int slowFrameCount = 0;
+    private static final Histogram frameTimeHistogram = MetricsRegistry.get().histogram("hud.frame_ns");
+
+    // One sample per second of every published metric, for the session export and the HUD.
+    // Runs only while the HUD is shown or recording was asked for, since it turns on the hot-path metrics.
+    private final MetricsRecorder metricsRecorder = new MetricsRecorder(MetricsRegistry.get(), 1000, 3600);
+    // CPU and memory of the guest processes, read from /proc into the same recorder
+    private final ProcessTable.Sampler processSampler = new ProcessTable.Sampler(ProcessTable.get(), MetricsRegistry.get(), Process.myUid(), Process.myPid(), 1000);
+    private boolean recordMetrics = false;
+    private boolean hudVisible = false;
+    private boolean sessionEnded = false;
+
     public FrameRating(Context context) {
         this(context, null);
     }
@@ -53,7 +78,46 @@ public class FrameRating extends FrameLayout implements Runnable {
         addView(view);
     }
 
+    /** Keeps the recorder and process sampler running for the whole session, not only while the HUD is shown. */
+    public void setRecordMetrics(boolean recordMetrics) {
+        this.recordMetrics = recordMetrics;
+        updateSampling();
+    }
+
+    @Override
+    public void onVisibilityAggregated(boolean isVisible) {
+        super.onVisibilityAggregated(isVisible);
+        hudVisible = isVisible;
+        updateSampling();
+    }
+
+    private void updateSampling() {
+        if (!sessionEnded && (recordMetrics || hudVisible)) {
+            metricsRecorder.start();
+            processSampler.start();
+        }
+        else {
+            processSampler.stop();
+            metricsRecorder.stop();
+        }
+    }
+
+    public MetricsRecorder getMetricsRecorder() {
+        return metricsRecorder;
+    }
+
     public void update() {
+        long timeNs = SystemClock.elapsedRealtimeNanos();
+        if (lastFrameTimeNs != 0) {
+            long frameTimeNs = timeNs - lastFrameTimeNs;
+            if (MetricsRegistry.get().isEnabled()) frameTimeHistogram.record(frameTimeNs);
+            frameTimeSumNs += frameTimeNs;
+            frameTimeCount++;
+            if (frameTimeNs > maxFrameTimeNs) maxFrameTimeNs = frameTimeNs;
+            if (frameTimeNs > SLOW_FRAME_NS) slowFrameCount++;
+        }
+        lastFrameTimeNs = timeNs;
+
         if (lastTime == 0) {
             lastTime = SystemClock.elapsedRealtime();
             sessionStartTime = SystemClock.elapsedRealtime();
@@ -92,12 +156,20 @@ public class FrameRating extends FrameLayout implements Runnable {
         return (float) fpsSum / readingCount;
     }
 
+    public float getAvgFrameTimeMs() {
+        if (frameTimeCount == 0) return 0;
+        return frameTimeSumNs / 1_000_000.0f / frameTimeCount;
+    }
+
     public float getSessionLengthSec() {
         if (sessionStartTime == 0) return 0;
         return (SystemClock.elapsedRealtime() - sessionStartTime) / 1000.0f;
     }
 
     public void writeSessionSummary() {
+        sessionEnded = true;
+        updateSampling();
+        writeMetrics();
         if (readingCount == 0) return;
 
         final long sessionLengthMs = sessionStartTime > 0 ?
@@ -106,6 +178,10 @@ public class FrameRating extends FrameLayout implements Runnable {
         final int max = maxFPS;
         final int min = minFPS == Integer.MAX_VALUE ? 0 : minFPS;
         final float avgFPS = (float) fpsSum / readingCount;
+        final float avgFrameMs = getAvgFrameTimeMs();
+        final float maxFrameMs = maxFrameTimeNs / 1_000_000.0f;
+        final int slowFrames = slowFrameCount;
+        final StagingRing.Stats uploads = Texture.getStreamingStats();
 
         Context context = getContext();
         ImageFs imageFs = ImageFs.find(context);
@@ -130,9 +206,20 @@ public class FrameRating extends FrameLayout implements Runnable {
                     "  \"avg_fps\": %.1f,\n" +
                     "  \"max_fps\": %d,\n" +
                     "  \"min_fps\": %d,\n" +
-                    "  \"readings\": %d\n" +
+                    "  \"readings\": %d,\n" +
+                    "  \"avg_frame_ms\": %.2f,\n" +
+                    "  \"max_frame_ms\": %.2f,\n" +
+                    "  \"slow_frames\": %d,\n" +
+                    "  \"texture_uploads\": {\n" +
+                    "    \"staged_frames\": %d,\n" +
+                    "    \"staged_bytes\": %d,\n" +
+                    "    \"stalls\": %d,\n" +
+                    "    \"avg_snapshot_us\": %d,\n" +
+                    "    \"avg_upload_us\": %d\n" +
+                    "  }\n" +
                     "}\n",
-                    sessionLengthSec, avgFPS, max, min, readingCount);
+                    sessionLengthSec, avgFPS, max, min, readingCount, avgFrameMs, maxFrameMs, slowFrames,
+                    uploads.getStagedFrames(), uploads.getStagedBytes(), uploads.getStalls(), uploads.getAvgSnapshotMicros(), uploads.getAvgUploadMicros());
                 try (FileWriter fw = new FileWriter(fpsLogFile, false)) {
                     fw.write(json);
                     fw.flush();
@@ -146,6 +233,22 @@ public class FrameRating extends FrameLayout implements Runnable {
         });
     }
 
+    private void writeMetrics() {
+        if (metricsRecorder.getSampleCount() == 0) return;
+        File tmpDir = ImageFs.find(getContext()).getTmpDir();
+        ExecutorService fileWriteExecutor = Executors.newSingleThreadExecutor();
+        fileWriteExecutor.execute(() -> {
+            try {
+                metricsRecorder.export(tmpDir, "metrics_session");
+                Timber.d("Session metrics written to: %s", tmpDir.getAbsolutePath());
+            } catch (IOException e) {
+                Timber.e(e, "Failed to write session metrics");
+            } finally {
+                fileWriteExecutor.shutdown();
+            }
+        });
+    }
+
     @Override
     public void run() {
         if (getVisibility() == GONE) setVisibility(View.VISIBLE);
@@ -34,6 +34,9 @@ public class TouchpadView extends View implements View.OnCapturedPointerListener
     public static final byte CURSOR_ACCELERATION_THRESHOLD = 6;
     private Finger fingerPointerButtonLeft;
     private Finger fingerPointerButtonRight;
+    // Injected input reaches the pointer asynchronously, so what this view pressed is tracked here
+    private boolean pointerButtonLeftPressed;
+    private boolean pointerButtonRightPressed;
     private final Finger[] fingers;
     private Runnable fourFingersTapCallback;
     private boolean moveCursorToTouchpoint;
@@ -367,6 +370,8 @@ public class TouchpadView extends View implements View.OnCapturedPointerListener
                     xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_LEFT);
                     xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_RIGHT);
                 }
+                pointerButtonLeftPressed = pointerButtonRightPressed = false;
+                fingerPointerButtonLeft = fingerPointerButtonRight = null;
                 break;
         }
         return true;
@@ -504,7 +509,7 @@ public class TouchpadView extends View implements View.OnCapturedPointerListener
                         this.scrollAccumY = 0.0f;
                     }
                     scrolling = true;
-                } else if (currDistance >= MAX_TWO_FINGERS_SCROLL_DISTANCE && !this.xServer.pointer.isButtonPressed(Pointer.Button.BUTTON_LEFT) && finger2.travelDistance() < MAX_TAP_TRAVEL_DISTANCE) {
+                } else if (currDistance >= MAX_TWO_FINGERS_SCROLL_DISTANCE && !this.pointerButtonLeftPressed && finger2.travelDistance() < MAX_TAP_TRAVEL_DISTANCE) {
                     pressPointerButtonLeft(finger1);
                     skipPointerMove = true;
                 }
@@ -538,41 +543,37 @@ public class TouchpadView extends View implements View.OnCapturedPointerListener
     }
 
     private void pressPointerButtonLeft(Finger finger) {
-        if (isEnabled() && this.pointerButtonLeftEnabled) {
-            Pointer pointer = this.xServer.pointer;
-            Pointer.Button button = Pointer.Button.BUTTON_LEFT;
-            if (!pointer.isButtonPressed(button)) {
-                this.xServer.injectPointerButtonPress(button);
-                this.fingerPointerButtonLeft = finger;
-            }
+        if (isEnabled() && this.pointerButtonLeftEnabled && !this.pointerButtonLeftPressed) {
+            this.xServer.injectPointerButtonPress(Pointer.Button.BUTTON_LEFT);
+            this.pointerButtonLeftPressed = true;
+            this.fingerPointerButtonLeft = finger;
         }
     }
 
     private void pressPointerButtonRight(Finger finger) {
-        if (isEnabled() && this.pointerButtonRightEnabled) {
-            Pointer pointer = this.xServer.pointer;
-            Pointer.Button button = Pointer.Button.BUTTON_RIGHT;
-            if (!pointer.isButtonPressed(button)) {
-                this.xServer.injectPointerButtonPress(button);
-                this.fingerPointerButtonRight = finger;
-            }
+        if (isEnabled() && this.pointerButtonRightEnabled && !this.pointerButtonRightPressed) {
+            this.xServer.injectPointerButtonPress(Pointer.Button.BUTTON_RIGHT);
+            this.pointerButtonRightPressed = true;
+            this.fingerPointerButtonRight = finger;
         }
     }
 
     private void releasePointerButtonLeft(Finger finger) {
-        if (isEnabled() && this.pointerButtonLeftEnabled && finger == this.fingerPointerButtonLeft && this.xServer.pointer.isButtonPressed(Pointer.Button.BUTTON_LEFT)) {
+        if (isEnabled() && this.pointerButtonLeftEnabled && finger == this.fingerPointerButtonLeft && this.pointerButtonLeftPressed) {
+            fingerPointerButtonLeft = null;
             postDelayed(() -> {
                 xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_LEFT);
-                fingerPointerButtonLeft = null;
+                pointerButtonLeftPressed = false;
             }, 30);
         }
     }
 
     private void releasePointerButtonRight(Finger finger) {
-        if (isEnabled() && this.pointerButtonRightEnabled && finger == this.fingerPointerButtonRight && this.xServer.pointer.isButtonPressed(Pointer.Button.BUTTON_RIGHT)) {
+        if (isEnabled() && this.pointerButtonRightEnabled && finger == this.fingerPointerButtonRight && this.pointerButtonRightPressed) {
+            fingerPointerButtonRight = null;
             postDelayed(() -> {
                 xServer.injectPointerButtonRelease(Pointer.Button.BUTTON_RIGHT);
-                fingerPointerButtonRight = null;
+                pointerButtonRightPressed = false;
             }, 30);
         }
     }
@@ -18,6 +18,10 @@ import com.winlator.inputcontrols.ExternalController;
 import com.winlator.inputcontrols.GamepadState;
 import com.winlator.inputcontrols.TouchMouse;
 import com.winlator.math.XForm;
+import com.winlator.metrics.Counter;
+import com.winlator.metrics.Gauge;
+import com.winlator.metrics.Histogram;
+import com.winlator.metrics.MetricsRegistry;
 import com.winlator.widget.InputControlsView;
 import com.winlator.widget.XServerView;
 import com.winlator.xserver.Pointer;
@@ -50,6 +54,10 @@ import timber.log.Timber;
 public class WinHandler {
 
     private static final String TAG = "WinHandler";
+    private static final Counter packetsSent = MetricsRegistry.get().counter("winhandler.packets_sent");
+    private static final Counter requestCount = MetricsRegistry.get().counter("winhandler.requests");
+    private static final Histogram requestTime = MetricsRegistry.get().histogram("winhandler.request_ns");
+    private static final Gauge pendingActions = MetricsRegistry.get().gauge("winhandler.pending_actions");
     private final ControllerManager controllerManager;
     public static final int MAX_PLAYERS = 1;
     private final MappedByteBuffer[] extraGamepadBuffers = new MappedByteBuffer[MAX_PLAYERS - 1];
@@ -153,6 +161,7 @@ public class WinHandler {
             this.sendPacket.setAddress(this.localhost);
             this.sendPacket.setPort(port);
             this.socket.send(this.sendPacket);
+            if (MetricsRegistry.get().isEnabled()) packetsSent.increment();
             return true;
         } catch (IOException e) {
             return false;
@@ -165,6 +174,7 @@ public class WinHandler {
             sendPacket.setAddress(this.localhost);
             sendPacket.setPort(port);
             this.socket.send(sendPacket);
+            if (MetricsRegistry.get().isEnabled()) packetsSent.increment();
             return true;
         } catch (IOException e) {
             return false;
@@ -311,6 +321,7 @@ public class WinHandler {
     private void addAction(Runnable action) {
         synchronized (this.actions) {
             this.actions.add(action);
+            pendingActions.set(this.actions.size());
             this.actions.notify();
         }
     }
@@ -332,6 +343,7 @@ public class WinHandler {
                     while (this.initReceived && !this.actions.isEmpty()) {
                         this.actions.poll().run();
                     }
+                    pendingActions.set(this.actions.size());
                     try {
                         this.actions.wait();
                     } catch (InterruptedException e) {
@@ -559,7 +571,13 @@ public class WinHandler {
                     synchronized (this.actions) {
                         this.receiveData.rewind();
                         byte requestCode = this.receiveData.get();
+                        boolean recordMetrics = MetricsRegistry.get().isEnabled();
+                        long startTime = recordMetrics ? System.nanoTime() : 0;
                         handleRequest(requestCode, this.receivePacket.getPort());
+                        if (recordMetrics) {
+                            requestTime.record(System.nanoTime() - startTime);
+                            requestCount.increment();
+                        }
                     }
                 }
             } catch (IOException e) {
@@ -5,6 +5,7 @@ import android.util.SparseArray;
 import androidx.annotation.Keep;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 public class XConnectorEpoll implements Runnable {
     private final ConnectionHandler connectionHandler;
@@ -20,6 +21,10 @@ public class XConnectorEpoll implements Runnable {
     private int initialInputBufferCapacity = 128;
     private int initialOutputBufferCapacity = 128;
     private final SparseArray<Client> connectedClients = new SparseArray<>();
+    private int wakeUpFd = -1;
+    private Runnable wakeUpHandler;
+    private final ByteBuffer wakeUpSignal = ByteBuffer.allocateDirect(8).order(ByteOrder.nativeOrder());
+    private final ByteBuffer wakeUpDrain = ByteBuffer.allocateDirect(8);
 
     private native boolean addFdToEpoll(int i, int i2);
 
@@ -124,6 +129,10 @@ public class XConnectorEpoll implements Runnable {
 
     @Keep
     private void handleExistingConnection(int fd) {
+        if (fd == this.wakeUpFd) {
+            handleWakeUp();
+            return;
+        }
         Client client = this.connectedClients.get(fd);
         if (client == null) {
             return;
@@ -175,11 +184,39 @@ public class XConnectorEpoll implements Runnable {
         this.connectedClients.remove(client.clientSocket.fd);
     }
 
+    public int getConnectedClientCount() {
+        return this.connectedClients.size();
+    }
+
+    /**
+     * Waits for every client to disconnect, for when the processes behind them were just killed and
+     * the epoll thread has yet to notice. Returns false if some are still connected after the timeout.
+     */
+    public boolean awaitNoClients(long timeoutMillis) {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (getConnectedClientCount() > 0) {
+            if (System.currentTimeMillis() >= deadline) return false;
+            try {
+                Thread.sleep(10);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void shutdown() {
         while (this.connectedClients.size() > 0) {
             Client client = this.connectedClients.valueAt(this.connectedClients.size() - 1);
             killConnection(client);
         }
+        if (this.wakeUpFd >= 0) {
+            removeFdFromEpoll(this.epollFd, this.wakeUpFd);
+            closeFd(this.wakeUpFd);
+            this.wakeUpFd = -1;
+        }
         removeFdFromEpoll(this.epollFd, this.serverFd);
         removeFdFromEpoll(this.epollFd, this.shutdownFd);
         closeFd(this.serverFd);
@@ -211,6 +248,51 @@ public class XConnectorEpoll implements Runnable {
         this.canReceiveAncillaryMessages = canReceiveAncillaryMessages;
     }
 
+    /**
+     * Installs a handler that runs on the epoll thread every time {@link #wakeUp()} is called.
+     * Must be called before {@link #start()}.
+     */
+    public synchronized void setWakeUpHandler(Runnable wakeUpHandler) {
+        if (this.wakeUpFd < 0) {
+            int createEventFd = createEventFd();
+            if (createEventFd < 0 || !addFdToEpoll(this.epollFd, createEventFd)) {
+                if (createEventFd >= 0) closeFd(createEventFd);
+                throw new RuntimeException("Failed to add wake-up fd to epoll.");
+            }
+            this.wakeUpFd = createEventFd;
+        }
+        this.wakeUpHandler = wakeUpHandler;
+    }
+
+    /**
+     * Signals the epoll thread to run the wake-up handler. Several wake-ups issued before the thread
+     * gets to it are folded into a single call, the eventfd counter is consumed as a whole.
+     */
+    public void wakeUp() {
+        synchronized (wakeUpSignal) {
+            try {
+                wakeUpSignal.clear();
+                wakeUpSignal.putLong(0, 1L);
+                new ClientSocket(this.wakeUpFd).write(wakeUpSignal);
+            }
+            catch (IOException e) {
+                Log.e("XConnectorEpoll", "Failed to signal wake-up: " + e);
+            }
+        }
+    }
+
+    private void handleWakeUp() {
+        try {
+            wakeUpDrain.clear();
+            new ClientSocket(this.wakeUpFd).read(wakeUpDrain);
+        }
+        catch (IOException e) {
+            // Counter was already consumed
+        }
+        Runnable handler = this.wakeUpHandler;
+        if (handler != null) handler.run();
+    }
+
     private void requestShutdown() {
         try {
             ByteBuffer data = ByteBuffer.allocateDirect(8);
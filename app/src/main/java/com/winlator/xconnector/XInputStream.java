@@ -63,6 +63,17 @@ public class XInputStream {
         if (activeBuffer != null) activeBuffer.order(byteOrder);
     }
 
+    public ByteOrder getByteOrder() {
+        return buffer.order();
+    }
+
+    /** Copies dst.length bytes starting at position of the active buffer without consuming them. */
+    public void copy(int position, byte[] dst) {
+        ByteBuffer bytes = activeBuffer.duplicate();
+        bytes.position(position);
+        bytes.get(dst);
+    }
+
     public int getActivePosition() {
         return activeBuffer.position();
     }
@@ -11,15 +11,34 @@ public class XOutputStream {
     private static final byte[] ZERO = new byte[64];
     public ByteBuffer buffer;
     public final ClientSocket clientSocket;
+    private final Sink sink;
     private final ReentrantLock lock = new ReentrantLock();
+    private final OutputStreamLock streamLock = new OutputStreamLock();
     private int ancillaryFd = -1;
+    private long bytesWritten = 0;
 
-    public XOutputStream(int initialCapacity) {
-        this(null, initialCapacity);
+    /** Receives every flushed buffer, along with the file descriptor to pass with it or -1. */
+    public interface Sink {
+        void write(ByteBuffer data, int ancillaryFd) throws IOException;
     }
 
     public XOutputStream(ClientSocket clientSocket, int initialCapacity) {
+        this(clientSocket, (data, ancillaryFd) -> {
+            if (ancillaryFd != -1) {
+                clientSocket.sendAncillaryMsg(data, ancillaryFd);
+            }
+            else clientSocket.write(data);
+        }, initialCapacity);
+    }
+
+    /** Writes to sink instead of a client socket, e.g. to capture the bytes a client would receive. */
+    public XOutputStream(Sink sink, int initialCapacity) {
+        this(null, sink, initialCapacity);
+    }
+
+    private XOutputStream(ClientSocket clientSocket, Sink sink, int initialCapacity) {
         this.clientSocket = clientSocket;
+        this.sink = sink;
         buffer = ByteBuffer.allocateDirect(initialCapacity);
     }
 
@@ -80,19 +99,21 @@ public class XOutputStream {
     private void flush() throws IOException {
         if (buffer.position() != 0) {
             buffer.flip();
-
-            if (ancillaryFd != -1) {
-                clientSocket.sendAncillaryMsg(buffer, ancillaryFd);
-                ancillaryFd = -1;
-            }
-            else clientSocket.write(buffer);
-
+            sink.write(buffer, ancillaryFd);
+            ancillaryFd = -1;
+            bytesWritten += buffer.limit();
             buffer.clear();
         }
     }
 
+    /** Total bytes sent to the client so far, replies and events alike. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
     public XStreamLock lock() {
-        return new OutputStreamLock();
+        lock.lock();
+        return streamLock;
     }
 
     private void ensureSpaceIsAvailable(int length) {
@@ -114,11 +135,8 @@ public class XOutputStream {
         }
     }
 
+    /** Shared by all holders; the reentrant lock tracks nesting, so one instance suffices. */
     private class OutputStreamLock implements XStreamLock {
-        public OutputStreamLock() {
-            lock.lock();
-        }
-
         @Override
         public void close() throws IOException {
             try {
@@ -6,4 +6,14 @@ public abstract class EnvironmentComponent {
     public abstract void start();
 
     public abstract void stop();
+
+    /**
+     * Called on a running component before it serves another launch, see
+     * {@link XEnvironment#relaunch(com.winlator.xenvironment.components.GuestProgramLauncherComponent)}.
+     * Drops whatever the previous launch left behind and returns true if the component is now as
+     * good as freshly started, false to have it restarted instead.
+     */
+    public boolean reset() {
+        return false;
+    }
 }
\ No newline at end of file
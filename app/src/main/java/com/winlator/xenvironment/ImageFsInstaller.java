@@ -266,7 +266,6 @@ public abstract class ImageFsInstaller {
         // PreloaderDialog preloaderDialog = new PreloaderDialog(context);
         // preloaderDialog.show(R.string.loading);
         Executors.newSingleThreadExecutor().execute(() -> {
-            File[] srcFiles, dstFiles;
             File rootDir = ImageFs.find(context).getRootDir();
             File wineSystem32Dir = new File(rootDir, "/opt/wine/lib/wine/x86_64-windows");
             File wineSysWoW64Dir = new File(rootDir, "/opt/wine/lib/wine/i386-windows");
@@ -278,32 +277,8 @@ public abstract class ImageFsInstaller {
             File containerSystem32Dir = new File(containerPatternDir, ".wine/drive_c/windows/system32");
             File containerSysWoW64Dir = new File(containerPatternDir, ".wine/drive_c/windows/syswow64");
 
-            dstFiles = containerSystem32Dir.listFiles();
-            srcFiles = wineSystem32Dir.listFiles();
-
-            ArrayList<String> system32Files = new ArrayList<>();
-            ArrayList<String> syswow64Files = new ArrayList<>();
-
-            for (File dstFile : dstFiles) {
-                for (File srcFile : srcFiles) {
-                    if (dstFile.getName().equals(srcFile.getName())) {
-                        if (FileUtils.contentEquals(srcFile, dstFile)) system32Files.add(srcFile.getName());
-                        break;
-                    }
-                }
-            }
-
-            dstFiles = containerSysWoW64Dir.listFiles();
-            srcFiles = wineSysWoW64Dir.listFiles();
-
-            for (File dstFile : dstFiles) {
-                for (File srcFile : srcFiles) {
-                    if (dstFile.getName().equals(srcFile.getName())) {
-                        if (FileUtils.contentEquals(srcFile, dstFile)) syswow64Files.add(srcFile.getName());
-                        break;
-                    }
-                }
-            }
+            ArrayList<String> system32Files = FileUtils.findIdenticalFiles(wineSystem32Dir, containerSystem32Dir);
+            ArrayList<String> syswow64Files = FileUtils.findIdenticalFiles(wineSysWoW64Dir, containerSysWoW64Dir);
 
             try {
                 JSONObject data = new JSONObject();
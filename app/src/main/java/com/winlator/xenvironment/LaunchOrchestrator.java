@@ -0,0 +1,307 @@
+package com.winlator.xenvironment;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the steps of a launch as a dependency graph: a stage starts on a small thread pool as soon as
+ * every stage it depends on has finished, so independent steps overlap. Each stage records its wall
+ * clock span and, where /proc/thread-self/io is readable, the bytes its thread read and wrote. The
+ * result can be written as a Chrome trace (chrome://tracing, Perfetto).
+ *
+ * Dependencies must be added before the stages that name them, which keeps the graph acyclic. A
+ * stage that throws skips everything depending on it; run() rethrows the first failure once the rest
+ * of the graph is done.
+ */
+public class LaunchOrchestrator {
+    private static final File THREAD_IO_FILE = new File("/proc/thread-self/io");
+
+    public interface Action {
+        void run() throws Exception;
+    }
+
+    public static class Stage {
+        public final String name;
+        private final List<String> dependencies;
+        private final Action action;
+        private final ArrayList<Stage> dependents = new ArrayList<>();
+        private int pendingDependencies;
+        private long startTime;
+        private long endTime;
+        private long bytesRead = -1;
+        private long bytesWritten = -1;
+        private long threadId;
+        private String threadName = "";
+        private Throwable error;
+        private boolean skipped;
+
+        private Stage(String name, List<String> dependencies, Action action) {
+            this.name = name;
+            this.dependencies = dependencies;
+            this.action = action;
+        }
+
+        public List<String> getDependencies() {
+            return dependencies;
+        }
+
+        /** System.nanoTime() when the stage started, 0 if it never ran. */
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getEndTime() {
+            return endTime;
+        }
+
+        public long getDurationNanos() {
+            return endTime - startTime;
+        }
+
+        /** Bytes read by the stage's thread, or -1 if unknown. */
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSkipped() {
+            return skipped;
+        }
+    }
+
+    private final LinkedHashMap<String, Stage> stages = new LinkedHashMap<>();
+    private final int numThreads;
+    private long startTime;
+    private long endTime;
+
+    public LaunchOrchestrator() {
+        this(Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    }
+
+    public LaunchOrchestrator(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    public LaunchOrchestrator addStage(String name, Action action) {
+        return addStage(name, Collections.emptyList(), action);
+    }
+
+    public LaunchOrchestrator addStage(String name, List<String> dependencies, Action action) {
+        if (stages.containsKey(name)) throw new IllegalArgumentException("Duplicate stage "+name);
+        Stage stage = new Stage(name, new ArrayList<>(dependencies), action);
+        for (String dependency : dependencies) {
+            Stage parent = stages.get(dependency);
+            if (parent == null) throw new IllegalArgumentException("Stage "+name+" depends on unknown stage "+dependency);
+            parent.dependents.add(stage);
+        }
+        stage.pendingDependencies = dependencies.size();
+        stages.put(name, stage);
+        return this;
+    }
+
+    public boolean hasStage(String name) {
+        return stages.containsKey(name);
+    }
+
+    public List<Stage> getStages() {
+        return new ArrayList<>(stages.values());
+    }
+
+    public Stage getStage(String name) {
+        return stages.get(name);
+    }
+
+    /** Runs every stage and waits for all of them. Can only be called once. */
+    public void run() {
+        final CountDownLatch done = new CountDownLatch(stages.size());
+        final AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(numThreads, stages.size())), (runnable) -> {
+            Thread thread = new Thread(runnable, "LaunchStage-"+threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        startTime = System.nanoTime();
+        try {
+            synchronized (this) {
+                for (Stage stage : stages.values()) {
+                    if (stage.pendingDependencies == 0) submit(executor, stage, done);
+                }
+            }
+            done.await();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            executor.shutdown();
+            endTime = System.nanoTime();
+        }
+
+        for (Stage stage : stages.values()) {
+            if (stage.error instanceof RuntimeException) throw (RuntimeException)stage.error;
+            if (stage.error instanceof Error) throw (Error)stage.error;
+            if (stage.error != null) throw new RuntimeException("Launch stage "+stage.name+" failed", stage.error);
+        }
+    }
+
+    private void submit(ExecutorService executor, Stage stage, CountDownLatch done) {
+        executor.execute(() -> {
+            long[] io = new long[2];
+            boolean hasIo = readThreadIo(io);
+            Thread thread = Thread.currentThread();
+            stage.threadId = thread.getId();
+            stage.threadName = thread.getName();
+            stage.startTime = System.nanoTime();
+            try {
+                stage.action.run();
+            }
+            catch (Throwable e) {
+                stage.error = e;
+            }
+            stage.endTime = System.nanoTime();
+            long[] ioAfter = new long[2];
+            if (hasIo && readThreadIo(ioAfter)) {
+                stage.bytesRead = ioAfter[0] - io[0];
+                stage.bytesWritten = ioAfter[1] - io[1];
+            }
+            finish(executor, stage, done);
+        });
+    }
+
+    private synchronized void finish(ExecutorService executor, Stage stage, CountDownLatch done) {
+        for (Stage dependent : stage.dependents) {
+            if (stage.error != null || stage.skipped) dependent.skipped = true;
+            if (--dependent.pendingDependencies > 0) continue;
+            if (dependent.skipped) {
+                finish(executor, dependent, done);
+            }
+            else submit(executor, dependent, done);
+        }
+        done.countDown();
+    }
+
+    /** Reads rchar and wchar of the calling thread, which count page cache hits as well as disk I/O. */
+    static boolean readThreadIo(long[] io) {
+        try (BufferedReader reader = new BufferedReader(new FileReader(THREAD_IO_FILE))) {
+            int found = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith("rchar:")) {
+                    io[0] = Long.parseLong(line.substring(6).trim());
+                    found++;
+                }
+                else if (line.startsWith("wchar:")) {
+                    io[1] = Long.parseLong(line.substring(6).trim());
+                    found++;
+                }
+            }
+            return found == 2;
+        }
+        catch (IOException | NumberFormatException e) {
+            return false;
+        }
+    }
+
+    public long getWallNanos() {
+        return endTime - startTime;
+    }
+
+    /** What the launch would have taken with every stage run one after the other. */
+    public long getSerialNanos() {
+        long total = 0;
+        for (Stage stage : stages.values()) total += stage.getDurationNanos();
+        return total;
+    }
+
+    /** The chain of dependent stages with the longest total duration, first stage first. */
+    public List<Stage> getCriticalPath() {
+        LinkedHashMap<String, Long> pathNanos = new LinkedHashMap<>();
+        LinkedHashMap<String, Stage> previous = new LinkedHashMap<>();
+        Stage last = null;
+        // Stages are in dependency order, so every dependency is resolved before its dependents
+        for (Stage stage : stages.values()) {
+            Stage longestDependency = null;
+            for (String dependency : stage.dependencies) {
+                if (longestDependency == null || pathNanos.get(dependency) > pathNanos.get(longestDependency.name)) {
+                    longestDependency = stages.get(dependency);
+                }
+            }
+            long longest = longestDependency != null ? pathNanos.get(longestDependency.name) : 0;
+            pathNanos.put(stage.name, longest + stage.getDurationNanos());
+            previous.put(stage.name, longestDependency);
+            if (last == null || pathNanos.get(stage.name) > pathNanos.get(last.name)) last = stage;
+        }
+
+        ArrayList<Stage> path = new ArrayList<>();
+        for (Stage stage = last; stage != null; stage = previous.get(stage.name)) path.add(0, stage);
+        return path;
+    }
+
+    public long getCriticalPathNanos() {
+        long total = 0;
+        for (Stage stage : getCriticalPath()) total += stage.getDurationNanos();
+        return total;
+    }
+
+    /** Writes the stages as complete ("X") events of the Chrome trace event format. */
+    public static void writeTrace(Writer writer, LaunchOrchestrator... orchestrators) throws IOException {
+        writer.write("{\"traceEvents\": [");
+        boolean first = true;
+        for (LaunchOrchestrator orchestrator : orchestrators) {
+            if (orchestrator == null) continue;
+            for (Stage stage : orchestrator.stages.values()) {
+                if (stage.startTime == 0) continue;
+                writer.write(String.format(Locale.ENGLISH, "%s\n  {\"name\": \"%s\", \"ph\": \"X\", \"pid\": 1, \"tid\": %d, \"ts\": %d, \"dur\": %d, \"args\": {\"thread\": \"%s\", \"bytes_read\": %d, \"bytes_written\": %d, \"failed\": %b}}",
+                    first ? "" : ",", stage.name, stage.threadId, stage.startTime / 1000, stage.getDurationNanos() / 1000,
+                    stage.threadName, stage.bytesRead, stage.bytesWritten, stage.error != null));
+                first = false;
+            }
+        }
+        writer.write("\n]}\n");
+        writer.flush();
+    }
+
+    public static void writeTrace(File file, LaunchOrchestrator... orchestrators) throws IOException {
+        try (FileWriter writer = new FileWriter(file, false)) {
+            writeTrace(writer, orchestrators);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ENGLISH, "wall=%dms serial=%dms critical_path=%dms", getWallNanos() / 1000000, getSerialNanos() / 1000000, getCriticalPathNanos() / 1000000));
+        for (Stage stage : stages.values()) {
+            sb.append(String.format(Locale.ENGLISH, "\n  %-24s +%5dms %5dms", stage.name, stage.startTime > 0 ? (stage.startTime - startTime) / 1000000 : 0, stage.getDurationNanos() / 1000000));
+            if (stage.bytesRead >= 0) sb.append(" read=").append(stage.bytesRead).append(" written=").append(stage.bytesWritten);
+            if (stage.skipped) sb.append(" skipped");
+            if (stage.error != null) sb.append(" failed: ").append(stage.error);
+        }
+        return sb.toString();
+    }
+}
@@ -1,22 +1,32 @@
 package com.winlator.xenvironment;
 
 import android.content.Context;
+import android.util.Log;
 
 import com.winlator.core.FileUtils;
+import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xenvironment.components.BionicProgramLauncherComponent;
 import com.winlator.xenvironment.components.GlibcProgramLauncherComponent;
 import com.winlator.xenvironment.components.GuestProgramLauncherComponent;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 
 public class XEnvironment implements Iterable<EnvironmentComponent> {
+    private static final String[] SOCKET_PATHS = {
+        UnixSocketConfig.SYSVSHM_SERVER_PATH, UnixSocketConfig.ALSA_SERVER_PATH, UnixSocketConfig.PULSE_SERVER_PATH,
+        UnixSocketConfig.XSERVER_PATH, UnixSocketConfig.VIRGL_SERVER_PATH, UnixSocketConfig.VORTEK_SERVER_PATH
+    };
     private final Context context;
     private final ImageFs imageFs;
     private final ArrayList<EnvironmentComponent> components = new ArrayList<>();
 
     private boolean winetricksRunning = false;
+    private LaunchOrchestrator componentLaunch;
+    private String configKey = "";
+    private boolean standby = false;
 
     public synchronized boolean isWinetricksRunning() {
         return winetricksRunning;
@@ -65,12 +75,124 @@ public class XEnvironment implements Iterable<EnvironmentComponent> {
         return tmpDir;
     }
 
+    /**
+     * Starts the servers side by side, then the guest program launchers once every server socket
+     * is in place.
+     */
     public void startEnvironmentComponents() {
         FileUtils.clear(getTmpDir(getContext()));
-        for (EnvironmentComponent environmentComponent : this) environmentComponent.start();
+        LaunchOrchestrator orchestrator = new LaunchOrchestrator();
+        ArrayList<String> servers = new ArrayList<>();
+        for (EnvironmentComponent component : components) {
+            if (component instanceof GuestProgramLauncherComponent) continue;
+            String name = getStageName(orchestrator, component);
+            orchestrator.addStage(name, component::start);
+            servers.add(name);
+        }
+        for (EnvironmentComponent component : components) {
+            if (!(component instanceof GuestProgramLauncherComponent)) continue;
+            orchestrator.addStage(getStageName(orchestrator, component), servers, component::start);
+        }
+
+        componentLaunch = orchestrator;
+        orchestrator.run();
+        Log.d("XEnvironment", "Started components: " + orchestrator);
+    }
+
+    private static String getStageName(LaunchOrchestrator orchestrator, EnvironmentComponent component) {
+        String name = component.getClass().getSimpleName();
+        for (int i = 2; orchestrator.hasStage(name); i++) name = component.getClass().getSimpleName() + "#" + i;
+        return name;
+    }
+
+    /** Timings of the last startEnvironmentComponents() or relaunch(), null before either ran. */
+    public LaunchOrchestrator getComponentLaunch() {
+        return componentLaunch;
+    }
+
+    public String getConfigKey() {
+        return configKey;
+    }
+
+    /** Identifies the settings the components were created with, see {@link #canRelaunch(String)}. */
+    public void setConfigKey(String configKey) {
+        this.configKey = configKey;
+    }
+
+    public synchronized boolean isStandby() {
+        return standby;
+    }
+
+    /**
+     * Ends the current launch without tearing the environment down: the guest program launchers
+     * are stopped and removed, everything else keeps running until {@link #relaunch} or
+     * {@link #stopEnvironmentComponents()}.
+     */
+    public synchronized void standby() {
+        Iterator<EnvironmentComponent> iterator = components.iterator();
+        while (iterator.hasNext()) {
+            EnvironmentComponent component = iterator.next();
+            if (component instanceof GuestProgramLauncherComponent) {
+                component.stop();
+                iterator.remove();
+            }
+        }
+        standby = true;
+    }
+
+    /** Whether a launch whose components would be created with the given settings can reuse this environment. */
+    public synchronized boolean canRelaunch(String configKey) {
+        return standby && this.configKey.equals(configKey);
+    }
+
+    /**
+     * Starts the next launch in an environment on standby. The tmp dirs are cleared except for the
+     * sockets the servers listen on, each component is reset in place, or restarted when its reset
+     * reports leftovers, and the launcher starts once all of them are ready.
+     */
+    public void relaunch(GuestProgramLauncherComponent launcher) {
+        synchronized (this) {
+            if (!standby) throw new IllegalStateException("Environment is not on standby");
+            standby = false;
+        }
+        clearTmpDirs();
+
+        LaunchOrchestrator orchestrator = new LaunchOrchestrator();
+        ArrayList<String> servers = new ArrayList<>();
+        for (EnvironmentComponent component : components) {
+            String name = getStageName(orchestrator, component);
+            orchestrator.addStage(name, () -> {
+                if (!component.reset()) {
+                    Log.d("XEnvironment", "Restarting " + name + " for relaunch");
+                    component.stop();
+                    component.start();
+                }
+            });
+            servers.add(name);
+        }
+        addComponent(launcher);
+        orchestrator.addStage(getStageName(orchestrator, launcher), servers, launcher::start);
+
+        componentLaunch = orchestrator;
+        orchestrator.run();
+        Log.d("XEnvironment", "Relaunched components: " + orchestrator);
+    }
+
+    private void clearTmpDirs() {
+        FileUtils.clear(getTmpDir(getContext()));
+        HashSet<String> socketDirs = new HashSet<>();
+        for (String path : SOCKET_PATHS) socketDirs.add(path.split("/")[2]);
+        File[] files = imageFs.getTmpDir().listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!socketDirs.contains(file.getName())) FileUtils.delete(file);
+        }
     }
 
     public void stopEnvironmentComponents() {
+        synchronized (this) {
+            standby = false;
+        }
         for (EnvironmentComponent environmentComponent : this) environmentComponent.stop();
     }
 
@@ -43,4 +43,9 @@ public class ALSAServerComponent extends EnvironmentComponent {
             this.connector = null;
         }
     }
+
+    @Override // com.winlator.xenvironment.EnvironmentComponent
+    public boolean reset() {
+        return this.connector != null && this.connector.awaitNoClients(XServerComponent.CLIENT_DISCONNECT_TIMEOUT);
+    }
 }
@@ -110,6 +110,8 @@ public class BionicProgramLauncherComponent extends GuestProgramLauncherComponen
                 Log.d("BionicProgramLauncherComponent", "Stopped process " + pid);
                 List<ProcessHelper.ProcessInfo> subProcesses = ProcessHelper.listSubProcesses();
                 for (ProcessHelper.ProcessInfo subProcess : subProcesses) {
+                    // Left running for the next launch when the environment goes on standby
+                    if (subProcess.pid == PulseAudioComponent.getDaemonPid()) continue;
                     Process.killProcess(subProcess.pid);
                 }
                 SteamService.setGameRunning(false);
@@ -89,6 +89,8 @@ public class GlibcProgramLauncherComponent extends GuestProgramLauncherComponent
                 pid = -1;
                 List<ProcessHelper.ProcessInfo> subProcesses = ProcessHelper.listSubProcesses();
                 for (ProcessHelper.ProcessInfo subProcess : subProcesses) {
+                    // Left running for the next launch when the environment goes on standby
+                    if (subProcess.pid == PulseAudioComponent.getDaemonPid()) continue;
                     Process.killProcess(subProcess.pid);
                 }
                 SteamService.setGameRunning(false);
@@ -11,6 +11,7 @@ import com.winlator.box86_64.Box86_64PresetManager;
 import com.winlator.container.Container;
 import com.winlator.core.Callback;
 import com.winlator.core.DefaultVersion;
+import com.winlator.core.ExtractionLedger;
 import com.winlator.core.FileUtils;
 import com.winlator.core.WineInfo;
 import com.winlator.core.envvars.EnvVars;
@@ -76,6 +77,8 @@ public class GuestProgramLauncherComponent extends EnvironmentComponent {
                 pid = -1;
                 List<ProcessHelper.ProcessInfo> subProcesses = ProcessHelper.listSubProcesses();
                 for (ProcessHelper.ProcessInfo subProcess : subProcesses) {
+                    // Left running for the next launch when the environment goes on standby
+                    if (subProcess.pid == PulseAudioComponent.getDaemonPid()) continue;
                     Log.d("GuestProgramLauncherComponent",
                             "Sub-process still running: "
                                     + subProcess.name + " | "
@@ -300,9 +303,10 @@ public class GuestProgramLauncherComponent extends EnvironmentComponent {
         ImageFs imageFs = environment.getImageFs();
         Context context = environment.getContext();
         PrefManager.init(context);
-        String currentBox86Version = PrefManager.getString("current_box86_version", "");
-        String currentBox64Version = PrefManager.getString("current_box64_version", "");
         File rootDir = imageFs.getRootDir();
+        // The ledger only stats the installed files when the version is unchanged; the prefs are still
+        // kept for the other launcher components that track box64 by version alone
+        ExtractionLedger ledger = ExtractionLedger.get(context);
 
         if (wow64Mode) {
             File box86File = new File(rootDir, "/usr/local/bin/box86");
@@ -310,13 +314,11 @@ public class GuestProgramLauncherComponent extends EnvironmentComponent {
                 box86File.delete();
                 PrefManager.putString("current_box86_version", "");
             }
-        } else if (!box86Version.equals(currentBox86Version)) {
-            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), "box86_64/box86-" + box86Version + ".tzst", rootDir);
+        } else if (ledger.extract(TarCompressorUtils.Type.ZSTD, context, "box86_64/box86-" + box86Version + ".tzst", rootDir, "box86").success) {
             PrefManager.putString("current_box86_version", box86Version);
         }
 
-        if (!box64Version.equals(currentBox64Version)) {
-            TarCompressorUtils.extract(TarCompressorUtils.Type.ZSTD, context.getAssets(), "box86_64/box64-" + box64Version + ".tzst", rootDir);
+        if (ledger.extract(TarCompressorUtils.Type.ZSTD, context, "box86_64/box64-" + box64Version + ".tzst", rootDir, "box64").success) {
             PrefManager.putString("current_box64_version", box64Version);
         }
     }
@@ -18,12 +18,13 @@ import java.util.List;
 
 public class NetworkInfoUpdateComponent extends EnvironmentComponent {
     private BroadcastReceiver broadcastReceiver;
+    private NetworkHelper networkHelper;
 
     @Override
     public void start() {
         Log.d("NetworkInfoUpdateComponent", "Starting...");
         Context context = environment.getContext();
-        final NetworkHelper networkHelper = new NetworkHelper(context);
+        networkHelper = new NetworkHelper(context);
         updateIFAddrsFile(networkHelper.getIFAddresses());
         updateEtcHostsFile(networkHelper.getIPv4Address());
         this.broadcastReceiver = new BroadcastReceiver() { // from class: com.winlator.xenvironment.components.NetworkInfoUpdateComponent.1
@@ -51,6 +52,15 @@ public class NetworkInfoUpdateComponent extends EnvironmentComponent {
         }
     }
 
+    @Override
+    public boolean reset() {
+        if (broadcastReceiver == null) return false;
+        // Both files live in the tmp dir, which is cleared between launches
+        updateIFAddrsFile(networkHelper.getIFAddresses());
+        updateEtcHostsFile(networkHelper.getIPv4Address());
+        return true;
+    }
+
     private void updateAdapterInfoFile(int ipAddress, int netmask, int gateway) {
         File file = new File(environment.getImageFs().getTmpDir(), "adapterinfo");
         FileUtils.writeString(file, "Android Wi-Fi Adapter,"+NetworkHelper.formatIpAddress(ipAddress)+","+NetworkHelper.formatNetmask(netmask)+","+NetworkHelper.formatIpAddress(gateway));
@@ -19,6 +19,7 @@ import java.util.ArrayList;
 public class PulseAudioComponent extends EnvironmentComponent {
     private final UnixSocketConfig socketConfig;
     private static int pid = -1;
+    private static String runningConfig;
     private static final Object lock = new Object();
     private float volume = 1.0f;
     private byte performanceMode = 1;
@@ -47,6 +48,24 @@ public class PulseAudioComponent extends EnvironmentComponent {
         }
     }
 
+    /**
+     * Keeps the daemon when it is still running with the same settings: its streams went away with
+     * the clients of the previous launch.
+     */
+    @Override
+    public boolean reset() {
+        synchronized (lock) {
+            return pid != -1 && new File("/proc/"+pid).exists() && getConfig().equals(runningConfig);
+        }
+    }
+
+    /** The pid of the running daemon, or -1. */
+    public static int getDaemonPid() {
+        synchronized (lock) {
+            return pid;
+        }
+    }
+
     public void setVolume(float volume) {
         this.volume = volume;
     }
@@ -66,11 +85,8 @@ public class PulseAudioComponent extends EnvironmentComponent {
         }
 
         File configFile = new File(workingDir, "default.pa");
-        FileUtils.writeString(configFile, String.join("\n",
-                "load-module module-native-protocol-unix auth-anonymous=1 auth-cookie-enabled=0 socket=\""+socketConfig.path+"\"",
-                "load-module module-aaudio-sink volume=" + this.volume + " performance_mode=" + ((int) this.performanceMode),
-                "set-default-sink AAudioSink"
-        ));
+        runningConfig = getConfig();
+        FileUtils.writeString(configFile, runningConfig);
 
         String archName = AppUtils.getArchName();
         File modulesDir = new File(workingDir, "modules");
@@ -93,4 +109,12 @@ public class PulseAudioComponent extends EnvironmentComponent {
 
         return ProcessHelper.exec(command, envVars.toStringArray(), workingDir);
     }
+
+    private String getConfig() {
+        return String.join("\n",
+                "load-module module-native-protocol-unix auth-anonymous=1 auth-cookie-enabled=0 socket=\""+socketConfig.path+"\"",
+                "load-module module-aaudio-sink volume=" + this.volume + " performance_mode=" + ((int) this.performanceMode),
+                "set-default-sink AAudioSink"
+        );
+    }
 }
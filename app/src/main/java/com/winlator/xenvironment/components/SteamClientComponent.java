@@ -55,6 +55,12 @@ public class SteamClientComponent extends EnvironmentComponent implements Connec
         }
     }
 
+    @Override
+    public boolean reset() {
+        // The pipe server answers every launch the same way
+        return connector != null;
+    }
+
     @Override
     public void handleNewConnection(Client client) {
         Log.d("SteamClientComponent", "New connection");
@@ -9,17 +9,26 @@ import com.winlator.xconnector.UnixSocketConfig;
 import com.winlator.xconnector.XConnectorEpoll;
 import com.winlator.xenvironment.EnvironmentComponent;
 import com.winlator.xserver.SHMSegmentManager;
+import com.winlator.xserver.XLock;
 import com.winlator.xserver.XServer;
 
 public class SysVSharedMemoryComponent extends EnvironmentComponent {
     private XConnectorEpoll connector;
     public final UnixSocketConfig socketConfig;
     private SysVSharedMemory sysVSharedMemory;
+    private SHMSegmentManager shmSegmentManager;
     private final XServer xServer;
+    private final boolean zeroCopyPutImage;
 
     public SysVSharedMemoryComponent(XServer xServer, UnixSocketConfig socketConfig) {
+        this(xServer, socketConfig, false);
+    }
+
+    /** zeroCopyPutImage lets full-frame MIT-SHM PutImage alias the segment, see SHMSegmentManager. */
+    public SysVSharedMemoryComponent(XServer xServer, UnixSocketConfig socketConfig, boolean zeroCopyPutImage) {
         this.xServer = xServer;
         this.socketConfig = socketConfig;
+        this.zeroCopyPutImage = zeroCopyPutImage;
     }
 
     @Override
@@ -30,7 +39,8 @@ public class SysVSharedMemoryComponent extends EnvironmentComponent {
         connector = new XConnectorEpoll(socketConfig, new SysVSHMConnectionHandler(sysVSharedMemory), new SysVSHMRequestHandler());
         connector.start();
 
-        xServer.setSHMSegmentManager(new SHMSegmentManager(sysVSharedMemory));
+        shmSegmentManager = new SHMSegmentManager(sysVSharedMemory, zeroCopyPutImage);
+        xServer.setSHMSegmentManager(shmSegmentManager);
     }
 
     @Override
@@ -41,6 +51,23 @@ public class SysVSharedMemoryComponent extends EnvironmentComponent {
             connector = null;
         }
 
+        if (shmSegmentManager != null) {
+            try (XLock lock = xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
+                shmSegmentManager.releaseAllAliases();
+            }
+            Log.d("SysVSharedMemoryComponent", "MIT-SHM PutImage: "+shmSegmentManager.getStats());
+        }
+
+        sysVSharedMemory.deleteAll();
+    }
+
+    @Override
+    public boolean reset() {
+        if (connector == null || !connector.awaitNoClients(XServerComponent.CLIENT_DISCONNECT_TIMEOUT)) return false;
+        try (XLock lock = xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
+            shmSegmentManager.releaseAllAliases();
+        }
         sysVSharedMemory.deleteAll();
+        return true;
     }
 }
@@ -47,6 +47,8 @@ public class VirGLRendererComponent extends EnvironmentComponent implements Conn
             connector.stop();
             connector = null;
         }
+        // Belongs to the renderer of the view it was taken from, which may not outlive this launch
+        sharedEGLContextPtr = 0;
     }
 
     @Keep
@@ -104,6 +104,11 @@ public class VortekRendererComponent extends EnvironmentComponent implements Con
         }
     }
 
+    @Override // com.winlator.xenvironment.EnvironmentComponent
+    public boolean reset() {
+        return this.connector != null && this.connector.awaitNoClients(XServerComponent.CLIENT_DISCONNECT_TIMEOUT);
+    }
+
     @Keep
     private int getWindowWidth(int windowId) {
         Window window = this.xServer.windowManager.getWindow(windowId);
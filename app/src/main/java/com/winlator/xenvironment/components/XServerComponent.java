@@ -10,6 +10,7 @@ import com.winlator.xserver.XClientRequestHandler;
 import com.winlator.xserver.XServer;
 
 public class XServerComponent extends EnvironmentComponent {
+    static final long CLIENT_DISCONNECT_TIMEOUT = 2000;
     private XConnectorEpoll connector;
     private final XServer xServer;
     private final UnixSocketConfig socketConfig;
@@ -26,18 +27,28 @@ public class XServerComponent extends EnvironmentComponent {
         connector = new XConnectorEpoll(socketConfig, new XClientConnectionHandler(xServer), new XClientRequestHandler());
         connector.setInitialInputBufferCapacity(262144);
         connector.setCanReceiveAncillaryMessages(true);
+        connector.setWakeUpHandler(xServer.inputEventQueue::drain);
         connector.start();
+        xServer.inputEventQueue.setWakeUp(connector::wakeUp);
     }
 
     @Override
     public void stop() {
         Log.d("XServerComponent", "Stopping...");
         if (connector != null) {
+            xServer.inputEventQueue.setWakeUp(null);
+            Log.d("XServerComponent", "Input queue: " + xServer.inputEventQueue.getStats());
             connector.stop();
             connector = null;
         }
     }
 
+    @Override
+    public boolean reset() {
+        if (connector == null || !connector.awaitNoClients(CLIENT_DISCONNECT_TIMEOUT)) return false;
+        return xServer.resetSession();
+    }
+
     public XServer getXServer() {
         return xServer;
     }
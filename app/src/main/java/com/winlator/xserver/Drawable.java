@@ -12,6 +12,8 @@ import java.nio.ByteOrder;
 
 public class Drawable extends XResource {
     private ByteBuffer data;
+    private ByteBuffer sharedSegment;
+    private ByteBuffer privateData;
     public final short height;
     private boolean offscreenStorage;
     private Callback<Drawable> onDestroyListener;
@@ -22,22 +24,40 @@ public class Drawable extends XResource {
     public final Visual visual;
     public final short width;
 
-    private static native void copyArea(short s, short s2, short s3, short s4, short s5, short s6, short s7, short s8, ByteBuffer byteBuffer, ByteBuffer byteBuffer2);
+    static native void copyArea(short s, short s2, short s3, short s4, short s5, short s6, short s7, short s8, ByteBuffer byteBuffer, ByteBuffer byteBuffer2);
 
-    private static native void copyAreaOp(short s, short s2, short s3, short s4, short s5, short s6, short s7, short s8, ByteBuffer byteBuffer, ByteBuffer byteBuffer2, int i);
+    static native void copyAreaOp(short s, short s2, short s3, short s4, short s5, short s6, short s7, short s8, ByteBuffer byteBuffer, ByteBuffer byteBuffer2, int i);
 
-    private static native void drawAlphaMaskedBitmap(byte b, byte b2, byte b3, byte b4, byte b5, byte b6, ByteBuffer byteBuffer, ByteBuffer byteBuffer2, ByteBuffer byteBuffer3);
+    static native void drawAlphaMaskedBitmap(byte b, byte b2, byte b3, byte b4, byte b5, byte b6, ByteBuffer byteBuffer, ByteBuffer byteBuffer2, ByteBuffer byteBuffer3);
 
-    private static native void drawBitmap(short s, short s2, ByteBuffer byteBuffer, ByteBuffer byteBuffer2);
+    static native void drawBitmap(short s, short s2, ByteBuffer byteBuffer, ByteBuffer byteBuffer2);
 
-    private static native void drawLine(short s, short s2, short s3, short s4, int i, short s5, short s6, ByteBuffer byteBuffer);
+    static native void drawLine(short s, short s2, short s3, short s4, int i, short s5, short s6, ByteBuffer byteBuffer);
 
-    private static native void fillRect(short s, short s2, short s3, short s4, int i, short s5, ByteBuffer byteBuffer);
+    static native void fillRect(short s, short s2, short s3, short s4, int i, short s5, ByteBuffer byteBuffer);
 
     private static native void fromBitmap(Bitmap bitmap, ByteBuffer byteBuffer);
 
+    private static RasterBackend rasterBackend;
+
     static {
-        System.loadLibrary("winlator_11");
+        RasterBackend backend;
+        try {
+            System.loadLibrary("winlator_11");
+            backend = "java".equals(System.getProperty("winlator.raster_backend")) ? new JavaRasterBackend() : new NativeRasterBackend();
+        }
+        catch (UnsatisfiedLinkError e) {
+            backend = new JavaRasterBackend();
+        }
+        rasterBackend = backend;
+    }
+
+    public static RasterBackend getRasterBackend() {
+        return rasterBackend;
+    }
+
+    public static void setRasterBackend(RasterBackend rasterBackend) {
+        Drawable.rasterBackend = rasterBackend;
     }
 
     public Drawable(int id, int width, int height, Visual visual) {
@@ -70,7 +90,7 @@ public class Drawable extends XResource {
     }
 
     public void setTexture(Texture texture) {
-        if (texture instanceof GPUImage) data = ((GPUImage)texture).getVirtualData();
+        if (texture instanceof GPUImage) setData(((GPUImage)texture).getVirtualData());
         this.texture = texture;
     }
 
@@ -80,6 +100,59 @@ public class Drawable extends XResource {
 
     public void setData(ByteBuffer data) {
         this.data = data;
+        sharedSegment = null;
+        privateData = null;
+    }
+
+    /**
+     * Makes the pixels of this drawable the start of an MIT-SHM segment instead of copying the image
+     * into them. Only possible when the image covers the whole drawable with the same stride. The
+     * drawable follows the segment until it is drawn to by other means or the segment is detached,
+     * so the client must not write the segment meanwhile (see the SHMSegmentManager constructor).
+     */
+    public boolean aliasSharedSegment(ByteBuffer segment, short totalWidth, short totalHeight) {
+        int size = width * height * 4;
+        if (data == null || texture instanceof GPUImage || totalWidth != width || totalHeight < height || segment.capacity() < size) {
+            return false;
+        }
+
+        if (sharedSegment != segment) {
+            ByteBuffer view = segment.duplicate();
+            view.clear();
+            view.limit(size);
+            view = view.slice().order(ByteOrder.LITTLE_ENDIAN);
+            synchronized (renderLock) {
+                if (sharedSegment == null) privateData = data;
+                sharedSegment = segment;
+                data = view;
+            }
+        }
+        forceUpdate();
+        return true;
+    }
+
+    public boolean isAliasing(ByteBuffer segment) {
+        return segment != null && sharedSegment == segment;
+    }
+
+    /**
+     * Stops following the shared segment. With copyPixels the current image is copied into memory
+     * owned by this drawable first, otherwise the drawable gets back its previous pixels.
+     */
+    public void releaseSharedSegment(boolean copyPixels) {
+        if (sharedSegment == null) return;
+        synchronized (renderLock) {
+            ByteBuffer ownData = privateData;
+            if (copyPixels) {
+                if (ownData == null || ownData.capacity() != data.capacity()) {
+                    ownData = ByteBuffer.allocateDirect(data.capacity()).order(ByteOrder.LITTLE_ENDIAN);
+                }
+                rasterBackend.copyArea((short)0, (short)0, (short)0, (short)0, width, height, width, width, data, ownData);
+            }
+            data = ownData;
+            sharedSegment = null;
+            privateData = null;
+        }
     }
 
     private short getStride() {
@@ -103,12 +176,13 @@ public class Drawable extends XResource {
     }
 
     public void drawImage(short srcX, short srcY, short dstX, short dstY, short width, short height, byte depth, ByteBuffer data, short totalWidth, short totalHeight) {
+        releaseSharedSegment(true);
         ByteBuffer byteBuffer = this.data;
         if (byteBuffer == null) {
             return;
         }
         if (depth == 1) {
-            drawBitmap(width, height, data, byteBuffer);
+            rasterBackend.drawBitmap(width, height, data, byteBuffer);
         }
         else {
             if (depth == 24 || depth == 32) {
@@ -117,7 +191,11 @@ public class Drawable extends XResource {
                 if ((dstX + width) > this.width) width = (short)((this.width - dstX));
                 if ((dstY + height) > this.height) height = (short)((this.height - dstY));
 
-                copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
+                rasterBackend.copyArea(srcX, srcY, dstX, dstY, width, height, totalWidth, this.getStride(), data, this.data);
+                this.data.rewind();
+                data.rewind();
+                forceUpdate(dstY, height);
+                return;
             }
             this.data.rewind();
             data.rewind();
@@ -138,7 +216,7 @@ public class Drawable extends XResource {
         if ((x + width) > this.width) width = (short)(this.width - x);
         if ((y + height) > this.height) height = (short)(this.height - y);
 
-        copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
+        rasterBackend.copyArea(x, y, (short)0, (short)0, width, height, this.getStride(), width, this.data, dstData);
 
         this.data.rewind();
         dstData.rewind();
@@ -150,6 +228,7 @@ public class Drawable extends XResource {
     }
 
     public void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, Drawable drawable, GraphicsContext.Function gcFunction) {
+        releaseSharedSegment(true);
         if (this.data != null && drawable.data != null) {
             dstX = (short)Mathf.clamp(dstX, 0, this.width-1);
             dstY = (short)Mathf.clamp(dstY, 0, this.height-1);
@@ -157,13 +236,13 @@ public class Drawable extends XResource {
             if ((dstY + height) > this.height) height = (short)(this.height - dstY);
 
             if (gcFunction == GraphicsContext.Function.COPY) {
-                copyArea(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data);
+                rasterBackend.copyArea(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data);
             }
-            else copyAreaOp(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data, gcFunction.ordinal());
+            else rasterBackend.copyAreaOp(srcX, srcY, dstX, dstY, width, height, drawable.getStride(), this.getStride(), drawable.data, this.data, gcFunction);
 
             this.data.rewind();
             drawable.data.rewind();
-            forceUpdate();
+            forceUpdate(dstY, height);
         }
     }
 
@@ -172,6 +251,7 @@ public class Drawable extends XResource {
     }
 
     public void fillRect(int x, int y, int width, int height, int color) {
+        releaseSharedSegment(true);
         if (this.data == null) {
             return;
         }
@@ -180,8 +260,32 @@ public class Drawable extends XResource {
         if ((x + width) > this.width) width = (short)((this.width - x));
         if ((y + height) > this.height) height = (short)((this.height - y));
 
-        fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
+        rasterBackend.fillRect((short)x, (short)y, (short)width, (short)height, color, this.getStride(), this.data);
         this.data.rewind();
+        forceUpdate(y, height);
+    }
+
+    /**
+     * Fills the xRectangles (x, y, width, height as shorts in the byte order of the buffer) starting
+     * at the beginning of rects, combining the color with the existing pixels using the GC
+     * function. Notifies listeners once for the whole batch.
+     */
+    public void fillRects(ByteBuffer rects, int count, int color, GraphicsContext.Function gcFunction) {
+        releaseSharedSegment(true);
+        if (this.data == null || count <= 0 || gcFunction == GraphicsContext.Function.NO_OP) return;
+        rasterBackend.fillRects(rects, count, color, gcFunction, width, height, getStride(), this.data);
+        forceUpdate();
+    }
+
+    /**
+     * Draws the polyline through the xPoints (x, y as shorts in the byte order of the buffer)
+     * starting at the beginning of points. With relative set, every point after the first is an
+     * offset from the previous one. Notifies listeners once for the whole batch.
+     */
+    public void drawLines(ByteBuffer points, int count, boolean relative, int color, int lineWidth, GraphicsContext.Function gcFunction) {
+        releaseSharedSegment(true);
+        if (this.data == null || count < 2 || lineWidth <= 0 || gcFunction == GraphicsContext.Function.NO_OP) return;
+        rasterBackend.drawLines(points, count, relative, color, (short)lineWidth, gcFunction, width, height, getStride(), this.data);
         forceUpdate();
     }
 
@@ -192,6 +296,7 @@ public class Drawable extends XResource {
     }
 
     public void drawLine(int x0, int y0, int x1, int y1, int color, int lineWidth) {
+        releaseSharedSegment(true);
         if (this.data == null) {
             return;
         }
@@ -200,13 +305,14 @@ public class Drawable extends XResource {
         x1 = Mathf.clamp(x1, 0, width-lineWidth);
         y1 = Mathf.clamp(y1, 0, height-lineWidth);
 
-        drawLine((short)x0, (short)y0, (short)x1, (short)y1, color, (short)lineWidth, this.getStride(), this.data);
+        rasterBackend.drawLine((short)x0, (short)y0, (short)x1, (short)y1, color, (short)lineWidth, this.getStride(), this.data);
 
         this.data.rewind();
-        forceUpdate();
+        forceUpdate(Math.min(y0, y1), Math.abs(y1 - y0) + lineWidth);
     }
 
     public void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, Drawable srcDrawable, Drawable maskDrawable) {
+        releaseSharedSegment(true);
         ByteBuffer byteBuffer;
         ByteBuffer byteBuffer2 = this.data;
         if (byteBuffer2 != null && (byteBuffer = srcDrawable.data) != null) {
@@ -214,7 +320,7 @@ public class Drawable extends XResource {
             if (byteBuffer3 == null) {
                 return;
             }
-            drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, byteBuffer, byteBuffer3, byteBuffer2);
+            rasterBackend.drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, byteBuffer, byteBuffer3, byteBuffer2);
         this.data.rewind();
             forceUpdate();
         }
@@ -230,6 +336,17 @@ public class Drawable extends XResource {
         }
     }
 
+    /** Like forceUpdate(), but only rows y to y + height have changed. */
+    public void forceUpdate(int y, int height) {
+        if (!this.offscreenStorage) {
+            this.texture.invalidateRows(y, height);
+            Runnable runnable = this.onDrawListener;
+            if (runnable != null) {
+                runnable.run();
+            }
+        }
+    }
+
     public boolean isUseSharedData() {
         return this.useSharedData;
     }
@@ -48,6 +48,7 @@ public class DrawableManager extends XResourceManager implements XResourceManage
         Callback<Drawable> onDestroyListener = drawable.getOnDestroyListener();
         if (onDestroyListener != null) onDestroyListener.call(drawable);
 
+        drawable.releaseSharedSegment(false);
         drawable.setOnDrawListener(null);
         drawables.remove(id);
     }
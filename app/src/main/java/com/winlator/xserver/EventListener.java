@@ -1,6 +1,7 @@
 package com.winlator.xserver;
 
 import com.winlator.xserver.events.Event;
+import com.winlator.xserver.events.MotionNotify;
 
 import java.io.IOException;
 
@@ -23,7 +24,10 @@ public class EventListener {
 
     public void sendEvent(Event event) {
         try {
-            event.send(client.getSequenceNumber(), client.getOutputStream());
+            if (event instanceof MotionNotify && isInterestedIn(Event.POINTER_MOTION_HINT)) {
+                if (client.acquireMotionHint()) ((MotionNotify)event).sendHint(client.getSequenceNumber(), client.getOutputStream());
+            }
+            else event.send(client.getSequenceNumber(), client.getOutputStream());
         }
         catch (IOException e) {
             e.printStackTrace();
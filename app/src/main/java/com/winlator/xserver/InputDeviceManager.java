@@ -16,7 +16,15 @@ import com.winlator.xserver.events.PointerWindowEvent;
 public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyboard.OnKeyboardListener, WindowManager.OnWindowModificationListener, XResourceManager.OnResourceLifecycleListener {
     private static final byte MOUSE_WHEEL_DELTA = 120;
     private Window pointWindow;
+    private int motionHintSerial = 0;
     private final XServer xServer;
+    // Reused for every event; only touched while the INPUT_DEVICE lock is held
+    private final Bitmask pointerEventMask = new Bitmask();
+    private final MotionNotify motionNotify = new MotionNotify();
+    private final ButtonPress buttonPress = new ButtonPress();
+    private final ButtonRelease buttonRelease = new ButtonRelease();
+    private final KeyPress keyPress = new KeyPress();
+    private final KeyRelease keyRelease = new KeyRelease();
 
     public InputDeviceManager(XServer xServer) {
         this.xServer = xServer;
@@ -59,13 +67,19 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
     private void updatePointWindow() {
         Window pointWindow = xServer.windowManager.findPointWindow(xServer.pointer.getClampedX(), xServer.pointer.getClampedY());
-        this.pointWindow = pointWindow != null ? pointWindow : xServer.windowManager.rootWindow;
+        if (pointWindow == null) pointWindow = xServer.windowManager.rootWindow;
+        if (pointWindow != this.pointWindow) motionHintSerial++;
+        this.pointWindow = pointWindow;
     }
 
     public Window getPointWindow() {
         return pointWindow;
     }
 
+    public int getMotionHintSerial() {
+        return motionHintSerial;
+    }
+
     private void sendEvent(Window window, int eventId, Event event) {
         Window grabWindow = xServer.grabManager.getWindow();
         if (grabWindow != null && grabWindow.attributes.isEnabled()) {
@@ -103,8 +117,8 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
         short x = xServer.pointer.getX();
         short y = xServer.pointer.getY();
 
-        short[] localPointA = windowA.rootPointToLocal(x, y);
-        short[] localPointB = windowB.rootPointToLocal(x, y);
+        int localPointA = windowA.rootPointToLocal(x, y);
+        int localPointB = windowB.rootPointToLocal(x, y);
 
         boolean sameScreenAndFocus = windowB.isAncestorOf(xServer.windowManager.getFocusedWindow());
         PointerWindowEvent.Detail detailA = PointerWindowEvent.Detail.NONLINEAR;
@@ -120,12 +134,13 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
         }
 
         Bitmask keyButMask = getKeyButMask();
-        sendEvent(windowA, Event.LEAVE_WINDOW, new LeaveNotify(detailA, xServer.windowManager.rootWindow, windowA, null, x, y, localPointA[0], localPointA[1], keyButMask, mode, sameScreenAndFocus));
-        sendEvent(windowB, Event.ENTER_WINDOW, new EnterNotify(detailB, xServer.windowManager.rootWindow, windowB, null, x, y, localPointB[0], localPointB[1], keyButMask, mode, sameScreenAndFocus));
+        sendEvent(windowA, Event.LEAVE_WINDOW, new LeaveNotify(detailA, xServer.windowManager.rootWindow, windowA, null, x, y, Window.unpackX(localPointA), Window.unpackY(localPointA), keyButMask, mode, sameScreenAndFocus));
+        sendEvent(windowB, Event.ENTER_WINDOW, new EnterNotify(detailB, xServer.windowManager.rootWindow, windowB, null, x, y, Window.unpackX(localPointB), Window.unpackY(localPointB), keyButMask, mode, sameScreenAndFocus));
     }
 
     @Override
     public void onPointerButtonPress(Pointer.Button button) {
+        motionHintSerial++;
         if (xServer.isRelativeMouseMovement()) {
             WinHandler winHandler = xServer.getWinHandler();
             int wheelDelta = button == Pointer.Button.BUTTON_SCROLL_UP ? MOUSE_WHEEL_DELTA : (button == Pointer.Button.BUTTON_SCROLL_DOWN ? -MOUSE_WHEEL_DELTA : 0);
@@ -139,27 +154,29 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
             }
 
             if (grabWindow != null && grabWindow.attributes.isEnabled()) {
-                Bitmask eventMask = createPointerEventMask();
+                Bitmask eventMask = updatePointerEventMask();
                 eventMask.unset(button.flag());
 
                 short x = xServer.pointer.getX();
                 short y = xServer.pointer.getY();
-                short[] localPoint = grabWindow.rootPointToLocal(x, y);
+                int localPoint = grabWindow.rootPointToLocal(x, y);
 
                 Window child = grabWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-                grabWindow.sendEvent(Event.BUTTON_PRESS, new ButtonPress(button.code(), xServer.windowManager.rootWindow, grabWindow, child, x, y, localPoint[0], localPoint[1], eventMask));
+                buttonPress.set(button.code(), xServer.windowManager.rootWindow, grabWindow, child, x, y, Window.unpackX(localPoint), Window.unpackY(localPoint), eventMask.getBits());
+                grabWindow.sendEvent(Event.BUTTON_PRESS, buttonPress);
             }
         }
     }
 
     @Override
     public void onPointerButtonRelease(Pointer.Button button) {
+        motionHintSerial++;
         if (xServer.isRelativeMouseMovement()) {
             WinHandler winHandler = xServer.getWinHandler();
             winHandler.mouseEvent(MouseEventFlags.getFlagFor(button, false), 0, 0, 0);
         }
         else {
-            Bitmask eventMask = createPointerEventMask();
+            Bitmask eventMask = updatePointerEventMask();
             Window grabWindow = xServer.grabManager.getWindow();
             Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
 
@@ -168,10 +185,10 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
                 short x = xServer.pointer.getX();
                 short y = xServer.pointer.getY();
-                short[] localPoint = eventWindow.rootPointToLocal(x, y);
+                int localPoint = eventWindow.rootPointToLocal(x, y);
 
                 Window child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-                ButtonRelease buttonRelease = new ButtonRelease(button.code(), xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], eventMask);
+                buttonRelease.set(button.code(), xServer.windowManager.rootWindow, eventWindow, child, x, y, Window.unpackX(localPoint), Window.unpackY(localPoint), eventMask.getBits());
                 sendEvent(window, eventMask, buttonRelease);
             }
 
@@ -184,21 +201,23 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     @Override
     public void onPointerMove(short x, short y) {
         updatePointWindow();
-        Bitmask eventMask = createPointerEventMask();
+        Bitmask eventMask = updatePointerEventMask();
         Window grabWindow = xServer.grabManager.getWindow();
         Window window = grabWindow == null || xServer.grabManager.isOwnerEvents() ? pointWindow.getAncestorWithEventMask(eventMask) : null;
 
         if (grabWindow != null || window != null) {
             Window eventWindow = window != null ? window : grabWindow;
-            short[] localPoint = eventWindow.rootPointToLocal(x, y);
+            int localPoint = eventWindow.rootPointToLocal(x, y);
 
             Window child = eventWindow.isAncestorOf(pointWindow) ? pointWindow : null;
-            sendEvent(window, eventMask, new MotionNotify(false, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], getKeyButMask()));
+            motionNotify.set((byte)0, xServer.windowManager.rootWindow, eventWindow, child, x, y, Window.unpackX(localPoint), Window.unpackY(localPoint), getKeyButBits());
+            sendEvent(window, eventMask, motionNotify);
         }
     }
 
     @Override
     public void onKeyPress(byte keycode, int keysym) {
+        motionHintSerial++;
         Window focusedWindow = xServer.windowManager.getFocusedWindow();
         if (focusedWindow == null) return;
         updatePointWindow();
@@ -216,21 +235,23 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
         if (!eventWindow.attributes.isEnabled()) return;
 
-        Bitmask keyButMask = getKeyButMask();
+        int keyButBits = getKeyButBits();
         short x = xServer.pointer.getX();
         short y = xServer.pointer.getY();
-        short[] localPoint = eventWindow.rootPointToLocal(x, y);
+        int localPoint = eventWindow.rootPointToLocal(x, y);
 
         if (keysym != 0 && !xServer.keyboard.hasKeysym(keycode, keysym)) {
             xServer.keyboard.setKeysyms(keycode, keysym, keysym);
             eventWindow.sendEvent(new MappingNotify(MappingNotify.Request.KEYBOARD, keycode, 1));
         }
 
-        eventWindow.sendEvent(Event.KEY_PRESS, new KeyPress(keycode, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], keyButMask));
+        keyPress.set(keycode, xServer.windowManager.rootWindow, eventWindow, child, x, y, Window.unpackX(localPoint), Window.unpackY(localPoint), keyButBits);
+        eventWindow.sendEvent(Event.KEY_PRESS, keyPress);
     }
 
     @Override
     public void onKeyRelease(byte keycode) {
+        motionHintSerial++;
         Window focusedWindow = xServer.windowManager.getFocusedWindow();
         if (focusedWindow == null) return;
         updatePointWindow();
@@ -248,16 +269,17 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
 
         if (!eventWindow.attributes.isEnabled()) return;
 
-        Bitmask keyButMask = getKeyButMask();
         short x = xServer.pointer.getX();
         short y = xServer.pointer.getY();
-        short[] localPoint = eventWindow.rootPointToLocal(x, y);
+        int localPoint = eventWindow.rootPointToLocal(x, y);
 
-        eventWindow.sendEvent(Event.KEY_RELEASE, new KeyRelease(keycode, xServer.windowManager.rootWindow, eventWindow, child, x, y, localPoint[0], localPoint[1], keyButMask));
+        keyRelease.set(keycode, xServer.windowManager.rootWindow, eventWindow, child, x, y, Window.unpackX(localPoint), Window.unpackY(localPoint), getKeyButBits());
+        eventWindow.sendEvent(Event.KEY_RELEASE, keyRelease);
     }
 
-    private Bitmask createPointerEventMask() {
-        Bitmask eventMask = new Bitmask();
+    private Bitmask updatePointerEventMask() {
+        Bitmask eventMask = pointerEventMask;
+        eventMask.unset(~0);
         eventMask.set(Event.POINTER_MOTION);
 
         Bitmask buttonMask = xServer.pointer.getButtonMask();
@@ -284,9 +306,10 @@ public class InputDeviceManager implements Pointer.OnPointerMotionListener, Keyb
     }
 
     public Bitmask getKeyButMask() {
-        Bitmask keyButMask = new Bitmask();
-        keyButMask.join(xServer.pointer.getButtonMask());
-        keyButMask.join(xServer.keyboard.getModifiersMask());
-        return keyButMask;
+        return new Bitmask(getKeyButBits());
+    }
+
+    public int getKeyButBits() {
+        return xServer.pointer.getButtonMask().getBits() | xServer.keyboard.getModifiersMask().getBits();
     }
 }
@@ -0,0 +1,260 @@
+package com.winlator.xserver;
+
+import java.util.Arrays;
+import java.util.function.LongSupplier;
+
+/**
+ * Queue between the input producers (touch, mouse and keyboard handlers on the UI thread) and the
+ * X server thread. Producers only append a record; the X server thread drains everything queued so
+ * far as one batch under a single WINDOW_MANAGER+INPUT_DEVICE lock.
+ *
+ * Consecutive pointer motions are coalesced into one record while they are queued, so a burst of
+ * moves between two button/key events produces a single MotionNotify. Button and key records are
+ * never merged or reordered and act as barriers for coalescing, which keeps the PointerMotionHint
+ * contract intact: every button or key state change is preceded by the latest pointer position.
+ */
+public class InputEventQueue {
+    private static final byte TYPE_POINTER_MOVE = 0;
+    private static final byte TYPE_POINTER_MOVE_DELTA = 1;
+    private static final byte TYPE_BUTTON_PRESS = 2;
+    private static final byte TYPE_BUTTON_RELEASE = 3;
+    private static final byte TYPE_KEY_PRESS = 4;
+    private static final byte TYPE_KEY_RELEASE = 5;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final Pointer.Button[] BUTTONS = Pointer.Button.values();
+
+    public interface Target {
+        void beginBatch();
+        void pointerMove(int x, int y);
+        void pointerMoveDelta(int dx, int dy);
+        void pointerButton(Pointer.Button button, boolean pressed);
+        void key(byte keycode, int keysym, boolean pressed);
+        void endBatch();
+    }
+
+    public static class Stats {
+        public final long eventsReceived;
+        public final long eventsDelivered;
+        public final long motionsCoalesced;
+        public final long batches;
+        public final long totalLatencyNanos;
+        public final long maxLatencyNanos;
+
+        private Stats(long eventsReceived, long eventsDelivered, long motionsCoalesced, long batches, long totalLatencyNanos, long maxLatencyNanos) {
+            this.eventsReceived = eventsReceived;
+            this.eventsDelivered = eventsDelivered;
+            this.motionsCoalesced = motionsCoalesced;
+            this.batches = batches;
+            this.totalLatencyNanos = totalLatencyNanos;
+            this.maxLatencyNanos = maxLatencyNanos;
+        }
+
+        /** Fraction of received events that were merged into a later motion, between 0 and 1. */
+        public float getCoalescingRatio() {
+            return eventsReceived > 0 ? (float)motionsCoalesced / eventsReceived : 0;
+        }
+
+        /** Average time from the first enqueued input of a record until it was delivered. */
+        public long getAverageLatencyNanos() {
+            return eventsDelivered > 0 ? totalLatencyNanos / eventsDelivered : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "received="+eventsReceived+" delivered="+eventsDelivered+" batches="+batches+
+                " coalescing="+getCoalescingRatio()+" avgLatencyUs="+(getAverageLatencyNanos() / 1000)+" maxLatencyUs="+(maxLatencyNanos / 1000);
+        }
+    }
+
+    private static class Buffer {
+        private byte[] types = new byte[INITIAL_CAPACITY];
+        private int[] args0 = new int[INITIAL_CAPACITY];
+        private int[] args1 = new int[INITIAL_CAPACITY];
+        private long[] times = new long[INITIAL_CAPACITY];
+        private int size = 0;
+
+        private void add(byte type, int arg0, int arg1, long time) {
+            if (size == types.length) {
+                int capacity = size * 2;
+                types = Arrays.copyOf(types, capacity);
+                args0 = Arrays.copyOf(args0, capacity);
+                args1 = Arrays.copyOf(args1, capacity);
+                times = Arrays.copyOf(times, capacity);
+            }
+            types[size] = type;
+            args0[size] = arg0;
+            args1[size] = arg1;
+            times[size] = time;
+            size++;
+        }
+    }
+
+    private final Target target;
+    private final LongSupplier clock;
+    private final Object drainLock = new Object();
+    private Buffer pending = new Buffer();
+    private Buffer draining = new Buffer();
+    private Runnable wakeUp;
+    private boolean drainScheduled = false;
+    private boolean inDrain = false;
+    private long eventsReceived = 0;
+    private long eventsDelivered = 0;
+    private long motionsCoalesced = 0;
+    private long batches = 0;
+    private long totalLatencyNanos = 0;
+    private long maxLatencyNanos = 0;
+
+    public InputEventQueue(Target target) {
+        this(target, System::nanoTime);
+    }
+
+    public InputEventQueue(Target target, LongSupplier clock) {
+        this.target = target;
+        this.clock = clock;
+    }
+
+    /**
+     * Sets the callback that asks the X server thread to call {@link #drain()}. Without one, every
+     * enqueued event is delivered immediately on the producing thread. Events queued before the
+     * switch are delivered on the calling thread. Once this returns, the previous callback is never
+     * run again, so it is safe to release whatever it signals.
+     */
+    public void setWakeUp(Runnable wakeUp) {
+        synchronized (this) {
+            this.wakeUp = wakeUp;
+        }
+        drain();
+    }
+
+    public void pointerMove(int x, int y) {
+        enqueue(TYPE_POINTER_MOVE, x, y);
+    }
+
+    public void pointerMoveDelta(int dx, int dy) {
+        enqueue(TYPE_POINTER_MOVE_DELTA, dx, dy);
+    }
+
+    public void pointerButton(Pointer.Button button, boolean pressed) {
+        enqueue(pressed ? TYPE_BUTTON_PRESS : TYPE_BUTTON_RELEASE, button.ordinal(), 0);
+    }
+
+    public void key(byte keycode, int keysym, boolean pressed) {
+        enqueue(pressed ? TYPE_KEY_PRESS : TYPE_KEY_RELEASE, keycode, keysym);
+    }
+
+    private void enqueue(byte type, int arg0, int arg1) {
+        long now = clock.getAsLong();
+        synchronized (this) {
+            eventsReceived++;
+            if (!coalesceMotion(type, arg0, arg1)) pending.add(type, arg0, arg1, now);
+            if (drainScheduled) return;
+            drainScheduled = true;
+            // Run under the lock setWakeUp() takes, so no wake-up outlives the one that cleared it
+            if (wakeUp != null) {
+                wakeUp.run();
+                return;
+            }
+        }
+        drain();
+    }
+
+    private boolean coalesceMotion(byte type, int arg0, int arg1) {
+        if (type != TYPE_POINTER_MOVE && type != TYPE_POINTER_MOVE_DELTA) return false;
+        int last = pending.size - 1;
+        if (last < 0) return false;
+
+        byte lastType = pending.types[last];
+        if (lastType != TYPE_POINTER_MOVE && lastType != TYPE_POINTER_MOVE_DELTA) return false;
+
+        // The merged record keeps the time of the oldest motion so latency covers the whole burst
+        if (type == TYPE_POINTER_MOVE) {
+            pending.types[last] = TYPE_POINTER_MOVE;
+            pending.args0[last] = arg0;
+            pending.args1[last] = arg1;
+        }
+        else {
+            pending.args0[last] += arg0;
+            pending.args1[last] += arg1;
+        }
+        motionsCoalesced++;
+        return true;
+    }
+
+    /**
+     * Delivers every queued event to the target as one batch. Called on the X server thread after a
+     * wake-up, or inline when no wake-up is installed.
+     */
+    public void drain() {
+        synchronized (drainLock) {
+            // Listeners that inject input while a batch is delivered get picked up by the loop below
+            if (inDrain) return;
+            inDrain = true;
+            try {
+                Buffer batch;
+                while ((batch = takePending()) != null) deliver(batch);
+            }
+            finally {
+                inDrain = false;
+            }
+        }
+    }
+
+    private synchronized Buffer takePending() {
+        drainScheduled = false;
+        if (pending.size == 0) return null;
+        Buffer batch = pending;
+        pending = draining;
+        draining = batch;
+        return batch;
+    }
+
+    private void deliver(Buffer batch) {
+        target.beginBatch();
+        try {
+            for (int i = 0; i < batch.size; i++) {
+                int arg0 = batch.args0[i];
+                int arg1 = batch.args1[i];
+                switch (batch.types[i]) {
+                    case TYPE_POINTER_MOVE:
+                        target.pointerMove(arg0, arg1);
+                        break;
+                    case TYPE_POINTER_MOVE_DELTA:
+                        target.pointerMoveDelta(arg0, arg1);
+                        break;
+                    case TYPE_BUTTON_PRESS:
+                    case TYPE_BUTTON_RELEASE:
+                        target.pointerButton(BUTTONS[arg0], batch.types[i] == TYPE_BUTTON_PRESS);
+                        break;
+                    case TYPE_KEY_PRESS:
+                    case TYPE_KEY_RELEASE:
+                        target.key((byte)arg0, arg1, batch.types[i] == TYPE_KEY_PRESS);
+                        break;
+                }
+            }
+        }
+        finally {
+            target.endBatch();
+            recordDelivery(batch);
+            batch.size = 0;
+        }
+    }
+
+    private synchronized void recordDelivery(Buffer batch) {
+        long now = clock.getAsLong();
+        for (int i = 0; i < batch.size; i++) {
+            long latency = now - batch.times[i];
+            totalLatencyNanos += latency;
+            if (latency > maxLatencyNanos) maxLatencyNanos = latency;
+        }
+        eventsDelivered += batch.size;
+        batches++;
+    }
+
+    public synchronized Stats getStats() {
+        return new Stats(eventsReceived, eventsDelivered, motionsCoalesced, batches, totalLatencyNanos, maxLatencyNanos);
+    }
+
+    public synchronized void resetStats() {
+        eventsReceived = eventsDelivered = motionsCoalesced = batches = totalLatencyNanos = maxLatencyNanos = 0;
+    }
+}
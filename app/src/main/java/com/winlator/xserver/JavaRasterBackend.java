@@ -0,0 +1,236 @@
+package com.winlator.xserver;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Reference implementation of {@link RasterBackend} in plain Java, pixel for pixel the same as
+ * drawable.c. Used when the native library is unavailable (JVM tests) and as the baseline native
+ * optimizations are checked against.
+ */
+public class JavaRasterBackend implements RasterBackend {
+    private static final int WHITE = 0xffffff;
+
+    private static IntBuffer pixels(ByteBuffer data) {
+        ByteBuffer buffer = data.duplicate();
+        buffer.clear();
+        return buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+
+    public static int applyFunction(int src, int dst, GraphicsContext.Function function) {
+        switch (function) {
+            case CLEAR:
+                return 0;
+            case AND:
+                return src & dst;
+            case AND_REVERSE:
+                return src & ~dst;
+            case COPY:
+                return src;
+            case AND_INVERTED:
+                return ~src & dst;
+            case XOR:
+                return src ^ dst;
+            case OR:
+                return src | dst;
+            case NOR:
+                return ~src & ~dst;
+            case EQUIV:
+                return ~src ^ dst;
+            case INVERT:
+                return ~dst;
+            case OR_REVERSE:
+                return src | ~dst;
+            case COPY_INVERTED:
+                return ~src;
+            case OR_INVERTED:
+                return ~src | dst;
+            case NAND:
+                return ~src | ~dst;
+            case SET:
+                return WHITE;
+            case NO_OP:
+            default:
+                return dst;
+        }
+    }
+
+    @Override
+    public void drawBitmap(short width, short height, ByteBuffer srcData, ByteBuffer dstData) {
+        IntBuffer dst = pixels(dstData);
+        int stride = ((width + 31) >> 5) << 2;
+        int[] row = new int[Math.max(width, 0)];
+        for (int y = 0, offset = 0; y < height; y++, offset += stride) {
+            for (int x = 0; x < width; x++) {
+                row[x] = (srcData.get(offset + (x >> 3)) & (1 << (x & 7))) != 0 ? WHITE : 0;
+            }
+            dst.put(row);
+        }
+    }
+
+    @Override
+    public void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData) {
+        if (width <= 0 || height <= 0) return;
+        IntBuffer src = pixels(srcData);
+        IntBuffer dst = pixels(dstData);
+
+        if (width == srcStride && width == dstStride) {
+            int start = srcX + srcY * srcStride;
+            src.limit(start + height * srcStride).position(start);
+            dst.position(dstX + dstY * dstStride);
+            dst.put(src);
+            return;
+        }
+
+        for (int y = 0; y < height; y++) {
+            int start = srcX + (y + srcY) * srcStride;
+            src.limit(start + width).position(start);
+            dst.position(dstX + (y + dstY) * dstStride);
+            dst.put(src);
+        }
+    }
+
+    @Override
+    public void copyAreaOp(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData, GraphicsContext.Function gcFunction) {
+        IntBuffer src = pixels(srcData);
+        IntBuffer dst = pixels(dstData);
+        for (int y = 0; y < height; y++) {
+            int i = srcX + (y + srcY) * srcStride;
+            int j = dstX + (y + dstY) * dstStride;
+            for (int x = 0; x < width; x++, i++, j++) {
+                int dstPixel = dst.get(j);
+                int color = applyFunction(src.get(i) & WHITE, dstPixel & WHITE, gcFunction);
+                dst.put(j, (dstPixel & 0xff000000) | (color & WHITE));
+            }
+        }
+    }
+
+    @Override
+    public void fillRect(short x, short y, short width, short height, int color, short stride, ByteBuffer data) {
+        if (width <= 0 || height <= 0) return;
+        IntBuffer dst = pixels(data);
+        int[] row = new int[width];
+        Arrays.fill(row, (color & WHITE) | 0xff000000);
+        for (int i = 0; i < height; i++) {
+            dst.position(x + (i + y) * stride);
+            dst.put(row);
+        }
+    }
+
+    @Override
+    public void fillRects(ByteBuffer rects, int count, int color, GraphicsContext.Function gcFunction, short width, short height, short stride, ByteBuffer data) {
+        IntBuffer dst = pixels(data);
+        int pixel = (color & WHITE) | 0xff000000;
+        int[] row = null;
+
+        for (int i = 0, offset = 0; i < count; i++, offset += 8) {
+            int x0 = rects.getShort(offset);
+            int y0 = rects.getShort(offset+2);
+            int x1 = Math.min(x0 + (rects.getShort(offset+4) & 0xffff), width);
+            int y1 = Math.min(y0 + (rects.getShort(offset+6) & 0xffff), height);
+            x0 = Math.max(x0, 0);
+            y0 = Math.max(y0, 0);
+            if (x0 >= x1 || y0 >= y1) continue;
+
+            if (gcFunction == GraphicsContext.Function.COPY) {
+                int rowWidth = x1 - x0;
+                if (row == null || row.length < rowWidth) {
+                    row = new int[width];
+                    Arrays.fill(row, pixel);
+                }
+                for (int y = y0; y < y1; y++) {
+                    dst.position(x0 + y * stride);
+                    dst.put(row, 0, rowWidth);
+                }
+            }
+            else {
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0, j = x0 + y * stride; x < x1; x++, j++) putPixelOp(dst, j, color, gcFunction);
+                }
+            }
+        }
+    }
+
+    private static void putPixelOp(IntBuffer dst, int index, int color, GraphicsContext.Function gcFunction) {
+        dst.put(index, (applyFunction(color, dst.get(index) & WHITE, gcFunction) & WHITE) | 0xff000000);
+    }
+
+    @Override
+    public void drawLine(short x0, short y0, short x1, short y1, int color, short lineWidth, short stride, ByteBuffer data) {
+        drawSegment(pixels(data), x0, y0, x1, y1, color, lineWidth, GraphicsContext.Function.COPY, stride);
+    }
+
+    @Override
+    public void drawLines(ByteBuffer points, int count, boolean relative, int color, short lineWidth, GraphicsContext.Function gcFunction, short width, short height, short stride, ByteBuffer data) {
+        if (lineWidth <= 0 || lineWidth > width || lineWidth > height || count < 1) return;
+        IntBuffer dst = pixels(data);
+        int maxX = width - lineWidth;
+        int maxY = height - lineWidth;
+        int lastX = points.getShort(0);
+        int lastY = points.getShort(2);
+
+        for (int i = 1; i < count; i++) {
+            int nextX = points.getShort(i * 4);
+            int nextY = points.getShort(i * 4 + 2);
+            if (relative) {
+                nextX += lastX;
+                nextY += lastY;
+            }
+            drawSegment(dst, clamp(lastX, maxX), clamp(lastY, maxY), clamp(nextX, maxX), clamp(nextY, maxY), color, lineWidth, gcFunction, stride);
+            lastX = nextX;
+            lastY = nextY;
+        }
+    }
+
+    private static int clamp(int value, int max) {
+        return value < 0 ? 0 : Math.min(value, max);
+    }
+
+    /** Bresenham line drawn with a lineWidth square pen, as in drawable.c. */
+    private static void drawSegment(IntBuffer dst, int x0, int y0, int x1, int y1, int color, int lineWidth, GraphicsContext.Function gcFunction, int stride) {
+        int dx = Math.abs(x1 - x0);
+        int dy = -Math.abs(y1 - y0);
+        int sx = x0 < x1 ? 1 : -1;
+        int sy = y0 < y1 ? 1 : -1;
+        int e1 = dx + dy;
+        int pixel = (color & WHITE) | 0xff000000;
+
+        while (true) {
+            for (int i = 0; i < lineWidth; i++) {
+                int index = x0 + (i + y0) * stride;
+                for (int j = 0; j < lineWidth; j++) {
+                    if (gcFunction == GraphicsContext.Function.COPY) {
+                        dst.put(index + j, pixel);
+                    }
+                    else putPixelOp(dst, index + j, color, gcFunction);
+                }
+            }
+            if (x0 == x1 && y0 == y1) break;
+
+            int e2 = e1 * 2;
+            if (e2 >= dy) {
+                e1 += dy;
+                x0 += sx;
+            }
+            if (e2 <= dx) {
+                e1 += dx;
+                y0 += sy;
+            }
+        }
+    }
+
+    @Override
+    public void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, ByteBuffer srcData, ByteBuffer maskData, ByteBuffer dstData) {
+        int foreColor = ((foreRed & 0xff) << 16) | ((foreGreen & 0xff) << 8) | (foreBlue & 0xff) | 0xff000000;
+        int backColor = ((backRed & 0xff) << 16) | ((backGreen & 0xff) << 8) | (backBlue & 0xff) | 0xff000000;
+        IntBuffer src = pixels(srcData);
+        IntBuffer mask = pixels(maskData);
+        IntBuffer dst = pixels(dstData);
+
+        for (int i = 0, length = dst.capacity(); i < length; i++) {
+            dst.put(i, mask.get(i) == WHITE ? (src.get(i) == WHITE ? foreColor : backColor) : 0);
+        }
+    }
+}
@@ -4,8 +4,6 @@ import android.util.Log;
 import android.view.InputDevice;
 import android.view.KeyEvent;
 
-import androidx.collection.ArraySet;
-
 // import com.winlator.inputcontrols.ExternalController;
 
 import java.util.ArrayList;
@@ -18,7 +16,7 @@ public class Keyboard {
     public final int[] keysyms = new int[KEYS_COUNT];
     private final Bitmask modifiersMask = new Bitmask();
     private final XKeycode[] keycodeMap = createKeycodeMap();
-    private final ArraySet<Byte> pressedKeys = new ArraySet<>();
+    private final boolean[] pressedKeys = new boolean[MAX_KEYCODE + 1];
     private final ArrayList<OnKeyboardListener> onKeyboardListeners = new ArrayList<>();
     private final XServer xServer;
 
@@ -49,32 +47,36 @@ public class Keyboard {
 
     public void setKeyPress(byte keycode, int keysym) {
         if (isModifierSticky(keycode)) {
-            if (pressedKeys.contains(keycode)) {
-                pressedKeys.remove(keycode);
+            if (isKeyPressed(keycode)) {
+                pressedKeys[keycode & 0xff] = false;
                 modifiersMask.unset(getModifierFlag(keycode));
                 triggerOnKeyRelease(keycode);
             }
             else {
-                pressedKeys.add(keycode);
+                pressedKeys[keycode & 0xff] = true;
                 modifiersMask.set(getModifierFlag(keycode));
                 triggerOnKeyPress(keycode, keysym);
             }
         }
-        else if (!pressedKeys.contains(keycode)) {
-            pressedKeys.add(keycode);
+        else if (!isKeyPressed(keycode)) {
+            pressedKeys[keycode & 0xff] = true;
             if (isModifier(keycode)) modifiersMask.set(getModifierFlag(keycode));
             triggerOnKeyPress(keycode, keysym);
         }
     }
 
     public void setKeyRelease(byte keycode) {
-        if (!isModifierSticky(keycode) && pressedKeys.contains(keycode)) {
-            pressedKeys.remove(keycode);
+        if (!isModifierSticky(keycode) && isKeyPressed(keycode)) {
+            pressedKeys[keycode & 0xff] = false;
             if (isModifier(keycode)) modifiersMask.unset(getModifierFlag(keycode));
             triggerOnKeyRelease(keycode);
         }
     }
 
+    public boolean isKeyPressed(byte keycode) {
+        return pressedKeys[keycode & 0xff];
+    }
+
     public void addOnKeyboardListener(OnKeyboardListener onKeyboardListener) {
         onKeyboardListeners.add(onKeyboardListener);
     }
@@ -0,0 +1,88 @@
+package com.winlator.xserver;
+
+import com.winlator.math.Mathf;
+
+import java.nio.ByteBuffer;
+
+/** {@link RasterBackend} backed by the drawable.c functions in libwinlator_11. */
+public class NativeRasterBackend implements RasterBackend {
+    private final JavaRasterBackend fallback = new JavaRasterBackend();
+
+    @Override
+    public void drawBitmap(short width, short height, ByteBuffer srcData, ByteBuffer dstData) {
+        Drawable.drawBitmap(width, height, srcData, dstData);
+    }
+
+    @Override
+    public void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData) {
+        Drawable.copyArea(srcX, srcY, dstX, dstY, width, height, srcStride, dstStride, srcData, dstData);
+    }
+
+    @Override
+    public void copyAreaOp(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData, GraphicsContext.Function gcFunction) {
+        Drawable.copyAreaOp(srcX, srcY, dstX, dstY, width, height, srcStride, dstStride, srcData, dstData, gcFunction.ordinal());
+    }
+
+    @Override
+    public void fillRect(short x, short y, short width, short height, int color, short stride, ByteBuffer data) {
+        Drawable.fillRect(x, y, width, height, color, stride, data);
+    }
+
+    /**
+     * One native fillRect per rectangle, clipped here. libwinlator_11 has no batched entry point and
+     * no GC functions for fills, so anything but COPY is drawn by the Java backend.
+     */
+    @Override
+    public void fillRects(ByteBuffer rects, int count, int color, GraphicsContext.Function gcFunction, short width, short height, short stride, ByteBuffer data) {
+        if (gcFunction != GraphicsContext.Function.COPY) {
+            fallback.fillRects(rects, count, color, gcFunction, width, height, stride, data);
+            return;
+        }
+
+        for (int i = 0, offset = 0; i < count; i++, offset += 8) {
+            int x0 = rects.getShort(offset);
+            int y0 = rects.getShort(offset+2);
+            int x1 = Math.min(x0 + (rects.getShort(offset+4) & 0xffff), width);
+            int y1 = Math.min(y0 + (rects.getShort(offset+6) & 0xffff), height);
+            x0 = Math.max(x0, 0);
+            y0 = Math.max(y0, 0);
+            if (x0 < x1 && y0 < y1) Drawable.fillRect((short)x0, (short)y0, (short)(x1 - x0), (short)(y1 - y0), color, stride, data);
+        }
+    }
+
+    @Override
+    public void drawLine(short x0, short y0, short x1, short y1, int color, short lineWidth, short stride, ByteBuffer data) {
+        Drawable.drawLine(x0, y0, x1, y1, color, lineWidth, stride, data);
+    }
+
+    /** One native drawLine per segment, clamped here; GC functions other than COPY go to the Java backend. */
+    @Override
+    public void drawLines(ByteBuffer points, int count, boolean relative, int color, short lineWidth, GraphicsContext.Function gcFunction, short width, short height, short stride, ByteBuffer data) {
+        if (gcFunction != GraphicsContext.Function.COPY) {
+            fallback.drawLines(points, count, relative, color, lineWidth, gcFunction, width, height, stride, data);
+            return;
+        }
+        if (lineWidth <= 0 || lineWidth > width || lineWidth > height || count < 1) return;
+
+        int maxX = width - lineWidth;
+        int maxY = height - lineWidth;
+        int lastX = points.getShort(0);
+        int lastY = points.getShort(2);
+        for (int i = 1; i < count; i++) {
+            int nextX = points.getShort(i * 4);
+            int nextY = points.getShort(i * 4 + 2);
+            if (relative) {
+                nextX += lastX;
+                nextY += lastY;
+            }
+            Drawable.drawLine((short)Mathf.clamp(lastX, 0, maxX), (short)Mathf.clamp(lastY, 0, maxY), (short)Mathf.clamp(nextX, 0, maxX), (short)Mathf.clamp(nextY, 0, maxY), color, lineWidth, stride, data);
+            lastX = nextX;
+            lastY = nextY;
+        }
+    }
+
+    @Override
+    public void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, ByteBuffer srcData, ByteBuffer maskData, ByteBuffer dstData) {
+        Drawable.drawAlphaMaskedBitmap(foreRed, foreGreen, foreBlue, backRed, backGreen, backBlue, srcData, maskData, dstData);
+    }
+}
@@ -0,0 +1,32 @@
+package com.winlator.xserver;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pixel operations behind {@link Drawable}. Buffers hold 32-bit little-endian 0xAARRGGBB pixels,
+ * rows are stride pixels apart, and the caller has already clipped coordinates unless a method says
+ * otherwise. Buffers are addressed from their first byte like a native direct buffer address, so
+ * their positions are ignored. Implementations must produce identical pixels; see RasterBackendConformanceTest.
+ */
+public interface RasterBackend {
+    /** Expands a 1-bit LSB-first bitmap (rows padded to 32 bits) into dst starting at its first pixel. */
+    void drawBitmap(short width, short height, ByteBuffer srcData, ByteBuffer dstData);
+
+    void copyArea(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData);
+
+    /** Like copyArea, but combines the color bits with dst using the GC function and keeps dst alpha. */
+    void copyAreaOp(short srcX, short srcY, short dstX, short dstY, short width, short height, short srcStride, short dstStride, ByteBuffer srcData, ByteBuffer dstData, GraphicsContext.Function gcFunction);
+
+    void fillRect(short x, short y, short width, short height, int color, short stride, ByteBuffer data);
+
+    /** Fills count xRectangles read from rects in its own byte order, clipping each to width x height. */
+    void fillRects(ByteBuffer rects, int count, int color, GraphicsContext.Function gcFunction, short width, short height, short stride, ByteBuffer data);
+
+    void drawLine(short x0, short y0, short x1, short y1, int color, short lineWidth, short stride, ByteBuffer data);
+
+    /** Draws the polyline through count xPoints read from points in its own byte order, clamping each segment. */
+    void drawLines(ByteBuffer points, int count, boolean relative, int color, short lineWidth, GraphicsContext.Function gcFunction, short width, short height, short stride, ByteBuffer data);
+
+    /** Writes the cursor colors where the mask is white and transparent pixels elsewhere, over the whole dst buffer. */
+    void drawAlphaMaskedBitmap(byte foreRed, byte foreGreen, byte foreBlue, byte backRed, byte backGreen, byte backBlue, ByteBuffer srcData, ByteBuffer maskData, ByteBuffer dstData);
+}
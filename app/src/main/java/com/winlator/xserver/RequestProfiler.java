@@ -0,0 +1,202 @@
+package com.winlator.xserver;
+
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.winlator.metrics.Histogram;
+import com.winlator.xconnector.XInputStream;
+import com.winlator.xconnector.XOutputStream;
+import com.winlator.xserver.extensions.Extension;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Opt-in breakdown of request handling per client and per major/minor opcode: count, bytes in and
+ * out, time in the handler and time spent waiting for XServer.Lockable locks, optionally with a
+ * RequestTrace of the raw requests. Installed with XServer.setRequestProfiler(); when none is set
+ * the request path only pays for a null check.
+ */
+public class RequestProfiler {
+    private final SparseArray<Extension> extensions;
+    private final ConcurrentHashMap<Long, Entry> entries = new ConcurrentHashMap<>();
+    private final ThreadLocal<long[]> requestState = ThreadLocal.withInitial(() -> new long[2]);
+    private RequestTrace trace;
+    private String[] coreRequestNames;
+
+    /** Totals of one request type from one client. Written only by the thread handling that client. */
+    public static class Entry {
+        public final int clientId;
+        public final byte majorOpcode;
+        public final byte minorOpcode;
+        private long count;
+        private long bytesIn;
+        private long bytesOut;
+        private long lockWaitNanos;
+        private final Histogram handlerTime = new Histogram("handler_ns");
+
+        private Entry(int clientId, byte majorOpcode, byte minorOpcode) {
+            this.clientId = clientId;
+            this.majorOpcode = majorOpcode;
+            this.minorOpcode = minorOpcode;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getLockWaitNanos() {
+            return lockWaitNanos;
+        }
+
+        public Histogram.Snapshot getHandlerTime() {
+            return handlerTime.snapshot();
+        }
+    }
+
+    public RequestProfiler(SparseArray<Extension> extensions) {
+        this.extensions = extensions;
+    }
+
+    /** Also writes every request to the trace until close() is called. */
+    public void setTrace(RequestTrace trace) {
+        this.trace = trace;
+    }
+
+    private static long key(int clientId, byte majorOpcode, byte minorOpcode) {
+        return ((long)clientId << 16) | ((majorOpcode & 0xff) << 8) | (minorOpcode & 0xff);
+    }
+
+    /** Called before the request at requestStart, requestSize bytes long, is handled. */
+    public void begin(int clientId, XInputStream inputStream, int requestStart, int requestSize, XOutputStream outputStream) {
+        long[] state = requestState.get();
+        state[0] = 0;
+        state[1] = outputStream.getBytesWritten();
+
+        RequestTrace trace = this.trace;
+        if (trace != null) {
+            byte[] request = new byte[requestSize];
+            inputStream.copy(requestStart, request);
+            try {
+                trace.write(clientId, inputStream.getByteOrder(), request);
+            }
+            catch (IOException e) {
+                Log.e("RequestProfiler", "Stopping request trace: " + e);
+                this.trace = null;
+            }
+        }
+    }
+
+    /** Adds time the current thread waited for a lock to the request it is handling. */
+    public void addLockWait(long nanos) {
+        requestState.get()[0] += nanos;
+    }
+
+    public void end(int clientId, byte opcode, byte requestData, int requestSize, XOutputStream outputStream, long startTime) {
+        long handlerNanos = System.nanoTime() - startTime;
+        long[] state = requestState.get();
+        // Core requests use the data byte for arguments, extensions for their minor opcode
+        byte minorOpcode = opcode < 0 ? requestData : 0;
+        record(clientId, opcode, minorOpcode, requestSize, outputStream.getBytesWritten() - state[1], handlerNanos, state[0]);
+    }
+
+    void record(int clientId, byte majorOpcode, byte minorOpcode, int bytesIn, long bytesOut, long handlerNanos, long lockWaitNanos) {
+        long key = key(clientId, majorOpcode, minorOpcode);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry(clientId, majorOpcode, minorOpcode);
+            entries.put(key, entry);
+        }
+        entry.count++;
+        entry.bytesIn += bytesIn;
+        entry.bytesOut += bytesOut;
+        entry.lockWaitNanos += lockWaitNanos;
+        entry.handlerTime.record(handlerNanos);
+    }
+
+    public ArrayList<Entry> getEntries() {
+        return new ArrayList<>(entries.values());
+    }
+
+    public void reset() {
+        entries.clear();
+    }
+
+    public String getRequestName(byte majorOpcode, byte minorOpcode) {
+        if (majorOpcode < 0) {
+            Extension extension = extensions.get(majorOpcode);
+            return (extension != null ? extension.getName() : "Extension" + (majorOpcode & 0xff)) + ":" + minorOpcode;
+        }
+
+        if (coreRequestNames == null) {
+            String[] names = new String[128];
+            for (Field field : ClientOpcodes.class.getFields()) {
+                if (field.getType() != byte.class || !Modifier.isStatic(field.getModifiers())) continue;
+                try {
+                    byte opcode = field.getByte(null);
+                    if (opcode >= 0) names[opcode] = field.getName();
+                }
+                catch (IllegalAccessException e) {}
+            }
+            coreRequestNames = names;
+        }
+        String name = coreRequestNames[majorOpcode];
+        return name != null ? name : "Request" + majorOpcode;
+    }
+
+    /** Writes a table of all entries, the ones that took the most handler time first. */
+    public void dump(Writer writer) throws IOException {
+        ArrayList<Entry> entries = getEntries();
+        ArrayList<Histogram.Snapshot> times = new ArrayList<>();
+        for (Entry entry : entries) times.add(entry.getHandlerTime());
+        ArrayList<Integer> order = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) order.add(i);
+        Collections.sort(order, (a, b) -> Long.compare(times.get(b).sum, times.get(a).sum));
+
+        writer.write(String.format(Locale.ENGLISH, "%-10s %-36s %10s %12s %12s %10s %9s %9s %9s %9s %12s\n",
+            "client", "request", "count", "bytes_in", "bytes_out", "total_ms", "avg_us", "p50_us", "p99_us", "max_us", "lock_wait_ms"));
+        for (int i : order) {
+            Entry entry = entries.get(i);
+            Histogram.Snapshot time = times.get(i);
+            writer.write(String.format(Locale.ENGLISH, "0x%-8x %-36s %10d %12d %12d %10.2f %9.1f %9.1f %9.1f %9.1f %12.2f\n",
+                entry.clientId, getRequestName(entry.majorOpcode, entry.minorOpcode), entry.count, entry.bytesIn, entry.bytesOut,
+                time.sum / 1e6, time.getMean() / 1e3, time.getValueAtPercentile(50) / 1e3, time.getValueAtPercentile(99) / 1e3,
+                time.getMax() / 1e3, entry.lockWaitNanos / 1e6));
+        }
+        writer.flush();
+    }
+
+    public void dump(File file) throws IOException {
+        try (FileWriter writer = new FileWriter(file, false)) {
+            dump(writer);
+        }
+    }
+
+    /** Stops and closes the trace, if any. The profile itself stays readable. */
+    public void close() {
+        RequestTrace trace = this.trace;
+        this.trace = null;
+        if (trace != null) {
+            try {
+                trace.close();
+            }
+            catch (IOException e) {}
+        }
+    }
+}
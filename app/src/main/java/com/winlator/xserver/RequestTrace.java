@@ -0,0 +1,126 @@
+package com.winlator.xserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Capture of the raw requests clients sent, as they arrived. The file starts with "XRTRACE1" and
+ * holds one record per request: capture time in nanoseconds since the start (long), client
+ * resource ID base (int), byte order (0 little, 1 big endian), length (int) and the request bytes.
+ * writeClientStream() turns the requests of one client back into a connection that can be sent to
+ * any X server. The server of this app hands out resource ID bases in connection order, so replaying
+ * clients in the order they first appear keeps their resource IDs valid.
+ */
+public class RequestTrace implements Closeable {
+    private static final byte[] MAGIC = {'X', 'R', 'T', 'R', 'A', 'C', 'E', '1'};
+    private final DataOutputStream output;
+    private final long startTime = System.nanoTime();
+
+    public static class Record {
+        public final long time;
+        public final int clientId;
+        public final ByteOrder byteOrder;
+        public final byte[] data;
+
+        public Record(long time, int clientId, ByteOrder byteOrder, byte[] data) {
+            this.time = time;
+            this.clientId = clientId;
+            this.byteOrder = byteOrder;
+            this.data = data;
+        }
+
+        public byte getMajorOpcode() {
+            return data[0];
+        }
+
+        public byte getMinorOpcode() {
+            return data[1];
+        }
+    }
+
+    public RequestTrace(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    public RequestTrace(OutputStream outputStream) throws IOException {
+        output = new DataOutputStream(new BufferedOutputStream(outputStream, 65536));
+        output.write(MAGIC);
+    }
+
+    public synchronized void write(int clientId, ByteOrder byteOrder, byte[] request) throws IOException {
+        output.writeLong(System.nanoTime() - startTime);
+        output.writeInt(clientId);
+        output.writeByte(byteOrder == ByteOrder.BIG_ENDIAN ? 1 : 0);
+        output.writeInt(request.length);
+        output.write(request);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        output.close();
+    }
+
+    public static List<Record> read(InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+        byte[] magic = new byte[MAGIC.length];
+        input.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) throw new IOException("Not a request trace.");
+
+        ArrayList<Record> records = new ArrayList<>();
+        while (true) {
+            long time;
+            try {
+                time = input.readLong();
+            }
+            catch (EOFException e) {
+                break;
+            }
+            int clientId = input.readInt();
+            ByteOrder byteOrder = input.readByte() == 1 ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            byte[] data = new byte[input.readInt()];
+            input.readFully(data);
+            records.add(new Record(time, clientId, byteOrder, data));
+        }
+        return records;
+    }
+
+    /** Client IDs in the order their first request was captured. */
+    public static List<Integer> getClientIds(List<Record> records) {
+        ArrayList<Integer> clientIds = new ArrayList<>();
+        for (Record record : records) {
+            if (!clientIds.contains(record.clientId)) clientIds.add(record.clientId);
+        }
+        return clientIds;
+    }
+
+    /** Writes a connection setup without authorization followed by every request of the client. */
+    public static void writeClientStream(List<Record> records, int clientId, OutputStream outputStream) throws IOException {
+        ByteOrder byteOrder = null;
+        for (Record record : records) {
+            if (record.clientId != clientId) continue;
+            if (byteOrder == null) {
+                byteOrder = record.byteOrder;
+                ByteBuffer setup = ByteBuffer.allocate(12).order(byteOrder);
+                setup.put((byte)(byteOrder == ByteOrder.BIG_ENDIAN ? 'B' : 'l')).put((byte)0);
+                setup.putShort((short)11).putShort((short)0);
+                outputStream.write(setup.array());
+            }
+            outputStream.write(record.data);
+        }
+        outputStream.flush();
+    }
+}
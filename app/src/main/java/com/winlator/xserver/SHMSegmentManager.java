@@ -1,6 +1,7 @@
 package com.winlator.xserver;
 
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 
 import com.winlator.sysvshm.SysVSharedMemory;
 
@@ -9,9 +10,53 @@ import java.nio.ByteBuffer;
 public class SHMSegmentManager {
     private final SysVSharedMemory sysVSharedMemory;
     private final SparseArray<ByteBuffer> shmSegments = new SparseArray<>();
+    private final SparseArray<Drawable> segmentDrawables = new SparseArray<>();
+    private final SparseBooleanArray sharedSegments = new SparseBooleanArray();
+    private final boolean zeroCopyEnabled;
+    private long putImages = 0;
+    private long aliasedPutImages = 0;
+    private long copiedBytes = 0;
+    private long aliasedBytes = 0;
+
+    public static class Stats {
+        public final long putImages;
+        public final long aliasedPutImages;
+        public final long copiedBytes;
+        public final long aliasedBytes;
+
+        private Stats(long putImages, long aliasedPutImages, long copiedBytes, long aliasedBytes) {
+            this.putImages = putImages;
+            this.aliasedPutImages = aliasedPutImages;
+            this.copiedBytes = copiedBytes;
+            this.aliasedBytes = aliasedBytes;
+        }
+
+        public long getCopiedBytesPerFrame() {
+            return putImages > 0 ? copiedBytes / putImages : 0;
+        }
+
+        public long getAliasedBytesPerFrame() {
+            return putImages > 0 ? aliasedBytes / putImages : 0;
+        }
+
+        @Override
+        public String toString() {
+            return "putImages="+putImages+" aliased="+aliasedPutImages+" copiedBytesPerFrame="+getCopiedBytesPerFrame()+" aliasedBytesPerFrame="+getAliasedBytesPerFrame();
+        }
+    }
 
     public SHMSegmentManager(SysVSharedMemory sysVSharedMemory) {
+        this(sysVSharedMemory, false);
+    }
+
+    /**
+     * MIT-SHM lets the client write the segment again as soon as ShmPutImage was processed, so the
+     * image is copied by default. Only enable zero copy for clients that leave a segment alone until
+     * they put it again to the same drawable, e.g. ones waiting on Present idle fences.
+     */
+    public SHMSegmentManager(SysVSharedMemory sysVSharedMemory, boolean zeroCopyEnabled) {
         this.sysVSharedMemory = sysVSharedMemory;
+        this.zeroCopyEnabled = zeroCopyEnabled;
     }
 
     public void attach(int xid, int shmid) {
@@ -23,12 +68,62 @@ public class SHMSegmentManager {
     public void detach(int xid) {
         ByteBuffer data = shmSegments.get(xid);
         if (data != null) {
+            releaseAliases(xid, data);
             sysVSharedMemory.detach(data);
             shmSegments.remove(xid);
         }
     }
 
+    /** Gives the drawable still showing the segment its own copy before the segment goes away. */
+    private void releaseAliases(int xid, ByteBuffer data) {
+        Drawable drawable = segmentDrawables.get(xid);
+        if (drawable != null && drawable.isAliasing(data)) drawable.releaseSharedSegment(true);
+        segmentDrawables.remove(xid);
+        sharedSegments.delete(xid);
+    }
+
+    public void releaseAllAliases() {
+        for (int i = 0; i < shmSegments.size(); i++) releaseAliases(shmSegments.keyAt(i), shmSegments.valueAt(i));
+    }
+
     public ByteBuffer getData(int xid) {
         return shmSegments.get(xid);
     }
+
+    public boolean isZeroCopyEnabled() {
+        return zeroCopyEnabled;
+    }
+
+    /**
+     * Draws an MIT-SHM PutImage. With zero copy enabled, a full-frame image with the drawable's own
+     * stride is shown by aliasing the segment, which only marks the drawable as damaged. That needs
+     * the segment to feed this drawable alone: once a second drawable is drawn from it, the other
+     * alias is released and the segment is copied from then on, like everything else.
+     */
+    public void putImage(int xid, ByteBuffer data, Drawable drawable, short srcX, short srcY, short dstX, short dstY, short width, short height, byte depth, short totalWidth, short totalHeight) {
+        putImages++;
+        Drawable owner = segmentDrawables.get(xid);
+        if (owner == null) {
+            segmentDrawables.put(xid, drawable);
+        }
+        else if (owner != drawable && !sharedSegments.get(xid)) {
+            if (owner.isAliasing(data)) owner.releaseSharedSegment(true);
+            sharedSegments.put(xid, true);
+        }
+
+        boolean fullFrame = srcX == 0 && srcY == 0 && dstX == 0 && dstY == 0 && width == drawable.width && height == drawable.height;
+        boolean ownedSegment = !sharedSegments.get(xid);
+        if (zeroCopyEnabled && ownedSegment && fullFrame && (depth == 24 || depth == 32) && drawable.aliasSharedSegment(data, totalWidth, totalHeight)) {
+            aliasedPutImages++;
+            aliasedBytes += width * height * 4L;
+        }
+        else {
+            drawable.drawImage(srcX, srcY, dstX, dstY, width, height, depth, data, totalWidth, totalHeight);
+            copiedBytes += depth == 1 ? (long)((width + 31) / 32 * 4) * height : width * height * 4L;
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(putImages, aliasedPutImages, copiedBytes, aliasedBytes);
+    }
 }
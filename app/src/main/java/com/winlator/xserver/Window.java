@@ -6,6 +6,7 @@ import com.winlator.xserver.events.Event;
 import com.winlator.xserver.events.PropertyNotify;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Stack;
@@ -31,9 +32,26 @@ public class Window extends XResource {
     public final XClient originClient;
     public final WindowAttributes attributes = new WindowAttributes(this);
     private final SparseArray<Property> properties = new SparseArray<>();
+    private static final int EVENT_BIT_COUNT = 25;
+    private static final EventListener[] NO_LISTENERS = new EventListener[0];
+    // Children are a doubly linked list in stacking order (first = bottom-most); the ArrayList is a
+    // snapshot for getChildren() rebuilt only after the order changed
     private final ArrayList<Window> children = new ArrayList<>();
     private final List<Window> immutableChildren = Collections.unmodifiableList(children);
-    private final ArrayList<EventListener> eventListeners = new ArrayList<>();
+    private boolean childrenDirty = false;
+    private Window firstChild;
+    private Window lastChild;
+    private Window previousSibling;
+    private Window nextSibling;
+    private int childCount = 0;
+    private EventListener[] eventListeners = NO_LISTENERS;
+    private final EventListener[][] listenersByEvent = new EventListener[EVENT_BIT_COUNT][];
+    private int allEventMasks = 0;
+    private static final int HIT_INDEX_MIN_CHILDREN = 16;
+    private WindowHitIndex hitIndex;
+    private short absoluteX;
+    private short absoluteY;
+    private boolean absolutePositionValid = false;
 
     public Window(int id, Drawable content, int x, int y, int width, int height, XClient originClient) {
         super(id);
@@ -43,6 +61,7 @@ public class Window extends XResource {
         this.width = (short)width;
         this.height = (short)height;
         this.originClient = originClient;
+        Arrays.fill(listenersByEvent, NO_LISTENERS);
     }
 
     public short getX() {
@@ -50,7 +69,10 @@ public class Window extends XResource {
     }
 
     public void setX(short x) {
+        if (this.x == x) return;
         this.x = x;
+        invalidateAbsolutePosition();
+        if (parent != null) parent.invalidateHitIndex();
     }
 
     public short getY() {
@@ -58,7 +80,10 @@ public class Window extends XResource {
     }
 
     public void setY(short y) {
+        if (this.y == y) return;
         this.y = y;
+        invalidateAbsolutePosition();
+        if (parent != null) parent.invalidateHitIndex();
     }
 
     public short getWidth() {
@@ -67,6 +92,7 @@ public class Window extends XResource {
 
     public void setWidth(short width) {
         this.width = width;
+        if (parent != null) parent.invalidateHitIndex();
     }
 
     public short getHeight() {
@@ -75,6 +101,7 @@ public class Window extends XResource {
 
     public void setHeight(short height) {
         this.height = height;
+        if (parent != null) parent.invalidateHitIndex();
     }
 
     public short getBorderWidth() {
@@ -99,6 +126,7 @@ public class Window extends XResource {
 
     public void setParent(Window parent) {
         this.parent = parent;
+        invalidateAbsolutePosition();
     }
 
     public Property getProperty(int id) {
@@ -186,72 +214,164 @@ public class Window extends XResource {
 
     public void addChild(Window child) {
         if (child == null || child.parent == this) return;
-        child.parent = this;
-        children.add(child);
+        child.setParent(this);
+        linkChild(child, lastChild, null);
+        invalidateHitIndex();
     }
 
     public void removeChild(Window child) {
         if (child == null || child.parent != this) return;
-        child.parent = null;
-        children.remove(child);
+        unlinkChild(child);
+        child.setParent(null);
+        invalidateHitIndex();
     }
 
     public Window previousSibling() {
-        if (parent == null) return null;
-        int index = parent.children.indexOf(this);
-        return index > 0 ? parent.children.get(index - 1) : null;
+        return previousSibling;
+    }
+
+    public Window nextSibling() {
+        return nextSibling;
+    }
+
+    public Window getFirstChild() {
+        return firstChild;
+    }
+
+    public Window getLastChild() {
+        return lastChild;
     }
 
     public void moveChildAbove(Window child, Window sibling) {
-        children.remove(child);
-        if (sibling != null && children.contains(sibling)) {
-            children.add(children.indexOf(sibling) + 1, child);
-            return;
+        if (child.parent != this) return;
+        invalidateHitIndex();
+        unlinkChild(child);
+        if (sibling != null && sibling != child && sibling.parent == this) {
+            linkChild(child, sibling, sibling.nextSibling);
         }
-        children.add(child);
+        else linkChild(child, lastChild, null);
     }
 
     public void moveChildBelow(Window child, Window sibling) {
-        children.remove(child);
-        if (sibling != null && children.contains(sibling)) {
-            children.add(children.indexOf(sibling), child);
-            return;
+        if (child.parent != this) return;
+        invalidateHitIndex();
+        unlinkChild(child);
+        if (sibling != null && sibling != child && sibling.parent == this) {
+            linkChild(child, sibling.previousSibling, sibling);
         }
-        children.add(0, child);
+        else linkChild(child, null, firstChild);
+    }
+
+    private void linkChild(Window child, Window previous, Window next) {
+        child.previousSibling = previous;
+        child.nextSibling = next;
+        if (previous != null) {
+            previous.nextSibling = child;
+        }
+        else firstChild = child;
+        if (next != null) {
+            next.previousSibling = child;
+        }
+        else lastChild = child;
+        childCount++;
+        childrenDirty = true;
+    }
+
+    private void unlinkChild(Window child) {
+        if (child.previousSibling != null) {
+            child.previousSibling.nextSibling = child.nextSibling;
+        }
+        else firstChild = child.nextSibling;
+        if (child.nextSibling != null) {
+            child.nextSibling.previousSibling = child.previousSibling;
+        }
+        else lastChild = child.previousSibling;
+        child.previousSibling = null;
+        child.nextSibling = null;
+        childCount--;
+        childrenDirty = true;
     }
 
     public List<Window> getChildren() {
+        if (childrenDirty) {
+            children.clear();
+            for (Window child = firstChild; child != null; child = child.nextSibling) children.add(child);
+            childrenDirty = false;
+        }
         return immutableChildren;
     }
 
     public int getChildCount() {
-        return children.size();
+        return childCount;
     }
 
     public void addEventListener(EventListener eventListener) {
-        eventListeners.add(eventListener);
+        EventListener[] listeners = Arrays.copyOf(eventListeners, eventListeners.length + 1);
+        listeners[eventListeners.length] = eventListener;
+        setEventListeners(listeners);
     }
 
     public void removeEventListener(EventListener eventListener) {
-        eventListeners.remove(eventListener);
+        for (int i = 0; i < eventListeners.length; i++) {
+            if (eventListeners[i] == eventListener) {
+                EventListener[] listeners = new EventListener[eventListeners.length - 1];
+                System.arraycopy(eventListeners, 0, listeners, 0, i);
+                System.arraycopy(eventListeners, i + 1, listeners, i, listeners.length - i);
+                setEventListeners(listeners);
+                return;
+            }
+        }
     }
 
-    public boolean hasEventListenerFor(int eventId) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(eventId)) return true;
+    /**
+     * Listener masks do not change once attached, so the union mask and the per-event listener
+     * arrays are rebuilt here and dispatch never has to test listeners that are not interested.
+     */
+    private void setEventListeners(EventListener[] listeners) {
+        int allEventMasks = 0;
+        for (EventListener eventListener : listeners) allEventMasks |= eventListener.eventMask.getBits();
+
+        for (int bit = 0; bit < EVENT_BIT_COUNT; bit++) {
+            int eventId = 1<<bit;
+            if ((allEventMasks & eventId) == 0) {
+                listenersByEvent[bit] = NO_LISTENERS;
+                continue;
+            }
+
+            int count = 0;
+            for (EventListener eventListener : listeners) {
+                if (eventListener.isInterestedIn(eventId)) count++;
+            }
+            EventListener[] interested = new EventListener[count];
+            count = 0;
+            for (EventListener eventListener : listeners) {
+                if (eventListener.isInterestedIn(eventId)) interested[count++] = eventListener;
+            }
+            listenersByEvent[bit] = interested;
         }
-        return false;
+
+        this.eventListeners = listeners;
+        this.allEventMasks = allEventMasks;
     }
 
-    public boolean hasEventListenerFor(Bitmask mask) {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(mask)) return true;
+    private EventListener[] getEventListenersFor(int eventMask) {
+        if (Integer.bitCount(eventMask) == 1 && eventMask < (1<<EVENT_BIT_COUNT)) {
+            return listenersByEvent[Integer.numberOfTrailingZeros(eventMask)];
         }
-        return false;
+        return eventListeners;
+    }
+
+    public boolean hasEventListenerFor(int eventId) {
+        return (allEventMasks & eventId) != 0;
+    }
+
+    public boolean hasEventListenerFor(Bitmask mask) {
+        return (allEventMasks & mask.getBits()) != 0;
     }
 
     public void sendEvent(int eventId, Event event) {
-        for (EventListener eventListener : eventListeners) {
+        if ((allEventMasks & eventId) == 0) return;
+        for (EventListener eventListener : getEventListenersFor(eventId)) {
             if (eventListener.isInterestedIn(eventId)) {
                 eventListener.sendEvent(event);
             }
@@ -259,7 +379,8 @@ public class Window extends XResource {
     }
 
     public void sendEvent(Bitmask eventMask, Event event) {
-        for (EventListener eventListener : eventListeners) {
+        if ((allEventMasks & eventMask.getBits()) == 0) return;
+        for (EventListener eventListener : getEventListenersFor(eventMask.getBits())) {
             if (eventListener.isInterestedIn(eventMask)) {
                 eventListener.sendEvent(event);
             }
@@ -267,7 +388,8 @@ public class Window extends XResource {
     }
 
     public void sendEvent(int eventId, Event event, XClient client) {
-        for (EventListener eventListener : eventListeners) {
+        if ((allEventMasks & eventId) == 0) return;
+        for (EventListener eventListener : getEventListenersFor(eventId)) {
             if (eventListener.isInterestedIn(eventId) && eventListener.client == client) {
                 eventListener.sendEvent(event);
             }
@@ -275,7 +397,8 @@ public class Window extends XResource {
     }
 
     public void sendEvent(Bitmask eventMask, Event event, XClient client) {
-        for (EventListener eventListener : eventListeners) {
+        if ((allEventMasks & eventMask.getBits()) == 0) return;
+        for (EventListener eventListener : getEventListenersFor(eventMask.getBits())) {
             if (eventListener.isInterestedIn(eventMask) && eventListener.client == client) {
                 eventListener.sendEvent(event);
             }
@@ -287,48 +410,72 @@ public class Window extends XResource {
     }
 
     public boolean containsPoint(short rootX, short rootY) {
-        short[] localPoint = rootPointToLocal(rootX, rootY);
-        return localPoint[0] >= 0 && localPoint[1] >= 0 && localPoint[0] < width && localPoint[1] < height;
+        updateAbsolutePosition();
+        short localX = (short)(rootX - absoluteX);
+        short localY = (short)(rootY - absoluteY);
+        return localX >= 0 && localY >= 0 && localX < width && localY < height;
+    }
+
+    /** Returns the point in window coordinates packed with {@link #packPoint(short, short)}. */
+    public int rootPointToLocal(short x, short y) {
+        updateAbsolutePosition();
+        return packPoint((short)(x - absoluteX), (short)(y - absoluteY));
+    }
+
+    /** Returns the point in root coordinates packed with {@link #packPoint(short, short)}. */
+    public int localPointToRoot(short x, short y) {
+        updateAbsolutePosition();
+        return packPoint((short)(x + absoluteX), (short)(y + absoluteY));
+    }
+
+    /**
+     * Caches the position of this window in root coordinates. A valid cache implies valid caches on
+     * all ancestors, so invalidation can stop at the first window that is already invalid.
+     */
+    private void updateAbsolutePosition() {
+        if (absolutePositionValid) return;
+        if (parent != null) {
+            parent.updateAbsolutePosition();
+            absoluteX = (short)(parent.absoluteX + x);
+            absoluteY = (short)(parent.absoluteY + y);
+        }
+        else {
+            absoluteX = x;
+            absoluteY = y;
+        }
+        absolutePositionValid = true;
     }
 
-    public short[] rootPointToLocal(short x, short y) {
-        Window window = this;
-        while (window != null) {
-            x -= window.x;
-            y -= window.y;
-            window = window.parent;
-        }
-        return new short[]{x, y};
+    private void invalidateAbsolutePosition() {
+        if (!absolutePositionValid) return;
+        absolutePositionValid = false;
+        for (Window child = firstChild; child != null; child = child.nextSibling) child.invalidateAbsolutePosition();
     }
 
-    public short[] localPointToRoot(short x, short y) {
-        Window window = this;
-        while (window != null) {
-            x += window.x;
-            y += window.y;
-            window = window.parent;
-        }
-        return new short[]{x, y};
+    void invalidateHitIndex() {
+        if (hitIndex != null) hitIndex.invalidate();
+    }
+
+    public static int packPoint(short x, short y) {
+        return (x << 16) | (y & 0xffff);
+    }
+
+    public static short unpackX(int point) {
+        return (short)(point >> 16);
+    }
+
+    public static short unpackY(int point) {
+        return (short)point;
     }
 
     public short getRootX() {
-        short rootX = x;
-        Window window = parent;
-        while (window != null) {
-            rootX += window.x;
-            window = window.parent;
-        }
-        return rootX;
+        updateAbsolutePosition();
+        return absoluteX;
     }
 
     public short getRootY() {
-        short rootY = y;
-        Window window = parent;
-        while (window != null) {
-            rootY += window.y;
-            window = window.parent;
-        }
-        return rootY;
+        updateAbsolutePosition();
+        return absoluteY;
     }
 
     public Window getAncestorWithEventMask(Bitmask eventMask) {
@@ -365,8 +512,14 @@ public class Window extends XResource {
     }
 
     public Window getChildByCoords(short x, short y) {
-        for (int i = children.size()-1; i >= 0; i--) {
-            Window child = children.get(i);
+        if (childCount >= HIT_INDEX_MIN_CHILDREN) {
+            if (hitIndex == null) hitIndex = new WindowHitIndex();
+            if (hitIndex.isDirty()) hitIndex.build(this);
+            updateAbsolutePosition();
+            return hitIndex.find((short)(x - absoluteX), (short)(y - absoluteY));
+        }
+
+        for (Window child = lastChild; child != null; child = child.previousSibling) {
             if (child.attributes.isMapped() && child.containsPoint(x, y)) return child;
         }
         return null;
@@ -383,17 +536,13 @@ public class Window extends XResource {
         return MapState.UNVIEWABLE;
     }
 
-    public Bitmask getAllEventMasks() {
-        Bitmask eventMask = new Bitmask();
-        for (EventListener eventListener : eventListeners) eventMask.join(eventListener.eventMask);
-        return eventMask;
+    public int getAllEventMasks() {
+        return allEventMasks;
     }
 
     public EventListener getButtonPressListener() {
-        for (EventListener eventListener : eventListeners) {
-            if (eventListener.isInterestedIn(Event.BUTTON_PRESS)) return eventListener;
-        }
-        return null;
+        EventListener[] listeners = getEventListenersFor(Event.BUTTON_PRESS);
+        return listeners.length > 0 ? listeners[0] : null;
     }
 
     public void disableAllDescendants() {
@@ -402,7 +551,7 @@ public class Window extends XResource {
         while (!stack.isEmpty()) {
             Window window = stack.pop();
             window.attributes.setEnabled(false);
-            stack.addAll(window.children);
+            for (Window child = window.firstChild; child != null; child = child.nextSibling) stack.push(child);
         }
     }
 
@@ -75,6 +75,10 @@ public class WindowAttributes {
     }
 
     public void setMapped(boolean mapped) {
+        if (this.mapped != mapped) {
+            Window parent = window.getParent();
+            if (parent != null) parent.invalidateHitIndex();
+        }
         this.mapped = mapped;
     }
 
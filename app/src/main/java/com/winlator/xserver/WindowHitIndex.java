@@ -0,0 +1,124 @@
+package com.winlator.xserver;
+
+/**
+ * Uniform grid over the mapped children of a window, used by {@link Window#getChildByCoords} to
+ * find the top-most child under a point without testing every sibling. Each cell lists the
+ * children overlapping it in stacking order, top-most first. The index is rebuilt lazily after the
+ * parent reports a map, restack or geometry change of one of its children.
+ */
+class WindowHitIndex {
+    private static final int GRID_SIZE = 8;
+    private static final int[] EMPTY_CELL = new int[0];
+    private Window[] windows = new Window[0];
+    private int[] rects = new int[0];
+    private final int[][] cells = new int[GRID_SIZE * GRID_SIZE][];
+    private int minX;
+    private int minY;
+    private int cellWidth;
+    private int cellHeight;
+    private boolean dirty = true;
+
+    public void invalidate() {
+        dirty = true;
+    }
+
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    public void build(Window parent) {
+        int count = 0;
+        for (Window child = parent.getFirstChild(); child != null; child = child.nextSibling()) {
+            if (child.attributes.isMapped()) count++;
+        }
+
+        if (windows.length != count) {
+            windows = new Window[count];
+            rects = new int[count * 4];
+        }
+
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        int index = 0;
+        for (Window child = parent.getLastChild(); child != null; child = child.previousSibling()) {
+            if (!child.attributes.isMapped()) continue;
+            int left = child.getX();
+            int top = child.getY();
+            int right = left + child.getWidth();
+            int bottom = top + child.getHeight();
+            windows[index] = child;
+            rects[index * 4 + 0] = left;
+            rects[index * 4 + 1] = top;
+            rects[index * 4 + 2] = right;
+            rects[index * 4 + 3] = bottom;
+            minX = Math.min(minX, left);
+            minY = Math.min(minY, top);
+            maxX = Math.max(maxX, right);
+            maxY = Math.max(maxY, bottom);
+            index++;
+        }
+
+        if (count == 0) {
+            this.minX = this.minY = 0;
+            this.cellWidth = this.cellHeight = 0;
+            dirty = false;
+            return;
+        }
+
+        this.minX = minX;
+        this.minY = minY;
+        this.cellWidth = Math.max(1, (maxX - minX + GRID_SIZE - 1) / GRID_SIZE);
+        this.cellHeight = Math.max(1, (maxY - minY + GRID_SIZE - 1) / GRID_SIZE);
+
+        int[] cellSizes = new int[cells.length];
+        for (int pass = 0; pass < 2; pass++) {
+            for (int i = 0; i < count; i++) {
+                int left = rects[i * 4 + 0], top = rects[i * 4 + 1], right = rects[i * 4 + 2], bottom = rects[i * 4 + 3];
+                if (right <= left || bottom <= top) continue;
+                int col0 = cellColumn(left), col1 = cellColumn(right - 1);
+                int row0 = cellRow(top), row1 = cellRow(bottom - 1);
+                for (int row = row0; row <= row1; row++) {
+                    for (int col = col0; col <= col1; col++) {
+                        int cell = row * GRID_SIZE + col;
+                        if (pass == 0) {
+                            cellSizes[cell]++;
+                        }
+                        else cells[cell][cellSizes[cell]++] = i;
+                    }
+                }
+            }
+
+            if (pass == 0) {
+                for (int cell = 0; cell < cells.length; cell++) {
+                    cells[cell] = cellSizes[cell] > 0 ? new int[cellSizes[cell]] : EMPTY_CELL;
+                    cellSizes[cell] = 0;
+                }
+            }
+        }
+        dirty = false;
+    }
+
+    private int cellColumn(int x) {
+        return Math.min(GRID_SIZE - 1, (x - minX) / cellWidth);
+    }
+
+    private int cellRow(int y) {
+        return Math.min(GRID_SIZE - 1, (y - minY) / cellHeight);
+    }
+
+    /** Returns the top-most mapped child containing the point, given in the parent's coordinates. */
+    public Window find(int x, int y) {
+        if (windows.length == 0 || x < minX || y < minY) return null;
+        int col = (x - minX) / cellWidth;
+        int row = (y - minY) / cellHeight;
+        if (col >= GRID_SIZE || row >= GRID_SIZE) return null;
+
+        int[] cell = cells[row * GRID_SIZE + col];
+        for (int i : cell) {
+            if (x >= rects[i * 4 + 0] && y >= rects[i * 4 + 1] && x < rects[i * 4 + 2] && y < rects[i * 4 + 3]) {
+                return windows[i];
+            }
+        }
+        return null;
+    }
+}
@@ -21,6 +21,7 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
     private final XOutputStream outputStream;
     private final ArrayMap<Window, EventListener> eventListeners = new ArrayMap<>();
     private final ArrayList<XResource> resources = new ArrayList<>();
+    private int motionHintSerial = -1;
 
     public XClient(XServer xServer, XInputStream inputStream, XOutputStream outputStream) {
         this.xServer = xServer;
@@ -63,6 +64,21 @@ public class XClient implements XResourceManager.OnResourceLifecycleListener {
         return eventListener != null && eventListener.isInterestedIn(eventId);
     }
 
+    /**
+     * PointerMotionHint: only one MotionNotify is sent until the key/button state or the pointer window
+     * changes, or the client queries the pointer. Returns whether a hint may be sent now.
+     */
+    public boolean acquireMotionHint() {
+        int serial = xServer.inputDeviceManager.getMotionHintSerial();
+        if (motionHintSerial == serial) return false;
+        motionHintSerial = serial;
+        return true;
+    }
+
+    public void resetMotionHint() {
+        motionHintSerial = -1;
+    }
+
     public boolean isAuthenticated() {
         return authenticated;
     }
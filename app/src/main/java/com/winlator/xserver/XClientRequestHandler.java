@@ -2,6 +2,9 @@ package com.winlator.xserver;
 
 import android.util.Log;
 
+import com.winlator.metrics.Counter;
+import com.winlator.metrics.Histogram;
+import com.winlator.metrics.MetricsRegistry;
 import com.winlator.xconnector.Client;
 import com.winlator.xconnector.RequestHandler;
 import com.winlator.xconnector.XInputStream;
@@ -28,6 +31,9 @@ public class XClientRequestHandler implements RequestHandler {
     public static final byte RESPONSE_CODE_ERROR = 0;
     public static final byte RESPONSE_CODE_SUCCESS = 1;
     public static final int MAX_REQUEST_LENGTH = 65535;
+    private static final Counter requestCount = MetricsRegistry.get().counter("xserver.requests");
+    private static final Counter requestBytes = MetricsRegistry.get().counter("xserver.request_bytes");
+    private static final Histogram requestTime = MetricsRegistry.get().histogram("xserver.request_ns");
 
     @Override
     public boolean handleRequest(Client client) throws IOException {
@@ -82,7 +88,7 @@ public class XClientRequestHandler implements RequestHandler {
             outputStream.writeInt(0);
             outputStream.writeInt(0xffffff);
             outputStream.writeInt(0x000000);
-            outputStream.writeInt(client.xServer.windowManager.rootWindow.getAllEventMasks().getBits());
+            outputStream.writeInt(client.xServer.windowManager.rootWindow.getAllEventMasks());
             outputStream.writeShort(client.xServer.screenInfo.width);
             outputStream.writeShort(client.xServer.screenInfo.height);
             outputStream.writeShort(client.xServer.screenInfo.getWidthInMillimeters());
@@ -151,6 +157,7 @@ public class XClientRequestHandler implements RequestHandler {
 
     private boolean handleNormalRequest(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException {
         if (inputStream.available() < 4) return false;
+        int requestStart = inputStream.getActivePosition();
         byte opcode = inputStream.readByte();
         byte requestData = inputStream.readByte();
 
@@ -164,10 +171,16 @@ public class XClientRequestHandler implements RequestHandler {
         else requestLength = inputStream.readInt() * 4 - 8;
         if (inputStream.available() < requestLength) return false;
 
+        int requestSize = inputStream.getActivePosition() - requestStart + requestLength;
         client.generateSequenceNumber();
         client.setRequestData(requestData);
         client.setRequestLength(requestLength);
 
+        RequestProfiler profiler = client.xServer.getRequestProfiler();
+        if (profiler != null) profiler.begin(client.resourceIDBase, inputStream, requestStart, requestSize, outputStream);
+        boolean recordMetrics = MetricsRegistry.get().isEnabled();
+        long startTime = profiler != null || recordMetrics ? System.nanoTime() : 0;
+
         try {
             switch (opcode) {
                 case ClientOpcodes.CREATE_WINDOW:
@@ -459,6 +472,12 @@ public class XClientRequestHandler implements RequestHandler {
             e.sendError(client, opcode);
         }
 
+        if (profiler != null) profiler.end(client.resourceIDBase, opcode, requestData, requestSize, outputStream, startTime);
+        if (recordMetrics) {
+            requestTime.record(System.nanoTime() - startTime);
+            requestCount.increment();
+            requestBytes.add(requestSize);
+        }
         return true;
     }
 }
@@ -4,6 +4,8 @@ import android.util.Log;
 import android.util.SparseArray;
 
 import com.winlator.core.CursorLocker;
+import com.winlator.metrics.Histogram;
+import com.winlator.metrics.MetricsRegistry;
 import com.winlator.renderer.GLRenderer;
 import com.winlator.winhandler.WinHandler;
 import com.winlator.xserver.extensions.BigReqExtension;
@@ -22,6 +24,7 @@ public class XServer {
     public static final short VERSION = 11;
     public static final String VENDOR_NAME = "Elbrus Technologies, LLC";
     public static final Charset LATIN1_CHARSET = Charset.forName("latin1");
+    private static final Histogram lockWaitTime = MetricsRegistry.get().histogram("xserver.lock_wait_ns");
     public final SparseArray<Extension> extensions = new SparseArray<>();
     public final ScreenInfo screenInfo;
     public final PixmapManager pixmapManager;
@@ -33,6 +36,7 @@ public class XServer {
     public final CursorManager cursorManager;
     public final Keyboard keyboard = Keyboard.createKeyboard(this);
     public final Pointer pointer = new Pointer(this);
+    public final InputEventQueue inputEventQueue = new InputEventQueue(new InputEventTarget());
     public final InputDeviceManager inputDeviceManager;
     public final GrabManager grabManager;
     private boolean isGrabbed = false;
@@ -44,6 +48,7 @@ public class XServer {
     private final EnumMap<Lockable, ReentrantLock> locks = new EnumMap<>(Lockable.class);
     private boolean relativeMouseMovement = false;
     private boolean simulateTouchScreen = false;
+    private volatile RequestProfiler requestProfiler;
 
     public XServer(ScreenInfo screenInfo) {
         Log.d("XServer", "Creating xServer " + screenInfo);
@@ -102,12 +107,37 @@ public class XServer {
         this.shmSegmentManager = shmSegmentManager;
     }
 
+    public RequestProfiler getRequestProfiler() {
+        return requestProfiler;
+    }
+
+    /** Starts attributing request handling to clients and opcodes, or stops it when null. */
+    public void setRequestProfiler(RequestProfiler requestProfiler) {
+        this.requestProfiler = requestProfiler;
+    }
+
+    /** Takes the lock, timing the wait only when another thread holds it. */
+    private void acquire(ReentrantLock lock) {
+        if (lock.tryLock()) return;
+        boolean recordMetrics = MetricsRegistry.get().isEnabled();
+        RequestProfiler profiler = requestProfiler;
+        if (!recordMetrics && profiler == null) {
+            lock.lock();
+            return;
+        }
+        long startTime = System.nanoTime();
+        lock.lock();
+        long waitTime = System.nanoTime() - startTime;
+        if (recordMetrics) lockWaitTime.record(waitTime);
+        if (profiler != null) profiler.addLockWait(waitTime);
+    }
+
     private class SingleXLock implements XLock {
         private final ReentrantLock lock;
 
         private SingleXLock(Lockable lockable) {
             this.lock = locks.get(lockable);
-            lock.lock();
+            acquire(lock);
         }
 
         @Override
@@ -121,7 +151,7 @@ public class XServer {
 
         private MultiXLock(Lockable[] lockables) {
             this.lockables = lockables;
-            for (Lockable lockable : lockables) locks.get(lockable).lock();
+            for (Lockable lockable : lockables) acquire(locks.get(lockable));
         }
 
         @Override
@@ -153,27 +183,19 @@ public class XServer {
     }
 
     public void injectPointerMove(int x, int y) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setPosition(x, y);
-        }
+        inputEventQueue.pointerMove(x, y);
     }
 
     public void injectPointerMoveDelta(int dx, int dy) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setPosition(pointer.getX() + dx, pointer.getY() + dy);
-        }
+        inputEventQueue.pointerMoveDelta(dx, dy);
     }
 
     public void injectPointerButtonPress(Pointer.Button buttonCode) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setButton(buttonCode, true);
-        }
+        inputEventQueue.pointerButton(buttonCode, true);
     }
 
     public void injectPointerButtonRelease(Pointer.Button buttonCode) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            pointer.setButton(buttonCode, false);
-        }
+        inputEventQueue.pointerButton(buttonCode, false);
     }
 
     public void injectKeyPress(XKeycode xKeycode) {
@@ -181,14 +203,48 @@ public class XServer {
     }
 
     public void injectKeyPress(XKeycode xKeycode, int keysym) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            keyboard.setKeyPress(xKeycode.getId(), keysym);
-        }
+        inputEventQueue.key(xKeycode.getId(), keysym, true);
     }
 
     public void injectKeyRelease(XKeycode xKeycode) {
-        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
-            keyboard.setKeyRelease(xKeycode.getId());
+        inputEventQueue.key(xKeycode.getId(), 0, false);
+    }
+
+    private class InputEventTarget implements InputEventQueue.Target {
+        // Taken directly instead of through lock(...) so a batch does not allocate
+        @Override
+        public void beginBatch() {
+            acquire(locks.get(Lockable.WINDOW_MANAGER));
+            acquire(locks.get(Lockable.INPUT_DEVICE));
+        }
+
+        @Override
+        public void pointerMove(int x, int y) {
+            pointer.setPosition(x, y);
+        }
+
+        @Override
+        public void pointerMoveDelta(int dx, int dy) {
+            pointer.setPosition(pointer.getX() + dx, pointer.getY() + dy);
+        }
+
+        @Override
+        public void pointerButton(Pointer.Button button, boolean pressed) {
+            pointer.setButton(button, pressed);
+        }
+
+        @Override
+        public void key(byte keycode, int keysym, boolean pressed) {
+            if (pressed) {
+                keyboard.setKeyPress(keycode, keysym);
+            }
+            else keyboard.setKeyRelease(keycode);
+        }
+
+        @Override
+        public void endBatch() {
+            locks.get(Lockable.INPUT_DEVICE).unlock();
+            locks.get(Lockable.WINDOW_MANAGER).unlock();
         }
     }
 
@@ -216,4 +272,24 @@ public class XServer {
         return false;
     }
 
+    /**
+     * Clears what the clients of a finished launch leave behind in the server itself, so that it can
+     * serve the next one: held buttons and keys, grabs and the input mode set by the game. Returns
+     * false if windows besides the root are still around, meaning some client is still attached.
+     */
+    public boolean resetSession() {
+        try (XLock lock = lock(Lockable.WINDOW_MANAGER, Lockable.INPUT_DEVICE)) {
+            for (Pointer.Button button : Pointer.Button.values()) {
+                if (pointer.isButtonPressed(button)) pointer.setButton(button, false);
+            }
+            for (int keycode = Keyboard.MIN_KEYCODE; keycode <= Keyboard.MAX_KEYCODE; keycode++) {
+                keyboard.setKeyRelease((byte)keycode);
+            }
+            grabManager.deactivatePointerGrab();
+            setGrabbed(false, null);
+            setRelativeMouseMovement(false);
+            setSimulateTouchScreen(false);
+            return windowManager.rootWindow.getChildren().isEmpty();
+        }
+    }
 }
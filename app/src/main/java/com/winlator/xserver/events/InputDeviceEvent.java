@@ -7,47 +7,69 @@ import com.winlator.xserver.Window;
 
 import java.io.IOException;
 
+/**
+ * Key, button and motion events. Instances created with the code-only constructor are reusable:
+ * the input path refills them with {@link #set} for every event instead of allocating, which is
+ * safe because events are serialized into the client stream before {@code sendEvent} returns.
+ */
 public class InputDeviceEvent extends Event {
-    private final byte detail;
-    private final int timestamp;
-    private final Window root;
-    private final Window event;
-    private final Window child;
-    private final short eventX;
-    private final short eventY;
-    private final short rootX;
-    private final short rootY;
-    private final Bitmask state;
+    private byte detail;
+    private int timestamp;
+    private int rootId;
+    private int eventId;
+    private int childId;
+    private short eventX;
+    private short eventY;
+    private short rootX;
+    private short rootY;
+    private short state;
+
+    protected InputDeviceEvent(int code) {
+        super(code);
+    }
 
     public InputDeviceEvent(int code, byte detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(code);
+        set(detail, root, event, child, rootX, rootY, eventX, eventY, state.getBits());
+    }
+
+    public InputDeviceEvent set(byte detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, int state) {
         this.detail = detail;
         this.timestamp = (int)System.currentTimeMillis();
-        this.root = root;
-        this.event = event;
-        this.child = child;
+        this.rootId = root.id;
+        this.eventId = event.id;
+        this.childId = child != null ? child.id : 0;
         this.rootX = rootX;
         this.rootY = rootY;
         this.eventX = eventX;
         this.eventY = eventY;
-        this.state = state;
+        this.state = (short)state;
+        return this;
+    }
+
+    public byte getDetail() {
+        return detail;
     }
 
     @Override
     public void send(short sequenceNumber, XOutputStream outputStream) throws IOException {
+        send(sequenceNumber, outputStream, detail);
+    }
+
+    protected void send(short sequenceNumber, XOutputStream outputStream, byte detail) throws IOException {
         try (XStreamLock lock = outputStream.lock()) {
             outputStream.writeByte(code);
             outputStream.writeByte(detail);
             outputStream.writeShort(sequenceNumber);
             outputStream.writeInt(timestamp);
-            outputStream.writeInt(root.id);
-            outputStream.writeInt(event.id);
-            outputStream.writeInt(child != null ? child.id : 0);
+            outputStream.writeInt(rootId);
+            outputStream.writeInt(eventId);
+            outputStream.writeInt(childId);
             outputStream.writeShort(rootX);
             outputStream.writeShort(rootY);
             outputStream.writeShort(eventX);
             outputStream.writeShort(eventY);
-            outputStream.writeShort((short)state.getBits());
+            outputStream.writeShort(state);
             outputStream.writeByte((byte)1);
             outputStream.writeByte((byte)0);
         }
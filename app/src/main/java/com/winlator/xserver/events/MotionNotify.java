@@ -1,10 +1,21 @@
 package com.winlator.xserver.events;
 
+import com.winlator.xconnector.XOutputStream;
 import com.winlator.xserver.Bitmask;
 import com.winlator.xserver.Window;
 
+import java.io.IOException;
+
 public class MotionNotify extends InputDeviceEvent {
+    public MotionNotify() {
+        super(6);
+    }
+
     public MotionNotify(boolean detail, Window root, Window event, Window child, short rootX, short rootY, short eventX, short eventY, Bitmask state) {
         super(6, (byte)(detail ? 1 : 0), root, event, child, rootX, rootY, eventX, eventY, state);
     }
+
+    public void sendHint(short sequenceNumber, XOutputStream outputStream) throws IOException {
+        send(sequenceNumber, outputStream, (byte)1);
+    }
 }
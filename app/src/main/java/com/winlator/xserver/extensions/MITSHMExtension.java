@@ -7,6 +7,7 @@ import com.winlator.xconnector.XOutputStream;
 import com.winlator.xconnector.XStreamLock;
 import com.winlator.xserver.Drawable;
 import com.winlator.xserver.GraphicsContext;
+import com.winlator.xserver.SHMSegmentManager;
 import com.winlator.xserver.XClient;
 import com.winlator.xserver.XLock;
 import com.winlator.xserver.XServer;
@@ -96,14 +97,15 @@ public class MITSHMExtension implements Extension {
         GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
         if (graphicsContext == null) throw new BadGraphicsContext(gcId);
 
-        ByteBuffer data = client.xServer.getSHMSegmentManager().getData(shmseg);
+        SHMSegmentManager shmSegmentManager = client.xServer.getSHMSegmentManager();
+        ByteBuffer data = shmSegmentManager.getData(shmseg);
         if (data == null) throw new BadSHMSegment(shmseg);
 
         if (graphicsContext.getFunction() != GraphicsContext.Function.COPY) {
             throw new UnsupportedOperationException("GC Function other than COPY is not supported.");
         }
 
-        drawable.drawImage(srcX, srcY, dstX, dstY, srcWidth, srcHeight, depth, data, totalWidth, totalHeight);
+        shmSegmentManager.putImage(shmseg, data, drawable, srcX, srcY, dstX, dstY, srcWidth, srcHeight, depth, totalWidth, totalHeight);
     }
 
     @Override
@@ -114,12 +116,12 @@ public class MITSHMExtension implements Extension {
                 queryVersion(client, inputStream, outputStream);
                 break;
             case ClientOpcodes.ATTACH :
-                try (XLock lock = client.xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER)) {
+                try (XLock lock = client.xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
                     attach(client, inputStream, outputStream);
                 }
                 break;
             case ClientOpcodes.DETACH :
-                try (XLock lock = client.xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER)) {
+                try (XLock lock = client.xServer.lock(XServer.Lockable.SHMSEGMENT_MANAGER, XServer.Lockable.DRAWABLE_MANAGER)) {
                     detach(client, inputStream, outputStream);
                 }
                 break;
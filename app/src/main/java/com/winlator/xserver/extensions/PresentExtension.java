@@ -4,6 +4,9 @@ import static com.winlator.xserver.XClientRequestHandler.RESPONSE_CODE_SUCCESS;
 
 import android.util.SparseArray;
 
+import com.winlator.metrics.Counter;
+import com.winlator.metrics.Histogram;
+import com.winlator.metrics.MetricsRegistry;
 import com.winlator.renderer.GPUImage;
 import com.winlator.renderer.Texture;
 import com.winlator.widget.XServerView;
@@ -34,7 +37,11 @@ public class PresentExtension implements Extension {
     private static final int FAKE_INTERVAL = 1000000 / 60;
     public enum Kind {PIXMAP, MSC_NOTIFY}
     public enum Mode {COPY, FLIP, SKIP}
+    private static final Counter presentCount = MetricsRegistry.get().counter("present.pixmaps");
+    private static final Histogram presentInterval = MetricsRegistry.get().histogram("present.interval_ns");
+    private static final Histogram presentLatency = MetricsRegistry.get().histogram("present.latency_ns");
     private final SparseArray<Event> events = new SparseArray<>();
+    private long lastPresentTime = 0;
     private SyncExtension syncExtension;
 
     private static abstract class ClientOpcodes {
@@ -109,6 +116,8 @@ public class PresentExtension implements Extension {
     }
 
     private void presentPixmap(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
+        boolean recordMetrics = MetricsRegistry.get().isEnabled();
+        long startTime = recordMetrics ? System.nanoTime() : 0;
         int windowId = inputStream.readInt();
         int pixmapId = inputStream.readInt();
         int serial = inputStream.readInt();
@@ -136,6 +145,17 @@ public class PresentExtension implements Extension {
             sendIdleNotify(window, pixmap, serial, idleFence);
             sendCompleteNotify(window, serial, Kind.PIXMAP, Mode.COPY, ust, msc);
         }
+
+        if (!recordMetrics) {
+            lastPresentTime = 0;
+            return;
+        }
+        // Time from the request to the complete notification, including the wait for the renderLock
+        long endTime = System.nanoTime();
+        presentLatency.record(endTime - startTime);
+        if (lastPresentTime != 0) presentInterval.record(endTime - lastPresentTime);
+        lastPresentTime = endTime;
+        presentCount.increment();
     }
 
     private void selectInput(XClient client, XInputStream inputStream, XOutputStream outputStream) throws IOException, XRequestError {
@@ -128,17 +128,10 @@ public abstract class DrawRequests {
         GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
         if (graphicsContext == null) throw new BadGraphicsContext(gcId);
         int length = client.getRemainingRequestLength();
+        ByteBuffer points = inputStream.readByteBuffer(length);
 
-        short[] points = new short[length / 2];
-        int i = 0;
-        while (length != 0) {
-            points[i++] = inputStream.readShort();
-            points[i++] = inputStream.readShort();
-            length -= 4;
-        }
-
-        if (coordinateMode == CoordinateMode.ORIGIN && graphicsContext.getLineWidth() > 0) {
-            drawable.drawLines(graphicsContext.getForeground(), graphicsContext.getLineWidth(), points);
+        if (graphicsContext.getLineWidth() > 0) {
+            drawable.drawLines(points, length / 4, coordinateMode == CoordinateMode.PREVIOUS, graphicsContext.getForeground(), graphicsContext.getLineWidth(), graphicsContext.getFunction());
         }
     }
 
@@ -151,14 +144,8 @@ public abstract class DrawRequests {
         GraphicsContext graphicsContext = client.xServer.graphicsContextManager.getGraphicsContext(gcId);
         if (graphicsContext == null) throw new BadGraphicsContext(gcId);
         int length = client.getRemainingRequestLength();
+        ByteBuffer rects = inputStream.readByteBuffer(length);
 
-        while (length != 0) {
-            short x = inputStream.readShort();
-            short y = inputStream.readShort();
-            short width = inputStream.readShort();
-            short height = inputStream.readShort();
-            drawable.fillRect(x, y, width, height, graphicsContext.getBackground());
-            length -= 8;
-        }
+        drawable.fillRects(rects, length / 8, graphicsContext.getForeground(), graphicsContext.getFunction());
     }
 }
\ No newline at end of file
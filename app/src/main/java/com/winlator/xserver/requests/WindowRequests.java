@@ -77,7 +77,7 @@ public abstract class WindowRequests {
             outputStream.writeByte((byte)window.getMapState().ordinal());
             outputStream.writeByte((byte)(window.attributes.isOverrideRedirect() ? 1 : 0));
             outputStream.writeInt(0);
-            outputStream.writeInt(window.getAllEventMasks().getBits());
+            outputStream.writeInt(window.getAllEventMasks());
             outputStream.writeInt(client.getEventMaskForWindow(window).getBits());
             outputStream.writeShort((short)window.attributes.getDoNotPropagateMask().getBits());
             outputStream.writeShort((short)0);
@@ -267,10 +267,11 @@ public abstract class WindowRequests {
         int windowId = inputStream.readInt();
         Window window = client.xServer.windowManager.getWindow(windowId);
         if (window == null) throw new BadWindow(windowId);
+        client.resetMotionHint();
         short rootX = client.xServer.pointer.getClampedX();
         short rootY = client.xServer.pointer.getClampedY();
         Window child = window.getChildByCoords(rootX, rootY);
-        short[] localPoint = window.rootPointToLocal(rootX, rootY);
+        int localPoint = window.rootPointToLocal(rootX, rootY);
 
         try (XStreamLock lock = outputStream.lock()) {
             outputStream.writeByte(RESPONSE_CODE_SUCCESS);
@@ -281,9 +282,9 @@ public abstract class WindowRequests {
             outputStream.writeInt(child != null ? child.id : 0);
             outputStream.writeShort(rootX);
             outputStream.writeShort(rootY);
-            outputStream.writeShort(localPoint[0]);
-            outputStream.writeShort(localPoint[1]);
-            outputStream.writeShort((short)client.xServer.inputDeviceManager.getKeyButMask().getBits());
+            outputStream.writeShort(Window.unpackX(localPoint));
+            outputStream.writeShort(Window.unpackY(localPoint));
+            outputStream.writeShort((short)client.xServer.inputDeviceManager.getKeyButBits());
             outputStream.writePad(6);
         }
     }
@@ -300,9 +301,11 @@ public abstract class WindowRequests {
         if (srcWindow == null) throw new BadWindow(srcWindowId);
         if (dstWindow == null) throw new BadWindow(dstWindowId);
 
-        short[] rootPoint = srcWindow.localPointToRoot(srcX, srcY);
-        short[] localPoint = dstWindow.rootPointToLocal(rootPoint[0], rootPoint[1]);
-        Window child = dstWindow.getChildByCoords(rootPoint[0], rootPoint[1]);
+        int rootPoint = srcWindow.localPointToRoot(srcX, srcY);
+        short rootX = Window.unpackX(rootPoint);
+        short rootY = Window.unpackY(rootPoint);
+        int localPoint = dstWindow.rootPointToLocal(rootX, rootY);
+        Window child = dstWindow.getChildByCoords(rootX, rootY);
 
         try (XStreamLock lock = outputStream.lock()) {
             outputStream.writeByte(RESPONSE_CODE_SUCCESS);
@@ -310,8 +313,8 @@ public abstract class WindowRequests {
             outputStream.writeShort(client.getSequenceNumber());
             outputStream.writeInt(0);
             outputStream.writeInt(child != null ? child.id : 0);
-            outputStream.writeShort(localPoint[0]);
-            outputStream.writeShort(localPoint[1]);
+            outputStream.writeShort(Window.unpackX(localPoint));
+            outputStream.writeShort(Window.unpackY(localPoint));
             outputStream.writePad(16);
         }
     }
@@ -335,8 +338,10 @@ public abstract class WindowRequests {
             if (srcWidth == 0) srcWidth = (short)(srcWindow.getWidth() - srcX);
             if (srcHeight == 0) srcHeight = (short)(srcWindow.getHeight() - srcY);
 
-            short[] localPoint = srcWindow.rootPointToLocal(client.xServer.pointer.getX(), client.xServer.pointer.getY());
-            boolean isContained = localPoint[0] >= srcX && localPoint[1] >= srcY && localPoint[0] < (srcX + srcWidth) && localPoint[1] < (srcY + srcHeight);
+            int localPoint = srcWindow.rootPointToLocal(client.xServer.pointer.getX(), client.xServer.pointer.getY());
+            short localX = Window.unpackX(localPoint);
+            short localY = Window.unpackY(localPoint);
+            boolean isContained = localX >= srcX && localY >= srcY && localX < (srcX + srcWidth) && localY < (srcY + srcHeight);
             if (!isContained) return;
         }
 
@@ -345,9 +350,9 @@ public abstract class WindowRequests {
             client.xServer.pointer.setY(client.xServer.pointer.getY() + dstY);
         }
         else {
-            short[] localPoint = dstWindow.localPointToRoot(dstX, dstY);
-            client.xServer.pointer.setX(localPoint[0]);
-            client.xServer.pointer.setY(localPoint[1]);
+            int rootPoint = dstWindow.localPointToRoot(dstX, dstY);
+            client.xServer.pointer.setX(Window.unpackX(rootPoint));
+            client.xServer.pointer.setY(Window.unpackY(rootPoint));
         }
     }
 
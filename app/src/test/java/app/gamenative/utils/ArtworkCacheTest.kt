@@ -0,0 +1,192 @@
+package app.gamenative.utils
+
+import com.sun.net.httpserver.HttpServer
+import java.io.File
+import java.net.HttpURLConnection
+import java.net.InetSocketAddress
+import java.net.URL
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class ArtworkCacheTest {
+
+    private lateinit var tempDir: File
+    private lateinit var server: HttpServer
+    private lateinit var executor: ExecutorService
+    private val images = ConcurrentHashMap<String, ByteArray>()
+    private val served = ConcurrentHashMap<String, AtomicInteger>()
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("artwork_cache_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        server = HttpServer.create(InetSocketAddress("127.0.0.1", 0), 0)
+        server.createContext("/") { exchange ->
+            val path = exchange.requestURI.path
+            served.getOrPut(path) { AtomicInteger() }.incrementAndGet()
+            val body = images[path]
+            if (body == null) {
+                exchange.sendResponseHeaders(404, -1)
+            } else {
+                exchange.sendResponseHeaders(200, body.size.toLong())
+                exchange.responseBody.write(body)
+            }
+            exchange.close()
+        }
+        executor = Executors.newFixedThreadPool(8)
+        server.executor = executor
+        server.start()
+    }
+
+    @After
+    fun tearDown() {
+        server.stop(0)
+        executor.shutdownNow()
+        tempDir.deleteRecursively()
+    }
+
+    private fun url(path: String) = "http://127.0.0.1:${server.address.port}$path"
+
+    private val httpFetch: (String) -> ByteArray? = { url ->
+        val connection = URL(url).openConnection() as HttpURLConnection
+        try {
+            if (connection.responseCode == 200) connection.inputStream.use { it.readBytes() } else null
+        } finally {
+            connection.disconnect()
+        }
+    }
+
+    private fun image(path: String, size: Int, seed: Int = size): ByteArray =
+        kotlin.random.Random(seed).nextBytes(size).also { images[path] = it }
+
+    private fun diskFileOf(dir: File, path: String): File = dir.listFiles()!!.single { it.readBytes().contentEquals(images[path]) }
+
+    private fun cache(maxMemoryBytes: Long = 1L shl 20, maxDiskBytes: Long = 4L shl 20) =
+        ArtworkCache(File(tempDir, "artwork"), maxMemoryBytes, maxDiskBytes, httpFetch)
+
+    @Test
+    fun tiers_memoryThenDiskThenNetwork() = runBlocking {
+        val grid = image("/grid.png", 50_000)
+
+        val first = cache()
+        assertArrayEquals(grid, first.get(url("/grid.png")))
+        assertArrayEquals(grid, first.get(url("/grid.png")))
+        assertEquals(1, served["/grid.png"]!!.get())
+        assertEquals(1L, first.stats.memoryHits)
+
+        // A new instance starts with an empty memory tier but finds the file on disk
+        val second = cache()
+        assertArrayEquals(grid, second.get(url("/grid.png")))
+        assertEquals(1L, second.stats.diskHits)
+        assertEquals(1, served["/grid.png"]!!.get())
+
+        // Failures are not cached
+        assertNull(second.get(url("/missing.png")))
+        images["/missing.png"] = byteArrayOf(1, 2, 3)
+        assertArrayEquals(byteArrayOf(1, 2, 3), second.get(url("/missing.png")))
+        with(second.stats) {
+            assertEquals(3L, requests)
+            assertEquals(2L, fetches)
+            assertEquals(1L, failures)
+            assertEquals(3L, bytesFetched)
+        }
+    }
+
+    @Test
+    fun concurrentRequests_shareOneFetch() = runBlocking {
+        val hero = image("/hero.jpg", 200_000)
+        val release = CountDownLatch(1)
+        val cache = ArtworkCache(File(tempDir, "artwork"), 1L shl 20, 4L shl 20) { url ->
+            release.await(5, TimeUnit.SECONDS)
+            httpFetch(url)
+        }
+
+        val results = (0 until 16).map { async(Dispatchers.IO) { cache.get(url("/hero.jpg")) } }
+        // Hold the fetch until every other caller is waiting on it
+        val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+        while (cache.stats.coalesced < 15 && System.nanoTime() < deadline) Thread.yield()
+        release.countDown()
+        results.awaitAll().forEach { assertArrayEquals(hero, it) }
+
+        assertEquals(1, served["/hero.jpg"]!!.get())
+        assertEquals(1L, cache.stats.fetches)
+        assertEquals(15L, cache.stats.coalesced)
+        assertEquals(15.0 / 16, cache.stats.hitRate, 1e-9)
+    }
+
+    @Test
+    fun bothTiers_evictLeastRecentlyUsedBySize() = runBlocking {
+        for (i in 0 until 6) image("/img$i.png", 100_000, seed = i)
+        val dir = File(tempDir, "artwork")
+
+        // Too little memory to hold any of them, so every repeat goes to disk
+        val cache = cache(maxMemoryBytes = 150_000, maxDiskBytes = 350_000)
+        cache.get(url("/img0.png"))
+        cache.get(url("/img1.png"))
+        cache.get(url("/img2.png"))
+        // Distinct mtimes in load order, then touch img0 so img1 is the eldest on disk
+        val now = System.currentTimeMillis()
+        for (i in 0 until 3) assertTrue(diskFileOf(dir, "/img$i.png").setLastModified(now - (3 - i) * 10_000L))
+        cache.get(url("/img0.png"))
+        cache.get(url("/img3.png"))
+        assertEquals(1L, cache.stats.diskHits)
+        assertEquals(3, dir.listFiles()!!.size)
+        assertTrue(dir.listFiles()!!.sumOf { it.length() } <= 350_000)
+
+        // img0 survived on disk, img1 has to come from the network again
+        val reopened = cache(maxMemoryBytes = 150_000, maxDiskBytes = 350_000)
+        reopened.get(url("/img0.png"))
+        reopened.get(url("/img1.png"))
+        assertEquals(1L, reopened.stats.diskHits)
+        assertEquals(1, served["/img0.png"]!!.get())
+        assertEquals(2, served["/img1.png"]!!.get())
+
+        // Room for four in memory: the last four loaded are hits, the first two were evicted
+        val inMemory = cache(maxMemoryBytes = 400_000, maxDiskBytes = 4L shl 20)
+        for (i in 0 until 6) inMemory.get(url("/img$i.png"))
+        val before = inMemory.stats
+        for (i in 5 downTo 0) inMemory.get(url("/img$i.png"))
+        assertEquals(before.memoryHits + 4, inMemory.stats.memoryHits)
+        assertEquals(before.diskHits + 2, inMemory.stats.diskHits)
+    }
+
+    @Test
+    fun size_probesTheCachedHeader() = runBlocking {
+        val png = java.io.ByteArrayOutputStream().also {
+            javax.imageio.ImageIO.write(java.awt.image.BufferedImage(600, 900, java.awt.image.BufferedImage.TYPE_INT_RGB), "png", it)
+        }.toByteArray()
+        images["/capsule.png"] = png
+        val cache = cache()
+        assertEquals(ImageHeader.Size(600, 900), cache.size(url("/capsule.png")))
+        assertArrayEquals(png, cache.get(url("/capsule.png")))
+        assertEquals(1, served["/capsule.png"]!!.get())
+    }
+
+    @Test
+    fun repeatedLibraryLoads_fetchEachImageOnce() = runBlocking {
+        val count = 60
+        for (i in 0 until count) image("/art$i.jpg", 120_000, seed = i)
+
+        val cache = cache(maxMemoryBytes = 8L shl 20, maxDiskBytes = 16L shl 20)
+        repeat(3) { for (i in 0 until count) cache.get(url("/art$i.jpg")) }
+
+        val stats = cache.stats
+        assertEquals(count.toLong(), stats.fetches)
+        assertEquals(count * 120_000L, stats.bytesFetched)
+        assertEquals(2L * count, stats.memoryHits + stats.diskHits)
+        for (i in 0 until count) assertEquals(1, served["/art$i.jpg"]!!.get())
+    }
+}
@@ -0,0 +1,209 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class CustomGameScanIndexTest {
+
+    private lateinit var tempDir: File
+    private lateinit var indexFile: File
+    private val scanCount = AtomicInteger()
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("custom_game_scan_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        indexFile = File(tempDir, "index/custom_game_scan_index.json")
+        scanCount.set(0)
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+    }
+
+    /**
+     * Generates [count] game folders shaped like typical Custom Games: a root exe or a
+     * Binaries/Win64 exe, an uninstaller, a data folder with filler files and sometimes an icon.
+     */
+    private fun generateTree(count: Int, fillerPerGame: Int = 50): Set<String> {
+        val folders = linkedSetOf<String>()
+        for (i in 0 until count) {
+            val game = File(tempDir, "games/Game $i")
+            val data = File(game, "Data")
+            data.mkdirs()
+            if (i % 2 == 0) {
+                File(game, "game$i.exe").writeText("MZ")
+            } else {
+                File(game, "Binaries").mkdirs()
+                File(game, "Binaries/Game$i-Win64-Shipping.exe").writeText("MZ")
+            }
+            File(game, "unins000.exe").writeText("MZ")
+            if (i % 3 == 0) File(game, "icon.png").writeText("png")
+            for (j in 0 until fillerPerGame) File(data, "asset$j.pak").writeText("x")
+            folders.add(game.absolutePath)
+        }
+        return folders
+    }
+
+    private fun refresh(index: CustomGameScanIndex, folders: Set<String>) = runBlocking {
+        index.refresh(
+            folders = folders,
+            scanFolder = { folder ->
+                scanCount.incrementAndGet()
+                CustomGameScanner.scanFolder(folder)
+            },
+            resolveGameId = { folder -> folder.name.removePrefix("Game ").toInt() + 1 },
+        )
+    }
+
+    @Test
+    fun scanFolder_detectsUniqueExeAndIcon() {
+        val folders = generateTree(3, fillerPerGame = 1).toList()
+
+        val rootExe = CustomGameScanner.scanFolder(File(folders[0]))
+        assertEquals("game0.exe", rootExe.uniqueExeRel)
+        assertEquals(File(folders[0], "icon.png").absolutePath, rootExe.iconPath)
+
+        val nestedExe = CustomGameScanner.scanFolder(File(folders[1]))
+        assertEquals("Binaries/Game1-Win64-Shipping.exe", nestedExe.uniqueExeRel)
+        assertNull(nestedExe.iconPath)
+    }
+
+    @Test
+    fun warmRefresh_onlyRescansChangedFolders() {
+        val folders = generateTree(200)
+        val index = CustomGameScanIndex(indexFile)
+
+        val cold = refresh(index, folders)
+        assertEquals(200, cold.entries.size)
+        assertEquals(200, cold.rescanned.size)
+        assertEquals(200, scanCount.get())
+
+        val warm = refresh(index, folders)
+        assertEquals(200, warm.entries.size)
+        assertTrue(warm.rescanned.isEmpty())
+        assertEquals(200, scanCount.get())
+
+        val changed = File(folders.first())
+        File(changed, "newtool.exe").writeText("MZ")
+        changed.setLastModified(changed.lastModified() + 2000)
+        val partial = refresh(index, folders)
+        assertEquals(1, partial.rescanned.size)
+        assertEquals(201, scanCount.get())
+        assertEquals(changed.absolutePath, partial.rescanned.first().folderPath)
+        assertNull(partial.rescanned.first().uniqueExeRel)
+    }
+
+    @Test
+    fun changeInsideSubfolder_rescansTheGame() {
+        val folders = generateTree(4, fillerPerGame = 1)
+        val index = CustomGameScanIndex(indexFile)
+        refresh(index, folders)
+
+        // A second shipping exe lands next to the first; only Binaries/ changes, the root keeps its mtime
+        val game = File(folders.elementAt(1))
+        val rootMtime = game.lastModified()
+        val binaries = File(game, "Binaries")
+        File(binaries, "Game1-Win64-Test.exe").writeText("MZ")
+        binaries.setLastModified(binaries.lastModified() + 2000)
+        assertEquals(rootMtime, game.lastModified())
+
+        val result = refresh(index, folders)
+        assertEquals(listOf(game.absolutePath), result.rescanned.map { it.folderPath })
+        assertNull(result.rescanned.first().uniqueExeRel)
+        assertTrue(refresh(index, folders).rescanned.isEmpty())
+    }
+
+    @Test
+    fun updateIconAndInvalidate_waitForARunningRefresh() = runBlocking {
+        val folders = generateTree(2)
+        val index = CustomGameScanIndex(indexFile)
+        refresh(index, folders)
+        val game = File(folders.first())
+        File(game, "new").mkdir()
+        game.setLastModified(game.lastModified() + 2000)
+
+        val scanning = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val running = async(Dispatchers.IO) {
+            index.refresh(
+                folders = folders,
+                scanFolder = { folder ->
+                    scanning.countDown()
+                    release.await(5, TimeUnit.SECONDS)
+                    CustomGameScanner.scanFolder(folder)
+                },
+                resolveGameId = { folder -> folder.name.removePrefix("Game ").toInt() + 1 },
+            )
+        }
+        assertTrue(scanning.await(5, TimeUnit.SECONDS))
+
+        val icon = launch(Dispatchers.IO, CoroutineStart.UNDISPATCHED) { index.updateIcon(game.path, "/icons/game.ico") }
+        val invalidate = launch(Dispatchers.IO, CoroutineStart.UNDISPATCHED) { icon.join(); index.invalidate() }
+        assertFalse(icon.isCompleted)
+        assertFalse(invalidate.isCompleted)
+
+        release.countDown()
+        running.await()
+        icon.join()
+        invalidate.join()
+        assertNull(index.findByGameId(1))
+        assertFalse(indexFile.exists())
+        assertFalse(index.isCurrent(folders))
+    }
+
+    @Test
+    fun updateIcon_isSaved() = runBlocking {
+        val folders = generateTree(2)
+        val index = CustomGameScanIndex(indexFile)
+        refresh(index, folders)
+        index.updateIcon(folders.first(), "/icons/game.ico")
+
+        val reloaded = CustomGameScanIndex(indexFile)
+        refresh(reloaded, folders)
+        assertEquals("/icons/game.ico", reloaded.entriesFor(folders).first().iconPath)
+    }
+
+    @Test
+    fun index_persistsAcrossInstances() {
+        val folders = generateTree(20)
+        refresh(CustomGameScanIndex(indexFile), folders)
+        assertTrue(indexFile.isFile)
+
+        val reloaded = CustomGameScanIndex(indexFile)
+        val warm = refresh(reloaded, folders)
+        assertTrue(warm.rescanned.isEmpty())
+        assertEquals(20, scanCount.get())
+        assertEquals(5, reloaded.findByGameId(5)?.gameId)
+    }
+
+    @Test
+    fun removedFolders_areDroppedFromIndex() {
+        val folders = generateTree(5)
+        val index = CustomGameScanIndex(indexFile)
+        refresh(index, folders)
+
+        val remaining = folders.drop(2).toSet()
+        val result = refresh(index, remaining)
+        assertEquals(3, result.entries.size)
+        assertEquals(2, result.removed)
+        assertTrue(index.isCurrent(remaining))
+        assertEquals(3, index.entriesFor(remaining).size)
+    }
+}
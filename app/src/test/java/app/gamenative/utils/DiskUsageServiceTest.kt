@@ -0,0 +1,116 @@
+package app.gamenative.utils
+
+import java.io.File
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class DiskUsageServiceTest {
+
+    private lateinit var tempDir: File
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("disk_usage_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        DiskUsageService.clear()
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+        DiskUsageService.clear()
+        DiskUsageService.clock = System::nanoTime
+    }
+
+    /**
+     * Generates a game-like tree: [dirs] directories spread over three levels holding
+     * [filesPerDir] files of varying size.
+     */
+    private fun generateTree(root: File, dirs: Int, filesPerDir: Int): Long {
+        var total = 0L
+        for (d in 0 until dirs) {
+            val dir = File(root, "level${d % 4}/sub${d % 25}/dir$d")
+            dir.mkdirs()
+            for (f in 0 until filesPerDir) {
+                val bytes = ByteArray((d * 31 + f * 17) % 512)
+                File(dir, "file$f.dat").writeBytes(bytes)
+                total += bytes.size
+            }
+        }
+        return total
+    }
+
+    private fun walkTopDownSize(root: File): Long = root.walkTopDown().filter { it.isFile }.sumOf { it.length() }
+
+    @Test
+    fun getSize_matchesSequentialWalk() = runBlocking {
+        val expected = generateTree(tempDir, dirs = 200, filesPerDir = 10)
+
+        assertEquals(expected, walkTopDownSize(tempDir))
+        assertEquals(expected, DiskUsageService.getSize(tempDir.path))
+        // Warm walk served from cached directory entries
+        assertEquals(expected, DiskUsageService.getSize(tempDir.path))
+    }
+
+    @Test
+    fun getSize_picksUpAddedAndDeletedFiles() = runBlocking {
+        val expected = generateTree(tempDir, dirs = 20, filesPerDir = 5)
+        assertEquals(expected, DiskUsageService.getSize(tempDir.path))
+
+        val dir = File(tempDir, "level1/sub1/dir1")
+        File(dir, "extra.dat").writeBytes(ByteArray(1000))
+        dir.setLastModified(dir.lastModified() + 2000)
+        assertEquals(expected + 1000, DiskUsageService.getSize(tempDir.path))
+
+        val removed = File(tempDir, "level2")
+        val removedBytes = walkTopDownSize(removed)
+        removed.deleteRecursively()
+        assertEquals(expected + 1000 - removedBytes, DiskUsageService.getSize(tempDir.path))
+    }
+
+    @Test
+    fun invalidate_picksUpInPlaceWrites() = runBlocking {
+        val expected = generateTree(tempDir, dirs = 4, filesPerDir = 2)
+        assertEquals(expected, DiskUsageService.getSize(tempDir.path))
+
+        val file = File(tempDir, "level0/sub0/dir0/file0.dat")
+        val dirModified = file.parentFile!!.lastModified()
+        file.appendBytes(ByteArray(100))
+        file.parentFile!!.setLastModified(dirModified)
+
+        DiskUsageService.invalidate(tempDir.path)
+        assertEquals(expected + 100, DiskUsageService.getSize(tempDir.path))
+    }
+
+    @Test
+    fun expiredEntries_pickUpUnreportedInPlaceWrites() = runBlocking {
+        var now = 0L
+        DiskUsageService.clock = { now }
+        val expected = generateTree(tempDir, dirs = 4, filesPerDir = 2)
+        assertEquals(expected, DiskUsageService.getSize(tempDir.path))
+
+        // A download growing a file without anyone calling invalidate
+        val file = File(tempDir, "level0/sub0/dir0/file0.dat")
+        val dirModified = file.parentFile!!.lastModified()
+        file.appendBytes(ByteArray(100))
+        file.parentFile!!.setLastModified(dirModified)
+        now += 5_000_000_000L
+        assertEquals(expected, DiskUsageService.getSize(tempDir.path))
+
+        now += 30_000_000_000L
+        assertEquals(expected + 100, DiskUsageService.getSize(tempDir.path))
+    }
+
+    @Test
+    fun largeTree_matchesSequentialWalk() = runBlocking {
+        val expected = generateTree(tempDir, dirs = 200, filesPerDir = 50)
+
+        assertEquals(expected, walkTopDownSize(tempDir))
+        assertEquals(expected, DiskUsageService.getSize(tempDir.path))
+        assertEquals(expected, DiskUsageService.getSize(tempDir.path))
+    }
+}
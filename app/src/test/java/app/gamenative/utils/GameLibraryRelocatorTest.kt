@@ -0,0 +1,131 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.random.Random
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class GameLibraryRelocatorTest {
+
+    private lateinit var tempDir: File
+    private lateinit var sourceDir: File
+    private lateinit var targetDir: File
+    private lateinit var expected: Map<String, ByteArray>
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("relocator_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        sourceDir = File(tempDir, "old/Steam")
+        targetDir = File(tempDir, "new/Steam")
+        expected = generateLibrary(sourceDir)
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+    }
+
+    private fun generateLibrary(root: File): Map<String, ByteArray> {
+        val random = Random(42)
+        val files = linkedMapOf<String, ByteArray>()
+        for (game in 0 until 3) {
+            for (i in 0 until 10) {
+                val path = "steamapps/common/Game$game/Data/file$i.bin"
+                files[path] = random.nextBytes(random.nextInt(0, 64 * 1024))
+            }
+            files["steamapps/common/Game$game/Game$game.exe"] = random.nextBytes(4096)
+        }
+        for ((path, data) in files) {
+            File(root, path).apply { parentFile?.mkdirs() }.writeBytes(data)
+        }
+        return files
+    }
+
+    private fun assertMoved() {
+        for ((path, data) in expected) {
+            val file = File(targetDir, path)
+            assertTrue("missing $path", file.isFile)
+            assertArrayEquals("content of $path", data, file.readBytes())
+        }
+        assertFalse("source should be removed", sourceDir.exists())
+        assertFalse(File(targetDir, GameLibraryRelocator.JOURNAL_NAME).exists())
+        assertTrue(targetDir.walkTopDown().none { it.name.endsWith(".relocating") })
+    }
+
+    @Test
+    fun sameVolume_renamesWholeDirectories() = runBlocking {
+        val relocator = GameLibraryRelocator(sourceDir, targetDir, isSameVolume = { _, _ -> true })
+        val result = relocator.relocate { }
+
+        assertTrue(result.renamed)
+        assertEquals(1, result.filesMoved)
+        assertMoved()
+    }
+
+    @Test
+    fun sameVolume_mergesIntoExistingTarget() = runBlocking {
+        File(targetDir, "steamapps/common/Game0/Data").mkdirs()
+        File(targetDir, "steamapps/common/Game0/Data/file0.bin").writeText("stale")
+
+        val result = GameLibraryRelocator(sourceDir, targetDir, isSameVolume = { _, _ -> true }).relocate { }
+
+        assertTrue(result.renamed)
+        assertMoved()
+    }
+
+    @Test
+    fun crossVolume_copiesWithByteAccurateProgress() = runBlocking {
+        val totalBytes = expected.values.sumOf { it.size.toLong() }
+        val maxBytesDone = AtomicLong()
+        val reportedTotal = AtomicLong()
+        val relocator = GameLibraryRelocator(sourceDir, targetDir, maxParallelCopies = 3, isSameVolume = { _, _ -> false })
+
+        val result = relocator.relocate { progress ->
+            maxBytesDone.accumulateAndGet(progress.bytesDone, ::maxOf)
+            reportedTotal.set(progress.totalBytes)
+        }
+
+        assertFalse(result.renamed)
+        assertEquals(expected.size, result.filesMoved)
+        assertEquals(totalBytes, result.bytesMoved)
+        assertEquals(totalBytes, maxBytesDone.get())
+        assertEquals(totalBytes, reportedTotal.get())
+        assertMoved()
+    }
+
+    @Test
+    fun crossVolume_resumesAfterInterruption() = runBlocking {
+        var filesSeen = 0
+        try {
+            GameLibraryRelocator(sourceDir, targetDir, maxParallelCopies = 1, isSameVolume = { _, _ -> false }).relocate { progress ->
+                if (progress.filesDone > filesSeen) filesSeen = progress.filesDone
+                if (filesSeen >= 10) throw IOException("simulated interruption")
+            }
+            fail("relocation should have been interrupted")
+        } catch (e: IOException) {
+            // expected
+        }
+
+        val journal = File(targetDir, GameLibraryRelocator.JOURNAL_NAME)
+        assertTrue(journal.isFile)
+        assertTrue(sourceDir.exists())
+
+        // Simulate a crash between journaling a file and deleting its source
+        val journaled = journal.readLines().first { it.isNotEmpty() }
+        File(sourceDir, journaled).apply { parentFile?.mkdirs() }.writeBytes(expected.getValue(journaled))
+
+        val result = GameLibraryRelocator(sourceDir, targetDir, isSameVolume = { _, _ -> true }).relocate { }
+
+        assertFalse("a pending journal must force the copy path", result.renamed)
+        assertEquals(1, result.resumedFiles)
+        assertTrue(result.filesMoved < expected.size)
+        assertMoved()
+    }
+}
@@ -0,0 +1,101 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class IconExtractionQueueTest {
+
+    private lateinit var tempDir: File
+    private lateinit var cacheFile: File
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("icon_queue_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        cacheFile = File(tempDir, "exe_icon_cache.json")
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+    }
+
+    private fun exe(name: String) = File(tempDir, name).apply { writeBytes(ByteArray(64)) }
+
+    /** Fake extractor that writes an icon for exes whose name starts with "icon" */
+    private fun fakeExtract(calls: AtomicInteger, gate: CountDownLatch? = null): (File, File) -> Boolean = { exe, out ->
+        gate?.await(5, TimeUnit.SECONDS)
+        calls.incrementAndGet()
+        if (exe.name.startsWith("icon")) {
+            out.writeBytes(ByteArray(8))
+            true
+        } else {
+            false
+        }
+    }
+
+    private fun submitAndWait(queue: IconExtractionQueue, exe: File, out: File): String? {
+        val done = CountDownLatch(1)
+        var result: String? = "unset"
+        assertTrue(queue.submit(exe, out) { result = it; done.countDown() })
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        return result
+    }
+
+    @Test
+    fun outcomes_includingMissingIcons_areRememberedAcrossInstances() {
+        val withIcon = exe("icon.exe")
+        val withoutIcon = exe("plain.exe")
+        val calls = AtomicInteger()
+
+        val first = IconExtractionQueue(cacheFile, extract = fakeExtract(calls))
+        val ico = File(tempDir, "icon.ico")
+        assertEquals(ico.absolutePath, submitAndWait(first, withIcon, ico))
+        assertNull(submitAndWait(first, withoutIcon, File(tempDir, "plain.ico")))
+        assertEquals(2, calls.get())
+        first.stop()
+
+        val second = IconExtractionQueue(cacheFile, extract = fakeExtract(calls))
+        assertEquals(ico.absolutePath, submitAndWait(second, withIcon, ico))
+        assertNull(submitAndWait(second, withoutIcon, File(tempDir, "plain.ico")))
+        assertEquals(2, calls.get())
+
+        // A changed exe or a deleted icon is extracted again
+        withoutIcon.writeBytes(ByteArray(128))
+        ico.delete()
+        submitAndWait(second, withoutIcon, File(tempDir, "plain.ico"))
+        assertEquals(ico.absolutePath, submitAndWait(second, withIcon, ico))
+        assertEquals(4, calls.get())
+        second.stop()
+    }
+
+    @Test
+    fun duplicateRequests_shareOneExtraction_andOverflowIsDropped() {
+        val gate = CountDownLatch(1)
+        val calls = AtomicInteger()
+        val queue = IconExtractionQueue(null, workers = 1, capacity = 2, extract = fakeExtract(calls, gate))
+
+        val results = AtomicInteger()
+        val done = CountDownLatch(3)
+        val target = exe("icon0.exe")
+        repeat(3) { assertTrue(queue.submit(target, File(tempDir, "icon0.ico")) { results.incrementAndGet(); done.countDown() }) }
+
+        // icon0 is either held by the worker or still queued, so at most two more fit
+        var accepted = 0
+        for (i in 1..10) if (queue.submit(exe("icon$i.exe"), File(tempDir, "icon$i.ico"))) accepted++
+        assertTrue(accepted in 1..2)
+        assertEquals(10 - accepted, queue.dropped.get())
+
+        gate.countDown()
+        assertTrue(done.await(5, TimeUnit.SECONDS))
+        assertEquals(3, results.get())
+        queue.stop()
+    }
+}
@@ -0,0 +1,93 @@
+package app.gamenative.utils
+
+import java.awt.image.BufferedImage
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import javax.imageio.ImageIO
+import org.junit.Assert.*
+import org.junit.Test
+
+class ImageHeaderTest {
+
+    private fun encode(format: String, width: Int, height: Int): ByteArray {
+        val type = if (format == "png") BufferedImage.TYPE_INT_ARGB else BufferedImage.TYPE_INT_RGB
+        val out = ByteArrayOutputStream()
+        assertTrue(ImageIO.write(BufferedImage(width, height, type), format, out))
+        return out.toByteArray()
+    }
+
+    /** RIFF/WEBP container around a chunk header and [payload] */
+    private fun webp(fourcc: String, payload: ByteArray): ByteArray {
+        val out = ByteBuffer.allocate(20 + payload.size).order(ByteOrder.LITTLE_ENDIAN)
+        out.put("RIFF".toByteArray()).putInt(12 + payload.size).put("WEBP".toByteArray())
+        out.put(fourcc.toByteArray()).putInt(payload.size).put(payload)
+        return out.array()
+    }
+
+    @Test
+    fun encodedImages_reportTheirSize() {
+        for (format in listOf("png", "jpg", "gif", "bmp")) {
+            assertEquals(format, ImageHeader.Size(920, 430), ImageHeader.read(encode(format, 920, 430)))
+            assertEquals(format, ImageHeader.Size(600, 900), ImageHeader.read(encode(format, 600, 900)))
+        }
+        assertTrue(ImageHeader.read(encode("png", 920, 430))!!.isHorizontal)
+        assertFalse(ImageHeader.read(encode("jpg", 600, 900))!!.isHorizontal)
+    }
+
+    @Test
+    fun jpeg_skipsSegmentsBeforeTheFrame() {
+        val plain = encode("jpg", 342, 482)
+        // A large APP1 segment ahead of the frame, like an EXIF block with a thumbnail
+        val app1 = ByteArray(40_000).also { it.fill(0x45) }
+        val withExif = ByteArrayOutputStream().apply {
+            write(plain, 0, 2)
+            write(byteArrayOf(0xFF.toByte(), 0xE1.toByte(), ((app1.size + 2) shr 8).toByte(), (app1.size + 2).toByte()))
+            write(app1)
+            write(plain, 2, plain.size - 2)
+        }.toByteArray()
+        assertEquals(ImageHeader.Size(342, 482), ImageHeader.read(withExif))
+    }
+
+    @Test
+    fun webp_allThreeVariants() {
+        // Lossy: frame tag, start code, 14-bit sizes
+        val lossy = ByteBuffer.allocate(10).order(ByteOrder.LITTLE_ENDIAN)
+            .put(byteArrayOf(0, 0, 0, 0x9D.toByte(), 0x01, 0x2A)).putShort(920).putShort(430).array()
+        assertEquals(ImageHeader.Size(920, 430), ImageHeader.read(webp("VP8 ", lossy)))
+
+        // Lossless: signature, then width-1 and height-1 packed in 14 bits each
+        val bits = (600 - 1) or ((900 - 1) shl 14)
+        val lossless = ByteBuffer.allocate(5).order(ByteOrder.LITTLE_ENDIAN).put(0x2F).putInt(bits).array()
+        assertEquals(ImageHeader.Size(600, 900), ImageHeader.read(webp("VP8L", lossless)))
+
+        // Extended: flags, then 24-bit canvas width-1 and height-1
+        val extended = byteArrayOf(0x10, 0, 0, 0, 0x7F, 0x07, 0, 0x37, 0x04, 0)
+        assertEquals(ImageHeader.Size(1920, 1080), ImageHeader.read(webp("VP8X", extended)))
+    }
+
+    @Test
+    fun unknownOrTruncatedData_isNull() {
+        assertNull(ImageHeader.read(ByteArray(0)))
+        assertNull(ImageHeader.read("<html>Not Found</html>".toByteArray()))
+        assertNull(ImageHeader.read(encode("png", 32, 32).copyOf(20)))
+        val jpeg = encode("jpg", 32, 32)
+        assertNull(ImageHeader.read(jpeg.copyOf(jpeg.indexOfFrame())))
+        assertNull(ImageHeader.read(File("/nonexistent/image.png")))
+    }
+
+    private fun ByteArray.indexOfFrame(): Int =
+        (0 until size - 1).first { this[it] == 0xFF.toByte() && this[it + 1] == 0xC0.toByte() } + 3
+
+    @Test
+    fun probe_needsOnlyTheHeaderBytes() {
+        for (i in 0 until 10) {
+            val png = encode("png", 920 + i, 430)
+            val jpeg = encode("jpg", 920 + i, 430)
+            val expected = ImageHeader.Size(920 + i, 430)
+            assertEquals(expected, ImageHeader.read(png.copyOf(24)))
+            assertEquals(expected, ImageHeader.read(jpeg.copyOf(jpeg.indexOfFrame() + 6)))
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.nio.file.Files
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class InstallTreeIndexTest {
+
+    private lateinit var tempDir: File
+    private lateinit var gameDir: File
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("install_tree_index_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        gameDir = File(tempDir, "Game").apply { mkdirs() }
+        InstallTreeIndex.clear()
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+        InstallTreeIndex.clear()
+    }
+
+    private fun write(path: String, text: String = path): File =
+        File(gameDir, path).apply { parentFile?.mkdirs(); writeText(text) }
+
+    /**
+     * Generates an engine-like tree: [dirs] directories several levels deep holding [filesPerDir]
+     * small files, with the binaries and Steam DLLs buried in it.
+     */
+    private fun generateTree(dirs: Int, filesPerDir: Int) {
+        for (d in 0 until dirs) {
+            val dir = File(gameDir, "Game/Content/Paks/level${d % 4}/sub${d % 25}/chunk${d % 7}/dir$d")
+            dir.mkdirs()
+            for (f in 0 until filesPerDir) File(dir, "asset$f.uasset").writeBytes(ByteArray(16))
+        }
+        write("Game/Binaries/Win64/Game-Win64-Shipping.exe")
+        write("Engine/Binaries/ThirdParty/Steamworks/Steamv153/Win64/steam_api64.dll")
+        write("Engine/Binaries/ThirdParty/Steamworks/Steamv153/Win32/steam_api.dll")
+    }
+
+    @Test
+    fun queries_findFilesByNameAndSuffix() {
+        write("Game.exe")
+        write("bin/x64/steam_api64.dll")
+        write("bin/x86/Steam_Api.dll")
+        write("bin/x86/steam_api.dll.orig")
+        write("bin/x64/Game.exe.original.exe")
+        write("redist/vcredist_x64.EXE")
+
+        val index = InstallTreeIndex.get(gameDir)
+        assertEquals(6, index.files.size)
+        assertEquals(listOf("bin/x64/steam_api64.dll", "bin/x86/Steam_Api.dll"), index.named("steam_api.dll", "steam_api64.dll").map { it.path })
+        assertEquals(listOf("bin/x86/steam_api.dll.orig"), index.named("STEAM_API.DLL.ORIG").map { it.path })
+        assertEquals(listOf("bin/x64/Game.exe.original.exe"), index.withSuffix(".original.exe").map { it.path })
+        assertEquals(
+            listOf("bin/x64/Game.exe.original.exe", "Game.exe", "redist/vcredist_x64.EXE"),
+            index.executables.map { it.path }.sortedBy { it.lowercase() },
+        )
+        assertEquals(File(gameDir, "bin/x86/Steam_Api.dll").absoluteFile, index.fileOf(index.named("steam_api.dll").single()))
+        assertEquals("Game.exe".length.toLong(), index.named("game.exe").single().size)
+    }
+
+    @Test
+    fun depth_matchesTheWalksItReplaces() {
+        val deep = (1..9).joinToString("/") { "d$it" }
+        write("$deep/steam_api.dll")
+        write("$deep/d10/steam_api64.dll")
+
+        val walked = gameDir.walkTopDown().maxDepth(InstallTreeIndex.MAX_DEPTH)
+            .filter { it.isFile }.map { it.relativeTo(gameDir).invariantSeparatorsPath }.toList()
+        assertEquals(walked, InstallTreeIndex.get(gameDir).files.map { it.path })
+        assertEquals(listOf("$deep/steam_api.dll"), walked)
+    }
+
+    @Test
+    fun index_isCachedUntilTheManifestsChange() {
+        write(".DepotDownloader/228990_1.manifest", "v1")
+        write("bin/steam_api.dll")
+        val first = InstallTreeIndex.get(gameDir)
+
+        // Written in place deeper down, which neither the manifests nor the root mtime show
+        write("bin/steam_api64.dll")
+        assertSame(first.files, InstallTreeIndex.get(gameDir).files)
+
+        // An update brings a new manifest
+        write(".DepotDownloader/228990_2.manifest", "v2")
+        val updated = InstallTreeIndex.get(gameDir)
+        assertNotSame(first.files, updated.files)
+        assertEquals(1, updated.named("steam_api64.dll").size)
+    }
+
+    @Test
+    fun invalidate_dropsTheIndexOfTheTreeContainingThePath() {
+        write("bin/steam_api.dll")
+        val first = InstallTreeIndex.get(gameDir)
+        write("bin/steam_api.dll.orig")
+
+        InstallTreeIndex.invalidate(File(gameDir, "bin").path)
+        val second = InstallTreeIndex.get(gameDir)
+        assertNotSame(first.files, second.files)
+        assertEquals(1, second.named("steam_api.dll.orig").size)
+
+        // Unrelated paths leave it alone
+        InstallTreeIndex.invalidate(File(tempDir, "Other").path)
+        InstallTreeIndex.invalidate(gameDir.path + "2")
+        assertSame(second.files, InstallTreeIndex.get(gameDir).files)
+    }
+
+    @Test
+    fun symlinkedRoot_sharesTheIndexButResolvesAgainstTheLink() {
+        write("bin/steam_api.dll")
+        val link = File(tempDir, "a:")
+        Files.createSymbolicLink(link.toPath(), gameDir.toPath())
+
+        val direct = InstallTreeIndex.get(gameDir)
+        val viaLink = InstallTreeIndex.get(link)
+        assertSame(direct.files, viaLink.files)
+        assertEquals(File(link, "bin/steam_api.dll").absoluteFile, viaLink.fileOf(viaLink.named("steam_api.dll").single()))
+
+        // Writes through the link invalidate the shared index
+        InstallTreeIndex.invalidate(File(link, "bin").path)
+        assertNotSame(direct.files, InstallTreeIndex.get(gameDir).files)
+    }
+
+    @Test
+    fun oneIndex_answersEveryConsumerOfALargeTree() {
+        generateTree(dirs = 500, filesPerDir = 25)
+
+        // What replaceSteamApi, putBackSteamDlls and restoreOriginalExecutable each walked for
+        val dlls = gameDir.walkTopDown().maxDepth(10).filter { it.isFile && it.name.startsWith("steam_api", true) }.count()
+        val backups = gameDir.walkTopDown().maxDepth(10).filter { it.isFile && it.name.endsWith(".orig", true) }.count()
+        val originals = gameDir.walkTopDown().maxDepth(10).firstOrNull { it.isFile && it.name.endsWith(".original.exe", true) }
+
+        val index = InstallTreeIndex.get(gameDir)
+        assertEquals(dlls, index.named("steam_api.dll", "steam_api64.dll").size)
+        assertEquals(backups, index.named("steam_api.dll.orig", "steam_api64.dll.orig").size)
+        assertEquals(originals?.name, index.withSuffix(".original.exe").firstOrNull()?.name)
+        assertEquals(2, dlls)
+        assertEquals(12503, index.files.size)
+
+        // Later consumers share the same walk
+        assertSame(index.files, InstallTreeIndex.get(gameDir).files)
+    }
+}
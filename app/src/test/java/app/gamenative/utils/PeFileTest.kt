@@ -0,0 +1,398 @@
+package app.gamenative.utils
+
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class PeFileTest {
+
+    private lateinit var tempDir: File
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("pe_file_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+    }
+
+    /** A resource to put into .rsrc; type and name are numeric ids or strings like the linkers emit them. */
+    private class Res(val type: Any, val name: Any, val language: Int, val data: ByteArray)
+
+    private class Sec(val name: String, val virtualSize: Int, val rawSize: Int, val rsrc: Boolean = false)
+
+    private class Placed(val section: Sec, val rva: Int, val virtualSize: Int, val pointer: Int, val rawSize: Int, val rsrc: ByteArray?)
+
+    /**
+     * Lays out a resource section the way rc.exe/cvtres do: the directory tables breadth first,
+     * then the data entries, the name strings and finally the 8-byte aligned data.
+     */
+    private fun buildResourceSection(resources: List<Res>, sectionRva: Int): ByteArray {
+        val order = Comparator<Any> { a, b ->
+            when {
+                a is String && b is String -> a.compareTo(b)
+                a is String -> -1
+                b is String -> 1
+                else -> (a as Int).compareTo(b as Int)
+            }
+        }
+        val tree = sortedMapOf<Any, java.util.SortedMap<Any, java.util.SortedMap<Int, ByteArray>>>(order)
+        for (r in resources) tree.getOrPut(r.type) { sortedMapOf(order) }.getOrPut(r.name) { sortedMapOf() }[r.language] = r.data
+
+        fun dirSize(entries: Int) = 16 + entries * 8
+        var position = dirSize(tree.size)
+        val typeDirs = tree.values.map { names -> position.also { position += dirSize(names.size) } }
+        val nameDirs = tree.values.map { names -> names.values.map { langs -> position.also { position += dirSize(langs.size) } } }
+        val dataEntries = tree.values.map { names -> names.values.map { langs -> langs.values.map { position.also { position += 16 } } } }
+        val strings = LinkedHashMap<String, Int>()
+        for ((type, names) in tree) {
+            for (key in listOf(type) + names.keys) if (key is String && key !in strings) {
+                strings[key] = position
+                position += 2 + key.length * 2
+            }
+        }
+        position = (position + 7) and 7.inv()
+        val dataOffsets = tree.values.map { names ->
+            names.values.map { langs -> langs.values.map { data -> position.also { position = (position + data.size + 7) and 7.inv() } } }
+        }
+
+        val out = ByteBuffer.allocate(position).order(ByteOrder.LITTLE_ENDIAN)
+        fun directory(offset: Int, keys: Collection<Any>, target: (Int) -> Int) {
+            out.putShort(offset + 12, keys.count { it is String }.toShort())
+            out.putShort(offset + 14, keys.count { it !is String }.toShort())
+            keys.forEachIndexed { i, key ->
+                val name = if (key is String) strings.getValue(key) or 0x80000000.toInt() else key as Int
+                out.putInt(offset + 16 + i * 8, name)
+                out.putInt(offset + 20 + i * 8, target(i))
+            }
+        }
+        directory(0, tree.keys) { t -> typeDirs[t] or 0x80000000.toInt() }
+        tree.values.forEachIndexed { t, names ->
+            directory(typeDirs[t], names.keys) { n -> nameDirs[t][n] or 0x80000000.toInt() }
+            names.values.forEachIndexed { n, langs ->
+                directory(nameDirs[t][n], langs.keys) { l -> dataEntries[t][n][l] }
+                langs.values.forEachIndexed { l, data ->
+                    out.putInt(dataEntries[t][n][l], sectionRva + dataOffsets[t][n][l])
+                    out.putInt(dataEntries[t][n][l] + 4, data.size)
+                    out.position(dataOffsets[t][n][l])
+                    out.put(data)
+                }
+            }
+        }
+        for ((key, offset) in strings) {
+            out.putShort(offset, key.length.toShort())
+            key.forEachIndexed { i, c -> out.putChar(offset + 2 + i * 2, c) }
+        }
+        return out.array()
+    }
+
+    /** A PE image with the given sections; the one flagged rsrc holds [resources]. */
+    private fun buildPe(
+        machine: Int,
+        pe32Plus: Boolean,
+        sections: List<Sec>,
+        resources: List<Res> = emptyList(),
+        fill: Random = Random(1),
+    ): ByteArray {
+        val optionalHeaderSize = if (pe32Plus) 240 else 224
+        val headersSize = 0x80 + 24 + optionalHeaderSize + sections.size * 40
+        var rawPointer = (headersSize + 0x1FF) and 0x1FF.inv()
+        var rva = 0x1000
+        val layout = sections.map { s ->
+            val rsrc = if (s.rsrc) buildResourceSection(resources, rva) else null
+            val rawSize = if (rsrc != null) (rsrc.size + 0x1FF) and 0x1FF.inv() else s.rawSize
+            val virtualSize = rsrc?.size ?: s.virtualSize
+            val placed = Placed(s, rva, virtualSize, rawPointer, rawSize, rsrc)
+            rva += (maxOf(virtualSize, rawSize) + 0xFFF) and 0xFFF.inv()
+            rawPointer += rawSize
+            placed
+        }
+
+        val out = ByteBuffer.allocate(rawPointer).order(ByteOrder.LITTLE_ENDIAN)
+        out.putShort(0, 0x5A4D)
+        out.putInt(0x3C, 0x80)
+        out.putInt(0x80, 0x00004550)
+        val coff = 0x84
+        out.putShort(coff, machine.toShort())
+        out.putShort(coff + 2, sections.size.toShort())
+        out.putShort(coff + 16, optionalHeaderSize.toShort())
+        out.putShort(coff + 18, 0x0102)
+        val optional = coff + 20
+        out.putShort(optional, (if (pe32Plus) 0x20B else 0x10B).toShort())
+        out.putInt(optional + if (pe32Plus) 108 else 92, 16)
+        val dataDirectories = optional + if (pe32Plus) 112 else 96
+
+        layout.forEachIndexed { i, placed ->
+            val base = optional + optionalHeaderSize + i * 40
+            placed.section.name.forEachIndexed { j, c -> out.put(base + j, c.code.toByte()) }
+            out.putInt(base + 8, placed.virtualSize)
+            out.putInt(base + 12, placed.rva)
+            out.putInt(base + 16, placed.rawSize)
+            out.putInt(base + 20, if (placed.rawSize == 0) 0 else placed.pointer)
+            if (placed.rsrc != null) {
+                out.putInt(dataDirectories + 16, placed.rva)
+                out.putInt(dataDirectories + 20, placed.rsrc.size)
+                out.position(placed.pointer)
+                out.put(placed.rsrc)
+            } else if (placed.rawSize > 0) {
+                out.position(placed.pointer)
+                out.put(fill.nextBytes(placed.rawSize))
+            }
+        }
+        return out.array()
+    }
+
+    /** GRPICONDIR referencing RT_ICON [ids] with the given sizes. */
+    private fun iconGroup(vararg images: Pair<Int, Int>): ByteArray {
+        val out = ByteBuffer.allocate(6 + images.size * 14).order(ByteOrder.LITTLE_ENDIAN)
+        out.putShort(0.toShort()).putShort(1.toShort()).putShort(images.size.toShort())
+        for ((id, size) in images) {
+            // 256 is stored as 0
+            val dimension = (if (size >= 256) 0 else size).toByte()
+            out.put(dimension).put(dimension).put(0.toByte()).put(0.toByte())
+            out.putShort(1.toShort()).putShort(32.toShort()).putInt(size * size * 4 + 40).putShort(id.toShort())
+        }
+        return out.array()
+    }
+
+    private fun iconImage(seed: Int, size: Int): ByteArray = Random(seed).nextBytes(size)
+
+    private fun utf16(text: String): ByteArray =
+        ByteBuffer.allocate(text.length * 2 + 2).order(ByteOrder.LITTLE_ENDIAN).apply { text.forEach { putChar(it) } }.array()
+
+    /** A VS_VERSIONINFO-style block: header, key, value and children, each 4-byte aligned. */
+    private fun versionBlock(key: String, value: ByteArray?, valueLength: Int, type: Int, children: List<ByteArray> = emptyList()): ByteArray {
+        val out = java.io.ByteArrayOutputStream()
+        fun pad() { while (out.size() % 4 != 0) out.write(0) }
+        out.write(ByteArray(6))
+        out.write(utf16(key))
+        pad()
+        if (value != null) out.write(value)
+        for (child in children) {
+            pad()
+            out.write(child)
+        }
+        val bytes = out.toByteArray()
+        ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN).putShort(0, bytes.size.toShort()).putShort(2, valueLength.toShort()).putShort(4, type.toShort())
+        return bytes
+    }
+
+    private fun versionInfo(fileVersion: IntArray, strings: Map<String, String>): ByteArray {
+        val fixed = ByteBuffer.allocate(52).order(ByteOrder.LITTLE_ENDIAN)
+        fixed.putInt(0xFEEF04BD.toInt()).putInt(0x10000)
+        repeat(2) {
+            fixed.putInt((fileVersion[0] shl 16) or fileVersion[1]).putInt((fileVersion[2] shl 16) or fileVersion[3])
+        }
+        val stringBlocks = strings.map { (name, value) -> versionBlock(name, utf16(value), value.length + 1, 1) }
+        val stringFileInfo = versionBlock("StringFileInfo", null, 0, 1, listOf(versionBlock("040904b0", null, 0, 1, stringBlocks)))
+        val translation = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putShort(0x409.toShort()).putShort(1200.toShort()).array()
+        val varFileInfo = versionBlock("VarFileInfo", null, 0, 1, listOf(versionBlock("Translation", translation, 4, 0)))
+        return versionBlock("VS_VERSION_INFO", fixed.array(), 52, 0, listOf(stringFileInfo, varFileInfo))
+    }
+
+    /** MSVC-linked 64-bit game: the usual six sections, three icon sizes, version info and a manifest. */
+    private fun msvcX64(): ByteArray = buildPe(
+        machine = PeFile.IMAGE_FILE_MACHINE_AMD64,
+        pe32Plus = true,
+        sections = listOf(
+            Sec(".text", 0x5000, 0x5000), Sec(".rdata", 0x2000, 0x2000), Sec(".data", 0x3000, 0x400),
+            Sec(".pdata", 0x400, 0x400), Sec(".rsrc", 0, 0, rsrc = true), Sec(".reloc", 0x200, 0x200),
+        ),
+        resources = listOf(
+            Res(PeFile.RT_ICON, 1, 0x409, iconImage(1, 1128)),
+            Res(PeFile.RT_ICON, 2, 0x409, iconImage(2, 4264)),
+            Res(PeFile.RT_ICON, 3, 0x409, iconImage(3, 20000)),
+            Res(PeFile.RT_GROUP_ICON, 101, 0x409, iconGroup(1 to 16, 2 to 32, 3 to 256)),
+            Res(PeFile.RT_VERSION, 1, 0x409, versionInfo(intArrayOf(1, 2, 3, 4), linkedMapOf(
+                "CompanyName" to "Example Studio", "FileDescription" to "Example Game", "FileVersion" to "1.2.3.4",
+                "ProductName" to "Example Game ", "ProductVersion" to "1.2",
+            ))),
+            Res(24, 1, 0x409, "<assembly/>".toByteArray()),
+        ),
+    )
+
+    @Test
+    fun msvcX64_headersSectionsAndResources() {
+        val pe = PeFile.parse(ByteBuffer.wrap(msvcX64()))!!
+        assertEquals(PeFile.Architecture.X64, pe.architecture)
+        assertTrue(pe.isPe32Plus)
+        assertEquals(listOf(".text", ".rdata", ".data", ".pdata", ".rsrc", ".reloc"), pe.sections.map { it.name })
+        assertTrue(pe.hasResources)
+        assertArrayEquals(intArrayOf(1, 2, 3), pe.resourceIds(PeFile.RT_ICON))
+
+        val manifest = pe.findResource(24, 1)!!
+        assertEquals(0x409, manifest.language)
+        val bytes = ByteArray(manifest.size).also { pe.read(manifest).get(it) }
+        assertEquals("<assembly/>", String(bytes))
+        assertNull(pe.findResource(PeFile.RT_ICON, 4))
+    }
+
+    @Test
+    fun msvcX64_versionInfo() {
+        val info = PeFile.parse(ByteBuffer.wrap(msvcX64()))!!.versionInfo!!
+        assertEquals("1.2.3.4", info.fileVersion)
+        assertEquals("1.2.3.4", info.productVersion)
+        assertEquals("Example Studio", info.strings["CompanyName"])
+        assertEquals("Example Game", info.strings["ProductName"])
+        assertEquals("1.2", info.strings["ProductVersion"])
+        assertEquals(5, info.strings.size)
+    }
+
+    @Test
+    fun msvcX64_iconIsRebuiltAsIco() {
+        val exe = File(tempDir, "Game.exe").apply { writeBytes(msvcX64()) }
+        val ico = File(tempDir, "Game.extracted.ico")
+        assertTrue(ExeIconExtractor.tryExtractMainIcon(exe, ico))
+        assertFalse(File(tempDir, "Game.extracted.ico.tmp").exists())
+
+        val out = ByteBuffer.wrap(ico.readBytes()).order(ByteOrder.LITTLE_ENDIAN)
+        assertEquals(1, out.getShort(2).toInt())
+        assertEquals(3, out.getShort(4).toInt())
+        val sizes = listOf(1128, 4264, 20000)
+        var offset = 6 + 3 * 16
+        for (i in 0 until 3) {
+            val entry = 6 + i * 16
+            assertEquals(listOf(16, 32, 0)[i], out.get(entry).toInt() and 0xFF)
+            assertEquals(32, out.getShort(entry + 6).toInt())
+            assertEquals(sizes[i], out.getInt(entry + 8))
+            assertEquals(offset, out.getInt(entry + 12))
+            val image = ByteArray(sizes[i]).also { out.position(offset); out.get(it) }
+            assertArrayEquals(iconImage(i + 1, sizes[i]), image)
+            offset += sizes[i]
+        }
+        assertEquals(offset.toLong(), ico.length())
+    }
+
+    @Test
+    fun delphiX86_namedMainIconAndNamedTypes() {
+        // Delphi names its group MAINICON and keeps forms as named RCDATA
+        val image = buildPe(
+            machine = PeFile.IMAGE_FILE_MACHINE_I386,
+            pe32Plus = false,
+            sections = listOf(
+                Sec("CODE", 0x4000, 0x4000), Sec("DATA", 0x1000, 0x1000), Sec("BSS", 0x2000, 0),
+                Sec(".idata", 0x800, 0x800), Sec(".rsrc", 0, 0, rsrc = true),
+            ),
+            resources = listOf(
+                Res(10, "TFORM1", 0, "object Form1".toByteArray()),
+                Res("DVCLAL", 1, 0, ByteArray(16)),
+                Res(PeFile.RT_ICON, 1, 0x409, iconImage(7, 744)),
+                Res(PeFile.RT_GROUP_ICON, "MAINICON", 0x409, iconGroup(1 to 32)),
+            ),
+        )
+        val pe = PeFile.parse(ByteBuffer.wrap(image))!!
+        assertEquals(PeFile.Architecture.X86, pe.architecture)
+        assertFalse(pe.isPe32Plus)
+        assertEquals(0, pe.sections.first { it.name == "BSS" }.sizeOfRawData)
+        assertArrayEquals(IntArray(0), pe.resourceIds(10))
+        assertEquals(744, pe.findMainIcon()!!.single().resource.size)
+        assertNull(pe.versionInfo)
+
+        val exe = File(tempDir, "Project1.exe").apply { writeBytes(image) }
+        assertTrue(ExeIconExtractor.tryExtractMainIcon(exe, File(tempDir, "Project1.extracted.ico")))
+    }
+
+    @Test
+    fun firstGroupAndLanguage_areUsed_missingImagesSkipped() {
+        val pe = PeFile.parse(
+            ByteBuffer.wrap(
+                buildPe(
+                    machine = PeFile.IMAGE_FILE_MACHINE_AMD64,
+                    pe32Plus = true,
+                    sections = listOf(Sec(".text", 0x1000, 0x1000), Sec(".rsrc", 0, 0, rsrc = true)),
+                    resources = listOf(
+                        Res(PeFile.RT_ICON, 1, 0x409, iconImage(1, 100)),
+                        Res(PeFile.RT_ICON, 2, 0x409, iconImage(2, 200)),
+                        Res(PeFile.RT_ICON, 1, 0x411, iconImage(3, 300)),
+                        Res(PeFile.RT_GROUP_ICON, 1, 0x409, iconGroup(1 to 16, 9 to 48)),
+                        Res(PeFile.RT_GROUP_ICON, 1, 0x411, iconGroup(2 to 32)),
+                        Res(PeFile.RT_GROUP_ICON, 101, 0x409, iconGroup(2 to 32)),
+                    ),
+                ),
+            ),
+        )!!
+        val icon = pe.findMainIcon()!!
+        assertEquals(listOf(100), icon.map { it.resource.size })
+        assertEquals(0x409, icon.single().resource.language)
+    }
+
+    @Test
+    fun arm64_andImagesWithoutResources() {
+        val arm = PeFile.parse(
+            ByteBuffer.wrap(buildPe(PeFile.IMAGE_FILE_MACHINE_ARM64, true, listOf(Sec(".text", 0x1000, 0x1000)))),
+        )!!
+        assertEquals(PeFile.Architecture.ARM64, arm.architecture)
+        assertFalse(arm.hasResources)
+        assertNull(arm.findMainIcon())
+        assertNull(arm.versionInfo)
+
+        val exe = File(tempDir, "UnityCrashHandler64.exe").apply {
+            writeBytes(buildPe(PeFile.IMAGE_FILE_MACHINE_AMD64, true, listOf(Sec(".text", 0x2000, 0x2000))))
+        }
+        assertFalse(ExeIconExtractor.tryExtractMainIcon(exe, File(tempDir, "out.ico")))
+        assertFalse(File(tempDir, "out.ico").exists())
+    }
+
+    @Test
+    fun truncatedAndForeignFiles_areRejectedWithoutThrowing() {
+        val image = msvcX64()
+        // Cut inside the largest icon image, which leaves the directories but not the data after it
+        val cut = PeFile.parse(ByteBuffer.wrap(image))!!.findResource(PeFile.RT_ICON, 3)!!.offset + 100
+        val truncated = PeFile.parse(ByteBuffer.wrap(image.copyOf(cut)))!!
+        assertTrue(truncated.hasResources)
+        assertNull(truncated.findResource(PeFile.RT_ICON, 3))
+        assertNotNull(truncated.findResource(PeFile.RT_ICON, 1))
+        assertNull(truncated.findMainIcon())
+        assertNull(truncated.versionInfo)
+
+        // Cut inside the optional header
+        assertNull(PeFile.parse(ByteBuffer.wrap(image.copyOf(0x180))))
+        assertNull(PeFile.parse(ByteBuffer.wrap(byteArrayOf(0x7F, 'E'.code.toByte(), 'L'.code.toByte(), 'F'.code.toByte()) + ByteArray(200))))
+        assertNull(PeFile.parse(ByteBuffer.wrap(("MZ" + "x".repeat(100)).toByteArray())))
+
+        val bogus = image.copyOf()
+        // Resource directory RVA pointing outside every section
+        ByteBuffer.wrap(bogus).order(ByteOrder.LITTLE_ENDIAN).putInt(0x84 + 20 + 112 + 16, 0x7FFF0000)
+        assertFalse(PeFile.parse(ByteBuffer.wrap(bogus))!!.hasResources)
+        assertNull(PeFile.open(File(tempDir, "missing.exe")))
+    }
+
+    @Test
+    fun iconsAndVersions_fromManyExecutables() {
+        val count = 200
+        val random = Random(5)
+        val exes = (0 until count).map { i ->
+            // Mostly code, like a real game binary, with the resources at the end
+            val image = buildPe(
+                machine = PeFile.IMAGE_FILE_MACHINE_AMD64,
+                pe32Plus = true,
+                sections = listOf(Sec(".text", 0x80000, 0x80000), Sec(".rdata", 0x10000, 0x10000), Sec(".rsrc", 0, 0, rsrc = true)),
+                resources = listOf(
+                    Res(PeFile.RT_ICON, 1, 0x409, iconImage(i, 4264)),
+                    Res(PeFile.RT_ICON, 2, 0x409, iconImage(i + 1, 67624)),
+                    Res(PeFile.RT_GROUP_ICON, 1, 0x409, iconGroup(1 to 32, 2 to 128)),
+                    Res(PeFile.RT_VERSION, 1, 0x409, versionInfo(intArrayOf(1, 0, i, 0), mapOf("ProductName" to "Game $i"))),
+                ),
+                fill = random,
+            )
+            File(tempDir, "game$i.exe").apply { writeBytes(image) }
+        }
+
+        for ((i, exe) in exes.withIndex()) {
+            val ico = File(tempDir, exe.nameWithoutExtension + ".extracted.ico")
+            assertTrue(ExeIconExtractor.tryExtractMainIcon(exe, ico))
+            // ICONDIR, two entries and both images, nothing else from the file
+            assertEquals(6L + 2 * 16 + 4264 + 67624, ico.length())
+            assertEquals("Game $i", PeFile.open(exe)!!.versionInfo!!.strings["ProductName"])
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.winlator.container
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ContainerDuplicatorTest {
+
+    private lateinit var tempDir: File
+    private lateinit var source: File
+
+    /** A container shaped like Wine's: DLLs, fonts and NLS tables next to hives and profiles. */
+    private fun writeContainer(dir: File, dlls: Int, dllSize: Int) {
+        val random = Random(42)
+        fun put(path: String, data: ByteArray) = File(dir, path).apply { parentFile?.mkdirs(); writeBytes(data) }
+        for (i in 0 until dlls) {
+            put(".wine/drive_c/windows/system32/lib$i.dll", random.nextBytes(dllSize))
+            put(".wine/drive_c/windows/syswow64/lib$i.dll", random.nextBytes(dllSize / 2))
+        }
+        for (i in 0 until 10) put(".wine/drive_c/windows/Fonts/font$i.ttf", random.nextBytes(dllSize))
+        put(".wine/drive_c/windows/system32/l_intl.nls", random.nextBytes(dllSize))
+        put(".wine/drive_c/windows/win.ini", "[windows]\n".toByteArray())
+        put(".wine/user.reg", "WINE REGISTRY Version 2\n".toByteArray())
+        put(".wine/system.reg", "WINE REGISTRY Version 2\n".toByteArray())
+    }
+
+    private fun inode(file: File): Any = Files.getAttribute(file.toPath(), "unix:ino")
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("container_duplicator_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        source = File(tempDir, "xuser-1")
+        writeContainer(source, 20, 4096)
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+    }
+
+    @Test
+    fun isImmutable_onlyCoversFontsAndNls() {
+        assertTrue(ContainerDuplicator.isImmutable(".wine/drive_c/windows/Fonts/arial.ttf"))
+        assertTrue(ContainerDuplicator.isImmutable(".wine/drive_c/windows/system32/l_intl.nls"))
+        assertTrue(ContainerDuplicator.isImmutable(".wine/drive_c/windows/globalization/sorting/sortdefault.nls"))
+        assertFalse(ContainerDuplicator.isImmutable(".wine/drive_c/windows/system32/d3d11.dll"))
+        assertFalse(ContainerDuplicator.isImmutable(".wine/drive_c/windows/syswow64/wined3d.dll"))
+        assertFalse(ContainerDuplicator.isImmutable(".wine/drive_c/windows/Fonts/fonts.ini"))
+        assertFalse(ContainerDuplicator.isImmutable(".wine/drive_c/users/xuser/Fonts/arial.ttf"))
+    }
+
+    @Test
+    fun dlls_areCopied_soInPlaceWritesStayInTheirContainer() {
+        val copy = File(tempDir, "xuser-2")
+        val result = ContainerDuplicator(true).duplicate(source, copy, null)
+        assertTrue(result.success)
+        assertEquals(11, result.filesLinked)
+        assertEquals(43, result.filesCopied)
+
+        val font = ".wine/drive_c/windows/Fonts/font3.ttf"
+        assertEquals(inode(File(source, font)), inode(File(copy, font)))
+
+        // Wine or a DXVK swap truncating and rewriting a DLL in place
+        val dll = ".wine/drive_c/windows/system32/lib3.dll"
+        val original = File(source, dll).readBytes()
+        assertNotEquals(inode(File(source, dll)), inode(File(copy, dll)))
+        RandomAccessFile(File(copy, dll), "rw").use { it.setLength(0); it.write("dxvk".toByteArray()) }
+        assertArrayEquals(original, File(source, dll).readBytes())
+    }
+
+    @Test
+    fun linkedDuplicate_copiesFewerBytesThanAFullCopy() {
+        writeContainer(source, 200, 32 * 1024)
+
+        val copied = ContainerDuplicator(false).duplicate(source, File(tempDir, "xuser-copied"), null)
+        val linked = ContainerDuplicator(true).duplicate(source, File(tempDir, "xuser-linked"), null)
+
+        assertTrue(copied.success && linked.success)
+        assertEquals(0, copied.filesLinked)
+        assertEquals(copied.bytesCopied, linked.bytesCopied + linked.bytesLinked)
+        assertTrue(linked.bytesCopied < copied.bytesCopied)
+        assertTrue(linked.filesLinked > 0)
+    }
+}
@@ -0,0 +1,228 @@
+package com.winlator.container
+
+import java.io.File
+import java.io.FileOutputStream
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.nio.file.Paths
+import kotlin.random.Random
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ContainerPatternCacheTest {
+
+    private lateinit var tempDir: File
+    private lateinit var cache: ContainerPatternCache
+    private lateinit var pattern: File
+    private var materialized = 0
+
+    private val key = ContainerPatternCache.getKey("wine-9.2-x86_64", "glibc")
+    private val materializer = ContainerPatternCache.Materializer { dir -> materialized++; extract(pattern, dir) }
+
+    /** A pattern shaped like Wine's: fonts that can be shared, DLLs, hives and profiles that cannot. */
+    private fun writePattern(file: File, dlls: Int, dllSize: Int) {
+        val random = Random(42)
+        TarArchiveOutputStream(FileOutputStream(file)).use { tar ->
+            fun put(path: String, data: ByteArray) {
+                val entry = TarArchiveEntry(path)
+                entry.size = data.size.toLong()
+                tar.putArchiveEntry(entry)
+                tar.write(data)
+                tar.closeArchiveEntry()
+            }
+            for (i in 0 until dlls) {
+                put(".wine/drive_c/windows/system32/lib$i.dll", random.nextBytes(dllSize))
+                put(".wine/drive_c/windows/syswow64/lib$i.dll", random.nextBytes(dllSize / 2))
+            }
+            put(".wine/drive_c/windows/Fonts/arial.ttf", random.nextBytes(dllSize))
+            put(".wine/drive_c/windows/win.ini", "[windows]\n".toByteArray())
+            put(".wine/user.reg", "WINE REGISTRY Version 2\n".toByteArray())
+            put(".wine/system.reg", "WINE REGISTRY Version 2\n".toByteArray())
+            put(".wine/drive_c/users/xuser/Documents/readme.txt", "hello".toByteArray())
+            val link = TarArchiveEntry(".wine/dosdevices/c:", TarArchiveEntry.LF_SYMLINK)
+            link.linkName = "../drive_c"
+            tar.putArchiveEntry(link)
+            tar.closeArchiveEntry()
+        }
+    }
+
+    /** Plain tar without compression, and without the chmod calls of TarCompressorUtils */
+    private fun extract(archive: File, dir: File): Boolean {
+        TarArchiveInputStream(archive.inputStream().buffered()).use { tar ->
+            while (true) {
+                val entry = tar.nextEntry ?: break
+                val file = File(dir, entry.name)
+                file.parentFile?.mkdirs()
+                when {
+                    entry.isSymbolicLink -> Files.createSymbolicLink(file.toPath(), Paths.get(entry.linkName))
+                    entry.isDirectory -> file.mkdirs()
+                    else -> FileOutputStream(file).use { tar.copyTo(it) }
+                }
+            }
+        }
+        return true
+    }
+
+    private fun inode(file: File): Any = Files.getAttribute(file.toPath(), "unix:ino")
+
+    /** Bytes the directories take on disk, counting every hardlinked file once. */
+    private fun diskUsage(vararg dirs: File): Long {
+        val inodes = HashSet<Any>()
+        var total = 0L
+        for (dir in dirs) {
+            dir.walkTopDown().filter { Files.isRegularFile(it.toPath()) }.forEach {
+                if (inodes.add(inode(it))) total += it.length()
+            }
+        }
+        return total
+    }
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("container_pattern_cache_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        cache = ContainerPatternCache(File(tempDir, "home/.container_patterns"))
+        pattern = File(tempDir, "container_pattern.tar")
+        writePattern(pattern, 20, 4096)
+    }
+
+    @After
+    fun tearDown() {
+        // Template directories are read-only
+        tempDir.walkTopDown().forEach { it.setWritable(true) }
+        tempDir.deleteRecursively()
+    }
+
+    @Test
+    fun templateIsBuiltOnce_andSharedBetweenContainers() {
+        val first = File(tempDir, "home/xuser-1")
+        val second = File(tempDir, "home/xuser-2")
+        val result = cache.populate(key, "v1", materializer, first, null)
+        assertTrue(result.success)
+        assertTrue(result.templateBuilt)
+
+        val again = cache.populate(key, "v1", materializer, second, null)
+        assertTrue(again.success)
+        assertFalse(again.templateBuilt)
+        assertEquals(1, materialized)
+        assertEquals(1, again.filesLinked)
+        assertEquals(44, again.filesCopied)
+
+        val font = ".wine/drive_c/windows/Fonts/arial.ttf"
+        assertEquals(inode(File(first, font)), inode(File(second, font)))
+        assertEquals(inode(File(cache.getTemplateDir(key), font)), inode(File(first, font)))
+        val dll = ".wine/drive_c/windows/system32/lib3.dll"
+        assertNotEquals(inode(File(first, dll)), inode(File(second, dll)))
+        assertNotEquals(inode(File(cache.getTemplateDir(key), dll)), inode(File(first, dll)))
+        assertNotEquals(inode(File(first, ".wine/user.reg")), inode(File(second, ".wine/user.reg")))
+        assertEquals("../drive_c", Files.readSymbolicLink(File(second, ".wine/dosdevices/c:").toPath()).toString())
+    }
+
+    @Test
+    fun writesStayInTheirContainer() {
+        val first = File(tempDir, "home/xuser-1")
+        val second = File(tempDir, "home/xuser-2")
+        cache.populate(key, "v1", materializer, first, null)
+        cache.populate(key, "v1", materializer, second, null)
+
+        File(first, ".wine/user.reg").appendText("[Software\\\\Wine] 0\n")
+        // Wine or a DXVK swap truncating and rewriting a DLL in place
+        val dll = File(first, ".wine/drive_c/windows/system32/lib3.dll")
+        RandomAccessFile(dll, "rw").use { it.setLength(0); it.write("dxvk".toByteArray()) }
+
+        assertEquals("WINE REGISTRY Version 2\n", File(second, ".wine/user.reg").readText())
+        assertNotEquals("dxvk", File(second, ".wine/drive_c/windows/system32/lib3.dll").readText())
+        assertTrue(cache.verify(key).isEmpty())
+    }
+
+    @Test
+    fun repopulating_relinksOnlyWhatChanged() {
+        val container = File(tempDir, "home/xuser-1")
+        cache.populate(key, "v1", materializer, container, null)
+        File(container, ".wine/drive_c/windows/Fonts/arial.ttf").apply { delete(); writeText("replaced") }
+        File(container, ".wine/drive_c/windows/system32/lib0.dll").writeText("dxvk")
+        File(container, ".wine/user.reg").writeText("changed")
+
+        val result = cache.populate(key, "v1", materializer, container, null)
+        assertEquals(1, result.filesLinked)
+        assertEquals(44, result.filesCopied)
+        // The dosdevices symlink
+        assertEquals(1, result.filesUnchanged)
+        assertEquals("WINE REGISTRY Version 2\n", File(container, ".wine/user.reg").readText())
+        assertNotEquals("dxvk", File(container, ".wine/drive_c/windows/system32/lib0.dll").readText())
+    }
+
+    @Test
+    fun newIdentity_rebuildsTheTemplate() {
+        cache.populate(key, "v1", materializer, File(tempDir, "home/xuser-1"), null)
+        writePattern(pattern, 2, 100)
+
+        val result = cache.populate(key, "v2", materializer, File(tempDir, "home/xuser-2"), null)
+        assertTrue(result.templateBuilt)
+        assertEquals(2, materialized)
+        assertEquals(1, result.filesLinked)
+        // The first container keeps the files of the old template
+        assertTrue(File(tempDir, "home/xuser-1/.wine/drive_c/windows/system32/lib19.dll").isFile)
+    }
+
+    @Test
+    fun corruptTemplate_isDetectedAndRebuilt() {
+        val first = File(tempDir, "home/xuser-1")
+        cache.populate(key, "v1", materializer, first, null)
+        val original = File(first, ".wine/drive_c/windows/system32/lib5.dll").readBytes()
+
+        // Something wrote into a template file in place, same size and timestamp
+        val templateFile = File(cache.getTemplateDir(key), ".wine/drive_c/windows/system32/lib5.dll")
+        val mtime = templateFile.lastModified()
+        templateFile.writeBytes(ByteArray(original.size))
+        templateFile.setLastModified(mtime)
+
+        assertEquals(listOf(".wine/drive_c/windows/system32/lib5.dll"), cache.verify(key))
+        val result = cache.populate(key, "v1", materializer, File(tempDir, "home/xuser-2"), null)
+        assertTrue(result.templateBuilt)
+        assertArrayEquals(original, File(tempDir, "home/xuser-2/.wine/drive_c/windows/system32/lib5.dll").readBytes())
+    }
+
+    @Test
+    fun changedSize_isCaughtWithoutFullVerify() {
+        cache.populate(key, "v1", materializer, File(tempDir, "home/xuser-1"), null)
+        File(cache.getTemplateDir(key), ".wine/drive_c/windows/Fonts/arial.ttf").appendText("garbage")
+        File(cache.getTemplateDir(key), ".wine/drive_c/windows/win.ini").setLastModified(0)
+
+        val result = cache.populate(key, "v1", materializer, File(tempDir, "home/xuser-2"), null)
+        assertTrue(result.templateBuilt)
+        assertEquals(2, materialized)
+    }
+
+    @Test
+    fun failedMaterialization_leavesNoTemplate() {
+        val result = cache.populate(key, "v1", { dir -> File(dir, "partial").writeText("x"); false }, File(tempDir, "home/xuser-1"), null)
+        assertFalse(result.success)
+        assertFalse(cache.getTemplateDir(key).exists())
+        assertFalse(File(tempDir, "home/.container_patterns/$key.tmp").exists())
+    }
+
+    @Test
+    fun tenPopulatedContainers_useLessDiskThanTenExtractions() {
+        writePattern(pattern, 200, 32 * 1024)
+        val containers = 10
+
+        val extracted = (1..containers).map { File(tempDir, "home/extracted-$it").apply { extract(pattern, this) } }
+        val populated = (1..containers).map { File(tempDir, "home/xuser-$it").also { assertTrue(cache.populate(key, "v1", materializer, it, null).success) } }
+
+        val extractedUsage = diskUsage(*extracted.toTypedArray())
+        val populatedUsage = diskUsage(cache.getTemplateDir(key), *populated.toTypedArray())
+        assertEquals(1, materialized)
+        // DLLs are copied, so only the fonts are shared
+        assertTrue(populatedUsage - diskUsage(cache.getTemplateDir(key)) < extractedUsage)
+    }
+}
@@ -0,0 +1,251 @@
+package com.winlator.core
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import java.io.File
+import java.io.FileOutputStream
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.random.Random
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ExtractionLedgerTest {
+
+    private lateinit var tempDir: File
+    private lateinit var destination: File
+    private lateinit var ledger: ExtractionLedger
+    private var entriesWritten = 0
+
+    private val type = TarCompressorUtils.Type.ZSTD
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("extraction_ledger_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        destination = File(tempDir, "rootfs").apply { mkdirs() }
+        // Plain tar without compression, and without the chmod calls of TarCompressorUtils
+        ledger = ExtractionLedger(File(tempDir, "ledger")) { _, source, dir, listener ->
+            TarArchiveInputStream(source).use { tar ->
+                while (true) {
+                    val entry = tar.nextEntry ?: break
+                    val file = listener.onExtractFile(File(dir, entry.name), entry.size) ?: continue
+                    if (entry.isDirectory) {
+                        file.mkdirs()
+                    } else {
+                        file.parentFile?.mkdirs()
+                        FileOutputStream(file).use { tar.copyTo(it) }
+                        entriesWritten++
+                    }
+                }
+            }
+            true
+        }
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+    }
+
+    private fun archive(name: String, files: Map<String, ByteArray>): File {
+        val file = File(tempDir, name)
+        TarArchiveOutputStream(FileOutputStream(file)).use { tar ->
+            tar.putArchiveEntry(TarArchiveEntry("usr/lib/"))
+            tar.closeArchiveEntry()
+            for ((path, data) in files) {
+                val entry = TarArchiveEntry(path)
+                entry.size = data.size.toLong()
+                tar.putArchiveEntry(entry)
+                tar.write(data)
+                tar.closeArchiveEntry()
+            }
+        }
+        return file
+    }
+
+    private fun read(path: String) = File(destination, path).readText()
+
+    @Test
+    fun unchangedArchive_isSkipped() {
+        val box64 = archive("box64-1.tzst", mapOf("usr/lib/a.so" to "a".toByteArray(), "usr/lib/b.so" to "b".toByteArray()))
+        assertEquals(ExtractionLedger.Action.EXTRACTED, ledger.extract(type, box64, destination, "box64", null).action)
+        entriesWritten = 0
+
+        val result = ledger.extract(type, box64, destination, "box64", null)
+        assertTrue(result.success)
+        assertEquals(ExtractionLedger.Action.SKIPPED, result.action)
+        assertEquals(3, result.pathsChecked)
+        assertEquals(0, entriesWritten)
+    }
+
+    @Test
+    fun missingAndModifiedFiles_areRepairedAlone() {
+        val box64 = archive("box64-1.tzst", mapOf("usr/lib/a.so" to "a".toByteArray(), "usr/lib/b.so" to "b".toByteArray(), "usr/lib/c.so" to "c".toByteArray()))
+        ledger.extract(type, box64, destination, "box64", null)
+        entriesWritten = 0
+
+        File(destination, "usr/lib/a.so").delete()
+        File(destination, "usr/lib/b.so").writeText("patched")
+        val result = ledger.extract(type, box64, destination, "box64", null)
+        assertEquals(ExtractionLedger.Action.REPAIRED, result.action)
+        assertEquals(2, result.pathsRepaired)
+        assertEquals(2, entriesWritten)
+        assertEquals("a", read("usr/lib/a.so"))
+        assertEquals("b", read("usr/lib/b.so"))
+
+        assertEquals(ExtractionLedger.Action.SKIPPED, ledger.extract(type, box64, destination, "box64", null).action)
+    }
+
+    @Test
+    fun newVersion_removesFilesOnlyThePreviousOneHad() {
+        val v1 = archive("box64-1.tzst", mapOf("usr/lib/a.so" to "a1".toByteArray(), "usr/lib/old.so" to "old".toByteArray(), "usr/lib/kept.so" to "k".toByteArray()))
+        val v2 = archive("box64-2.tzst", mapOf("usr/lib/a.so" to "a2".toByteArray()))
+        ledger.extract(type, v1, destination, "box64", null)
+        File(destination, "usr/lib/kept.so").writeText("user modified")
+
+        val result = ledger.extract(type, v2, destination, "box64", null)
+        assertEquals(ExtractionLedger.Action.EXTRACTED, result.action)
+        assertEquals(1, result.pathsRemoved)
+        assertEquals("a2", read("usr/lib/a.so"))
+        assertFalse(File(destination, "usr/lib/old.so").exists())
+        assertEquals("user modified", read("usr/lib/kept.so"))
+    }
+
+    @Test
+    fun newVersion_leavesOverlaidFilesOfTheLayerUnderneath() {
+        // A Wine builtin that the first DXVK version replaces and the second one no longer ships
+        File(destination, "usr/lib/d3d10.dll").apply { parentFile?.mkdirs(); writeText("wine") }
+        val v1 = archive("dxvk-1.tzst", mapOf("usr/lib/d3d11.dll" to "d3d11 v1".toByteArray(), "usr/lib/d3d10.dll" to "d3d10 v1".toByteArray()))
+        val v2 = archive("dxvk-2.tzst", mapOf("usr/lib/d3d11.dll" to "d3d11 v2".toByteArray()))
+        ledger.extract(type, v1, destination, "dxvk", null)
+
+        val result = ledger.extract(type, v2, destination, "dxvk", null)
+        assertEquals(0, result.pathsRemoved)
+        assertEquals("d3d10 v1", read("usr/lib/d3d10.dll"))
+        assertTrue(File(destination, "usr/lib").isDirectory)
+    }
+
+    @Test
+    fun archivesSharingFiles_inTheirOwnSlots_keepEachOthersFiles() {
+        val dxvk = archive("dxvk-2.4.1.tzst", mapOf("usr/lib/d3d11.dll" to "2.4.1".toByteArray(), "usr/lib/d3d9.dll" to "d3d9".toByteArray()))
+        val older = archive("dxvk-1.10.3.tzst", mapOf("usr/lib/d3d11.dll" to "1.10.3".toByteArray(), "usr/lib/dxgi.dll" to "dxgi".toByteArray()))
+        ledger.extract(type, dxvk, destination, "dxvk-2.4.1", null)
+        ledger.extract(type, older, destination, "dxvk-1.10.3", null)
+
+        val result = ledger.extract(type, dxvk, destination, "dxvk-2.4.1", null)
+        assertEquals(ExtractionLedger.Action.REPAIRED, result.action)
+        assertEquals(1, result.pathsRepaired)
+        assertEquals("2.4.1", read("usr/lib/d3d11.dll"))
+        assertEquals("dxgi", read("usr/lib/dxgi.dll"))
+        assertEquals("d3d9", read("usr/lib/d3d9.dll"))
+    }
+
+    @Test
+    fun get_returnsOneInstance() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        assertSame(ExtractionLedger.get(context), ExtractionLedger.get(context))
+    }
+
+    @Test
+    fun sameContentUnderNewIdentity_isSkipped() {
+        val files = mapOf("usr/lib/a.so" to "a".toByteArray())
+        val archive = archive("box64.tzst", files)
+        ledger.extract(type, archive, destination, "box64", null)
+
+        archive.setLastModified(archive.lastModified() - 60_000)
+        assertEquals(ExtractionLedger.Action.SKIPPED, ledger.extract(type, archive, destination, "box64", null).action)
+    }
+
+    @Test
+    fun listener_isPartOfTheArchiveIdentity() {
+        val archive = archive("dxvk.tzst", mapOf("usr/lib/system32/d3d9.dll" to "64".toByteArray(), "usr/lib/syswow64/d3d9.dll" to "32".toByteArray()))
+        ledger.extract(type, archive, destination, "dxvk", null)
+
+        val win32 = OnExtractFileListener { file, _ ->
+            if (file.path.contains("system32/")) null else File(file.path.replace("syswow64/", "system32/"))
+        }
+        assertEquals(ExtractionLedger.Action.EXTRACTED, ledger.extract(type, archive, destination, "dxvk", win32).action)
+        assertEquals("32", read("usr/lib/system32/d3d9.dll"))
+        assertEquals(ExtractionLedger.Action.SKIPPED, ledger.extract(type, archive, destination, "dxvk", win32).action)
+    }
+
+    @Test
+    fun slots_keepSeparateManifests() {
+        val dxvk = archive("dxvk.tzst", mapOf("usr/lib/d3d11.dll" to "dxvk".toByteArray()))
+        val d8vk = archive("d8vk.tzst", mapOf("usr/lib/d3d8.dll" to "d8vk".toByteArray()))
+        ledger.extract(type, dxvk, destination, "dxvk", null)
+        ledger.extract(type, d8vk, destination, "d8vk", null)
+
+        assertEquals(ExtractionLedger.Action.SKIPPED, ledger.extract(type, dxvk, destination, "dxvk", null).action)
+        assertTrue(File(destination, "usr/lib/d3d8.dll").exists())
+    }
+
+    @Test
+    fun differentDestinations_extractConcurrently() {
+        // Each extraction only finishes once the other one has started, which a ledger-wide lock would never allow
+        val barrier = CyclicBarrier(2)
+        val parallelLedger = ExtractionLedger(File(tempDir, "ledger")) { _, _, _, _ ->
+            barrier.await(5, TimeUnit.SECONDS)
+            true
+        }
+        val archive = archive("wine.tzst", mapOf("usr/lib/a.so" to "a".toByteArray()))
+        val executor = Executors.newFixedThreadPool(2)
+        try {
+            val results = listOf("prefix", "imagefs").map { name ->
+                executor.submit<ExtractionLedger.Result> { parallelLedger.extract(type, archive, File(tempDir, name), "wine", null) }
+            }
+            results.forEach { assertEquals(ExtractionLedger.Action.EXTRACTED, it.get(10, TimeUnit.SECONDS).action) }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    @Test
+    fun sameDestination_extractsOneAtATime() {
+        val running = AtomicInteger()
+        val maxRunning = AtomicInteger()
+        val serialLedger = ExtractionLedger(File(tempDir, "ledger")) { _, _, _, _ ->
+            maxRunning.accumulateAndGet(running.incrementAndGet(), ::maxOf)
+            Thread.sleep(20)
+            running.decrementAndGet()
+            true
+        }
+        val archives = (0 until 4).map { archive("wine$it.tzst", mapOf("usr/lib/a.so" to "$it".toByteArray())) }
+        val executor = Executors.newFixedThreadPool(4)
+        try {
+            archives.map { archive -> executor.submit { serialLedger.extract(type, archive, destination, "wine", null) } }.forEach { it.get(10, TimeUnit.SECONDS) }
+        } finally {
+            executor.shutdownNow()
+        }
+        assertEquals(1, maxRunning.get())
+    }
+
+    @Test
+    fun warmExtract_ofALargeArchive_writesNothing() {
+        val random = Random(1)
+        val files = (0 until 400).associate { "usr/lib/wine/lib$it.dll" to random.nextBytes(32 * 1024) }
+        val archive = archive("large.tzst", files)
+
+        val cold = ledger.extract(type, archive, destination, "large", null)
+        assertEquals(ExtractionLedger.Action.EXTRACTED, cold.action)
+        assertEquals(400, entriesWritten)
+
+        val warm = ledger.extract(type, archive, destination, "large", null)
+        assertEquals(ExtractionLedger.Action.SKIPPED, warm.action)
+        assertTrue(warm.pathsChecked >= 400)
+        assertEquals(0, warm.pathsRepaired)
+        assertEquals(400, entriesWritten)
+    }
+}
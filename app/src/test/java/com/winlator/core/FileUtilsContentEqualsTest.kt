@@ -0,0 +1,119 @@
+package com.winlator.core
+
+import java.io.File
+import kotlin.random.Random
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class FileUtilsContentEqualsTest {
+
+    private lateinit var tempDir: File
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("content_equals_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+    }
+
+    private fun writeFile(name: String, data: ByteArray): File = File(tempDir, name).apply {
+        parentFile?.mkdirs()
+        writeBytes(data)
+    }
+
+    @Test
+    fun equalFiles_areEqual() {
+        val data = Random(1).nextBytes(3 * 256 * 1024 + 13)
+        assertTrue(FileUtils.contentEquals(writeFile("a.dll", data), writeFile("b.dll", data)))
+    }
+
+    @Test
+    fun emptyFiles_areEqual() {
+        assertTrue(FileUtils.contentEquals(writeFile("a.dll", ByteArray(0)), writeFile("b.dll", ByteArray(0))))
+    }
+
+    @Test
+    fun differentLengths_areNotEqual() {
+        val data = Random(2).nextBytes(4096)
+        assertFalse(FileUtils.contentEquals(writeFile("a.dll", data), writeFile("b.dll", data.copyOf(4095))))
+    }
+
+    @Test
+    fun singleByteDifference_isDetectedAnywhere() {
+        val data = Random(3).nextBytes(2 * 256 * 1024 + 5)
+        val origin = writeFile("origin.dll", data)
+        // First byte, inside a long word, chunk boundary and the unaligned tail
+        for ((i, offset) in listOf(0, 12345, 256 * 1024, data.size - 1).withIndex()) {
+            val modified = data.copyOf()
+            modified[offset] = (modified[offset] + 1).toByte()
+            assertFalse("offset $offset", FileUtils.contentEquals(origin, writeFile("target$i.dll", modified)))
+        }
+    }
+
+    @Test
+    fun rewriteKeepingSizeAndMtime_isNoticed() {
+        val data = Random(4).nextBytes(1000)
+        val origin = writeFile("a.dll", data)
+        val target = writeFile("b.dll", data)
+        assertTrue(FileUtils.contentEquals(origin, target))
+
+        // Within the filesystem's mtime granularity, or restored by an extractor
+        val mtime = target.lastModified()
+        target.writeBytes(data.copyOf().also { it[500] = (it[500] + 1).toByte() })
+        target.setLastModified(mtime)
+        assertFalse(FileUtils.contentEquals(origin, target))
+    }
+
+    @Test
+    fun findIdenticalFiles_matchesByNameAndContent() {
+        val random = Random(5)
+        for (i in 0 until 20) {
+            val data = random.nextBytes(1024 + i)
+            writeFile("src/lib$i.dll", data)
+            writeFile("dst/lib$i.dll", if (i % 3 == 0) data.copyOf().also { it[0] = (it[0] + 1).toByte() } else data)
+        }
+        writeFile("dst/only_in_dst.dll", random.nextBytes(64))
+
+        val identical = FileUtils.findIdenticalFiles(File(tempDir, "src"), File(tempDir, "dst")).toSet()
+        val expected = (0 until 20).filter { it % 3 != 0 }.map { "lib$it.dll" }.toSet()
+        assertEquals(expected, identical)
+    }
+
+    @Test
+    fun largeFiles_agreeWithByteWiseCompare() {
+        val data = Random(6).nextBytes(8 * 1024 * 1024 + 7)
+        val origin = writeFile("big1.dll", data)
+        val same = writeFile("big2.dll", data)
+        val lastByte = writeFile("big3.dll", data.copyOf().also { it[it.size - 1] = (it[it.size - 1] + 1).toByte() })
+
+        assertTrue(BufferedInputStreamCompare.equals(origin, same))
+        assertTrue(FileUtils.contentEquals(origin, same))
+        assertFalse(BufferedInputStreamCompare.equals(origin, lastByte))
+        assertFalse(FileUtils.contentEquals(origin, lastByte))
+    }
+
+    /** The previous byte-at-a-time implementation, kept as the reference result. */
+    private object BufferedInputStreamCompare {
+        fun equals(origin: File, target: File): Boolean {
+            origin.inputStream().buffered().use { in1 ->
+                target.inputStream().buffered().use { in2 ->
+                    var data: Int
+                    while (in1.read().also { data = it } != -1) {
+                        if (data != in2.read()) return false
+                    }
+                    return true
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.winlator.core
+
+import java.io.ByteArrayInputStream
+import java.io.File
+import java.util.Collections
+import java.util.zip.GZIPInputStream
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class LogPumpTest {
+
+    private lateinit var tempDir: File
+    private lateinit var pump: LogPump
+
+    /** Hands out data in fixed chunks, then reports the end of the stream. */
+    private class ChunkSource(private val data: ByteArray, private val chunkSize: Int) : LogPump.Source {
+        private var position = 0
+        var closed = false
+
+        override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+            if (position >= data.size) return -1
+            val count = minOf(chunkSize, length, data.size - position)
+            System.arraycopy(data, position, buffer, offset, count)
+            position += count
+            return count
+        }
+
+        override fun close() {
+            closed = true
+        }
+    }
+
+    /** Stays open until finished, like the pipe of a running process. */
+    private class QueueSource : LogPump.Source {
+        private val chunks = java.util.concurrent.ConcurrentLinkedQueue<ByteArray>()
+        @Volatile var finished = false
+
+        fun write(text: String) = chunks.add(text.toByteArray())
+
+        override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+            val chunk = chunks.poll() ?: return if (finished) -1 else 0
+            System.arraycopy(chunk, 0, buffer, offset, chunk.size)
+            return chunk.size
+        }
+
+        override fun close() {}
+    }
+
+    /** Like Wine with a few debug channels on, roughly 100 byte lines. */
+    private class SyntheticSource(private val totalBytes: Long) : LogPump.Source {
+        private val line = "0024:trace:d3d:wined3d_device_context_emit_draw context 0x7ffe0000, state 0x12345678, count 36\n".toByteArray()
+        var produced = 0L
+        var lines = 0L
+
+        override fun read(buffer: ByteArray, offset: Int, length: Int): Int {
+            if (produced >= totalBytes) return -1
+            var count = 0
+            while (count + line.size <= length && produced < totalBytes) {
+                System.arraycopy(line, 0, buffer, offset + count, line.size)
+                count += line.size
+                produced += line.size
+                lines++
+            }
+            return count
+        }
+
+        override fun close() {}
+    }
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("log_pump_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        pump = LogPump(100, 10000)
+    }
+
+    @After
+    fun tearDown() {
+        pump.stop()
+        tempDir.deleteRecursively()
+    }
+
+    private fun collectLines(): MutableList<LogPump.Line> {
+        val lines = Collections.synchronizedList(mutableListOf<LogPump.Line>())
+        pump.addBatchCallback { batch -> lines.addAll(batch) }
+        return lines
+    }
+
+    @Test
+    fun linesAreSplitAcrossReads_andTaggedBySource() {
+        val lines = collectLines()
+        val wine = ChunkSource("first line\r\nsecond ".toByteArray() + "line\nunterminated".toByteArray(), 3)
+        pump.addSource("wine[12]", wine)
+        pump.addSource("box64[7]", ChunkSource("Box64 v0.3.2\n".toByteArray(), 64))
+        assertTrue(pump.awaitIdle(5000))
+
+        val wineLines = lines.filter { it.tag == "wine[12]" }.map { it.text }
+        assertEquals(listOf("first line", "second line", "unterminated"), wineLines)
+        assertEquals(listOf("Box64 v0.3.2"), lines.filter { it.tag == "box64[7]" }.map { it.text })
+        assertTrue(wine.closed)
+        assertEquals(0, pump.stats.sources)
+    }
+
+    @Test
+    fun longLines_areCut() {
+        val lines = collectLines()
+        pump.addSource("wine[1]", ChunkSource(("x".repeat(10000) + "\n").toByteArray(), 1000))
+        assertTrue(pump.awaitIdle(5000))
+        assertEquals(listOf(4096, 4096, 1808), lines.map { it.text.length })
+    }
+
+    @Test
+    fun lineCallbacks_getTheText_offThePumpThread() {
+        val threads = Collections.synchronizedSet(mutableSetOf<String>())
+        val texts = Collections.synchronizedList(mutableListOf<String>())
+        pump.addLineCallback { line -> texts.add(line); threads.add(Thread.currentThread().name) }
+        pump.addSource("wine[1]", ChunkSource("a\nb\nc\n".toByteArray(), 2))
+        assertTrue(pump.awaitIdle(5000))
+
+        assertEquals(listOf("a", "b", "c"), texts)
+        assertEquals(setOf("LogPumpDelivery"), threads)
+        assertTrue(pump.stats.batchesDelivered < 3)
+    }
+
+    @Test
+    fun filter_dropsLinesBeforeTheyAreKeptOrDelivered() {
+        val lines = collectLines()
+        pump.setFilter { tag, text -> !text.startsWith("fixme:") || tag.startsWith("game") }
+        pump.addSource("wine[1]", ChunkSource("fixme:ntdll:stub\nerr:module:not found\n".toByteArray(), 100))
+        pump.addSource("game[2]", ChunkSource("fixme:kept\n".toByteArray(), 100))
+        assertTrue(pump.awaitIdle(5000))
+
+        assertEquals(setOf("err:module:not found", "fixme:kept"), lines.map { it.text }.toSet())
+        assertEquals(1L, pump.stats.linesFiltered)
+        assertFalse(pump.recentLines.any { it.text == "fixme:ntdll:stub" })
+    }
+
+    @Test
+    fun rateLimit_summarizesSuppressedLines() {
+        val lines = collectLines()
+        pump.setMaxLinesPerSecond(10)
+        val source = QueueSource()
+        source.write((0 until 200).joinToString("") { "line $it\n" })
+        pump.addSource("wine[1]", source)
+        assertTrue(pump.awaitIdle(5000))
+        assertTrue(lines.size <= 11)
+        val suppressed = pump.stats.linesRateLimited
+        assertTrue(suppressed >= 189)
+
+        // The next line after a refill reports what was skipped
+        Thread.sleep(200)
+        source.write("later\n")
+        // Nothing tells the pump about new data in a fake source, so wait for it to come around
+        val deadline = System.currentTimeMillis() + 5000
+        while (lines.none { it.text == "later" } && System.currentTimeMillis() < deadline) Thread.sleep(10)
+        assertTrue(lines.any { it.text == "($suppressed lines suppressed by rate limit)" })
+        assertEquals("later", lines.last().text)
+        source.finished = true
+    }
+
+    @Test
+    fun slowConsumer_dropsInsteadOfQueueingWithoutBound() {
+        pump = LogPump(100, 50)
+        val release = java.util.concurrent.CountDownLatch(1)
+        pump.addBatchCallback { release.await() }
+        pump.addSource("wine[1]", ChunkSource((0 until 5000).joinToString("") { "line $it\n" }.toByteArray(), 4096))
+        Thread.sleep(300)
+        release.countDown()
+        assertTrue(pump.awaitIdle(5000))
+
+        val stats = pump.stats
+        assertEquals(5000L, stats.linesRead)
+        assertTrue(stats.linesDropped > 0)
+        assertEquals(stats.linesRead, stats.linesDropped + stats.linesDelivered)
+        // The ring keeps the newest lines either way
+        assertEquals("line 4999", pump.recentLines.last().text)
+        assertEquals(100, pump.recentLines.size)
+    }
+
+    @Test
+    fun logFile_rotatesIntoCompressedFiles() {
+        val file = File(tempDir, "wine_debug.log")
+        pump.setLogFile(file, 10_000, 3)
+        val data = (0 until 2000).joinToString("") { "trace:line $it\n" }.toByteArray()
+        pump.addSource("wine[1]", ChunkSource(data, 1024))
+        assertTrue(pump.awaitIdle(5000))
+        pump.stop()
+
+        assertTrue(file.readText().endsWith("wine[1]: trace:line 1999\n"))
+        val rotated = File(tempDir, "wine_debug.log.1.gz")
+        val text = GZIPInputStream(rotated.inputStream()).bufferedReader().readText()
+        assertTrue(text.startsWith("wine[1]: trace:line "))
+        assertTrue(File(tempDir, "wine_debug.log.2.gz").exists())
+        assertFalse(File(tempDir, "wine_debug.log.3.gz").exists())
+    }
+
+    @Test
+    fun plainStreams_areReadAsFarAsAvailable() {
+        val lines = collectLines()
+        pump.addStream("wineserver[3]", ByteArrayInputStream("ready\n".toByteArray()))
+        assertTrue(pump.awaitIdle(5000))
+        assertEquals(listOf("ready"), lines.map { it.text })
+    }
+
+    @Test
+    fun processTag_isTheExecutableAndPid() {
+        assertEquals("box64[42]", ProcessHelper.getLogTag("/data/imagefs/usr/bin/box64 wine explorer /desktop=shell", 42))
+        assertEquals("wine[7]", ProcessHelper.getLogTag("\"/opt/wine/bin/wine\" game.exe", 7))
+    }
+
+    @Test
+    fun heavyProducer_isReadCompletelyInBatches() {
+        val source = SyntheticSource(8L * 1024 * 1024)
+        val file = File(tempDir, "wine_debug.log")
+        val batches = java.util.concurrent.atomic.AtomicLong()
+        pump.addBatchCallback { batches.incrementAndGet() }
+        pump.setLogFile(file, 64L * 1024 * 1024, 2)
+
+        pump.addSource("wine[1]", source)
+        assertTrue(pump.awaitIdle(60_000))
+
+        val stats = pump.stats
+        assertEquals(source.produced, stats.bytesRead)
+        assertEquals(source.lines, stats.linesRead)
+        assertEquals(stats.linesRead, stats.linesDelivered + stats.linesDropped)
+        assertEquals(batches.get(), stats.batchesDelivered)
+        assertTrue(stats.batchesDelivered < stats.linesDelivered / 10)
+    }
+}
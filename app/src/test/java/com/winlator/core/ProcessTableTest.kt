@@ -0,0 +1,161 @@
+package com.winlator.core
+
+import com.winlator.metrics.MetricsRegistry
+import java.io.File
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class ProcessTableTest {
+
+    private lateinit var procDir: File
+    private lateinit var table: ProcessTable
+
+    private val appUid = 10290
+
+    /** Writes /proc/[pid]/stat and status the way the kernel formats them. */
+    private fun writeProcess(
+        pid: Int,
+        ppid: Int,
+        name: String,
+        uid: Int = appUid,
+        utime: Long = 0,
+        stime: Long = 0,
+        startTime: Long = 1000L + pid,
+        rssKb: Long? = 2048,
+        threads: Int = 1,
+    ) {
+        val dir = File(procDir, pid.toString()).apply { mkdirs() }
+        dir.resolve("stat").writeText(
+            "$pid ($name) S $ppid $pid $pid 0 -1 4194560 1500 0 0 0 $utime $stime 0 0 20 0 $threads 0 $startTime " +
+                "123456789 ${(rssKb ?: 0) / 4} 18446744073709551615 1 1 0 0 0 0 0 4096 1073775864 0 0 0 17 3 0 0 0 0 0\n",
+        )
+        val status = StringBuilder()
+        status.append("Name:\t${name.take(15)}\nUmask:\t0077\nState:\tS (sleeping)\nTgid:\t$pid\nNgid:\t0\nPid:\t$pid\nPPid:\t$ppid\n")
+        status.append("TracerPid:\t0\nUid:\t$uid\t$uid\t$uid\t$uid\nGid:\t$uid\t$uid\t$uid\t$uid\nFDSize:\t64\n")
+        if (rssKb != null) status.append("VmPeak:\t  200000 kB\nVmSize:\t  180000 kB\nVmRSS:\t    $rssKb kB\n")
+        status.append("Threads:\t$threads\nvoluntary_ctxt_switches:\t10\nnonvoluntary_ctxt_switches:\t2\n")
+        dir.resolve("status").writeText(status.toString())
+    }
+
+    @Before
+    fun setUp() {
+        procDir = File.createTempFile("proc_", null)
+        procDir.delete()
+        procDir.mkdirs()
+        table = ProcessTable(procDir)
+
+        writeProcess(1, 0, "init", uid = 0)
+        writeProcess(2, 0, "kthreadd", uid = 0, rssKb = null)
+        writeProcess(500, 1, "app.gamenative", utime = 900, rssKb = 300000, threads = 60)
+        writeProcess(600, 500, "box64", utime = 300)
+        writeProcess(601, 600, "wineserver", utime = 50)
+        writeProcess(602, 600, "explorer.exe", utime = 20)
+        writeProcess(603, 602, "Game (Win64) )x", utime = 1000, stime = 200, rssKb = 1500000, threads = 42)
+        writeProcess(700, 1, "other.app", uid = 10111)
+        // Not processes
+        File(procDir, "self").mkdirs()
+        File(procDir, "meminfo").writeText("MemTotal: 1 kB\n")
+    }
+
+    @After
+    fun tearDown() {
+        procDir.deleteRecursively()
+    }
+
+    @Test
+    fun snapshot_parsesStatAndStatus() {
+        val snapshot = table.snapshot()
+        assertEquals(8, snapshot.size())
+
+        val game = snapshot.get(603)
+        assertEquals("Game (Win64) )x", game.name)
+        assertEquals(602, game.ppid)
+        assertEquals(appUid, game.uid)
+        assertEquals('S', game.state)
+        assertEquals(1000L, game.utime)
+        assertEquals(200L, game.stime)
+        assertEquals(42, game.threads)
+        assertEquals(1603L, game.startTime)
+        assertEquals(1500000L, game.rssKb)
+
+        assertEquals(0L, snapshot.get(2).rssKb)
+        assertNull(snapshot.get(0))
+    }
+
+    @Test
+    fun snapshot_ofUser_skipsOtherUsers() {
+        val snapshot = table.snapshot(appUid)
+        assertEquals(listOf(500, 600, 601, 602, 603), snapshot.processes.map { it.pid }.sorted())
+    }
+
+    @Test
+    fun tree_listsChildrenAndDescendants() {
+        val snapshot = table.snapshot()
+        assertEquals(listOf(601, 602), snapshot.getChildren(600).map { it.pid }.sorted())
+        assertEquals(listOf(600, 601, 602, 603), snapshot.getDescendants(500).map { it.pid }.sorted())
+        assertTrue(snapshot.getChildren(603).isEmpty())
+        assertEquals(8, snapshot.getDescendants(0).size)
+    }
+
+    @Test
+    fun cpuAndRssDeltas_betweenSnapshots() {
+        val before = table.snapshot()
+        writeProcess(603, 602, "Game (Win64) )x", utime = 1150, stime = 250, rssKb = 1600000, threads = 42)
+        // pid reused by a new process
+        writeProcess(602, 600, "cmd.exe", utime = 40, startTime = 9000)
+        File(procDir, "601").deleteRecursively()
+        Thread.sleep(20)
+        val after = table.snapshot()
+
+        val elapsedSeconds = (after.timeNanos - before.timeNanos) / 1e9f
+        assertEquals(200 / elapsedSeconds, after.getCpuPercent(before, 603), 0.5f)
+        assertEquals(100000L, after.getRssDeltaKb(before, 603))
+        assertEquals(-1f, after.getCpuPercent(before, 602))
+        assertEquals(-1f, after.getCpuPercent(before, 601))
+        assertEquals(-1f, after.getCpuPercent(null, 603))
+        assertEquals(0f, after.getCpuPercent(before, 600))
+    }
+
+    @Test
+    fun sampler_publishesGaugesForTheUsersProcesses() {
+        val registry = MetricsRegistry()
+        val sampler = ProcessTable.Sampler(table, registry, appUid, 500, 1000)
+        sampler.sample()
+        assertEquals(4L, registry.gauge("proc.count").get())
+        assertEquals(2048L * 3 + 1500000L, registry.gauge("proc.rss_kb").get())
+
+        writeProcess(603, 602, "Game (Win64) )x", utime = 5000, stime = 200, rssKb = 1500000)
+        Thread.sleep(20)
+        sampler.sample()
+        assertTrue(registry.gauge("proc.cpu_percent").get() > 0)
+    }
+
+    @Test
+    fun vanishedProcessDirectory_isSkipped() {
+        File(procDir, "604").mkdirs()
+        File(procDir, "605").apply { mkdirs(); resolve("status").writeText("Name:\tzombie\nUid:\t$appUid\t0\t0\t0\n") }
+        val snapshot = table.snapshot()
+        assertNull(snapshot.get(604))
+        assertNull(snapshot.get(605))
+        assertEquals(8, snapshot.size())
+    }
+
+    @Test
+    fun snapshot_ofManyProcesses_readsEveryOne() {
+        for (pid in 1000 until 1400) writeProcess(pid, 600, "wine-proc-$pid", utime = pid.toLong())
+
+        val snapshot = table.snapshot(appUid)
+        assertEquals(405, snapshot.size())
+        for (pid in 1000 until 1400) {
+            val process = snapshot.get(pid)
+            assertEquals("wine-proc-$pid", process.name)
+            assertEquals(600, process.ppid)
+            assertEquals(pid.toLong(), process.utime)
+        }
+    }
+}
@@ -0,0 +1,243 @@
+package com.winlator.core
+
+import java.io.File
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class WineRegistryTransactionTest {
+
+    private lateinit var tempDir: File
+    private lateinit var userReg: File
+    private lateinit var systemReg: File
+
+    /** A hive shaped like Wine's, with a key per app so lookups have something to scan. */
+    private fun writeHive(file: File, apps: Int) {
+        val sb = StringBuilder("WINE REGISTRY Version 2\n;; All keys relative to \\\\User\\\\S-1-5-21\n\n#arch=win64\n")
+        for (i in 0 until apps) {
+            sb.append("\n[Software\\\\Vendor${i % 7}\\\\App$i] 1700000000\n#time=1da00000000000\n")
+            for (j in 0 until 5) sb.append("\"Value$j\"=\"data $i $j\"\n")
+            if (i % 5 == 0) sb.append("\"Bin\"=hex:01,02,03,04,05,06,07,08,09,0a,0b,0c,0d,0e,0f,10,11,12,13,14,15,16,\\\n  17,18,19\n")
+            sb.append("\"Num\"=dword:0000000${i % 10}\n")
+        }
+        sb.append("\n[Software\\\\Wine\\\\DllOverrides] 1700000000\n#time=1da00000000000\n\"d3d9\"=\"builtin\"\n")
+        sb.append("\n[Control Panel\\\\Colors] 1700000000\n#time=1da00000000000\n\"Window\"=\"255 255 255\"\n")
+        sb.append("\n[System\\\\CurrentControlSet\\\\Services\\\\BITS] 1700000000\n#time=1da00000000000\n\"Start\"=dword:00000003\n")
+        file.writeText(sb.toString())
+    }
+
+    /** Creation times of new keys differ between runs */
+    private fun normalized(file: File) = file.readText().replace(Regex("] \\d+\n#time=[0-9a-f]+\n"), "] T\n#time=T\n")
+
+    @Before
+    fun setUp() {
+        tempDir = File.createTempFile("wine_registry_test_", null)
+        tempDir.delete()
+        tempDir.mkdirs()
+        userReg = File(tempDir, "user.reg")
+        systemReg = File(tempDir, "system.reg")
+        writeHive(userReg, 300)
+        writeHive(systemReg, 300)
+    }
+
+    @After
+    fun tearDown() {
+        tempDir.deleteRecursively()
+    }
+
+    @Test
+    fun editor_appliesEditsInMemoryAndWritesOnce() {
+        WineRegistryEditor(userReg).use { editor ->
+            editor.setStringValue("Software\\Vendor1\\App1", "Value2", "changed \"quoted\" \\ path")
+            editor.setStringValue("Software\\Vendor1\\App1", "NewValue", "new")
+            editor.setDwordValue("Software\\Vendor4\\App4", "Num", 0x1234)
+            editor.setHexValue("Software\\Vendor5\\App5", "Bin", byteArrayOf(1, 2, 3, -1))
+            editor.removeValue("Software\\Vendor6\\App6", "Value3")
+            editor.removeKey("Software\\Vendor0\\App7")
+            editor.setStringValues("Software\\Wine\\DllOverrides", arrayOf("d3d9", "native,builtin"), arrayOf("dxgi", "native"))
+            editor.setCreateKeyIfNotExist(false)
+            editor.setDwordValue("System\\CurrentControlSet\\Services\\Missing", "Start", 4)
+
+            assertEquals("changed \"quoted\" \\ path", editor.getStringValue("Software\\Vendor1\\App1", "Value2"))
+            // Nothing reaches the file before close()
+            assertFalse(userReg.readText().contains("NewValue"))
+        }
+
+        WineRegistryEditor(userReg).use { editor ->
+            assertEquals("new", editor.getStringValue("Software\\Vendor1\\App1", "NewValue"))
+            assertEquals(0x1234, editor.getDwordValue("Software\\Vendor4\\App4", "Num"))
+            assertNull(editor.getStringValue("Software\\Vendor6\\App6", "Value3"))
+            assertEquals("data 6 4", editor.getStringValue("Software\\Vendor6\\App6", "Value4"))
+            assertNull(editor.getStringValue("Software\\Vendor0\\App7", "Value0"))
+            assertEquals("native,builtin", editor.getStringValue("Software\\Wine\\DllOverrides", "d3d9"))
+            assertEquals("native", editor.getStringValue("Software\\Wine\\DllOverrides", "dxgi"))
+        }
+        assertFalse(userReg.readText().contains("Services\\\\Missing"))
+        assertEquals(listOf("system.reg", "user.reg"), tempDir.list()!!.sorted())
+    }
+
+    @Test
+    fun editor_unchangedValues_doNotRewriteTheHive() {
+        val editor = WineRegistryEditor(userReg)
+        editor.setStringValue("Control Panel\\Colors", "Window", "255 255 255")
+        editor.setDwordValue("System\\CurrentControlSet\\Services\\BITS", "Start", 3)
+        editor.removeValue("Software\\Vendor1\\App1", "Missing")
+        editor.close()
+
+        assertFalse(editor.isModified)
+        assertEquals(userReg.length(), editor.bytesRead)
+        assertEquals(0L, editor.bytesWritten)
+    }
+
+    @Test
+    fun transaction_matchesOneEditorPerStep() {
+        val perStep = File(tempDir, "per_step.reg")
+        userReg.copyTo(perStep)
+
+        WineRegistryEditor(perStep).use { it.setStringValue("Control Panel\\Colors", "Window", "48 48 48") }
+        WineRegistryEditor(perStep).use {
+            it.removeKey("Software\\Winlator\\WFM\\ContextMenu\\7-Zip")
+            it.setStringValue("Software\\Winlator\\WFM\\ContextMenu\\7-Zip", "Open Archive", "7zFM.exe")
+            it.setStringValue("Software\\Wine\\DllOverrides", "d3d11", "native,builtin")
+        }
+        WineRegistryEditor(perStep).use { it.setHexValue("Control Panel\\Desktop\\WindowMetrics", "IconFont", byteArrayOf(1, 2, 3)) }
+
+        val transaction = WineRegistryTransaction()
+        transaction.edit(userReg, "desktopTheme").setStringValue("Control Panel\\Colors", "Window", "48 48 48")
+        transaction.edit(userReg, "applySystemTweaks").apply {
+            removeKey("Software\\Winlator\\WFM\\ContextMenu\\7-Zip")
+            setStringValue("Software\\Winlator\\WFM\\ContextMenu\\7-Zip", "Open Archive", "7zFM.exe")
+            setStringValue("Software\\Wine\\DllOverrides", "d3d11", "native,builtin")
+        }
+        transaction.edit(userReg, "windowMetrics").setHexValue("Control Panel\\Desktop\\WindowMetrics", "IconFont", byteArrayOf(1, 2, 3))
+        val report = transaction.commit()
+
+        assertEquals(normalized(perStep), normalized(userReg))
+        assertTrue(report.isCommitted)
+        assertTrue(report.conflicts.isEmpty())
+    }
+
+    @Test
+    fun transaction_readsAndWritesEachHiveOnce() {
+        val transaction = WineRegistryTransaction()
+        val sizeBefore = userReg.length() + systemReg.length()
+        for (i in 0 until 20) {
+            transaction.edit(userReg, "step$i").setStringValue("Software\\Vendor${i % 7}\\App$i", "Value0", "step $i")
+            transaction.edit(systemReg, "step$i").setDwordValue("Software\\Vendor${i % 7}\\App$i", "Num", i)
+        }
+        // Same hive through another path
+        File(tempDir, "sub").mkdirs()
+        transaction.edit(File(tempDir, "sub/../user.reg"), "other").setStringValue("Control Panel\\Colors", "Window", "0 0 0")
+        val report = transaction.commit()
+
+        assertEquals(2, report.hives.size)
+        assertEquals(21, report.hives.first { it.file.name == "user.reg" }.sessions)
+        assertEquals(sizeBefore, report.bytesRead)
+        assertEquals(userReg.length() + systemReg.length(), report.bytesWritten)
+        assertTrue(report.legacyBytesRead > report.bytesRead * 10)
+        for (hive in report.hives) assertEquals(hive.edits * hive.bytesWritten, hive.legacyBytesWritten)
+        WineRegistryEditor(systemReg).use { assertEquals(19, it.getDwordValue("Software\\Vendor5\\App19", "Num")) }
+    }
+
+    @Test
+    fun conflictingSteps_areReported_laterEditWins() {
+        val transaction = WineRegistryTransaction()
+        transaction.edit(userReg, "theme").apply {
+            setStringValue("Software\\Wine\\DllOverrides", "d3d9", "native")
+            setStringValue("Control Panel\\Colors", "Window", "48 48 48")
+            setStringValue("Software\\Vendor2\\App2", "Value0", "kept")
+        }
+        transaction.edit(userReg, "tweaks").apply {
+            setStringValue("Software\\Wine\\DllOverrides", "d3d9", "builtin")
+            // Same value, not a conflict
+            setStringValue("Control Panel\\Colors", "Window", "48 48 48")
+        }
+        // The same step changing its mind is not a conflict either
+        transaction.edit(userReg, "tweaks").setStringValue("Software\\Wine\\DllOverrides", "d3d9", "builtin,native")
+        transaction.edit(userReg, "cleanup").removeKey("Software\\Vendor2", true)
+
+        val conflicts = transaction.conflicts
+        assertEquals(2, conflicts.size)
+        assertEquals("theme", conflicts[0].firstStep)
+        assertEquals("tweaks", conflicts[0].secondStep)
+        assertEquals("d3d9", conflicts[0].name)
+        assertEquals("Software\\Vendor2\\App2", conflicts[1].key)
+        assertEquals("cleanup", conflicts[1].secondStep)
+
+        transaction.commit()
+        WineRegistryEditor(userReg).use {
+            assertEquals("builtin,native", it.getStringValue("Software\\Wine\\DllOverrides", "d3d9"))
+            assertNull(it.getStringValue("Software\\Vendor2\\App2", "Value0"))
+        }
+    }
+
+    @Test
+    fun commitActions_runOnceTheHivesAreWritten() {
+        val marker = File(tempDir, "corefonts.added")
+        val transaction = WineRegistryTransaction()
+        transaction.edit(systemReg, "fonts").setStringValues(
+            "Software\\Microsoft\\Windows\\CurrentVersion\\Fonts",
+            arrayOf("Arial (TrueType)", "arial.ttf"),
+        )
+        transaction.addCommitAction { assertTrue(systemReg.readText().contains("arial.ttf")); marker.writeText("1") }
+        assertFalse(marker.exists())
+
+        transaction.commit()
+        assertTrue(marker.exists())
+    }
+
+    @Test
+    fun unwritableHive_failsTheCommit_andSkipsCommitActions() {
+        val marker = File(tempDir, "audioDriver.saved")
+        val transaction = WineRegistryTransaction()
+        transaction.edit(userReg, "theme").setStringValue("Control Panel\\Colors", "Window", "0 0 0")
+        transaction.edit(File(tempDir, "missing/system.reg"), "audioDriver").setStringValue("Software\\Wine\\Drivers", "Audio", "alsa")
+        transaction.addCommitAction { marker.writeText("1") }
+
+        val report = transaction.commit()
+        assertFalse(report.isCommitted)
+        assertFalse(marker.exists())
+        assertEquals(0L, report.hives.first { !it.committed }.legacyBytesWritten)
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun commit_canOnlyHappenOnce() {
+        val transaction = WineRegistryTransaction()
+        transaction.edit(userReg, "step").setStringValue("Control Panel\\Colors", "Window", "0 0 0")
+        transaction.commit()
+        transaction.commit()
+    }
+
+    @Test
+    fun oneTransaction_readsAndWritesLessThanPerStepEditors() {
+        writeHive(userReg, 8000)
+        val perStep = File(tempDir, "per_step.reg")
+        userReg.copyTo(perStep)
+        val steps = 12
+
+        var perStepRead = 0L
+        var perStepWritten = 0L
+        for (i in 0 until steps) {
+            val editor = WineRegistryEditor(perStep)
+            for (j in 0 until 10) editor.setStringValue("Software\\Vendor${(i * 10 + j) % 7}\\App${i * 10 + j}", "Value1", "step $i")
+            editor.close()
+            perStepRead += editor.bytesRead
+            perStepWritten += editor.bytesWritten
+        }
+
+        val transaction = WineRegistryTransaction()
+        for (i in 0 until steps) {
+            val editor = transaction.edit(userReg, "step$i")
+            for (j in 0 until 10) editor.setStringValue("Software\\Vendor${(i * 10 + j) % 7}\\App${i * 10 + j}", "Value1", "step $i")
+        }
+        val report = transaction.commit()
+
+        assertEquals(normalized(perStep), normalized(userReg))
+        assertTrue(perStepRead > report.bytesRead * (steps - 1))
+        assertTrue(report.bytesWritten < perStepWritten)
+    }
+}
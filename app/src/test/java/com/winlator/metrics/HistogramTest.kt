@@ -0,0 +1,84 @@
+package com.winlator.metrics
+
+import kotlin.concurrent.thread
+import kotlin.math.abs
+import kotlin.random.Random
+import org.junit.Assert.*
+import org.junit.Test
+
+class HistogramTest {
+
+    @Test
+    fun buckets_coverEveryValueOnce() {
+        assertEquals(0, Histogram.bucketIndex(-5))
+        var previous = -1
+        for (value in listOf(0L, 1L, 63L, 64L, 65L, 127L, 128L, 1000L, 1_000_000L, 1L shl 40, Long.MAX_VALUE)) {
+            val index = Histogram.bucketIndex(value)
+            assertTrue("$value", index >= previous && index < Histogram.BUCKET_COUNT)
+            assertTrue("$value", value >= Histogram.lowerBound(index) && value <= Histogram.upperBound(index))
+            previous = index
+        }
+        for (index in 1 until Histogram.BUCKET_COUNT) {
+            assertEquals(Histogram.upperBound(index - 1) + 1, Histogram.lowerBound(index))
+        }
+    }
+
+    @Test
+    fun percentiles_areWithinBucketPrecision() {
+        val random = Random(21)
+        val histogram = MetricsRegistry().histogram("test")
+        val values = LongArray(100_000) { (random.nextDouble() * random.nextDouble() * 50_000_000).toLong() }
+        values.forEach { histogram.record(it) }
+        values.sort()
+
+        val snapshot = histogram.snapshot()
+        assertEquals(values.size.toLong(), snapshot.count)
+        assertEquals(values.sum(), snapshot.sum)
+        assertEquals(values.last(), histogram.max)
+        for (percentile in listOf(1.0, 50.0, 90.0, 99.0, 99.9, 100.0)) {
+            val exact = values[((percentile / 100 * values.size).toInt() - 1).coerceIn(0, values.size - 1)]
+            val reported = snapshot.getValueAtPercentile(percentile)
+            assertTrue("p$percentile exact $exact reported $reported", abs(reported - exact) <= exact / 32 + 1)
+        }
+    }
+
+    @Test
+    fun snapshotMinus_coversOnlyTheInterval() {
+        val histogram = MetricsRegistry().histogram("test")
+        repeat(1000) { histogram.record(10) }
+        val before = histogram.snapshot()
+        repeat(10) { histogram.record(5000) }
+        val interval = histogram.snapshot().minus(before)
+        assertEquals(10L, interval.count)
+        assertEquals(50_000L, interval.sum)
+        assertTrue(interval.getValueAtPercentile(50.0) >= 5000)
+        assertEquals(Histogram.upperBound(Histogram.bucketIndex(5000)), interval.max)
+    }
+
+    @Test
+    fun concurrentRecords_areNotLost() {
+        val histogram = MetricsRegistry().histogram("test")
+        val counter = MetricsRegistry().counter("test")
+        val threads = (0 until 4).map { t ->
+            thread {
+                for (i in 0 until 50_000) {
+                    histogram.record((t * 50_000 + i).toLong())
+                    counter.increment()
+                }
+            }
+        }
+        threads.forEach { it.join() }
+        assertEquals(200_000L, histogram.snapshot().count)
+        assertEquals(199_999L, histogram.max)
+        assertEquals(200_000L, counter.get())
+    }
+
+    @Test
+    fun registry_returnsTheSameMetricForAName() {
+        val registry = MetricsRegistry()
+        assertSame(registry.counter("a"), registry.counter("a"))
+        assertSame(registry.histogram("b"), registry.histogram("b"))
+        assertEquals(listOf("a", "b"), registry.metrics.map { (it as? Counter)?.name ?: (it as Histogram).name })
+        assertThrows(IllegalArgumentException::class.java) { registry.gauge("a") }
+    }
+}
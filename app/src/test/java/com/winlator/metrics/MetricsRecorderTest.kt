@@ -0,0 +1,114 @@
+package com.winlator.metrics
+
+import java.io.StringWriter
+import org.junit.Assert.*
+import org.junit.Test
+
+class MetricsRecorderTest {
+
+    @Test
+    fun sample_recordsCounterDeltasGaugesAndIntervalPercentiles() {
+        val registry = MetricsRegistry()
+        val requests = registry.counter("xserver.requests")
+        val depth = registry.gauge("queue.depth")
+        val latency = registry.histogram("present.latency_ns")
+        val recorder = MetricsRecorder(registry, 1000, 10)
+
+        requests.add(5)
+        depth.set(3)
+        repeat(100) { latency.record(1000) }
+        recorder.sample(1000)
+
+        requests.add(2)
+        depth.set(1)
+        latency.record(40)
+        recorder.sample(2000)
+
+        val latest = recorder.latest
+        assertEquals(2L, latest["xserver.requests"])
+        assertEquals(1L, latest["queue.depth"])
+        assertEquals(1L, latest["present.latency_ns.count"])
+        assertEquals(40L, latest["present.latency_ns.p99"])
+        assertEquals(40L, latest["present.latency_ns.max"])
+    }
+
+    @Test
+    fun ring_keepsTheNewestSamples() {
+        val registry = MetricsRegistry()
+        val counter = registry.counter("c")
+        val recorder = MetricsRecorder(registry, 1000, 3)
+        for (i in 1..5) {
+            counter.add(i.toLong())
+            recorder.sample(i * 1000L)
+        }
+        assertEquals(3, recorder.sampleCount)
+
+        val csv = StringWriter().also { recorder.writeCsv(it) }.toString()
+        assertEquals("time_ms,c\n3000,3\n4000,4\n5000,5\n", csv)
+    }
+
+    @Test
+    fun export_padsColumnsRegisteredLater() {
+        val registry = MetricsRegistry()
+        registry.counter("a").increment()
+        val recorder = MetricsRecorder(registry, 500, 4)
+        recorder.sample(1)
+        registry.gauge("b").set(7)
+        recorder.sample(2)
+
+        val csv = StringWriter().also { recorder.writeCsv(it) }.toString()
+        assertEquals("time_ms,a,b\n1,1,\n2,0,7\n", csv)
+
+        val json = StringWriter().also { recorder.writeJson(it) }.toString()
+        assertEquals("{\n  \"interval_ms\": 500,\n  \"columns\": [\"a\", \"b\"],\n  \"samples\": [\n    [1, 1, null],\n    [2, 0, 7]\n  ]\n}\n", json)
+    }
+
+    @Test
+    fun recording_isEnabledWhileARecorderRuns() {
+        val registry = MetricsRegistry()
+        val first = MetricsRecorder(registry, 1000, 4)
+        val second = MetricsRecorder(registry, 1000, 4)
+        assertFalse(registry.isEnabled)
+
+        first.start()
+        second.start()
+        first.stop()
+        assertTrue(registry.isEnabled)
+        second.stop()
+        second.stop()
+        assertFalse(registry.isEnabled)
+    }
+
+    @Test
+    fun requestPath_recordsOnlyWhileARecorderRuns() {
+        val registry = MetricsRegistry()
+        val requestCount = registry.counter("xserver.requests")
+        val requestBytes = registry.counter("xserver.request_bytes")
+        val requestTime = registry.histogram("xserver.request_ns")
+
+        // What XClientRequestHandler does around every request
+        fun instrumented() {
+            val recordMetrics = registry.isEnabled
+            val t = if (recordMetrics) System.nanoTime() else 0
+            if (recordMetrics) {
+                requestTime.record(System.nanoTime() - t)
+                requestCount.increment()
+                requestBytes.add(72)
+            }
+        }
+
+        repeat(1000) { instrumented() }
+        assertEquals(0L, requestCount.get())
+        assertEquals(0L, requestTime.snapshot().count)
+
+        val recorder = MetricsRecorder(registry, 1000, 4)
+        recorder.start()
+        repeat(1000) { instrumented() }
+        recorder.stop()
+        repeat(1000) { instrumented() }
+
+        assertEquals(1000L, requestCount.get())
+        assertEquals(72_000L, requestBytes.get())
+        assertEquals(1000L, requestTime.snapshot().count)
+    }
+}
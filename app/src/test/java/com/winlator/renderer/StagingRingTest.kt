@@ -0,0 +1,232 @@
+package com.winlator.renderer
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.junit.Assert.*
+import org.junit.Test
+
+class StagingRingTest {
+
+    private class Upload(val slot: Int, val y: Int, val width: Int, val height: Int, val pixels: IntArray, val fence: Long)
+
+    /** Backend whose fences only signal when the test says so, or when waited on unless they are stuck. */
+    private class FakeBackend(slotCount: Int, private val fenced: Boolean = true) : StagingRing.Backend {
+        val buffers = arrayOfNulls<ByteBuffer>(slotCount)
+        val uploads = ArrayList<Upload>()
+        val signaled = HashSet<Long>()
+        val deleted = ArrayList<Long>()
+        val waited = ArrayList<Long>()
+        val stuck = HashSet<Long>()
+        var mapFails = false
+        var destroyed = false
+        private var nextFence = 1L
+
+        override fun map(slot: Int, size: Int): ByteBuffer? {
+            if (mapFails) return null
+            assertTrue("slot $slot mapped while in flight", uploads.none { it.slot == slot && it.fence != 0L && it.fence !in deleted })
+            buffers[slot] = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN)
+            return buffers[slot]
+        }
+
+        override fun upload(slot: Int, textureId: Int, format: Int, y: Int, width: Int, height: Int): Long {
+            val buffer = buffers[slot]!!
+            val pixels = IntArray(width * height) { buffer.getInt(it * 4) }
+            val fence = if (fenced) nextFence++ else 0L
+            uploads.add(Upload(slot, y, width, height, pixels, fence))
+            return fence
+        }
+
+        override fun isSignaled(fence: Long, wait: Boolean): Boolean {
+            if (wait) {
+                waited.add(fence)
+                if (fence !in stuck) signaled.add(fence)
+            }
+            return fence in signaled
+        }
+
+        override fun deleteFence(fence: Long) {
+            assertFalse("fence $fence deleted twice", fence in deleted)
+            deleted.add(fence)
+        }
+
+        override fun destroy() {
+            destroyed = true
+        }
+    }
+
+    private fun image(width: Int, height: Int, seed: Int): ByteBuffer {
+        val buffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN)
+        for (i in 0 until width * height) buffer.putInt(i * 4, i * 31 + seed)
+        return buffer
+    }
+
+    private fun rows(image: ByteBuffer, width: Int, top: Int, bottom: Int) =
+        IntArray((bottom - top) * width) { image.getInt((top * width + it) * 4) }
+
+    @Test
+    fun stage_copiesOnlyTheDamagedRows() {
+        val backend = FakeBackend(2)
+        val stats = StagingRing.Stats()
+        val ring = StagingRing(backend, 2, stats)
+        val data = image(8, 6, 1)
+
+        assertTrue(ring.stage(data, 7, 0, 8, 2, 5))
+        assertTrue(ring.hasStagedRows())
+        assertTrue(backend.uploads.isEmpty())
+
+        // The drawable may change as soon as the lock is released, the staged copy must not
+        data.putInt((3 * 8) * 4, -1)
+        ring.commit()
+        assertFalse(ring.hasStagedRows())
+
+        val upload = backend.uploads.single()
+        assertEquals(2, upload.y)
+        assertEquals(8, upload.width)
+        assertEquals(3, upload.height)
+        assertArrayEquals(rows(image(8, 6, 1), 8, 2, 5), upload.pixels)
+        assertEquals(1L, stats.stagedFrames)
+        assertEquals(3L * 8 * 4, stats.stagedBytes)
+    }
+
+    @Test
+    fun stage_leavesDataPositionAlone() {
+        val ring = StagingRing(FakeBackend(2), 2, StagingRing.Stats())
+        val data = image(4, 4, 2)
+        data.position(12).limit(20)
+        ring.stage(data, 1, 0, 4, 0, 4)
+        assertEquals(12, data.position())
+        assertEquals(20, data.limit())
+    }
+
+    @Test
+    fun slots_areNotReusedWhileTheirUploadIsInFlight() {
+        val backend = FakeBackend(2)
+        val stats = StagingRing.Stats()
+        val ring = StagingRing(backend, 2, stats)
+        val data = image(4, 4, 3)
+
+        ring.stage(data, 1, 0, 4, 0, 4)
+        ring.commit()
+        ring.stage(data, 1, 0, 4, 0, 4)
+        ring.commit()
+        assertEquals(listOf(0, 1), backend.uploads.map { it.slot })
+        assertEquals(0L, stats.stalls)
+
+        // Second fence done first: slot 1 is free while slot 0 is still being read
+        backend.signaled.add(2)
+        ring.stage(data, 1, 0, 4, 0, 4)
+        ring.commit()
+        assertEquals(1, backend.uploads.last().slot)
+        assertEquals(listOf(2L), backend.deleted)
+        assertEquals(0L, stats.stalls)
+
+        // Nothing signaled: stage() has to wait for the oldest slot
+        ring.stage(data, 1, 0, 4, 0, 4)
+        ring.commit()
+        assertEquals(1L, stats.stalls)
+        assertEquals(listOf(1L), backend.waited)
+        assertEquals(0, backend.uploads.last().slot)
+    }
+
+    @Test
+    fun stage_fallsBackWhenTheWaitTimesOut() {
+        val backend = FakeBackend(2)
+        val stats = StagingRing.Stats()
+        val ring = StagingRing(backend, 2, stats)
+        val data = image(4, 4, 9)
+
+        repeat(2) {
+            ring.stage(data, 1, 0, 4, 0, 4)
+            ring.commit()
+        }
+        backend.stuck.add(1)
+        assertFalse(ring.stage(data, 1, 0, 4, 0, 4))
+        assertFalse(ring.hasStagedRows())
+        assertEquals(1L, stats.stalls)
+        assertEquals(2, backend.uploads.size)
+        assertTrue(backend.deleted.isEmpty())
+
+        // Once the GPU catches up the slot is handed out again
+        backend.stuck.clear()
+        backend.signaled.add(1)
+        assertTrue(ring.stage(data, 1, 0, 4, 0, 4))
+        ring.commit()
+        assertEquals(0, backend.uploads.last().slot)
+        assertEquals(listOf(1L), backend.deleted)
+    }
+
+    @Test
+    fun slots_withoutFencesAreReusedImmediately() {
+        val backend = FakeBackend(2, fenced = false)
+        val stats = StagingRing.Stats()
+        val ring = StagingRing(backend, 2, stats)
+        val data = image(4, 4, 4)
+
+        repeat(10) {
+            ring.stage(data, 1, 0, 4, it % 4, 4)
+            ring.commit()
+        }
+        assertEquals(10, backend.uploads.size)
+        assertEquals(0L, stats.stalls)
+        assertTrue(backend.deleted.isEmpty())
+    }
+
+    @Test
+    fun stage_commitsRowsStagedEarlier() {
+        val backend = FakeBackend(3)
+        val ring = StagingRing(backend, 3, StagingRing.Stats())
+        val data = image(4, 4, 5)
+
+        ring.stage(data, 1, 0, 4, 0, 1)
+        ring.stage(data, 1, 0, 4, 3, 4)
+        assertEquals(listOf(0), backend.uploads.map { it.y })
+        ring.commit()
+        assertEquals(listOf(0, 3), backend.uploads.map { it.y })
+    }
+
+    @Test
+    fun stage_failsWhenTheBackendCannotMap() {
+        val backend = FakeBackend(2).apply { mapFails = true }
+        val ring = StagingRing(backend, 2, StagingRing.Stats())
+        assertFalse(ring.stage(image(4, 4, 6), 1, 0, 4, 0, 4))
+        assertFalse(ring.hasStagedRows())
+        ring.commit()
+        assertTrue(backend.uploads.isEmpty())
+    }
+
+    @Test
+    fun destroy_deletesOutstandingFences() {
+        val backend = FakeBackend(2)
+        val ring = StagingRing(backend, 2, StagingRing.Stats())
+        val data = image(4, 4, 7)
+        ring.stage(data, 1, 0, 4, 0, 4)
+        ring.commit()
+        ring.stage(data, 1, 0, 4, 0, 4)
+        ring.commit()
+        ring.destroy()
+        assertEquals(listOf(1L, 2L), backend.deleted.sorted())
+        assertTrue(backend.destroyed)
+    }
+
+    @Test
+    fun partialDamage_stagesOnlyThoseRowsOfALargeFrame() {
+        val width = 1280
+        val height = 720
+        val data = image(width, height, 8)
+        val backend = FakeBackend(2, fenced = false)
+        val stats = StagingRing.Stats()
+        val ring = StagingRing(backend, 2, stats)
+
+        ring.stage(data, 1, 0, width, 0, height)
+        ring.commit()
+        assertEquals(width.toLong() * height * 4, stats.stagedBytes)
+
+        repeat(10) {
+            ring.stage(data, 1, 0, width, 300, 332)
+            ring.commit()
+        }
+        assertEquals(11L, stats.stagedFrames)
+        assertEquals(width.toLong() * (height + 10 * 32) * 4, stats.stagedBytes)
+        assertArrayEquals(rows(data, width, 300, 332), backend.uploads.last().pixels)
+    }
+}
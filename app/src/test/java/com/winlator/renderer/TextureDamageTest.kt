@@ -0,0 +1,56 @@
+package com.winlator.renderer
+
+import kotlin.concurrent.thread
+import org.junit.Assert.*
+import org.junit.Test
+
+class TextureDamageTest {
+
+    private fun band(damage: TextureDamage, height: Int): Pair<Int, Int>? {
+        val band = damage.take(height)
+        return if (TextureDamage.isEmpty(band)) null else TextureDamage.top(band) to TextureDamage.bottom(band)
+    }
+
+    @Test
+    fun add_mergesIntoOneBand() {
+        val damage = TextureDamage()
+        assertTrue(damage.isEmpty)
+        damage.add(10, 20)
+        damage.add(40, 45)
+        damage.add(5, 6)
+        assertEquals(5 to 45, band(damage, 100))
+        assertNull(band(damage, 100))
+    }
+
+    @Test
+    fun add_ignoresEmptyRanges() {
+        val damage = TextureDamage()
+        damage.add(7, 7)
+        damage.add(9, 3)
+        assertTrue(damage.isEmpty)
+        damage.add(-5, 2)
+        assertEquals(0 to 2, band(damage, 100))
+    }
+
+    @Test
+    fun take_clipsToHeight() {
+        val damage = TextureDamage()
+        damage.addAll()
+        assertEquals(0 to 480, band(damage, 480))
+
+        damage.add(500, 600)
+        assertNull(band(damage, 480))
+    }
+
+    @Test
+    fun concurrentAdds_areNotLost() {
+        val damage = TextureDamage()
+        val threads = (0 until 4).map { t ->
+            thread {
+                for (i in 0 until 10_000) damage.add(100 + t * 50 + i % 50, 101 + t * 50 + i % 50)
+            }
+        }
+        threads.forEach { it.join() }
+        assertEquals(100 to 300, band(damage, 1000))
+    }
+}
@@ -0,0 +1,104 @@
+package com.winlator.xenvironment
+
+import java.io.StringWriter
+import java.util.Collections
+import org.junit.Assert.*
+import org.junit.Test
+
+class LaunchOrchestratorTest {
+
+    private val order: MutableList<String> = Collections.synchronizedList(mutableListOf())
+
+    private fun stage(name: String, millis: Long): LaunchOrchestrator.Action = LaunchOrchestrator.Action {
+        order.add("$name:start")
+        Thread.sleep(millis)
+        order.add("$name:end")
+    }
+
+    /** Mirrors the launch: system files first, then extraction and component starts, then the launcher. */
+    private fun launchGraph(numThreads: Int) = LaunchOrchestrator(numThreads)
+        .addStage("wineSystemFiles", stage("wineSystemFiles", 60))
+        .addStage("inputDlls", listOf("wineSystemFiles"), stage("inputDlls", 40))
+        .addStage("graphicsDriver", listOf("wineSystemFiles"), stage("graphicsDriver", 80))
+        .addStage("audioDriver", listOf("graphicsDriver"), stage("audioDriver", 20))
+        .addStage("pulseAudio", stage("pulseAudio", 80))
+        .addStage("xServer", stage("xServer", 10))
+        .addStage("launcher", listOf("inputDlls", "audioDriver", "pulseAudio", "xServer"), stage("launcher", 30))
+
+    @Test
+    fun stagesStartAfterTheirDependencies() {
+        val orchestrator = launchGraph(4)
+        orchestrator.run()
+
+        for (stage in orchestrator.stages) {
+            assertFalse(stage.isSkipped)
+            for (dependency in stage.dependencies) {
+                assertTrue(
+                    "${stage.name} started before $dependency ended",
+                    order.indexOf("${stage.name}:start") > order.indexOf("$dependency:end"),
+                )
+                assertTrue(stage.startTime >= orchestrator.getStage(dependency).endTime)
+            }
+        }
+        assertEquals("launcher:end", order.last())
+    }
+
+    private fun maxRunning(): Int {
+        var running = 0
+        var max = 0
+        for (event in order.toList()) {
+            running += if (event.endsWith(":start")) 1 else -1
+            max = maxOf(max, running)
+        }
+        return max
+    }
+
+    @Test
+    fun independentStagesOverlap() {
+        val parallel = launchGraph(4)
+        parallel.run()
+        assertTrue(maxRunning() > 1)
+        order.clear()
+        launchGraph(1).run()
+        assertEquals(1, maxRunning())
+
+        val criticalPath = parallel.criticalPath.map { it.name }
+        assertEquals(listOf("wineSystemFiles", "graphicsDriver", "audioDriver", "launcher"), criticalPath)
+    }
+
+    @Test
+    fun failedStageSkipsItsDependents() {
+        val orchestrator = LaunchOrchestrator(2)
+            .addStage("extract", LaunchOrchestrator.Action { throw IllegalStateException("corrupt archive") })
+            .addStage("registry", stage("registry", 10))
+            .addStage("launcher", listOf("extract", "registry"), stage("launcher", 10))
+
+        try {
+            orchestrator.run()
+            fail("Expected the stage failure to be rethrown")
+        } catch (e: IllegalStateException) {
+            assertEquals("corrupt archive", e.message)
+        }
+        assertTrue(orchestrator.getStage("launcher").isSkipped)
+        assertFalse(order.contains("launcher:start"))
+        assertTrue(order.contains("registry:end"))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun unknownDependency_isRejected() {
+        LaunchOrchestrator().addStage("launcher", listOf("xServer"), stage("launcher", 0))
+    }
+
+    @Test
+    fun trace_hasOneCompleteEventPerStage() {
+        val orchestrator = launchGraph(4)
+        orchestrator.run()
+
+        val writer = StringWriter()
+        LaunchOrchestrator.writeTrace(writer, orchestrator)
+        val trace = writer.toString()
+        assertTrue(trace.startsWith("{\"traceEvents\": ["))
+        assertEquals(7, Regex("\"ph\": \"X\"").findAll(trace).count())
+        assertTrue(trace.contains("\"name\": \"graphicsDriver\""))
+    }
+}
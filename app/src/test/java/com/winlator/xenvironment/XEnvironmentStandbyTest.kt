@@ -0,0 +1,187 @@
+package com.winlator.xenvironment
+
+import android.content.Context
+import androidx.test.core.app.ApplicationProvider
+import com.winlator.xconnector.UnixSocketConfig
+import com.winlator.xenvironment.components.GuestProgramLauncherComponent
+import java.io.File
+import java.util.Collections
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class XEnvironmentStandbyTest {
+
+    private val events: MutableList<String> = Collections.synchronizedList(mutableListOf())
+    private lateinit var rootDir: File
+    private lateinit var environment: XEnvironment
+
+    /** Picks up per-launch state while running, like the clients and windows of a real server. */
+    private inner class FakeServer(val name: String, private val resettable: Boolean) : EnvironmentComponent() {
+        var running = false
+        var launchState = 0
+
+        override fun start() {
+            events.add("$name:start")
+            running = true
+            launchState = 0
+        }
+
+        override fun stop() {
+            events.add("$name:stop")
+            running = false
+        }
+
+        override fun reset(): Boolean {
+            events.add("$name:reset")
+            if (!resettable) return false
+            launchState = 0
+            return running
+        }
+    }
+
+    private inner class FakeLauncher(val name: String) : GuestProgramLauncherComponent() {
+        var running = false
+
+        override fun start() {
+            events.add("$name:start")
+            running = true
+            for (component in environment) {
+                if (component is FakeServer) component.launchState++
+            }
+        }
+
+        override fun stop() {
+            events.add("$name:stop")
+            running = false
+        }
+    }
+
+    @Before
+    fun setUp() {
+        val context = ApplicationProvider.getApplicationContext<Context>()
+        // Present already, so getTmpDir() does not chmod
+        File(context.filesDir, "tmp").mkdirs()
+        rootDir = File(context.filesDir, "imagefs_standby_test")
+        File(rootDir, "tmp").mkdirs()
+        environment = XEnvironment(context, ImageFs.find(rootDir))
+    }
+
+    @After
+    fun tearDown() {
+        rootDir.deleteRecursively()
+    }
+
+    private fun startEnvironment(vararg servers: FakeServer): FakeLauncher {
+        for (server in servers) environment.addComponent(server)
+        val launcher = FakeLauncher("game1")
+        environment.addComponent(launcher)
+        environment.startEnvironmentComponents()
+        return launcher
+    }
+
+    @Test
+    fun standby_stopsOnlyTheLauncher() {
+        val xServer = FakeServer("xserver", true)
+        val launcher = startEnvironment(xServer)
+        events.clear()
+
+        environment.standby()
+        assertTrue(environment.isStandby)
+        assertEquals(listOf("game1:stop"), events)
+        assertFalse(launcher.running)
+        assertTrue(xServer.running)
+        assertNull(environment.getComponent(FakeLauncher::class.java))
+    }
+
+    @Test
+    fun relaunch_resetsServersAndStartsTheNewLauncher() {
+        val xServer = FakeServer("xserver", true)
+        val audio = FakeServer("audio", true)
+        startEnvironment(xServer, audio)
+        assertEquals(1, xServer.launchState)
+        environment.standby()
+        events.clear()
+
+        val launcher = FakeLauncher("game2")
+        environment.relaunch(launcher)
+
+        assertFalse(environment.isStandby)
+        assertTrue(launcher.running)
+        assertSame(launcher, environment.getComponent(FakeLauncher::class.java))
+        assertFalse(events.any { it.endsWith(":stop") })
+        assertEquals(1, events.count { it == "xserver:start" || it == "xserver:reset" })
+        // Every server was reset before the launcher started
+        assertEquals("game2:start", events.last())
+        assertEquals(1, xServer.launchState)
+        assertEquals(1, audio.launchState)
+    }
+
+    @Test
+    fun failedReset_restartsTheComponent() {
+        val renderer = FakeServer("renderer", false)
+        startEnvironment(renderer)
+        environment.standby()
+        events.clear()
+
+        environment.relaunch(FakeLauncher("game2"))
+        assertEquals(listOf("renderer:reset", "renderer:stop", "renderer:start", "game2:start"), events)
+        assertTrue(renderer.running)
+        assertEquals(1, renderer.launchState)
+    }
+
+    @Test
+    fun everyComponentIsResetOrRestartedOnEachRelaunch() {
+        val servers = arrayOf(FakeServer("xserver", true), FakeServer("shm", true), FakeServer("virgl", false))
+        startEnvironment(*servers)
+
+        for (i in 2..4) {
+            environment.standby()
+            events.clear()
+            environment.relaunch(FakeLauncher("game$i"))
+            for (server in servers) {
+                assertTrue(events.contains("${server.name}:reset"))
+                assertTrue(server.running)
+                // Only what the new launch did is left
+                assertEquals(1, server.launchState)
+            }
+        }
+    }
+
+    @Test
+    fun relaunch_clearsTmpButKeepsServerSockets() {
+        startEnvironment(FakeServer("xserver", true))
+        val tmpDir = File(rootDir, "tmp")
+        val socket = File(rootDir, UnixSocketConfig.XSERVER_PATH).apply { parentFile!!.mkdirs(); writeText("") }
+        val leftover = File(tmpDir, "wine-leftover/lock").apply { parentFile!!.mkdirs(); writeText("1") }
+        environment.standby()
+
+        environment.relaunch(FakeLauncher("game2"))
+        assertTrue(socket.exists())
+        assertFalse(leftover.parentFile!!.exists())
+    }
+
+    @Test
+    fun canRelaunch_needsStandbyAndMatchingConfig() {
+        environment.configKey = "1280x720|pulseaudio|vortek"
+        startEnvironment(FakeServer("xserver", true))
+        assertFalse(environment.canRelaunch("1280x720|pulseaudio|vortek"))
+
+        environment.standby()
+        assertTrue(environment.canRelaunch("1280x720|pulseaudio|vortek"))
+        assertFalse(environment.canRelaunch("1920x1080|pulseaudio|vortek"))
+
+        environment.stopEnvironmentComponents()
+        assertFalse(environment.canRelaunch("1280x720|pulseaudio|vortek"))
+    }
+
+    @Test(expected = IllegalStateException::class)
+    fun relaunch_withoutStandby_isRejected() {
+        startEnvironment(FakeServer("xserver", true))
+        environment.relaunch(FakeLauncher("game2"))
+    }
+}
@@ -0,0 +1,173 @@
+package com.winlator.xserver
+
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+
+class InputEventQueueTest {
+
+    private class RecordingTarget : InputEventQueue.Target {
+        val delivered = ArrayList<String>()
+        var batches = 0
+        var inBatch = false
+        var onDeliver: ((String) -> Unit)? = null
+
+        override fun beginBatch() {
+            assertFalse("batches must not nest", inBatch)
+            inBatch = true
+            batches++
+        }
+
+        override fun pointerMove(x: Int, y: Int) = record("M $x $y")
+
+        override fun pointerMoveDelta(dx: Int, dy: Int) = record("D $dx $dy")
+
+        override fun pointerButton(button: Pointer.Button, pressed: Boolean) =
+            record((if (pressed) "BP " else "BR ") + button.name)
+
+        override fun key(keycode: Byte, keysym: Int, pressed: Boolean) =
+            record((if (pressed) "KP " else "KR ") + keycode)
+
+        override fun endBatch() {
+            inBatch = false
+        }
+
+        private fun record(event: String) {
+            assertTrue("events are only delivered inside a batch", inBatch)
+            delivered.add(event)
+            onDeliver?.invoke(event)
+        }
+    }
+
+    private var now = 0L
+    private var wakeUps = 0
+    private lateinit var target: RecordingTarget
+    private lateinit var queue: InputEventQueue
+
+    @Before
+    fun setUp() {
+        now = 0L
+        wakeUps = 0
+        target = RecordingTarget()
+        queue = InputEventQueue(target) { now }
+        queue.setWakeUp { wakeUps++ }
+    }
+
+    /**
+     * Replays a recorded stream in the format produced by [RecordingTarget]. "+N" advances the clock
+     * by N nanoseconds, "|" lets the X server thread drain.
+     */
+    private fun replay(vararg stream: String) {
+        for (line in stream) {
+            val parts = line.split(" ")
+            when (parts[0]) {
+                "M" -> queue.pointerMove(parts[1].toInt(), parts[2].toInt())
+                "D" -> queue.pointerMoveDelta(parts[1].toInt(), parts[2].toInt())
+                "BP" -> queue.pointerButton(Pointer.Button.valueOf(parts[1]), true)
+                "BR" -> queue.pointerButton(Pointer.Button.valueOf(parts[1]), false)
+                "KP" -> queue.key(parts[1].toByte(), 0, true)
+                "KR" -> queue.key(parts[1].toByte(), 0, false)
+                "|" -> queue.drain()
+                else -> if (line.startsWith("+")) now += line.substring(1).toLong() else fail("bad line $line")
+            }
+        }
+    }
+
+    @Test
+    fun motionBurst_isDeliveredAsSingleMove() {
+        val stream = (1..1000).map { "M $it ${it * 2}" }.toTypedArray()
+        replay(*stream, "|")
+
+        assertEquals(listOf("M 1000 2000"), target.delivered)
+        assertEquals(1, wakeUps)
+        val stats = queue.stats
+        assertEquals(1000, stats.eventsReceived)
+        assertEquals(1, stats.eventsDelivered)
+        assertEquals(0.999f, stats.coalescingRatio, 0.0001f)
+    }
+
+    @Test
+    fun buttonsAndKeys_areBarriersAndKeepOrder() {
+        replay(
+            "M 10 10", "M 11 11", "BP BUTTON_LEFT",
+            "M 12 12", "D 1 1", "D 2 -1", "BR BUTTON_LEFT",
+            "KP 38", "M 20 20", "KR 38", "KP 38", "KR 38",
+            "|",
+        )
+
+        assertEquals(
+            listOf(
+                "M 11 11", "BP BUTTON_LEFT",
+                "M 15 12", "BR BUTTON_LEFT",
+                "KP 38", "M 20 20", "KR 38", "KP 38", "KR 38",
+            ),
+            target.delivered,
+        )
+        assertEquals(1, target.batches)
+    }
+
+    @Test
+    fun relativeMotion_isSummedUntilAbsoluteMove() {
+        replay("D 3 4", "D -1 2", "|", "D 5 5", "M 100 100", "D 1 -1", "|")
+
+        assertEquals(listOf("D 2 6", "M 101 99"), target.delivered)
+        assertEquals(2, target.batches)
+    }
+
+    @Test
+    fun eventsAfterDrain_scheduleAnotherWakeUp() {
+        replay("M 1 1", "M 2 2")
+        assertEquals(1, wakeUps)
+        replay("|", "M 3 3")
+        assertEquals(2, wakeUps)
+        replay("|")
+        assertEquals(listOf("M 2 2", "M 3 3"), target.delivered)
+    }
+
+    @Test
+    fun latency_isMeasuredFromOldestCoalescedInput() {
+        replay("M 1 1", "+1000", "M 2 2", "+1000", "BP BUTTON_RIGHT", "+500", "|")
+
+        val stats = queue.stats
+        assertEquals(2, stats.eventsDelivered)
+        // Move enqueued at 0, press at 2000, both delivered at 2500
+        assertEquals(2500, stats.maxLatencyNanos)
+        assertEquals((2500L + 500L) / 2, stats.averageLatencyNanos)
+    }
+
+    @Test
+    fun withoutWakeUp_eventsAreDeliveredInline() {
+        queue.setWakeUp(null)
+        replay("M 1 1", "M 2 2", "BP BUTTON_LEFT")
+
+        assertEquals(listOf("M 1 1", "M 2 2", "BP BUTTON_LEFT"), target.delivered)
+        assertEquals(3, target.batches)
+        assertEquals(0f, queue.stats.coalescingRatio, 0f)
+    }
+
+    @Test
+    fun switchingToInline_flushesPendingEvents() {
+        replay("M 5 5", "KP 9")
+        queue.setWakeUp(null)
+        assertEquals(listOf("M 5 5", "KP 9"), target.delivered)
+    }
+
+    @Test
+    fun inputInjectedWhileDelivering_isDeliveredInSameDrain() {
+        queue.setWakeUp(null)
+        target.onDeliver = { if (it == "BP BUTTON_LEFT") queue.pointerButton(Pointer.Button.BUTTON_LEFT, false) }
+        replay("BP BUTTON_LEFT")
+
+        assertEquals(listOf("BP BUTTON_LEFT", "BR BUTTON_LEFT"), target.delivered)
+        assertEquals(2, target.batches)
+    }
+
+    @Test
+    fun wakeUp_runsUnderTheLockSetWakeUpTakes() {
+        // So once setWakeUp(null) returns, XServerComponent.stop() can close the eventfd it writes to
+        var heldLock = false
+        queue.setWakeUp { heldLock = Thread.holdsLock(queue) }
+        replay("M 1 1")
+        assertTrue(heldLock)
+    }
+}
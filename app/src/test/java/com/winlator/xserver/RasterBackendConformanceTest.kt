@@ -0,0 +1,141 @@
+package com.winlator.xserver
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import java.util.zip.CRC32
+import org.junit.Assert.*
+import org.junit.Test
+
+/**
+ * Draws fixed scenes and compares CRC32s of the resulting pixels with golden values recorded from
+ * drawable.c (libwinlator_11). Any RasterBackend, and any change to the native code, must keep
+ * producing the same pixels.
+ */
+open class RasterBackendConformanceTest {
+
+    protected open fun createBackend(): RasterBackend = JavaRasterBackend()
+
+    private val backend by lazy { createBackend() }
+
+    private fun canvas(width: Int, height: Int, seed: Int): ByteBuffer {
+        val buffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN)
+        for (i in 0 until width * height) buffer.putInt(i * 4, i * -1640531535 + seed)
+        return buffer
+    }
+
+    private fun shorts(order: ByteOrder, vararg values: Int): ByteBuffer {
+        val buffer = ByteBuffer.allocateDirect(values.size * 2).order(order)
+        values.forEachIndexed { i, value -> buffer.putShort(i * 2, value.toShort()) }
+        return buffer
+    }
+
+    private fun crc(buffer: ByteBuffer): Long {
+        val crc = CRC32()
+        for (i in 0 until buffer.capacity()) crc.update(buffer.get(i).toInt())
+        return crc.value
+    }
+
+    private fun s(value: Int) = value.toShort()
+
+    private fun assertGolden(name: String, expected: Long, data: ByteBuffer) = assertEquals(name, expected, crc(data))
+
+    @Test
+    fun fillRect() {
+        val data = canvas(16, 12, 1)
+        backend.fillRect(s(3), s(2), s(9), s(7), 0x123456, s(16), data)
+        assertGolden("fillRect", 3754372676, data)
+        assertEquals(0xff123456.toInt(), data.getInt((2 * 16 + 3) * 4))
+    }
+
+    @Test
+    fun fillRects_clipsAndReadsRequestByteOrder() {
+        val data = canvas(16, 12, 2)
+        val rects = shorts(ByteOrder.BIG_ENDIAN, -3, -2, 8, 6, 10, 8, 20, 20, 4, 4, 0, 3, 5, 1, 2, 2)
+        backend.fillRects(rects, 4, 0xabcdef, GraphicsContext.Function.COPY, s(16), s(12), s(16), data)
+        assertGolden("fillRects COPY", 2738831887, data)
+    }
+
+    @Test
+    fun fillRects_appliesGcFunction() {
+        val golden = mapOf(
+            "CLEAR" to 1026678761L, "AND" to 1152826065L, "XOR" to 134137424L, "INVERT" to 1833710921L,
+            "OR_REVERSE" to 2888435089L, "COPY_INVERTED" to 3113260497L, "NAND" to 3061359215L, "SET" to 1998492343L,
+        )
+        for ((function, expected) in golden) {
+            val data = canvas(16, 12, 3)
+            val rects = shorts(ByteOrder.LITTLE_ENDIAN, 1, 1, 12, 9, 6, 4, 9, 7)
+            backend.fillRects(rects, 2, 0x00ff0f, GraphicsContext.Function.valueOf(function), s(16), s(12), s(16), data)
+            assertGolden("fillRects $function", expected, data)
+        }
+    }
+
+    @Test
+    fun drawLine() {
+        val data = canvas(16, 12, 4)
+        backend.drawLine(s(0), s(0), s(13), s(9), 0x445566, s(1), s(16), data)
+        backend.drawLine(s(14), s(1), s(2), s(10), 0x778899, s(2), s(16), data)
+        assertGolden("drawLine", 1187634786, data)
+    }
+
+    @Test
+    fun drawLines() {
+        var data = canvas(20, 12, 5)
+        backend.drawLines(shorts(ByteOrder.BIG_ENDIAN, -5, 3, 25, 6, 8, 20, 3, 3), 4, false, 0x102030, s(2), GraphicsContext.Function.COPY, s(20), s(12), s(20), data)
+        assertGolden("drawLines origin", 2338692568, data)
+
+        data = canvas(20, 12, 6)
+        backend.drawLines(shorts(ByteOrder.LITTLE_ENDIAN, 2, 2, 10, 0, 0, 7, -6, -3, 30, 30), 5, true, 0xff00ff, s(1), GraphicsContext.Function.XOR, s(18), s(12), s(20), data)
+        assertGolden("drawLines previous XOR", 519287050, data)
+    }
+
+    @Test
+    fun copyArea() {
+        val src = canvas(12, 10, 7)
+        var data = canvas(16, 12, 8)
+        backend.copyArea(s(2), s(1), s(5), s(3), s(7), s(6), s(12), s(16), src, data)
+        assertGolden("copyArea", 2041234246, data)
+
+        data = canvas(12, 10, 9)
+        backend.copyArea(s(0), s(2), s(0), s(5), s(12), s(4), s(12), s(12), src, data)
+        assertGolden("copyArea packed", 3548394704, data)
+    }
+
+    @Test
+    fun copyAreaOp() {
+        val golden = mapOf(
+            "AND" to 1043998755L, "OR" to 2021409462L, "EQUIV" to 1886339943L,
+            "CLEAR" to 3853306981L, "SET" to 908667378L, "NO_OP" to 535231528L,
+        )
+        val src = canvas(12, 10, 7)
+        for ((function, expected) in golden) {
+            val data = canvas(16, 12, 10)
+            backend.copyAreaOp(s(1), s(1), s(4), s(2), s(8), s(7), s(12), s(16), src, data, GraphicsContext.Function.valueOf(function))
+            assertGolden("copyAreaOp $function", expected, data)
+        }
+    }
+
+    @Test
+    fun drawBitmap() {
+        val bits = ByteBuffer.allocateDirect(8 * 5)
+        for (i in 0 until 40) bits.put(i, (i * 37 + 11).toByte())
+        val data = canvas(37, 5, 11)
+        backend.drawBitmap(s(37), s(5), bits, data)
+        assertGolden("drawBitmap", 2769730405, data)
+    }
+
+    @Test
+    fun drawAlphaMaskedBitmap() {
+        val color = canvas(6, 4, 12)
+        val mask = canvas(6, 4, 13)
+        for (i in 0 until 24) {
+            if (i % 3 != 0) mask.putInt(i * 4, 0xffffff)
+            if (i % 2 == 0) color.putInt(i * 4, 0xffffff)
+        }
+        val data = canvas(6, 4, 14)
+        backend.drawAlphaMaskedBitmap(0xfe.toByte(), 0x80.toByte(), 0x01, 0x10, 0x20, 0xc0.toByte(), color, mask, data)
+        assertGolden("drawAlphaMaskedBitmap", 2254850741, data)
+        assertEquals(0, data.getInt(0))
+        assertEquals(0xff1020c0.toInt(), data.getInt(4))
+        assertEquals(0xfffe8001.toInt(), data.getInt(8))
+    }
+}
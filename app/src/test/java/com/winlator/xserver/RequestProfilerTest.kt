@@ -0,0 +1,95 @@
+package com.winlator.xserver
+
+import android.util.SparseArray
+import com.winlator.xserver.extensions.BigReqExtension
+import com.winlator.xserver.extensions.Extension
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.StringWriter
+import java.nio.ByteOrder
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class RequestProfilerTest {
+
+    private lateinit var profiler: RequestProfiler
+
+    @Before
+    fun setUp() {
+        val extensions = SparseArray<Extension>()
+        extensions.put(BigReqExtension.MAJOR_OPCODE.toInt(), BigReqExtension())
+        profiler = RequestProfiler(extensions)
+    }
+
+    @Test
+    fun record_aggregatesPerClientAndOpcode() {
+        profiler.record(0x200000, ClientOpcodes.PUT_IMAGE, 0, 1000, 0, 50_000, 0)
+        profiler.record(0x200000, ClientOpcodes.PUT_IMAGE, 0, 3000, 32, 150_000, 2_000)
+        profiler.record(0x400000, ClientOpcodes.PUT_IMAGE, 0, 500, 0, 10_000, 0)
+        profiler.record(0x200000, BigReqExtension.MAJOR_OPCODE, 0, 4, 32, 1_000, 0)
+
+        val entries = profiler.entries
+        assertEquals(3, entries.size)
+        val putImage = entries.single { it.clientId == 0x200000 && it.majorOpcode == ClientOpcodes.PUT_IMAGE }
+        assertEquals(2L, putImage.count)
+        assertEquals(4000L, putImage.bytesIn)
+        assertEquals(32L, putImage.bytesOut)
+        assertEquals(2_000L, putImage.lockWaitNanos)
+        assertEquals(200_000L, putImage.handlerTime.sum)
+
+        profiler.reset()
+        assertTrue(profiler.entries.isEmpty())
+    }
+
+    @Test
+    fun getRequestName_namesCoreAndExtensionRequests() {
+        assertEquals("CREATE_WINDOW", profiler.getRequestName(ClientOpcodes.CREATE_WINDOW, 0))
+        assertEquals("NO_OPERATION", profiler.getRequestName(ClientOpcodes.NO_OPERATION, 0))
+        assertEquals("BIG-REQUESTS:0", profiler.getRequestName(BigReqExtension.MAJOR_OPCODE, 0))
+        assertEquals("Extension140:3", profiler.getRequestName((-116).toByte(), 3))
+    }
+
+    @Test
+    fun dump_listsMostExpensiveRequestsFirst() {
+        profiler.record(1, ClientOpcodes.CREATE_WINDOW, 0, 32, 0, 5_000, 0)
+        profiler.record(1, ClientOpcodes.PUT_IMAGE, 0, 4096, 0, 900_000, 0)
+
+        val writer = StringWriter()
+        profiler.dump(writer)
+        val lines = writer.toString().trim().lines()
+        assertEquals(3, lines.size)
+        assertTrue(lines[0].startsWith("client"))
+        assertTrue(lines[1].contains("PUT_IMAGE"))
+        assertTrue(lines[2].contains("CREATE_WINDOW"))
+    }
+
+    @Test
+    fun trace_roundTripsAndReplaysPerClient() {
+        val output = ByteArrayOutputStream()
+        RequestTrace(output).use { trace ->
+            trace.write(0x400000, ByteOrder.LITTLE_ENDIAN, byteArrayOf(ClientOpcodes.NO_OPERATION, 0, 1, 0))
+            trace.write(0x200000, ByteOrder.BIG_ENDIAN, byteArrayOf(BigReqExtension.MAJOR_OPCODE, 0, 0, 1))
+            trace.write(0x400000, ByteOrder.LITTLE_ENDIAN, byteArrayOf(ClientOpcodes.CREATE_WINDOW, 0, 1, 0))
+        }
+
+        val records = RequestTrace.read(ByteArrayInputStream(output.toByteArray()))
+        assertEquals(3, records.size)
+        assertEquals(ByteOrder.BIG_ENDIAN, records[1].byteOrder)
+        assertEquals(BigReqExtension.MAJOR_OPCODE, records[1].majorOpcode)
+        assertTrue(records[0].time <= records[2].time)
+        assertEquals(listOf(0x400000, 0x200000), RequestTrace.getClientIds(records))
+
+        val stream = ByteArrayOutputStream()
+        RequestTrace.writeClientStream(records, 0x400000, stream)
+        val bytes = stream.toByteArray()
+        assertEquals(12 + 8, bytes.size)
+        assertEquals('l'.code.toByte(), bytes[0])
+        assertEquals(11.toByte(), bytes[2])
+        assertEquals(ClientOpcodes.NO_OPERATION, bytes[12])
+        assertEquals(ClientOpcodes.CREATE_WINDOW, bytes[16])
+    }
+}
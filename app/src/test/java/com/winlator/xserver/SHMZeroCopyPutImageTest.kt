@@ -0,0 +1,134 @@
+package com.winlator.xserver
+
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class SHMZeroCopyPutImageTest {
+
+    private lateinit var shmSegmentManager: SHMSegmentManager
+    private lateinit var drawable: Drawable
+    private lateinit var segment: ByteBuffer
+    private var updates = 0
+
+    @Before
+    fun setUp() {
+        // Segments are handed to putImage directly, so no SysV shared memory is needed
+        shmSegmentManager = SHMSegmentManager(null)
+        drawable = Drawable(1, 64, 48, null)
+        drawable.setOnDrawListener { updates++ }
+        segment = ByteBuffer.allocateDirect(64 * 50 * 4).order(ByteOrder.LITTLE_ENDIAN)
+        for (i in 0 until segment.capacity() / 4) segment.putInt(i * 4, i)
+    }
+
+    private fun putFullFrame(target: Drawable = drawable) = shmSegmentManager.putImage(7, segment, target, 0, 0, 0, 0, 64, 48, 24, 64, 50)
+
+    private fun pixel(x: Int, y: Int, target: Drawable = drawable) = target.data.duplicate().order(ByteOrder.LITTLE_ENDIAN).getInt((y * 64 + x) * 4)
+
+    @Test
+    fun fullFrame_isCopiedByDefault() {
+        assertFalse(shmSegmentManager.isZeroCopyEnabled)
+        putFullFrame()
+        assertFalse(drawable.isAliasing(segment))
+
+        // The client may reuse the segment right after the request, the drawable keeps its frame
+        segment.putInt((5 * 64 + 3) * 4, 1234)
+        assertEquals(5 * 64 + 3, pixel(3, 5))
+
+        val stats = shmSegmentManager.stats
+        assertEquals(0, stats.aliasedPutImages)
+        assertEquals(64 * 48 * 4L, stats.copiedBytesPerFrame)
+    }
+
+    @Test
+    fun fullFrame_aliasesSegmentWithoutCopying() {
+        shmSegmentManager = SHMSegmentManager(null, true)
+        putFullFrame()
+        assertTrue(drawable.isAliasing(segment))
+        assertEquals(1, updates)
+        assertEquals(5 * 64 + 3, pixel(3, 5))
+
+        // Later frames written into the segment show up with only a damage notification
+        segment.putInt((5 * 64 + 3) * 4, 1234)
+        putFullFrame()
+        assertEquals(1234, pixel(3, 5))
+        assertEquals(2, updates)
+
+        val stats = shmSegmentManager.stats
+        assertEquals(2, stats.putImages)
+        assertEquals(2, stats.aliasedPutImages)
+        assertEquals(0, stats.copiedBytes)
+        assertEquals(64 * 48 * 4L, stats.aliasedBytesPerFrame)
+    }
+
+    @Test
+    fun mismatchedGeometry_isCopied() {
+        shmSegmentManager = SHMSegmentManager(null, true)
+        shmSegmentManager.putImage(7, segment, drawable, 0, 0, 0, 0, 32, 48, 24, 64, 50)
+        assertFalse(drawable.isAliasing(segment))
+        shmSegmentManager.putImage(7, segment, drawable, 0, 0, 0, 0, 64, 48, 24, 66, 48)
+        assertFalse(drawable.isAliasing(segment))
+
+        val stats = shmSegmentManager.stats
+        assertEquals(0, stats.aliasedPutImages)
+        assertEquals(32 * 48 * 4L + 64 * 48 * 4L, stats.copiedBytes)
+    }
+
+    @Test
+    fun drawingOnAliasedDrawable_copiesFirstAndLeavesSegmentAlone() {
+        shmSegmentManager = SHMSegmentManager(null, true)
+        putFullFrame()
+        drawable.fillRect(0, 0, 4, 4, 0x123456)
+
+        assertFalse(drawable.isAliasing(segment))
+        assertEquals(0xff123456.toInt(), pixel(1, 1))
+        assertEquals(5 * 64 + 3, pixel(3, 5))
+        assertEquals(64 + 1, segment.getInt((64 + 1) * 4))
+    }
+
+    @Test
+    fun partialPutImage_afterFullFrame_keepsPreviousFrame() {
+        putFullFrame()
+        segment.putInt(0, 99)
+        shmSegmentManager.putImage(7, segment, drawable, 0, 0, 10, 10, 4, 4, 24, 64, 50)
+
+        assertFalse(drawable.isAliasing(segment))
+        assertEquals(0, pixel(0, 0))
+        assertEquals(64 + 1, pixel(11, 11))
+    }
+
+    @Test
+    fun segmentFeedingTwoDrawables_isNeverAliased() {
+        shmSegmentManager = SHMSegmentManager(null, true)
+        val other = Drawable(2, 64, 48, null)
+        putFullFrame()
+        assertTrue(drawable.isAliasing(segment))
+
+        putFullFrame(other)
+        assertFalse(drawable.isAliasing(segment))
+        assertFalse(other.isAliasing(segment))
+
+        // Neither follows the segment any more
+        putFullFrame()
+        segment.putInt((5 * 64 + 3) * 4, 1234)
+        assertFalse(drawable.isAliasing(segment))
+        assertEquals(5 * 64 + 3, pixel(3, 5))
+        assertEquals(5 * 64 + 3, pixel(3, 5, other))
+        assertEquals(1, shmSegmentManager.stats.aliasedPutImages)
+    }
+
+    @Test
+    fun releasingWithoutCopy_restoresOwnBuffer() {
+        shmSegmentManager = SHMSegmentManager(null, true)
+        val own = drawable.data
+        putFullFrame()
+        assertNotSame(own, drawable.data)
+        drawable.releaseSharedSegment(false)
+        assertSame(own, drawable.data)
+    }
+}
@@ -0,0 +1,162 @@
+package com.winlator.xserver
+
+import com.winlator.xconnector.XOutputStream
+import com.winlator.xserver.events.Event
+import kotlin.random.Random
+import org.junit.Assert.*
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class WindowEventDispatchTest {
+
+    private class CountingListener(eventMask: Int) : EventListener(null, Bitmask(eventMask)) {
+        var received = 0
+
+        override fun sendEvent(event: Event) {
+            received++
+        }
+    }
+
+    private val event = object : Event(0) {
+        override fun send(sequenceNumber: Short, outputStream: XOutputStream) {}
+    }
+
+    private fun randomMask(random: Random): Int {
+        var mask = 0
+        repeat(random.nextInt(1, 4)) { mask = mask or (1 shl random.nextInt(25)) }
+        return mask
+    }
+
+    @Test
+    fun dispatch_matchesLinearScanAfterAddAndRemove() {
+        val random = Random(11)
+        val window = Window(1, null, 0, 0, 100, 100, null)
+        val listeners = ArrayList<CountingListener>()
+
+        repeat(500) {
+            if (listeners.isNotEmpty() && random.nextInt(3) == 0) {
+                window.removeEventListener(listeners.removeAt(random.nextInt(listeners.size)))
+            }
+            else {
+                val listener = CountingListener(randomMask(random))
+                listeners.add(listener)
+                window.addEventListener(listener)
+            }
+
+            val union = listeners.fold(0) { mask, listener -> mask or listener.eventMask.bits }
+            assertEquals(union, window.allEventMasks)
+
+            val eventId = 1 shl random.nextInt(25)
+            assertEquals(listeners.any { it.isInterestedIn(eventId) }, window.hasEventListenerFor(eventId))
+
+            val expected = listeners.map { it.received + if (it.isInterestedIn(eventId)) 1 else 0 }
+            window.sendEvent(eventId, event)
+            assertEquals(expected, listeners.map { it.received })
+
+            val mask = Bitmask(randomMask(random))
+            val expectedForMask = listeners.map { it.received + if (it.isInterestedIn(mask)) 1 else 0 }
+            window.sendEvent(mask, event)
+            assertEquals(expectedForMask, listeners.map { it.received })
+        }
+    }
+
+    @Test
+    fun buttonPressListener_isFirstInterestedListener() {
+        val window = Window(1, null, 0, 0, 100, 100, null)
+        assertNull(window.buttonPressListener)
+        val motion = CountingListener(Event.POINTER_MOTION)
+        val first = CountingListener(Event.BUTTON_PRESS or Event.KEY_PRESS)
+        val second = CountingListener(Event.BUTTON_PRESS)
+        window.addEventListener(motion)
+        window.addEventListener(first)
+        window.addEventListener(second)
+        assertSame(first, window.buttonPressListener)
+        window.removeEventListener(first)
+        assertSame(second, window.buttonPressListener)
+    }
+
+    private fun assertSameOrder(expected: List<Window>, parent: Window) {
+        assertEquals(expected, parent.children)
+        assertEquals(expected.size, parent.childCount)
+        for (i in expected.indices) {
+            assertSame(expected.getOrNull(i - 1), expected[i].previousSibling())
+            assertSame(expected.getOrNull(i + 1), expected[i].nextSibling())
+        }
+        assertSame(expected.firstOrNull(), parent.firstChild)
+        assertSame(expected.lastOrNull(), parent.lastChild)
+    }
+
+    @Test
+    fun restack_matchesListModel() {
+        val random = Random(12)
+        val parent = Window(1, null, 0, 0, 1000, 1000, null)
+        val model = ArrayList<Window>()
+        var nextId = 2
+
+        repeat(2000) {
+            when (random.nextInt(5)) {
+                0 -> {
+                    val window = Window(nextId++, null, 0, 0, 10, 10, null)
+                    parent.addChild(window)
+                    model.add(window)
+                }
+                1 -> if (model.isNotEmpty()) {
+                    val window = model.removeAt(random.nextInt(model.size))
+                    parent.removeChild(window)
+                    assertNull(window.parent)
+                }
+                2, 3 -> if (model.isNotEmpty()) {
+                    // Same semantics as the previous ArrayList based implementation
+                    val child = model[random.nextInt(model.size)]
+                    val sibling = if (random.nextInt(4) == 0) null else model[random.nextInt(model.size)]
+                    val above = random.nextBoolean()
+                    model.remove(child)
+                    val index = if (sibling != null && model.contains(sibling)) model.indexOf(sibling) else -1
+                    if (above) {
+                        if (index != -1) model.add(index + 1, child) else model.add(child)
+                        parent.moveChildAbove(child, sibling)
+                    }
+                    else {
+                        if (index != -1) model.add(index, child) else model.add(0, child)
+                        parent.moveChildBelow(child, sibling)
+                    }
+                }
+                4 -> assertSameOrder(model, parent)
+            }
+        }
+        assertSameOrder(model, parent)
+    }
+
+    @Test
+    fun fanOutOnWideWindow_reachesOnlyInterestedListeners() {
+        val window = Window(1, null, 0, 0, 100, 100, null)
+        val listeners = Array(64) { CountingListener(if (it % 16 == 0) Event.STRUCTURE_NOTIFY else Event.PROPERTY_CHANGE) }
+        listeners.forEach { window.addEventListener(it) }
+
+        val iterations = 10_000
+        for (i in 0 until iterations) window.sendEvent(Event.STRUCTURE_NOTIFY, event)
+        for (i in 0 until iterations) window.sendEvent(Event.BUTTON_PRESS, event)
+
+        listeners.forEachIndexed { i, listener -> assertEquals(if (i % 16 == 0) iterations else 0, listener.received) }
+    }
+
+    @Test
+    fun restackOnWideTree_matchesArrayListOrder() {
+        val random = Random(13)
+        val parent = Window(1, null, 0, 0, 1000, 1000, null)
+        val windows = Array(2000) { Window(it + 2, null, 0, 0, 10, 10, null).also { child -> parent.addChild(child) } }
+        val model = ArrayList(windows.toList())
+
+        repeat(20_000) {
+            val child = windows[random.nextInt(windows.size)]
+            val sibling = windows[random.nextInt(windows.size)]
+            model.remove(child)
+            val index = model.indexOf(sibling)
+            if (index != -1) model.add(index + 1, child) else model.add(child)
+            parent.moveChildAbove(child, sibling)
+        }
+        assertEquals(model, parent.children)
+    }
+}
@@ -0,0 +1,129 @@
+package com.winlator.xserver
+
+import kotlin.random.Random
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class WindowHitTestTest {
+
+    private lateinit var root: Window
+    private val allWindows = ArrayList<Window>()
+    private var nextId = 1
+
+    private fun createWindow(parent: Window?, x: Int, y: Int, width: Int, height: Int, mapped: Boolean): Window {
+        val window = Window(nextId++, null, x, y, width, height, null)
+        parent?.addChild(window)
+        window.attributes.setMapped(mapped)
+        allWindows.add(window)
+        return window
+    }
+
+    /**
+     * Synthetic Wine-like tree of 500 windows: 40 top-level frames with 10 children each, plus 59
+     * unmapped override-redirect windows (tooltips, menus, IME) directly under the root.
+     */
+    @Before
+    fun setUp() {
+        val random = Random(7)
+        root = createWindow(null, 0, 0, 1280, 720, true)
+        for (i in 0 until 40) {
+            val frame = createWindow(root, random.nextInt(-100, 1200), random.nextInt(-50, 650), random.nextInt(50, 600), random.nextInt(50, 400), random.nextInt(4) != 0)
+            for (j in 0 until 10) {
+                createWindow(frame, random.nextInt(-20, 300), random.nextInt(-20, 200), random.nextInt(10, 200), random.nextInt(10, 150), random.nextBoolean())
+            }
+        }
+        for (i in 0 until 59) {
+            createWindow(root, random.nextInt(0, 1200), random.nextInt(0, 700), random.nextInt(20, 300), random.nextInt(20, 200), false)
+        }
+        assertEquals(500, allWindows.size)
+    }
+
+    /** Same walk as WindowManager.findPointWindow. */
+    private fun findPointWindow(window: Window, x: Short, y: Short): Window? {
+        if (!(window.attributes.isMapped && window.containsPoint(x, y))) return null
+        val child = window.getChildByCoords(x, y)
+        return if (child != null) findPointWindow(child, x, y) else window
+    }
+
+    /** The previous implementation: linear scan, parent-chain walk and an array per tested child. */
+    private fun referenceContainsPoint(window: Window, rootX: Short, rootY: Short): Boolean {
+        var x = rootX
+        var y = rootY
+        var current: Window? = window
+        while (current != null) {
+            x = (x - current.x).toShort()
+            y = (y - current.y).toShort()
+            current = current.parent
+        }
+        val localPoint = shortArrayOf(x, y)
+        return localPoint[0] >= 0 && localPoint[1] >= 0 && localPoint[0] < window.width && localPoint[1] < window.height
+    }
+
+    private fun referenceFindPointWindow(window: Window, x: Short, y: Short): Window? {
+        if (!(window.attributes.isMapped && referenceContainsPoint(window, x, y))) return null
+        val children = window.children
+        for (i in children.indices.reversed()) {
+            val child = children[i]
+            if (child.attributes.isMapped && referenceContainsPoint(child, x, y)) return referenceFindPointWindow(child, x, y)
+        }
+        return window
+    }
+
+    private fun assertMatchesReference(points: Int, seed: Int) {
+        val random = Random(seed)
+        repeat(points) {
+            val x = random.nextInt(-50, 1330).toShort()
+            val y = random.nextInt(-50, 770).toShort()
+            assertSame("point $x,$y", referenceFindPointWindow(root, x, y), findPointWindow(root, x, y))
+        }
+    }
+
+    @Test
+    fun hitTest_matchesLinearScan() {
+        assertMatchesReference(20_000, 1)
+    }
+
+    @Test
+    fun hitTest_followsConfigureRestackMapAndReparent() {
+        assertMatchesReference(2_000, 2)
+        val random = Random(3)
+        val frames = root.children.toList()
+        repeat(200) {
+            val window = allWindows[random.nextInt(1, allWindows.size)]
+            when (random.nextInt(5)) {
+                0 -> {
+                    window.setX(random.nextInt(-100, 1200).toShort())
+                    window.setY(random.nextInt(-50, 650).toShort())
+                }
+                1 -> window.setWidth(random.nextInt(10, 500).toShort())
+                2 -> window.attributes.setMapped(!window.attributes.isMapped)
+                3 -> window.parent?.moveChildAbove(window, null)
+                4 -> {
+                    val newParent = frames[random.nextInt(frames.size)]
+                    if (window.childCount == 0 && newParent != window) {
+                        window.parent?.removeChild(window)
+                        newParent.addChild(window)
+                    }
+                }
+            }
+            assertMatchesReference(100, 100 + it)
+        }
+    }
+
+    @Test
+    fun absolutePosition_isInvalidatedForDescendants() {
+        val frame = root.children.first { it.childCount > 0 }
+        val child = frame.children.first()
+        val before = child.rootX
+        frame.setX((frame.x + 37).toShort())
+        assertEquals((before + 37).toShort(), child.rootX)
+
+        val point = child.localPointToRoot(5, 6)
+        assertEquals((child.rootX + 5).toShort(), Window.unpackX(point))
+        assertEquals((child.rootY + 6).toShort(), Window.unpackY(point))
+    }
+}
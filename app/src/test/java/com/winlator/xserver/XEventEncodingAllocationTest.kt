@@ -0,0 +1,160 @@
+package com.winlator.xserver
+
+import com.winlator.xconnector.XInputStream
+import com.winlator.xconnector.XOutputStream
+import com.winlator.xserver.events.Event
+import com.winlator.xserver.events.KeyPress
+import com.winlator.xserver.events.KeyRelease
+import com.winlator.xserver.events.MotionNotify
+import java.lang.management.ManagementFactory
+import java.nio.ByteBuffer
+import java.nio.ByteOrder
+import org.junit.Assert.*
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+
+@RunWith(RobolectricTestRunner::class)
+class XEventEncodingAllocationTest {
+
+    /** Stands in for the client socket, keeping the last event written without allocating. */
+    private class RecordingSink : XOutputStream.Sink {
+        val lastEvent: ByteBuffer = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN)
+        var events = 0
+
+        override fun write(data: ByteBuffer, ancillaryFd: Int) {
+            if (data.remaining() < 32) return
+            val last = data.limit() - 32
+            for (i in 0 until 32) lastEvent.put(i, data.get(last + i))
+            events += data.remaining() / 32
+            data.position(data.limit())
+        }
+    }
+
+    private lateinit var root: Window
+    private lateinit var frame: Window
+    private lateinit var client: Window
+    private lateinit var outputStream: XOutputStream
+
+    @Before
+    fun setUp() {
+        root = Window(1, null, 0, 0, 1280, 720, null)
+        frame = Window(2, null, 100, 50, 800, 600, null)
+        client = Window(3, null, 4, 24, 792, 572, null)
+        root.addChild(frame)
+        frame.addChild(client)
+        outputStream = XOutputStream(RecordingSink(), 256).apply { setByteOrder(ByteOrder.LITTLE_ENDIAN) }
+    }
+
+    @Test
+    fun packedPoints_roundTripNegativeCoordinates() {
+        val local = client.rootPointToLocal(50, 10)
+        assertEquals((50 - 104).toShort(), Window.unpackX(local))
+        assertEquals((10 - 74).toShort(), Window.unpackY(local))
+
+        val rootPoint = client.localPointToRoot(Window.unpackX(local), Window.unpackY(local))
+        assertEquals(50.toShort(), Window.unpackX(rootPoint))
+        assertEquals(10.toShort(), Window.unpackY(rootPoint))
+
+        assertTrue(client.containsPoint(104, 74))
+        assertFalse(client.containsPoint(103, 74))
+    }
+
+    private fun encodeMotionAndKeys(motionNotify: MotionNotify, keyPress: KeyPress, keyRelease: KeyRelease, i: Int) {
+        val x = (i % 1280).toShort()
+        val y = (i % 720).toShort()
+        val local = client.rootPointToLocal(x, y)
+        motionNotify.set(0, root, client, null, x, y, Window.unpackX(local), Window.unpackY(local), 0)
+        motionNotify.send(i.toShort(), outputStream)
+        if (i % 8 == 0) {
+            keyPress.set(38, root, client, null, x, y, Window.unpackX(local), Window.unpackY(local), 1)
+            keyPress.send(i.toShort(), outputStream)
+            keyRelease.set(38, root, client, null, x, y, Window.unpackX(local), Window.unpackY(local), 0)
+            keyRelease.send(i.toShort(), outputStream)
+        }
+    }
+
+    @Test
+    fun steadyStateEncoding_doesNotAllocate() {
+        val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threadMXBean != null && threadMXBean.isThreadAllocatedMemorySupported)
+        threadMXBean!!.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+
+        val motionNotify = MotionNotify()
+        val keyPress = KeyPress()
+        val keyRelease = KeyRelease()
+
+        // Warm up so the interpreter/JIT and the stream buffer reach steady state
+        repeat(50_000) { encodeMotionAndKeys(motionNotify, keyPress, keyRelease, it) }
+
+        val iterations = 100_000
+        val before = threadMXBean.getThreadAllocatedBytes(threadId)
+        for (i in 0 until iterations) encodeMotionAndKeys(motionNotify, keyPress, keyRelease, i)
+        val allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before
+
+        val events = iterations + iterations / 8 * 2
+        // Any per-event object would be at least 16 bytes per event
+        assertTrue("allocated $allocated bytes for $events events", allocated < events)
+    }
+
+    @Test
+    fun injectedInput_isDispatchedToTheClient_withoutAllocating() {
+        val xServer = XServer(ScreenInfo(1280, 720))
+        val sink = RecordingSink()
+        val client = XClient(xServer, XInputStream(64), XOutputStream(sink, 256).apply { setByteOrder(ByteOrder.LITTLE_ENDIAN) })
+        val windowId = client.resourceIDBase + 1
+        xServer.lockAll().use {
+            val rootWindow = xServer.windowManager.rootWindow
+            val window = xServer.windowManager.createWindow(windowId, rootWindow, 100, 50, 800, 600, WindowAttributes.WindowClass.INPUT_OUTPUT, null, 0, client)
+            xServer.windowManager.mapWindow(window)
+            xServer.windowManager.setFocus(window, WindowManager.FocusRevertTo.POINTER_ROOT)
+            client.setEventListenerForWindow(window, Bitmask(Event.POINTER_MOTION or Event.KEY_PRESS or Event.KEY_RELEASE))
+        }
+
+        // Without a wake-up installed the queue delivers on this thread: queue, locks, dispatch, encoding, sink
+        xServer.injectPointerMove(150, 80)
+        assertEquals(1, sink.events)
+        with(sink.lastEvent) {
+            assertEquals(6.toByte(), get(0))
+            assertEquals(windowId, getInt(12))
+            assertEquals(150.toShort(), getShort(20))
+            assertEquals(80.toShort(), getShort(22))
+            assertEquals(50.toShort(), getShort(24))
+            assertEquals(30.toShort(), getShort(26))
+        }
+
+        xServer.injectKeyPress(XKeycode.KEY_A)
+        assertEquals(2, sink.events)
+        assertEquals(2.toByte(), sink.lastEvent.get(0))
+        assertEquals(XKeycode.KEY_A.id, sink.lastEvent.get(1))
+        xServer.injectKeyRelease(XKeycode.KEY_A)
+        assertEquals(3.toByte(), sink.lastEvent.get(0))
+
+        val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+        assumeTrue(threadMXBean != null && threadMXBean.isThreadAllocatedMemorySupported)
+        threadMXBean!!.isThreadAllocatedMemoryEnabled = true
+        val threadId = Thread.currentThread().id
+
+        fun inject(i: Int) {
+            xServer.injectPointerMove(100 + i % 800, 50 + i % 600)
+            if (i % 8 == 0) {
+                xServer.injectKeyPress(XKeycode.KEY_A)
+                xServer.injectKeyRelease(XKeycode.KEY_A)
+            }
+        }
+        repeat(50_000) { inject(it) }
+
+        val iterations = 100_000
+        val eventsBefore = sink.events
+        val before = threadMXBean.getThreadAllocatedBytes(threadId)
+        for (i in 0 until iterations) inject(i)
+        val allocated = threadMXBean.getThreadAllocatedBytes(threadId) - before
+
+        val events = sink.events - eventsBefore
+        assertEquals(iterations + iterations / 8 * 2, events)
+        assertTrue("allocated $allocated bytes for $events events", allocated < events)
+    }
+}